@@ -0,0 +1,159 @@
+#!/usr/bin/env bash
+#
+# Runs the transfer-strategy benchmarks on one machine, offline once dependencies are in ~/.m2:
+#   1. JMH copy-path benchmarks (with the GC profiler for allocation rate)
+#   2. HTTP load against gateway -> student-service -> local S3 stand-in, for every
+#      object size x concurrency x gateway endpoint
+#
+# Results go to student-benchmark/target/benchmark-results/.
+#
+# Environment overrides:
+#   SIZES, CONCURRENCY, ENDPOINTS, DURATION, WARMUP  - load matrix (space separated lists, seconds)
+#   READ_RATE                                        - per-client read rate, e.g. 256KB (default 0: unlimited)
+#   SKIP_JMH=1, SKIP_LOAD=1, SKIP_BUILD=1            - run only part of the suite
+#   JMH_ARGS                                         - extra JMH arguments, e.g. "-p objectSize=1MB"
+#   SERVICE_JAVA_OPTS, GATEWAY_JAVA_OPTS             - JVM flags for the services (default -Xmx1g)
+#   SERVICE_ARGS, GATEWAY_ARGS                       - extra Spring arguments for the services
+#   MVN_ARGS                                         - extra Maven arguments, e.g. "-o" to force offline
+set -euo pipefail
+
+ROOT="$(cd "$(dirname "$0")/.." && pwd)"
+BENCH="$ROOT/student-benchmark"
+RESULTS="$BENCH/target/benchmark-results"
+STAMP="$(date +%Y%m%d-%H%M%S)"
+
+SIZES="${SIZES:-64KB 1MB 16MB 128MB}"
+CONCURRENCY="${CONCURRENCY:-1 8 32}"
+ENDPOINTS="${ENDPOINTS:-download download-bytes download-resource download-byte-array-resource}"
+DURATION="${DURATION:-30}"
+WARMUP="${WARMUP:-5}"
+READ_RATE="${READ_RATE:-0}"
+SERVICE_JAVA_OPTS="${SERVICE_JAVA_OPTS:--Xmx1g}"
+GATEWAY_JAVA_OPTS="${GATEWAY_JAVA_OPTS:--Xmx1g}"
+MVN_ARGS="${MVN_ARGS:-}"
+
+S3_PORT=9000
+SERVICE_PORT=8088
+GATEWAY_PORT=8080
+PIDS=()
+
+cleanup() {
+    for pid in "${PIDS[@]}"; do
+        kill "$pid" 2>/dev/null || true
+    done
+    wait 2>/dev/null || true
+}
+trap cleanup EXIT
+
+wait_for() {
+    local url="$1"
+    for _ in $(seq 1 120); do
+        if curl -sf -o /dev/null "$url"; then
+            return 0
+        fi
+        sleep 0.5
+    done
+    echo "Timed out waiting for $url" >&2
+    return 1
+}
+
+require_free_port() {
+    if curl -s -o /dev/null "http://localhost:$1/"; then
+        echo "Port $1 is already in use; stop whatever is listening there first" >&2
+        exit 1
+    fi
+}
+
+# Waits for a process we just started to answer on url; fails if it exited (e.g. port already in use)
+wait_started() {
+    local pid="$1" url="$2" log="$3"
+    wait_for "$url"
+    if ! kill -0 "$pid" 2>/dev/null; then
+        echo "Process $pid exited during startup, see $log" >&2
+        exit 1
+    fi
+}
+
+stop_pid() {
+    kill "$1" 2>/dev/null || true
+    wait "$1" 2>/dev/null || true
+}
+
+if [[ -z "${SKIP_BUILD:-}" ]]; then
+    (cd "$ROOT/student-common-lib" && mvn -B -q $MVN_ARGS install -DskipTests)
+    (cd "$ROOT/student-service" && mvn -B -q $MVN_ARGS package -DskipTests)
+    (cd "$ROOT/student-webui-service" && mvn -B -q $MVN_ARGS package -DskipTests)
+    (cd "$BENCH" && mvn -B -q $MVN_ARGS package -DskipTests)
+fi
+
+mkdir -p "$RESULTS"
+JAR="$BENCH/target/benchmarks.jar"
+
+if [[ -z "${SKIP_JMH:-}" ]]; then
+    echo "== JMH copy paths"
+    java -jar "$JAR" TransferStrategyBenchmark -prof gc \
+        -rf json -rff "$RESULTS/jmh-$STAMP.json" ${JMH_ARGS:-} | tee "$RESULTS/jmh-$STAMP.txt"
+fi
+
+if [[ -z "${SKIP_LOAD:-}" ]]; then
+    CSV="$RESULTS/load-$STAMP.csv"
+    LOGS="$RESULTS/logs-$STAMP"
+    mkdir -p "$LOGS"
+
+    for port in "$S3_PORT" "$SERVICE_PORT" "$GATEWAY_PORT"; do
+        require_free_port "$port"
+    done
+
+    java -cp "$JAR" com.student.benchmark.s3.LocalS3Server "$S3_PORT" > "$LOGS/s3.log" 2>&1 &
+    s3_pid=$!
+    PIDS+=($s3_pid)
+    wait_started "$s3_pid" "http://localhost:$S3_PORT/bench/1B.bin" "$LOGS/s3.log"
+
+    for size in $SIZES; do
+        echo "== Load: object size $size"
+        # Disk cache, block cache and request coalescing off, so every request travels all hops
+        AWS_ACCESS_KEY_ID=benchmark AWS_SECRET_ACCESS_KEY=benchmark \
+            java $SERVICE_JAVA_OPTS -jar "$ROOT/student-service/target/student-service-1.0.0.jar" \
+            --server.port="$SERVICE_PORT" \
+            --aws.s3.endpoint="http://localhost:$S3_PORT" \
+            --aws.s3.file-key="bench/$size.bin" \
+            --cache.disk.enabled=false \
+            --single-flight.enabled=false \
+            --logging.level.com.student=WARN \
+            ${SERVICE_ARGS:-} > "$LOGS/service-$size.log" 2>&1 &
+        service_pid=$!
+        PIDS+=($service_pid)
+
+        java $GATEWAY_JAVA_OPTS -jar "$ROOT/student-webui-service/target/student-webui-service-1.0.0.jar" \
+            --server.port="$GATEWAY_PORT" \
+            --student.service.url="http://localhost:$SERVICE_PORT" \
+            --single-flight.enabled=false \
+            --block-cache.enabled=false \
+            --logging.level.com.student=WARN \
+            ${GATEWAY_ARGS:-} > "$LOGS/gateway-$size.log" 2>&1 &
+        gateway_pid=$!
+        PIDS+=($gateway_pid)
+
+        wait_started "$service_pid" "http://localhost:$SERVICE_PORT/actuator/health" "$LOGS/service-$size.log"
+        wait_started "$gateway_pid" "http://localhost:$GATEWAY_PORT/actuator/health" "$LOGS/gateway-$size.log"
+
+        for concurrency in $CONCURRENCY; do
+            for endpoint in $ENDPOINTS; do
+                java -cp "$JAR" com.student.benchmark.load.LoadDriver \
+                    --url="http://localhost:$GATEWAY_PORT/api/files/$endpoint" \
+                    --metrics-url="http://localhost:$GATEWAY_PORT/actuator/metrics" \
+                    --concurrency="$concurrency" \
+                    --warmup="$WARMUP" \
+                    --duration="$DURATION" \
+                    --read-rate="$READ_RATE" \
+                    --label="$endpoint/$size" \
+                    --csv="$CSV" | tail -n 1 || echo "$endpoint/$size x$concurrency: no successful requests"
+            done
+        done
+
+        stop_pid "$gateway_pid"
+        stop_pid "$service_pid"
+    done
+
+    echo "Load results: $CSV"
+fi
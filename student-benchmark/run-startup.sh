@@ -0,0 +1,163 @@
+#!/usr/bin/env bash
+#
+# Builds both services with the fast-startup profile (Spring AOT), lays each out for AppCDS with a training run,
+# and measures startup-to-first-byte of the plain jar against the AOT + CDS layout, with and without warm-up.
+# Offline once dependencies are in ~/.m2.
+#
+# For each service, target/fast-startup/ ends up with:
+#   app.jar, lib/   - the application classes (AOT-processed) and dependencies, unpacked from the Boot jar
+#   app.jsa         - the CDS archive of the classes loaded while the context starts
+#   start.sh        - starts the service from them: start.sh [--spring.arg=value ...]
+#
+# Results go to student-benchmark/target/benchmark-results/startup-<stamp>.csv. Times run from process start
+# to readiness (/actuator/health/readiness) and to the first byte of a download requested once ready.
+#
+# Environment overrides:
+#   RUNS                                 - measurements per variant (default 3)
+#   SERVICE_JAVA_OPTS, GATEWAY_JAVA_OPTS - JVM flags for the services (default -Xmx1g)
+#   SKIP_BUILD=1                         - reuse the jars and layouts from a previous run
+#   MVN_ARGS                             - extra Maven arguments, e.g. "-o" to force offline
+set -euo pipefail
+
+ROOT="$(cd "$(dirname "$0")/.." && pwd)"
+BENCH="$ROOT/student-benchmark"
+RESULTS="$BENCH/target/benchmark-results"
+STAMP="$(date +%Y%m%d-%H%M%S)"
+
+RUNS="${RUNS:-3}"
+SERVICE_JAVA_OPTS="${SERVICE_JAVA_OPTS:--Xmx1g}"
+GATEWAY_JAVA_OPTS="${GATEWAY_JAVA_OPTS:--Xmx1g}"
+MVN_ARGS="${MVN_ARGS:-}"
+
+S3_PORT=9000
+SERVICE_PORT=8088
+GATEWAY_PORT=8080
+PIDS=()
+
+cleanup() {
+    for pid in "${PIDS[@]}"; do
+        kill "$pid" 2>/dev/null || true
+    done
+    wait 2>/dev/null || true
+}
+trap cleanup EXIT
+
+wait_for() {
+    local url="$1"
+    for _ in $(seq 1 120); do
+        if curl -sf -o /dev/null "$url"; then
+            return 0
+        fi
+        sleep 0.5
+    done
+    echo "Timed out waiting for $url" >&2
+    return 1
+}
+
+require_free_port() {
+    if curl -s -o /dev/null "http://localhost:$1/"; then
+        echo "Port $1 is already in use; stop whatever is listening there first" >&2
+        exit 1
+    fi
+}
+
+# Unpacks a Boot jar into target/fast-startup and records a CDS archive while the context starts once
+layout() {
+    local module="$1" java_opts="$2"
+    local target="$ROOT/$module/target"
+    local dir="$target/fast-startup"
+    local main_class
+    main_class="$(unzip -p "$target/$module-1.0.0.jar" META-INF/MANIFEST.MF | sed -n 's/^Start-Class: *//p' | tr -d '\r')"
+
+    rm -rf "$dir" && mkdir -p "$dir/unpacked"
+    (cd "$dir/unpacked" && jar xf "$target/$module-1.0.0.jar" BOOT-INF/lib)
+    mv "$dir/unpacked/BOOT-INF/lib" "$dir/lib" && rm -rf "$dir/unpacked"
+    cp "$target/$module-1.0.0.jar.original" "$dir/app.jar"
+
+    # CDS only accepts the exact class path it was recorded with, so spell it out once for both runs
+    local classpath="app.jar"
+    for jar in $(cd "$dir" && ls lib/*.jar | sort); do
+        classpath="$classpath:$jar"
+    done
+
+    cat > "$dir/start.sh" <<EOF
+#!/usr/bin/env bash
+cd "\$(dirname "\$0")"
+exec java \$JAVA_OPTS -XX:SharedArchiveFile=app.jsa -Dspring.aot.enabled=true -cp "$classpath" $main_class "\$@"
+EOF
+    chmod +x "$dir/start.sh"
+
+    # spring.context.exit=onRefresh stops right after the context has started, before any warm-up or traffic
+    (cd "$dir" && AWS_ACCESS_KEY_ID=benchmark AWS_SECRET_ACCESS_KEY=benchmark \
+        java $java_opts -XX:ArchiveClassesAtExit=app.jsa -Dspring.aot.enabled=true -Dspring.context.exit=onRefresh \
+            -cp "$classpath" "$main_class" --server.port=0 > "$dir/training.log" 2>&1)
+    echo "$module: $(du -h "$dir/app.jsa" | cut -f1) CDS archive in $dir"
+}
+
+if [[ -z "${SKIP_BUILD:-}" ]]; then
+    (cd "$ROOT/student-common-lib" && mvn -B -q $MVN_ARGS install -DskipTests)
+    (cd "$ROOT/student-service" && mvn -B -q $MVN_ARGS clean package -DskipTests -Pfast-startup)
+    (cd "$ROOT/student-webui-service" && mvn -B -q $MVN_ARGS clean package -DskipTests -Pfast-startup)
+    (cd "$BENCH" && mvn -B -q $MVN_ARGS package -DskipTests)
+
+    layout student-service "$SERVICE_JAVA_OPTS"
+    layout student-webui-service "$GATEWAY_JAVA_OPTS"
+fi
+
+mkdir -p "$RESULTS"
+JAR="$BENCH/target/benchmarks.jar"
+CSV="$RESULTS/startup-$STAMP.csv"
+LOGS="$RESULTS/logs-$STAMP"
+mkdir -p "$LOGS"
+
+for port in "$S3_PORT" "$SERVICE_PORT" "$GATEWAY_PORT"; do
+    require_free_port "$port"
+done
+
+java -cp "$JAR" com.student.benchmark.s3.LocalS3Server "$S3_PORT" > "$LOGS/s3.log" 2>&1 &
+PIDS+=($!)
+wait_for "http://localhost:$S3_PORT/bench/1B.bin"
+
+export AWS_ACCESS_KEY_ID=benchmark AWS_SECRET_ACCESS_KEY=benchmark
+
+# Disk cache off, so the first download really goes to S3
+SERVICE_ARGS=(--server.port="$SERVICE_PORT" --aws.s3.endpoint="http://localhost:$S3_PORT"
+    --aws.s3.file-key=bench/1MB.bin --cache.disk.enabled=false --logging.level.com.student=WARN)
+GATEWAY_ARGS=(--server.port="$GATEWAY_PORT" --student.service.url="http://localhost:$SERVICE_PORT"
+    --logging.level.com.student=WARN)
+
+# time_startup <label> <port> <command...>
+time_startup() {
+    local label="$1" port="$2"
+    shift 2
+    for run in $(seq 1 "$RUNS"); do
+        java -cp "$JAR" com.student.benchmark.startup.StartupTimer \
+            --url="http://localhost:$port/api/files/download" \
+            --ready-url="http://localhost:$port/actuator/health/readiness" \
+            --log="$LOGS/${label//\//-}.log" \
+            --label="$label" \
+            --csv="$CSV" -- "$@" | tail -n 1
+    done
+}
+
+echo "== student-service"
+SERVICE_START="$ROOT/student-service/target/fast-startup/start.sh"
+time_startup service/jar "$SERVICE_PORT" \
+    java $SERVICE_JAVA_OPTS -jar "$ROOT/student-service/target/student-service-1.0.0.jar" "${SERVICE_ARGS[@]}"
+JAVA_OPTS="$SERVICE_JAVA_OPTS" time_startup service/aot-cds "$SERVICE_PORT" "$SERVICE_START" "${SERVICE_ARGS[@]}"
+JAVA_OPTS="$SERVICE_JAVA_OPTS" time_startup service/aot-cds-warm-up "$SERVICE_PORT" \
+    "$SERVICE_START" "${SERVICE_ARGS[@]}" --warm-up.enabled=true
+
+echo "== student-webui-service (student-service already running)"
+JAVA_OPTS="$SERVICE_JAVA_OPTS" "$SERVICE_START" "${SERVICE_ARGS[@]}" > "$LOGS/service.log" 2>&1 &
+PIDS+=($!)
+wait_for "http://localhost:$SERVICE_PORT/actuator/health/readiness"
+
+GATEWAY_START="$ROOT/student-webui-service/target/fast-startup/start.sh"
+time_startup gateway/jar "$GATEWAY_PORT" \
+    java $GATEWAY_JAVA_OPTS -jar "$ROOT/student-webui-service/target/student-webui-service-1.0.0.jar" "${GATEWAY_ARGS[@]}"
+JAVA_OPTS="$GATEWAY_JAVA_OPTS" time_startup gateway/aot-cds "$GATEWAY_PORT" "$GATEWAY_START" "${GATEWAY_ARGS[@]}"
+JAVA_OPTS="$GATEWAY_JAVA_OPTS" time_startup gateway/aot-cds-warm-up "$GATEWAY_PORT" \
+    "$GATEWAY_START" "${GATEWAY_ARGS[@]}" --warm-up.enabled=true
+
+echo "Startup results: $CSV"
@@ -0,0 +1,149 @@
+package com.student.benchmark.jmh;
+
+import com.student.benchmark.s3.SyntheticContent;
+import com.student.common.transfer.StreamRelay;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.core.io.ByteArrayResource;
+import org.springframework.core.io.InputStreamResource;
+import org.springframework.core.io.Resource;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpOutputMessage;
+import org.springframework.http.MediaType;
+import org.springframework.http.converter.ByteArrayHttpMessageConverter;
+import org.springframework.http.converter.ResourceHttpMessageConverter;
+import org.springframework.util.unit.DataSize;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The copy path behind each gateway download strategy ({@code FileGatewayController} and
+ * {@code BytesGatewayController}), from an upstream body to the response, without any network: streaming (through
+ * the pooled {@link StreamRelay}, and plain {@code transferTo} for reference), {@code byte[]},
+ * {@code InputStreamResource} and {@code ByteArrayResource}, the last three written by the same Spring converters
+ * the gateway uses.
+ * <p>
+ * Run with {@code -prof gc} to see the allocation rate per strategy.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xms1g", "-Xmx1g"})
+public class TransferStrategyBenchmark {
+
+    /**
+     * Upper bound on bytes per upstream read, roughly what a socket read returns.
+     */
+    private static final int SOCKET_READ_SIZE = 16 * 1024;
+
+    @Param({"64KB", "1MB", "16MB", "128MB"})
+    public String objectSize;
+
+    private long size;
+    private final ByteArrayHttpMessageConverter byteArrayConverter = new ByteArrayHttpMessageConverter();
+    private final ResourceHttpMessageConverter resourceConverter = new ResourceHttpMessageConverter();
+    private final DiscardingOutputMessage response = new DiscardingOutputMessage();
+    private final StreamRelay streamRelay = new StreamRelay(64 * 1024, 16, 1024 * 1024, 200, new SimpleMeterRegistry());
+
+    @Setup
+    public void setUp() {
+        size = DataSize.parse(objectSize).toBytes();
+    }
+
+    private InputStream upstream() {
+        return SyntheticContent.open(size, SOCKET_READ_SIZE);
+    }
+
+    @Benchmark
+    public long streaming() throws IOException {
+        try (InputStream inputStream = upstream()) {
+            return streamRelay.relay(inputStream, response.getBody());
+        }
+    }
+
+    @Benchmark
+    public long streamingTransferTo() throws IOException {
+        try (InputStream inputStream = upstream()) {
+            return inputStream.transferTo(response.getBody());
+        }
+    }
+
+    @Benchmark
+    public long byteArray() throws IOException {
+        byte[] data;
+        try (InputStream inputStream = upstream()) {
+            data = inputStream.readAllBytes();
+        }
+        byteArrayConverter.write(data, MediaType.APPLICATION_OCTET_STREAM, response.reset());
+        return response.written;
+    }
+
+    @Benchmark
+    public long inputStreamResource() throws IOException {
+        Resource resource = new InputStreamResource(upstream());
+        resourceConverter.write(resource, MediaType.APPLICATION_OCTET_STREAM, response.reset());
+        return response.written;
+    }
+
+    @Benchmark
+    public long byteArrayResource() throws IOException {
+        byte[] data;
+        try (InputStream inputStream = upstream()) {
+            data = inputStream.readAllBytes();
+        }
+        resourceConverter.write(new ByteArrayResource(data), MediaType.APPLICATION_OCTET_STREAM, response.reset());
+        return response.written;
+    }
+
+    /**
+     * Response stand-in that counts and drops the body.
+     */
+    private static class DiscardingOutputMessage implements HttpOutputMessage {
+
+        private HttpHeaders headers = new HttpHeaders();
+        private long written;
+
+        private final OutputStream body = new OutputStream() {
+            @Override
+            public void write(int b) {
+                written++;
+            }
+
+            @Override
+            public void write(byte[] buffer, int offset, int length) {
+                written += length;
+            }
+        };
+
+        DiscardingOutputMessage reset() {
+            headers = new HttpHeaders();
+            written = 0;
+            return this;
+        }
+
+        @Override
+        public OutputStream getBody() {
+            return body;
+        }
+
+        @Override
+        public HttpHeaders getHeaders() {
+            return headers;
+        }
+    }
+}
@@ -0,0 +1,337 @@
+package com.student.benchmark.load;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Closed-loop HTTP load driver: {@code concurrency} workers each issue GETs back to back, reading and
+ * discarding the full body, for {@code warmup} and then {@code duration}. Only requests started after the
+ * warm-up are measured.
+ * <p>
+ * When {@code --metrics-url} points at an actuator metrics endpoint, the target JVM's allocation rate
+ * ({@code jvm.gc.memory.allocated}), peak heap ({@code jvm.memory.used}, sampled) and peak number of responses
+ * being written ({@code transfer.in.flight}, sampled) are reported too.
+ * <p>
+ * {@code --read-rate} (bytes per second per worker, e.g. {@code 256KB}) makes every worker a slow client, so
+ * transfers stay open and the peak in flight shows how many concurrent downloads the target sustains.
+ * <p>
+ * Redirects are followed, so with student-service's {@code aws.s3.redirect.enabled} the body is timed as it comes
+ * straight from the S3 stand-in.
+ * <p>
+ * Usage: {@code java -cp benchmarks.jar com.student.benchmark.load.LoadDriver --url=... [--concurrency=8]
+ * [--duration=30] [--warmup=5] [--timeout=60] [--read-rate=0] [--metrics-url=http://localhost:8080/actuator/metrics]
+ * [--label=...] [--csv=file]}
+ */
+public class LoadDriver {
+
+    private static final String CSV_HEADER = "label,url,concurrency,requests,errors,requests_per_sec,mb_per_sec,"
+            + "ttfb_p50_ms,ttfb_p99_ms,latency_p50_ms,latency_p99_ms,alloc_mb_per_sec,peak_heap_mb,peak_in_flight";
+    private static final Pattern MEASUREMENT = Pattern.compile("\"statistic\":\"(?:COUNT|VALUE)\",\"value\":([-0-9.E+]+)");
+
+    private final URI url;
+    private final int concurrency;
+    private final Duration warmup;
+    private final Duration duration;
+    private final String metricsUrl;
+    private final Duration timeout;
+    private final long readRate;
+    private final HttpClient httpClient;
+
+    LoadDriver(URI url, int concurrency, Duration warmup, Duration duration, Duration timeout, long readRate,
+               String metricsUrl) {
+        this.url = url;
+        this.concurrency = concurrency;
+        this.warmup = warmup;
+        this.duration = duration;
+        this.timeout = timeout;
+        this.readRate = readRate;
+        this.metricsUrl = metricsUrl;
+        this.httpClient = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_1_1)
+                .connectTimeout(Duration.ofSeconds(10))
+                .followRedirects(HttpClient.Redirect.NORMAL)
+                .executor(Executors.newFixedThreadPool(Math.max(4, concurrency)))
+                .build();
+    }
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = new HashMap<>();
+        for (String arg : args) {
+            int equals = arg.indexOf('=');
+            if (!arg.startsWith("--") || equals < 0) {
+                throw new IllegalArgumentException("Expected --name=value, got " + arg);
+            }
+            options.put(arg.substring(2, equals), arg.substring(equals + 1));
+        }
+        if (!options.containsKey("url")) {
+            throw new IllegalArgumentException("--url is required");
+        }
+
+        LoadDriver driver = new LoadDriver(
+                URI.create(options.get("url")),
+                Integer.parseInt(options.getOrDefault("concurrency", "8")),
+                Duration.ofSeconds(Long.parseLong(options.getOrDefault("warmup", "5"))),
+                Duration.ofSeconds(Long.parseLong(options.getOrDefault("duration", "30"))),
+                Duration.ofSeconds(Long.parseLong(options.getOrDefault("timeout", "60"))),
+                parseBytes(options.getOrDefault("read-rate", "0")),
+                options.get("metrics-url"));
+        Result result = driver.run();
+
+        String label = options.getOrDefault("label", driver.url.getPath());
+        String row = result.toCsv(label, driver.url, driver.concurrency);
+        System.out.println(CSV_HEADER);
+        System.out.println(row);
+
+        String csv = options.get("csv");
+        if (csv != null) {
+            Path path = Path.of(csv);
+            if (!Files.exists(path)) {
+                Files.writeString(path, CSV_HEADER + System.lineSeparator(), StandardCharsets.UTF_8);
+            }
+            Files.writeString(path, row + System.lineSeparator(), StandardCharsets.UTF_8, StandardOpenOption.APPEND);
+        }
+        System.exit(result.requests() > 0 ? 0 : 1);
+    }
+
+    /**
+     * Parses a byte count with an optional {@code KB}, {@code MB} or {@code GB} suffix (binary multiples).
+     */
+    static long parseBytes(String value) {
+        String upper = value.trim().toUpperCase(Locale.ROOT);
+        long multiplier = 1;
+        if (upper.endsWith("KB")) {
+            multiplier = 1024;
+        } else if (upper.endsWith("MB")) {
+            multiplier = 1024 * 1024;
+        } else if (upper.endsWith("GB")) {
+            multiplier = 1024 * 1024 * 1024;
+        }
+        String digits = multiplier == 1 ? upper.replace("B", "") : upper.substring(0, upper.length() - 2);
+        return Long.parseLong(digits.trim()) * multiplier;
+    }
+
+    record Result(long requests, long errors, long bytes, double seconds,
+                  long[] ttfbNanos, long[] latencyNanos, double allocatedBytes, double peakHeapBytes,
+                  long peakInFlight) {
+
+        String toCsv(String label, URI url, int concurrency) {
+            return String.format(Locale.ROOT, "%s,%s,%d,%d,%d,%.1f,%.1f,%.2f,%.2f,%.2f,%.2f,%.1f,%.1f,%s",
+                    label, url, concurrency, requests, errors,
+                    requests / seconds, bytes / 1_048_576.0 / seconds,
+                    percentileMillis(ttfbNanos, 0.50), percentileMillis(ttfbNanos, 0.99),
+                    percentileMillis(latencyNanos, 0.50), percentileMillis(latencyNanos, 0.99),
+                    allocatedBytes < 0 ? Double.NaN : allocatedBytes / 1_048_576.0 / seconds,
+                    peakHeapBytes < 0 ? Double.NaN : peakHeapBytes / 1_048_576.0,
+                    peakInFlight < 0 ? "NaN" : Long.toString(peakInFlight));
+        }
+
+        private static double percentileMillis(long[] sortedNanos, double percentile) {
+            if (sortedNanos.length == 0) {
+                return Double.NaN;
+            }
+            int index = (int) Math.ceil(percentile * sortedNanos.length) - 1;
+            return sortedNanos[Math.max(0, index)] / 1e6;
+        }
+    }
+
+    Result run() throws Exception {
+        long measureFrom = System.nanoTime() + warmup.toNanos();
+        long measureUntil = measureFrom + duration.toNanos();
+
+        ExecutorService workers = Executors.newFixedThreadPool(concurrency);
+        List<Future<Samples>> futures = new ArrayList<>();
+        for (int i = 0; i < concurrency; i++) {
+            futures.add(workers.submit(() -> work(measureFrom, measureUntil)));
+        }
+
+        sleepUntil(measureFrom);
+        double allocatedBefore = readMetric("jvm.gc.memory.allocated");
+        HeapSampler heapSampler = new HeapSampler();
+        Thread samplerThread = new Thread(heapSampler, "heap-sampler");
+        samplerThread.setDaemon(true);
+        samplerThread.start();
+
+        Samples total = new Samples();
+        for (Future<Samples> future : futures) {
+            total.add(future.get());
+        }
+        double seconds = (Math.max(System.nanoTime(), measureUntil) - measureFrom) / 1e9;
+        heapSampler.stop.set(true);
+        samplerThread.join();
+        double allocatedAfter = readMetric("jvm.gc.memory.allocated");
+        workers.shutdown();
+
+        long[] ttfb = total.ttfb.toArray();
+        long[] latency = total.latency.toArray();
+        Arrays.sort(ttfb);
+        Arrays.sort(latency);
+        return new Result(latency.length, total.errors, total.bytes, seconds, ttfb, latency,
+                allocatedBefore < 0 || allocatedAfter < 0 ? -1 : allocatedAfter - allocatedBefore,
+                heapSampler.peak.get() == 0 ? -1 : heapSampler.peak.get(),
+                heapSampler.peakInFlight.get());
+    }
+
+    private Samples work(long measureFrom, long measureUntil) {
+        Samples samples = new Samples();
+        byte[] buffer = new byte[64 * 1024];
+        int chunk = readRate > 0 ? (int) Math.min(buffer.length, readRate) : buffer.length;
+        HttpRequest request = HttpRequest.newBuilder(url).timeout(timeout).GET().build();
+
+        while (true) {
+            long started = System.nanoTime();
+            if (started >= measureUntil) {
+                return samples;
+            }
+            boolean measured = started >= measureFrom;
+            try {
+                HttpResponse<InputStream> response = httpClient.send(request, HttpResponse.BodyHandlers.ofInputStream());
+                long firstByte = System.nanoTime();
+                long bytes = 0;
+                try (InputStream body = response.body()) {
+                    int read;
+                    while ((read = body.read(buffer, 0, chunk)) != -1) {
+                        bytes += read;
+                        if (readRate > 0) {
+                            sleepUntil(firstByte + bytes * 1_000_000_000L / readRate);
+                        }
+                    }
+                }
+                long finished = System.nanoTime();
+                if (!measured) {
+                    continue;
+                }
+                if (response.statusCode() / 100 != 2) {
+                    samples.errors++;
+                    continue;
+                }
+                samples.bytes += bytes;
+                samples.ttfb.add(firstByte - started);
+                samples.latency.add(finished - started);
+            } catch (IOException e) {
+                if (measured) {
+                    samples.errors++;
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return samples;
+            }
+        }
+    }
+
+    /**
+     * Reads a single-valued meter from the actuator, or -1 when metrics are not available.
+     */
+    private double readMetric(String nameAndTags) {
+        if (metricsUrl == null) {
+            return -1;
+        }
+        try {
+            HttpRequest request = HttpRequest.newBuilder(URI.create(metricsUrl + "/" + nameAndTags))
+                    .timeout(Duration.ofSeconds(5))
+                    .GET()
+                    .build();
+            String body = httpClient.send(request, HttpResponse.BodyHandlers.ofString()).body();
+            Matcher matcher = MEASUREMENT.matcher(body);
+            return matcher.find() ? Double.parseDouble(matcher.group(1)) : -1;
+        } catch (IOException e) {
+            return -1;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return -1;
+        }
+    }
+
+    private static void sleepUntil(long deadline) throws InterruptedException {
+        long remaining = deadline - System.nanoTime();
+        if (remaining > 0) {
+            TimeUnit.NANOSECONDS.sleep(remaining);
+        }
+    }
+
+    private class HeapSampler implements Runnable {
+
+        private final AtomicBoolean stop = new AtomicBoolean();
+        private final AtomicLong peak = new AtomicLong();
+        private final AtomicLong peakInFlight = new AtomicLong(-1);
+
+        @Override
+        public void run() {
+            while (!stop.get()) {
+                double used = readMetric("jvm.memory.used?tag=area:heap");
+                if (used > 0) {
+                    peak.accumulateAndGet((long) used, Math::max);
+                }
+                double inFlight = readMetric("transfer.in.flight");
+                if (inFlight >= 0) {
+                    peakInFlight.accumulateAndGet((long) inFlight, Math::max);
+                }
+                try {
+                    TimeUnit.MILLISECONDS.sleep(250);
+                } catch (InterruptedException e) {
+                    return;
+                }
+            }
+        }
+    }
+
+    private static class Samples {
+
+        private final LongList ttfb = new LongList();
+        private final LongList latency = new LongList();
+        private long bytes;
+        private long errors;
+
+        void add(Samples other) {
+            ttfb.addAll(other.ttfb);
+            latency.addAll(other.latency);
+            bytes += other.bytes;
+            errors += other.errors;
+        }
+    }
+
+    private static class LongList {
+
+        private long[] values = new long[1024];
+        private int size;
+
+        void add(long value) {
+            if (size == values.length) {
+                values = Arrays.copyOf(values, size * 2);
+            }
+            values[size++] = value;
+        }
+
+        void addAll(LongList other) {
+            for (int i = 0; i < other.size; i++) {
+                add(other.values[i]);
+            }
+        }
+
+        long[] toArray() {
+            return Arrays.copyOf(values, size);
+        }
+    }
+}
@@ -0,0 +1,120 @@
+package com.student.benchmark.s3;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.springframework.http.HttpRange;
+import org.springframework.util.unit.DataSize;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Minimal path-style S3 stand-in for benchmarks: answers {@code HEAD} and {@code GET /<bucket>/<key>} for any
+ * key ending in a size, e.g. {@code bench/16MB.bin}, with {@link SyntheticContent} of that size. Supports a
+ * single {@code Range}, {@code If-Match} and {@code If-None-Match}, which is all student-service sends.
+ * <p>
+ * Usage: {@code java -cp benchmarks.jar com.student.benchmark.s3.LocalS3Server [port] [threads]}
+ */
+public class LocalS3Server {
+
+    private static final Pattern SIZED_KEY = Pattern.compile("/[^/]+/(?:.*/)?(\\d+(?:B|KB|MB|GB))\\.[^/]*");
+    private static final Instant LAST_MODIFIED = Instant.parse("2024-01-01T00:00:00Z");
+
+    public static void main(String[] args) throws IOException {
+        int port = args.length > 0 ? Integer.parseInt(args[0]) : 9000;
+        int threads = args.length > 1 ? Integer.parseInt(args[1]) : 128;
+
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        HttpServer server = HttpServer.create(new InetSocketAddress(port), 1024);
+        server.setExecutor(executor);
+        server.createContext("/", LocalS3Server::handle);
+        server.start();
+        System.out.println("Local S3 stand-in listening on port " + port);
+    }
+
+    private static void handle(HttpExchange exchange) throws IOException {
+        try (exchange) {
+            String method = exchange.getRequestMethod();
+            Matcher matcher = SIZED_KEY.matcher(exchange.getRequestURI().getPath());
+            if (!matcher.matches() || !(method.equals("GET") || method.equals("HEAD"))) {
+                sendError(exchange, 404, "NoSuchKey");
+                return;
+            }
+
+            long size = DataSize.parse(matcher.group(1)).toBytes();
+            String eTag = "\"synthetic-" + size + "\"";
+            var requestHeaders = exchange.getRequestHeaders();
+            var responseHeaders = exchange.getResponseHeaders();
+
+            String ifMatch = requestHeaders.getFirst("If-Match");
+            if (ifMatch != null && !ifMatch.equals(eTag)) {
+                sendError(exchange, 412, "PreconditionFailed");
+                return;
+            }
+
+            responseHeaders.set("ETag", eTag);
+            responseHeaders.set("Last-Modified", DateTimeFormatter.RFC_1123_DATE_TIME.format(LAST_MODIFIED.atZone(ZoneOffset.UTC)));
+            responseHeaders.set("Content-Type", "application/octet-stream");
+            responseHeaders.set("Accept-Ranges", "bytes");
+
+            if (eTag.equals(requestHeaders.getFirst("If-None-Match"))) {
+                exchange.sendResponseHeaders(304, -1);
+                return;
+            }
+
+            long start = 0;
+            long length = size;
+            int status = 200;
+            String range = requestHeaders.getFirst("Range");
+            if (range != null) {
+                List<HttpRange> ranges = HttpRange.parseRanges(range);
+                long rangeStart = ranges.get(0).getRangeStart(size);
+                if (ranges.size() != 1 || rangeStart >= size) {
+                    responseHeaders.set("Content-Range", "bytes */" + size);
+                    sendError(exchange, 416, "InvalidRange");
+                    return;
+                }
+                start = rangeStart;
+                length = ranges.get(0).getRangeEnd(size) - start + 1;
+                status = 206;
+                responseHeaders.set("Content-Range", "bytes " + start + "-" + (start + length - 1) + "/" + size);
+            }
+
+            responseHeaders.set("Content-Length", Long.toString(length));
+            if (method.equals("HEAD")) {
+                // JDK 17's HttpServer drops the connection after a HEAD whose Content-Length isn't 0, so tell the
+                // client not to reuse it; otherwise its next request on it fails
+                responseHeaders.set("Connection", "close");
+                exchange.sendResponseHeaders(status, -1);
+                return;
+            }
+            exchange.sendResponseHeaders(status, length);
+            try (OutputStream body = exchange.getResponseBody()) {
+                SyntheticContent.write(body, start, length);
+            }
+        } catch (IOException | RuntimeException e) {
+            // Client went away mid-body (e.g. a cancelled part); nothing left to answer
+        }
+    }
+
+    private static void sendError(HttpExchange exchange, int status, String code) throws IOException {
+        byte[] body = ("<Error><Code>" + code + "</Code></Error>").getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/xml");
+        if (exchange.getRequestMethod().equals("HEAD")) {
+            exchange.sendResponseHeaders(status, -1);
+            return;
+        }
+        exchange.sendResponseHeaders(status, body.length);
+        exchange.getResponseBody().write(body);
+    }
+}
@@ -0,0 +1,65 @@
+package com.student.benchmark.s3;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * Deterministic object content that needs no storage: the byte at offset {@code p} is {@code p % 251}.
+ * Any range can be produced from one shared block, so objects of any size cost nothing to serve.
+ */
+public final class SyntheticContent {
+
+    private static final int PERIOD = 251;
+    private static final byte[] BLOCK = new byte[PERIOD * 256];
+
+    static {
+        for (int i = 0; i < BLOCK.length; i++) {
+            BLOCK[i] = (byte) (i % PERIOD);
+        }
+    }
+
+    private SyntheticContent() {
+    }
+
+    public static void write(OutputStream outputStream, long start, long length) throws IOException {
+        long position = start;
+        long end = start + length;
+        while (position < end) {
+            int offset = (int) (position % PERIOD);
+            int count = (int) Math.min(end - position, BLOCK.length - offset);
+            outputStream.write(BLOCK, offset, count);
+            position += count;
+        }
+    }
+
+    /**
+     * A stream of {@code length} bytes that returns at most {@code maxRead} bytes per read, like a socket.
+     */
+    public static InputStream open(long length, int maxRead) {
+        return new InputStream() {
+
+            private long position;
+
+            @Override
+            public int read() {
+                return position < length ? BLOCK[(int) (position++ % PERIOD)] & 0xFF : -1;
+            }
+
+            @Override
+            public int read(byte[] buffer, int offset, int count) {
+                if (count == 0) {
+                    return 0;
+                }
+                if (position >= length) {
+                    return -1;
+                }
+                int blockOffset = (int) (position % PERIOD);
+                int read = (int) Math.min(Math.min(count, maxRead), Math.min(length - position, BLOCK.length - blockOffset));
+                System.arraycopy(BLOCK, blockOffset, buffer, offset, read);
+                position += read;
+                return read;
+            }
+        };
+    }
+}
@@ -0,0 +1,179 @@
+package com.student.benchmark.startup;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Launches a service and measures how long it takes, from process start, until it reports ready and until
+ * the first byte of a real download arrives. When a readiness URL is given, the download is only requested
+ * once it answers 200, as a load balancer would; otherwise the download URL is polled until it succeeds.
+ * The service is stopped afterwards.
+ * <p>
+ * Usage: {@code java -cp benchmarks.jar com.student.benchmark.startup.StartupTimer --url=...
+ * [--ready-url=http://localhost:8088/actuator/health/readiness] [--timeout=120] [--log=file] [--label=...]
+ * [--csv=file] -- java -jar student-service.jar ...}
+ */
+public class StartupTimer {
+
+    private static final String CSV_HEADER = "label,ready_ms,first_byte_ms,first_request_ms";
+    private static final long POLL_MILLIS = 10;
+
+    private final URI url;
+    private final URI readyUrl;
+    private final Duration timeout;
+    private final HttpClient httpClient = HttpClient.newBuilder()
+            .version(HttpClient.Version.HTTP_1_1)
+            .connectTimeout(Duration.ofSeconds(1))
+            .build();
+
+    StartupTimer(URI url, URI readyUrl, Duration timeout) {
+        this.url = url;
+        this.readyUrl = readyUrl;
+        this.timeout = timeout;
+    }
+
+    public static void main(String[] args) throws Exception {
+        int separator = Arrays.asList(args).indexOf("--");
+        if (separator < 0 || separator == args.length - 1) {
+            throw new IllegalArgumentException("Expected the command to launch after --");
+        }
+        Map<String, String> options = new HashMap<>();
+        for (String arg : Arrays.copyOfRange(args, 0, separator)) {
+            int equals = arg.indexOf('=');
+            if (!arg.startsWith("--") || equals < 0) {
+                throw new IllegalArgumentException("Expected --name=value, got " + arg);
+            }
+            options.put(arg.substring(2, equals), arg.substring(equals + 1));
+        }
+        if (!options.containsKey("url")) {
+            throw new IllegalArgumentException("--url is required");
+        }
+        List<String> command = List.of(Arrays.copyOfRange(args, separator + 1, args.length));
+
+        StartupTimer timer = new StartupTimer(
+                URI.create(options.get("url")),
+                options.containsKey("ready-url") ? URI.create(options.get("ready-url")) : null,
+                Duration.ofSeconds(Long.parseLong(options.getOrDefault("timeout", "120"))));
+
+        ProcessBuilder processBuilder = new ProcessBuilder(command).redirectErrorStream(true);
+        String log = options.get("log");
+        processBuilder.redirectOutput(log != null
+                ? ProcessBuilder.Redirect.appendTo(Path.of(log).toFile())
+                : ProcessBuilder.Redirect.DISCARD);
+
+        Result result;
+        long started = System.nanoTime();
+        Process process = processBuilder.start();
+        try {
+            result = timer.measure(process, started);
+        } finally {
+            process.destroy();
+            if (!process.waitFor(30, TimeUnit.SECONDS)) {
+                process.destroyForcibly();
+            }
+        }
+
+        String row = result.toCsv(options.getOrDefault("label", command.get(command.size() - 1)));
+        System.out.println(CSV_HEADER);
+        System.out.println(row);
+
+        String csv = options.get("csv");
+        if (csv != null) {
+            Path path = Path.of(csv);
+            if (!Files.exists(path)) {
+                Files.writeString(path, CSV_HEADER + System.lineSeparator(), StandardCharsets.UTF_8);
+            }
+            Files.writeString(path, row + System.lineSeparator(), StandardCharsets.UTF_8, StandardOpenOption.APPEND);
+        }
+    }
+
+    /**
+     * Times are from process start; {@code firstRequestNanos} is the download request alone.
+     */
+    record Result(long readyNanos, long firstByteNanos, long firstRequestNanos) {
+
+        String toCsv(String label) {
+            return String.format(Locale.ROOT, "%s,%s,%.1f,%.1f", label,
+                    readyNanos < 0 ? "NaN" : String.format(Locale.ROOT, "%.1f", readyNanos / 1e6),
+                    firstByteNanos / 1e6, firstRequestNanos / 1e6);
+        }
+    }
+
+    private Result measure(Process process, long started) throws IOException, InterruptedException {
+        long deadline = started + timeout.toNanos();
+        long ready = -1;
+        if (readyUrl != null) {
+            while (!succeeds(readyUrl)) {
+                pause(process, deadline, readyUrl);
+            }
+            ready = System.nanoTime() - started;
+        }
+
+        while (true) {
+            long requested = System.nanoTime();
+            Long firstByte = firstByte();
+            if (firstByte != null) {
+                return new Result(ready, firstByte - started, firstByte - requested);
+            }
+            pause(process, deadline, url);
+        }
+    }
+
+    private boolean succeeds(URI uri) throws InterruptedException {
+        try {
+            HttpResponse<Void> response = httpClient.send(HttpRequest.newBuilder(uri).timeout(timeout).GET().build(),
+                    HttpResponse.BodyHandlers.discarding());
+            return response.statusCode() == 200;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * GETs the download, reads its first body byte and returns when it arrived, or {@code null} on failure.
+     * The rest of the body is drained so the service isn't left writing to a closed connection.
+     */
+    private Long firstByte() throws InterruptedException {
+        try {
+            HttpResponse<InputStream> response = httpClient.send(
+                    HttpRequest.newBuilder(url).timeout(timeout).GET().build(), HttpResponse.BodyHandlers.ofInputStream());
+            try (InputStream body = response.body()) {
+                if (response.statusCode() / 100 != 2 || body.read() < 0) {
+                    return null;
+                }
+                long firstByte = System.nanoTime();
+                body.transferTo(OutputStream.nullOutputStream());
+                return firstByte;
+            }
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    private static void pause(Process process, long deadline, URI waitingFor) throws InterruptedException {
+        if (!process.isAlive()) {
+            throw new IllegalStateException("Process exited with " + process.exitValue() + " before " + waitingFor
+                    + " answered");
+        }
+        if (System.nanoTime() > deadline) {
+            throw new IllegalStateException("Timed out waiting for " + waitingFor);
+        }
+        TimeUnit.MILLISECONDS.sleep(POLL_MILLIS);
+    }
+}
@@ -0,0 +1,62 @@
+package com.student.common.config;
+
+import com.student.common.transfer.BandwidthEndpoint;
+import com.student.common.transfer.BandwidthFilter;
+import com.student.common.transfer.BandwidthShaper;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.AutoConfiguration;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.boot.web.servlet.FilterRegistrationBean;
+import org.springframework.context.annotation.Bean;
+import org.springframework.core.Ordered;
+import org.springframework.util.unit.DataSize;
+
+import java.util.List;
+
+@AutoConfiguration(afterName = "org.springframework.boot.actuate.autoconfigure.metrics.CompositeMeterRegistryAutoConfiguration")
+@ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.SERVLET)
+@ConditionalOnProperty(prefix = "bandwidth", name = "enabled", havingValue = "true")
+public class BandwidthAutoConfiguration {
+
+    @Value("${bandwidth.url-patterns}")
+    private List<String> urlPatterns;
+
+    @Value("${bandwidth.client-header:X-API-Key}")
+    private String clientHeader;
+
+    @Value("${bandwidth.client-rate:0}")
+    private DataSize clientRate;
+
+    @Value("${bandwidth.client-burst:4MB}")
+    private DataSize clientBurst;
+
+    @Value("${bandwidth.total-rate:0}")
+    private DataSize totalRate;
+
+    @Value("${bandwidth.weights:}")
+    private String weights;
+
+    @Bean
+    public BandwidthShaper bandwidthShaper(MeterRegistry meterRegistry) {
+        return new BandwidthShaper(clientRate.toBytes(), clientBurst.toBytes(), totalRate.toBytes(),
+                BandwidthShaper.parseWeights(weights), meterRegistry);
+    }
+
+    @Bean
+    public BandwidthEndpoint bandwidthEndpoint(BandwidthShaper bandwidthShaper) {
+        return new BandwidthEndpoint(bandwidthShaper);
+    }
+
+    @Bean
+    public FilterRegistrationBean<BandwidthFilter> bandwidthFilter(BandwidthShaper bandwidthShaper) {
+        FilterRegistrationBean<BandwidthFilter> registration =
+                new FilterRegistrationBean<>(new BandwidthFilter(bandwidthShaper, clientHeader));
+        registration.setUrlPatterns(urlPatterns);
+        registration.setAsyncSupported(true);
+        // Inside the transfer metrics filter, so its throughput shows the shaped rate
+        registration.setOrder(Ordered.HIGHEST_PRECEDENCE + 2);
+        return registration;
+    }
+}
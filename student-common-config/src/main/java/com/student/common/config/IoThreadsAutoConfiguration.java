@@ -0,0 +1,19 @@
+package com.student.common.config;
+
+import com.student.common.transfer.IoThreads;
+import org.springframework.boot.autoconfigure.AutoConfiguration;
+import org.springframework.boot.autoconfigure.thread.Threading;
+import org.springframework.context.annotation.Bean;
+import org.springframework.core.env.Environment;
+
+@AutoConfiguration
+public class IoThreadsAutoConfiguration {
+
+    /**
+     * Follows Spring Boot's own switch, so Tomcat, the MVC async executor and these pools change together.
+     */
+    @Bean
+    public IoThreads ioThreads(Environment environment) {
+        return new IoThreads(Threading.VIRTUAL.isActive(environment));
+    }
+}
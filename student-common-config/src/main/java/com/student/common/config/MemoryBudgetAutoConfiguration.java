@@ -0,0 +1,44 @@
+package com.student.common.config;
+
+import com.student.common.transfer.MemoryBudget;
+import com.student.common.transfer.MemoryBudgetFilter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.AutoConfiguration;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.boot.web.servlet.FilterRegistrationBean;
+import org.springframework.context.annotation.Bean;
+import org.springframework.util.unit.DataSize;
+
+import java.time.Duration;
+
+@AutoConfiguration(afterName = "org.springframework.boot.actuate.autoconfigure.metrics.CompositeMeterRegistryAutoConfiguration")
+@ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.SERVLET)
+public class MemoryBudgetAutoConfiguration {
+
+    @Value("${memory-budget.capacity:256MB}")
+    private DataSize capacity;
+
+    @Value("${memory-budget.streaming-threshold:32MB}")
+    private DataSize streamingThreshold;
+
+    @Value("${memory-budget.max-queued:16}")
+    private int maxQueued;
+
+    @Value("${memory-budget.max-wait:2s}")
+    private Duration maxWait;
+
+    @Value("${memory-budget.retry-after:5s}")
+    private Duration retryAfter;
+
+    @Bean
+    public MemoryBudget memoryBudget(MeterRegistry meterRegistry) {
+        return new MemoryBudget(capacity.toBytes(), streamingThreshold.toBytes(), maxQueued,
+                maxWait, retryAfter, meterRegistry);
+    }
+
+    @Bean
+    public FilterRegistrationBean<MemoryBudgetFilter> memoryBudgetFilter(MemoryBudget memoryBudget) {
+        return new FilterRegistrationBean<>(new MemoryBudgetFilter(memoryBudget));
+    }
+}
@@ -1,22 +1,181 @@
 package com.student.common.config;
 
+import com.student.common.http.AdaptiveConcurrencyLimit;
+import com.student.common.http.ConcurrencyLimitingRequestFactory;
+import com.student.common.http.LoadBalancingRequestFactory;
+import com.student.common.http.MeteredPoolingConnectionManager;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.hc.client5.http.config.ConnectionConfig;
+import org.apache.hc.client5.http.config.RequestConfig;
+import org.apache.hc.client5.http.impl.classic.CloseableHttpClient;
+import org.apache.hc.client5.http.impl.classic.HttpClients;
+import org.apache.hc.core5.util.Timeout;
+import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.autoconfigure.AutoConfiguration;
 import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.context.annotation.Bean;
+import org.springframework.http.client.ClientHttpRequestFactory;
+import org.springframework.http.client.HttpComponentsClientHttpRequestFactory;
+import org.springframework.http.client.JdkClientHttpRequestFactory;
 import org.springframework.web.client.RestClient;
 
-@AutoConfiguration
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.time.Duration;
+import java.util.List;
+
+@Slf4j
+@AutoConfiguration(afterName = "org.springframework.boot.actuate.autoconfigure.metrics.CompositeMeterRegistryAutoConfiguration")
 @ConditionalOnProperty(prefix = "student.service", name = "url")
 public class RestClientAutoConfiguration {
 
+    /**
+     * {@code HTTP1}: pooled HTTP/1.1 connections, one in-flight request each. {@code H2C}: cleartext HTTP/2,
+     * where concurrent requests are multiplexed as flow-controlled streams over a single connection. The JDK
+     * client exposes no connection or stream counts, so {@code H2C} publishes no pool meters; requests in flight
+     * are only measured by the concurrency limits ({@code upstream.concurrency.in.flight}).
+     */
+    public enum Transport { HTTP1, H2C }
+
     @Value("${student.service.url}")
     private String studentServiceUrl;
 
+    @Value("${student.service.instances:}")
+    private List<URI> instances;
+
+    @Value("${student.service.client.load-balancing.max-failures:3}")
+    private int maxFailures;
+
+    @Value("${student.service.client.load-balancing.ejection-time:30s}")
+    private Duration ejectionTime;
+
+    @Value("${student.service.client.load-balancing.retries:1}")
+    private int retries;
+
+    @Value("${student.service.client.transport:http1}")
+    private Transport transport;
+
+    @Value("${student.service.client.max-connections:200}")
+    private int maxConnections;
+
+    @Value("${student.service.client.max-connections-per-route:100}")
+    private int maxConnectionsPerRoute;
+
+    @Value("${student.service.client.connect-timeout:5s}")
+    private Duration connectTimeout;
+
+    @Value("${student.service.client.lease-timeout:30s}")
+    private Duration leaseTimeout;
+
+    @Value("${student.service.client.response-timeout:10m}")
+    private Duration responseTimeout;
+
+    @Value("${student.service.client.concurrency-limit.enabled:true}")
+    private boolean concurrencyLimitEnabled;
+
+    @Value("${student.service.client.concurrency-limit.transfer.initial:20}")
+    private int transferInitialLimit;
+
+    @Value("${student.service.client.concurrency-limit.transfer.min:4}")
+    private int transferMinLimit;
+
+    @Value("${student.service.client.concurrency-limit.transfer.max:80}")
+    private int transferMaxLimit;
+
+    @Value("${student.service.client.concurrency-limit.metadata.initial:10}")
+    private int metadataInitialLimit;
+
+    @Value("${student.service.client.concurrency-limit.metadata.min:2}")
+    private int metadataMinLimit;
+
+    @Value("${student.service.client.concurrency-limit.metadata.max:20}")
+    private int metadataMaxLimit;
+
+    @Value("${student.service.client.concurrency-limit.tolerance:2.0}")
+    private double concurrencyLimitTolerance;
+
+    @Value("${student.service.client.concurrency-limit.backoff:0.9}")
+    private double concurrencyLimitBackoff;
+
+    @Value("${student.service.client.concurrency-limit.retry-after:1s}")
+    private Duration concurrencyLimitRetryAfter;
+
+    /**
+     * The one transport to student-service, shared by every {@link RestClient} that calls it, spread over
+     * {@code student.service.instances} when set, and behind the adaptive concurrency limits unless
+     * {@code student.service.client.concurrency-limit.enabled} is false.
+     */
+    @Bean
+    public ClientHttpRequestFactory studentServiceRequestFactory(MeterRegistry meterRegistry) {
+        ClientHttpRequestFactory requestFactory = transportRequestFactory(meterRegistry);
+        if (!instances.isEmpty()) {
+            requestFactory = new LoadBalancingRequestFactory(requestFactory, "student-service", instances,
+                    maxFailures, ejectionTime, retries, meterRegistry);
+        }
+        if (!concurrencyLimitEnabled) {
+            return requestFactory;
+        }
+        AdaptiveConcurrencyLimit transferLimit = new AdaptiveConcurrencyLimit("student-service", "transfer",
+                transferInitialLimit, transferMinLimit, transferMaxLimit,
+                concurrencyLimitTolerance, concurrencyLimitBackoff, meterRegistry);
+        AdaptiveConcurrencyLimit metadataLimit = new AdaptiveConcurrencyLimit("student-service", "metadata",
+                metadataInitialLimit, metadataMinLimit, metadataMaxLimit,
+                concurrencyLimitTolerance, concurrencyLimitBackoff, meterRegistry);
+        return new ConcurrencyLimitingRequestFactory(requestFactory, transferLimit, metadataLimit,
+                concurrencyLimitRetryAfter);
+    }
+
+    private ClientHttpRequestFactory transportRequestFactory(MeterRegistry meterRegistry) {
+        if (transport == Transport.H2C) {
+            if (concurrencyLimitEnabled) {
+                log.info("h2c transport to student-service has no connection pool to meter: "
+                        + "requests in flight are reported as upstream.concurrency.in.flight");
+            } else {
+                log.warn("h2c transport to student-service has no connection pool to meter and the concurrency "
+                        + "limit is disabled: nothing reports requests in flight");
+            }
+            HttpClient httpClient = HttpClient.newBuilder()
+                    .version(HttpClient.Version.HTTP_2)
+                    .connectTimeout(connectTimeout)
+                    .build();
+            JdkClientHttpRequestFactory requestFactory = new JdkClientHttpRequestFactory(httpClient);
+            requestFactory.setReadTimeout(responseTimeout);
+            return requestFactory;
+        }
+
+        MeteredPoolingConnectionManager connectionManager =
+                new MeteredPoolingConnectionManager("student-service", meterRegistry);
+        connectionManager.setMaxTotal(maxConnections);
+        connectionManager.setDefaultMaxPerRoute(maxConnectionsPerRoute);
+        connectionManager.setDefaultConnectionConfig(ConnectionConfig.custom()
+                .setConnectTimeout(Timeout.of(connectTimeout))
+                .build());
+
+        RequestConfig requestConfig = RequestConfig.custom()
+                .setConnectionRequestTimeout(Timeout.of(leaseTimeout))
+                .setResponseTimeout(Timeout.of(responseTimeout))
+                .build();
+
+        // Encoded bodies are relayed as they are: no implicit Accept-Encoding, no decompression. Redirects (to
+        // presigned S3 URLs) are passed on to the client rather than followed
+        CloseableHttpClient httpClient = HttpClients.custom()
+                .setConnectionManager(connectionManager)
+                .setDefaultRequestConfig(requestConfig)
+                .disableContentCompression()
+                .disableRedirectHandling()
+                .build();
+
+        return new HttpComponentsClientHttpRequestFactory(httpClient);
+    }
+
     @Bean
-    public RestClient restClient(RestClient.Builder builder) {
+    public RestClient restClient(RestClient.Builder builder,
+                                 @Qualifier("studentServiceRequestFactory") ClientHttpRequestFactory requestFactory) {
         return builder
                 .baseUrl(studentServiceUrl)
+                .requestFactory(requestFactory)
                 .build();
     }
 }
@@ -0,0 +1,28 @@
+package com.student.common.config;
+
+import com.student.common.transfer.IoThreads;
+import com.student.common.transfer.SingleFlight;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.AutoConfiguration;
+import org.springframework.context.annotation.Bean;
+import org.springframework.util.unit.DataSize;
+
+import java.nio.file.Path;
+
+@AutoConfiguration
+public class SingleFlightAutoConfiguration {
+
+    @Value("${single-flight.enabled:true}")
+    private boolean enabled;
+
+    @Value("${single-flight.spool-directory:${java.io.tmpdir}/single-flight}")
+    private Path spoolDirectory;
+
+    @Value("${single-flight.max-spool-size:1GB}")
+    private DataSize maxSpoolSize;
+
+    @Bean
+    public SingleFlight singleFlight(IoThreads ioThreads) {
+        return new SingleFlight(enabled, spoolDirectory, maxSpoolSize.toBytes(), ioThreads);
+    }
+}
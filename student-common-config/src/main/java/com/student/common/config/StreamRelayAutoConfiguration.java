@@ -0,0 +1,32 @@
+package com.student.common.config;
+
+import com.student.common.transfer.StreamRelay;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.AutoConfiguration;
+import org.springframework.context.annotation.Bean;
+import org.springframework.util.unit.DataSize;
+
+import java.time.Duration;
+
+@AutoConfiguration(afterName = "org.springframework.boot.actuate.autoconfigure.metrics.CompositeMeterRegistryAutoConfiguration")
+public class StreamRelayAutoConfiguration {
+
+    @Value("${relay.buffer-size:64KB}")
+    private DataSize bufferSize;
+
+    @Value("${relay.max-pooled-buffers:256}")
+    private int maxPooledBuffers;
+
+    @Value("${relay.flush-threshold:1MB}")
+    private DataSize flushThreshold;
+
+    @Value("${relay.flush-interval:200ms}")
+    private Duration flushInterval;
+
+    @Bean
+    public StreamRelay streamRelay(MeterRegistry meterRegistry) {
+        return new StreamRelay(Math.toIntExact(bufferSize.toBytes()), maxPooledBuffers,
+                flushThreshold.toBytes(), flushInterval.toMillis(), meterRegistry);
+    }
+}
@@ -0,0 +1,41 @@
+package com.student.common.config;
+
+import com.student.common.transfer.TransferMetrics;
+import com.student.common.transfer.TransferMetricsFilter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.AutoConfiguration;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.boot.web.servlet.FilterRegistrationBean;
+import org.springframework.context.annotation.Bean;
+import org.springframework.core.Ordered;
+
+import java.util.List;
+
+@AutoConfiguration(afterName = "org.springframework.boot.actuate.autoconfigure.metrics.CompositeMeterRegistryAutoConfiguration")
+@ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.SERVLET)
+@ConditionalOnProperty(prefix = "transfer-metrics", name = "url-patterns")
+public class TransferMetricsAutoConfiguration {
+
+    @Value("${transfer-metrics.url-patterns}")
+    private List<String> urlPatterns;
+
+    @Bean
+    public TransferMetrics transferMetrics(MeterRegistry meterRegistry) {
+        List<String> endpoints = urlPatterns.stream()
+                .map(pattern -> pattern.substring(pattern.lastIndexOf('/') + 1))
+                .toList();
+        return new TransferMetrics(endpoints, meterRegistry);
+    }
+
+    @Bean
+    public FilterRegistrationBean<TransferMetricsFilter> transferMetricsFilter(TransferMetrics transferMetrics) {
+        FilterRegistrationBean<TransferMetricsFilter> registration =
+                new FilterRegistrationBean<>(new TransferMetricsFilter(transferMetrics));
+        registration.setUrlPatterns(urlPatterns);
+        registration.setAsyncSupported(true);
+        registration.setOrder(Ordered.HIGHEST_PRECEDENCE + 1);
+        return registration;
+    }
+}
@@ -0,0 +1,105 @@
+package com.student.common.http;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * How many calls of one kind may be in flight to an upstream, adapted to what it can take (AIMD on latency).
+ * <p>
+ * Every answer is compared with a slowly moving average of past ones: an answer more than {@code tolerance}
+ * times slower, a 503/429 or an I/O error means the upstream is queueing, and the limit is multiplied by
+ * {@code backoff}, at most once per average round trip. Any other answer received while at least half the limit
+ * was in use raises it by {@code 1/limit}, so about one per limit's worth of answers. The limit stays within
+ * {@code min..max}.
+ * <p>
+ * Calls over the limit are refused at once rather than queued, so an overloaded upstream shows up as fast 503s
+ * instead of requests waiting for minutes.
+ */
+@Slf4j
+public class AdaptiveConcurrencyLimit {
+
+    private static final double BASELINE_WEIGHT = 0.05;
+
+    private final String name;
+    private final int minLimit;
+    private final int maxLimit;
+    private final double tolerance;
+    private final double backoff;
+
+    private double limit;
+    private int inFlight;
+    private double baselineNanos;
+    private long lastDecrease;
+
+    private final Counter rejected;
+
+    public AdaptiveConcurrencyLimit(String upstream, String name, int initialLimit, int minLimit, int maxLimit,
+                                    double tolerance, double backoff, MeterRegistry meterRegistry) {
+        this.name = name;
+        this.minLimit = minLimit;
+        this.maxLimit = maxLimit;
+        this.tolerance = tolerance;
+        this.backoff = backoff;
+        this.limit = Math.max(minLimit, Math.min(maxLimit, initialLimit));
+
+        Gauge.builder("upstream.concurrency.limit", this, AdaptiveConcurrencyLimit::limit)
+                .tag("httpclient", upstream).tag("class", name).register(meterRegistry);
+        Gauge.builder("upstream.concurrency.in.flight", this, AdaptiveConcurrencyLimit::inFlight)
+                .tag("httpclient", upstream).tag("class", name).register(meterRegistry);
+        this.rejected = Counter.builder("upstream.concurrency.rejected")
+                .tag("httpclient", upstream).tag("class", name).register(meterRegistry);
+    }
+
+    /**
+     * Takes a place if one is free. Returns the number in flight before this call, to pass to {@link #release},
+     * or {@code -1} when the call must be refused.
+     */
+    public synchronized int tryAcquire() {
+        if (inFlight >= (int) limit) {
+            rejected.increment();
+            return -1;
+        }
+        return inFlight++;
+    }
+
+    /**
+     * Gives the place back. {@code latencyNanos} is how long the upstream took to answer and {@code overloaded}
+     * whether the answer itself signalled overload; a negative latency records nothing (e.g. the call was
+     * abandoned before an answer).
+     */
+    public synchronized void release(int inFlightBefore, long latencyNanos, boolean overloaded) {
+        inFlight--;
+        if (latencyNanos < 0) {
+            return;
+        }
+
+        if (baselineNanos == 0) {
+            baselineNanos = latencyNanos;
+        }
+        boolean slow = latencyNanos > baselineNanos * tolerance;
+        baselineNanos += (latencyNanos - baselineNanos) * BASELINE_WEIGHT;
+
+        long now = System.nanoTime();
+        if (overloaded || slow) {
+            if (now - lastDecrease >= baselineNanos) {
+                lastDecrease = now;
+                double previous = limit;
+                limit = Math.max(minLimit, limit * backoff);
+                log.debug("Concurrency limit {}: {} -> {} ({})", name, (int) previous, (int) limit,
+                        overloaded ? "overloaded" : "slow answer");
+            }
+        } else if (inFlightBefore * 2 >= (int) limit) {
+            limit = Math.min(maxLimit, limit + 1 / limit);
+        }
+    }
+
+    private synchronized double limit() {
+        return (int) limit;
+    }
+
+    private synchronized double inFlight() {
+        return inFlight;
+    }
+}
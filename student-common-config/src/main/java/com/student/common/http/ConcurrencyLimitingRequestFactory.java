@@ -0,0 +1,187 @@
+package com.student.common.http;
+
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.HttpStatusCode;
+import org.springframework.http.StreamingHttpOutputMessage;
+import org.springframework.http.client.ClientHttpRequest;
+import org.springframework.http.client.ClientHttpRequestFactory;
+import org.springframework.http.client.ClientHttpResponse;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URI;
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Puts every request through an {@link AdaptiveConcurrencyLimit}: {@code HEAD} requests through the
+ * {@code metadata} one, everything else through the {@code transfer} one, so long streaming transfers can't
+ * starve the short metadata calls. A request over its limit fails with {@link ConcurrencyLimitExceededException}
+ * before anything is sent.
+ * <p>
+ * The place is held until the response body is closed, so a streamed download counts for as long as it runs;
+ * the latency fed to the limit is the time to the response headers. Request bodies keep streaming: unlike a
+ * {@code ClientHttpRequestInterceptor}, this does not buffer them.
+ */
+public class ConcurrencyLimitingRequestFactory implements ClientHttpRequestFactory {
+
+    private final ClientHttpRequestFactory delegate;
+    private final AdaptiveConcurrencyLimit transferLimit;
+    private final AdaptiveConcurrencyLimit metadataLimit;
+    private final Duration retryAfter;
+
+    public ConcurrencyLimitingRequestFactory(ClientHttpRequestFactory delegate, AdaptiveConcurrencyLimit transferLimit,
+                                             AdaptiveConcurrencyLimit metadataLimit, Duration retryAfter) {
+        this.delegate = delegate;
+        this.transferLimit = transferLimit;
+        this.metadataLimit = metadataLimit;
+        this.retryAfter = retryAfter;
+    }
+
+    @Override
+    public ClientHttpRequest createRequest(URI uri, HttpMethod httpMethod) throws IOException {
+        AdaptiveConcurrencyLimit limit = HttpMethod.HEAD.equals(httpMethod) ? metadataLimit : transferLimit;
+        return new LimitedRequest(delegate.createRequest(uri, httpMethod), limit);
+    }
+
+    private final class LimitedRequest implements ClientHttpRequest, StreamingHttpOutputMessage {
+
+        private final ClientHttpRequest request;
+        private final AdaptiveConcurrencyLimit limit;
+
+        LimitedRequest(ClientHttpRequest request, AdaptiveConcurrencyLimit limit) {
+            this.request = request;
+            this.limit = limit;
+        }
+
+        @Override
+        public ClientHttpResponse execute() throws IOException {
+            int inFlightBefore = limit.tryAcquire();
+            if (inFlightBefore < 0) {
+                throw new ConcurrencyLimitExceededException(
+                        "Too many concurrent requests to " + request.getURI().getHost(), retryAfter);
+            }
+
+            long started = System.nanoTime();
+            ClientHttpResponse response;
+            boolean overloaded;
+            try {
+                response = request.execute();
+                HttpStatusCode status = response.getStatusCode();
+                overloaded = status.value() == HttpStatus.SERVICE_UNAVAILABLE.value()
+                        || status.value() == HttpStatus.TOO_MANY_REQUESTS.value();
+            } catch (IOException | RuntimeException e) {
+                limit.release(inFlightBefore, System.nanoTime() - started, true);
+                throw e;
+            }
+            return new LimitedResponse(response, limit, inFlightBefore, System.nanoTime() - started, overloaded);
+        }
+
+        @Override
+        public void setBody(Body body) {
+            if (request instanceof StreamingHttpOutputMessage streamingRequest) {
+                streamingRequest.setBody(body);
+            } else {
+                try {
+                    body.writeTo(request.getBody());
+                } catch (IOException e) {
+                    throw new IllegalStateException("Failed to write the request body", e);
+                }
+            }
+        }
+
+        @Override
+        public OutputStream getBody() throws IOException {
+            return request.getBody();
+        }
+
+        @Override
+        public HttpMethod getMethod() {
+            return request.getMethod();
+        }
+
+        @Override
+        public URI getURI() {
+            return request.getURI();
+        }
+
+        @Override
+        public HttpHeaders getHeaders() {
+            return request.getHeaders();
+        }
+    }
+
+    /**
+     * Releases the place once, when either the response or its body is closed.
+     */
+    private static final class LimitedResponse implements ClientHttpResponse {
+
+        private final ClientHttpResponse response;
+        private final AdaptiveConcurrencyLimit limit;
+        private final int inFlightBefore;
+        private final long latencyNanos;
+        private final boolean overloaded;
+        private final AtomicBoolean released = new AtomicBoolean();
+        private InputStream body;
+
+        LimitedResponse(ClientHttpResponse response, AdaptiveConcurrencyLimit limit, int inFlightBefore,
+                        long latencyNanos, boolean overloaded) {
+            this.response = response;
+            this.limit = limit;
+            this.inFlightBefore = inFlightBefore;
+            this.latencyNanos = latencyNanos;
+            this.overloaded = overloaded;
+        }
+
+        private void release() {
+            if (released.compareAndSet(false, true)) {
+                limit.release(inFlightBefore, latencyNanos, overloaded);
+            }
+        }
+
+        @Override
+        public InputStream getBody() throws IOException {
+            if (body == null) {
+                body = new FilterInputStream(response.getBody()) {
+                    @Override
+                    public void close() throws IOException {
+                        try {
+                            super.close();
+                        } finally {
+                            release();
+                        }
+                    }
+                };
+            }
+            return body;
+        }
+
+        @Override
+        public HttpStatusCode getStatusCode() throws IOException {
+            return response.getStatusCode();
+        }
+
+        @Override
+        public String getStatusText() throws IOException {
+            return response.getStatusText();
+        }
+
+        @Override
+        public HttpHeaders getHeaders() {
+            return response.getHeaders();
+        }
+
+        @Override
+        public void close() {
+            try {
+                response.close();
+            } finally {
+                release();
+            }
+        }
+    }
+}
@@ -0,0 +1,82 @@
+package com.student.common.http;
+
+import jakarta.servlet.http.HttpServletRequest;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+
+import java.time.Instant;
+
+/**
+ * Evaluation of {@code If-None-Match} / {@code If-Modified-Since} for GET and HEAD (RFC 9110, section 13).
+ * Unlike {@code WebRequest.checkNotModified}, nothing is written to the response, so callers stay free to build
+ * either the 304 or the full response with their own headers.
+ */
+public final class ConditionalRequests {
+
+    private ConditionalRequests() {
+    }
+
+    public static boolean isConditional(HttpServletRequest request) {
+        return request.getHeader(HttpHeaders.IF_NONE_MATCH) != null
+                || request.getHeader(HttpHeaders.IF_MODIFIED_SINCE) != null;
+    }
+
+    /**
+     * Whether the client's copy, described by the request's validators, is still current. {@code If-None-Match}
+     * takes precedence and is compared weakly; {@code If-Modified-Since} is only consulted without it.
+     */
+    public static boolean isNotModified(HttpServletRequest request, String eTag, Instant lastModified) {
+        String ifNoneMatch = request.getHeader(HttpHeaders.IF_NONE_MATCH);
+        if (ifNoneMatch != null) {
+            return eTag != null && matchesAny(ifNoneMatch, eTag);
+        }
+
+        if (lastModified == null) {
+            return false;
+        }
+        long ifModifiedSince;
+        try {
+            ifModifiedSince = request.getDateHeader(HttpHeaders.IF_MODIFIED_SINCE);
+        } catch (IllegalArgumentException e) {
+            return false;
+        }
+        // HTTP dates have one-second resolution
+        return ifModifiedSince >= 0 && lastModified.getEpochSecond() <= ifModifiedSince / 1000;
+    }
+
+    /**
+     * A bodiless 304 carrying the validators, as RFC 9110 requires.
+     */
+    public static <T> ResponseEntity<T> notModified(String eTag, Instant lastModified) {
+        HttpHeaders headers = new HttpHeaders();
+        setValidators(headers, eTag, lastModified);
+        return ResponseEntity.status(HttpStatus.NOT_MODIFIED)
+                .headers(headers)
+                .build();
+    }
+
+    public static void setValidators(HttpHeaders headers, String eTag, Instant lastModified) {
+        if (eTag != null) {
+            headers.setETag(eTag);
+        }
+        if (lastModified != null) {
+            headers.setLastModified(lastModified);
+        }
+    }
+
+    private static boolean matchesAny(String ifNoneMatch, String eTag) {
+        String opaqueTag = stripWeak(eTag);
+        for (String candidate : ifNoneMatch.split(",")) {
+            String trimmed = candidate.trim();
+            if (trimmed.equals("*") || stripWeak(trimmed).equals(opaqueTag)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static String stripWeak(String eTag) {
+        return eTag.startsWith("W/") ? eTag.substring(2) : eTag;
+    }
+}
@@ -0,0 +1,88 @@
+package com.student.common.http;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Opens a service's upstream connections before it reports ready: {@link #prepare} runs once (e.g. to resolve
+ * credentials), then {@code connections} calls run at the same time, so the pool holds that many connections
+ * with their TLS handshakes done. Runners finish before Spring Boot publishes {@code ReadinessState.ACCEPTING_TRAFFIC},
+ * so {@code /actuator/health/readiness} only turns UP afterwards.
+ * <p>
+ * Failures are logged and don't stop startup: an unprimed node is still better than none.
+ */
+@Slf4j
+public abstract class ConnectionWarmUp implements ApplicationRunner {
+
+    private final String upstream;
+    private final boolean enabled;
+    private final int connections;
+    private final Duration timeout;
+    private final ThreadFactory threadFactory;
+
+    protected ConnectionWarmUp(String upstream, boolean enabled, int connections, Duration timeout,
+                               ThreadFactory threadFactory) {
+        this.upstream = upstream;
+        this.enabled = enabled;
+        this.connections = connections;
+        this.timeout = timeout;
+        this.threadFactory = threadFactory;
+    }
+
+    /**
+     * Runs once before the concurrent {@link #call}s.
+     */
+    protected void prepare() throws Exception {
+    }
+
+    /**
+     * One upstream call; should be cheap, like a HEAD.
+     */
+    protected abstract void call() throws Exception;
+
+    @Override
+    public void run(ApplicationArguments args) {
+        if (!enabled) {
+            return;
+        }
+        long started = System.nanoTime();
+        ExecutorService executor = Executors.newFixedThreadPool(connections, threadFactory);
+        try {
+            prepare();
+            List<CompletableFuture<Void>> calls = new ArrayList<>();
+            for (int i = 0; i < connections; i++) {
+                calls.add(CompletableFuture.runAsync(() -> {
+                    try {
+                        call();
+                    } catch (Exception e) {
+                        throw new IllegalStateException(e.getMessage(), e);
+                    }
+                }, executor));
+            }
+            CompletableFuture.allOf(calls.toArray(CompletableFuture[]::new))
+                    .get(timeout.toMillis(), TimeUnit.MILLISECONDS);
+            log.info("Warmed up {} connection(s) to {} in {} ms", connections, upstream,
+                    TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started));
+        } catch (TimeoutException e) {
+            log.warn("Warm-up of {} did not finish within {}; reporting ready anyway", upstream, timeout);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (Exception e) {
+            Throwable cause = e.getCause() != null ? e.getCause() : e;
+            log.warn("Warm-up of {} failed; reporting ready anyway: {}", upstream, cause.getMessage());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+}
@@ -0,0 +1,327 @@
+package com.student.common.http;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatusCode;
+import org.springframework.http.StreamingHttpOutputMessage;
+import org.springframework.http.client.ClientHttpRequest;
+import org.springframework.http.client.ClientHttpRequestFactory;
+import org.springframework.http.client.ClientHttpResponse;
+
+import java.io.ByteArrayOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URI;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Spreads requests over several instances of one upstream. Each request goes to an instance picked by power of
+ * two choices: of two random instances, the one with fewer requests in flight, so a node that turns slow piles
+ * up requests and gets fewer new ones. A streamed response counts as in flight until its body is closed.
+ * <p>
+ * An I/O error or a 502/503/504 counts as a failure; {@code max-failures} in a row eject the instance for
+ * {@code ejection-time}, after which a single further failure ejects it again. If every instance is ejected,
+ * requests go to all of them anyway. A 503 with {@code Retry-After} is an instance shedding load (memory budget,
+ * concurrency limit), not a broken one: it is passed to the caller as is, neither counted nor retried, so
+ * overload doesn't eject healthy instances or multiply into more requests.
+ * <p>
+ * A request without a body that fails before its response headers is retried on another instance, up to
+ * {@code retries} times. Requests with a streamed body (uploads) are never retried, since it can't be replayed.
+ */
+@Slf4j
+public class LoadBalancingRequestFactory implements ClientHttpRequestFactory {
+
+    private final ClientHttpRequestFactory delegate;
+    private final List<Instance> instances;
+    private final int maxFailures;
+    private final long ejectionNanos;
+    private final int retries;
+    private final Counter retried;
+
+    public LoadBalancingRequestFactory(ClientHttpRequestFactory delegate, String upstream, List<URI> instanceUris,
+                                       int maxFailures, Duration ejectionTime, int retries,
+                                       MeterRegistry meterRegistry) {
+        this.delegate = delegate;
+        this.maxFailures = maxFailures;
+        this.ejectionNanos = ejectionTime.toNanos();
+        this.retries = retries;
+        this.instances = instanceUris.stream()
+                .map(uri -> new Instance(uri, upstream, meterRegistry))
+                .toList();
+        this.retried = Counter.builder("upstream.instance.retries")
+                .tag("httpclient", upstream).register(meterRegistry);
+    }
+
+    @Override
+    public ClientHttpRequest createRequest(URI uri, HttpMethod httpMethod) {
+        return new BalancedRequest(uri, httpMethod);
+    }
+
+    private final class Instance {
+
+        private final URI uri;
+        private final String name;
+        private final AtomicInteger inFlight = new AtomicInteger();
+        private final Counter ejections;
+        private int consecutiveFailures;
+        private long ejectedUntil;
+        private boolean ejected;
+
+        Instance(URI uri, String upstream, MeterRegistry meterRegistry) {
+            this.uri = uri;
+            this.name = uri.getHost() + ":" + uri.getPort();
+            Gauge.builder("upstream.instance.in.flight", inFlight, AtomicInteger::get)
+                    .tag("httpclient", upstream).tag("instance", name).register(meterRegistry);
+            Gauge.builder("upstream.instance.available", this, instance -> instance.isAvailable() ? 1 : 0)
+                    .tag("httpclient", upstream).tag("instance", name).register(meterRegistry);
+            this.ejections = Counter.builder("upstream.instance.ejections")
+                    .tag("httpclient", upstream).tag("instance", name).register(meterRegistry);
+        }
+
+        URI resolve(URI requestUri) {
+            String query = requestUri.getRawQuery();
+            return URI.create(uri.getScheme() + "://" + uri.getRawAuthority() + requestUri.getRawPath()
+                    + (query != null ? "?" + query : ""));
+        }
+
+        synchronized boolean isAvailable() {
+            return !ejected || System.nanoTime() - ejectedUntil >= 0;
+        }
+
+        synchronized void succeeded() {
+            consecutiveFailures = 0;
+            ejected = false;
+        }
+
+        synchronized void failed() {
+            if (++consecutiveFailures >= maxFailures && isAvailable()) {
+                ejected = true;
+                ejectedUntil = System.nanoTime() + ejectionNanos;
+                ejections.increment();
+                log.warn("Ejecting upstream instance {} for {} ms after {} consecutive failures", name,
+                        Duration.ofNanos(ejectionNanos).toMillis(), consecutiveFailures);
+            }
+        }
+    }
+
+    /**
+     * Power of two choices among the available instances not tried yet for this request, falling back to the
+     * ejected ones. {@code null} once every instance has been tried.
+     */
+    private Instance choose(Set<Instance> tried) {
+        List<Instance> candidates = new ArrayList<>();
+        for (Instance instance : instances) {
+            if (!tried.contains(instance) && instance.isAvailable()) {
+                candidates.add(instance);
+            }
+        }
+        if (candidates.isEmpty()) {
+            for (Instance instance : instances) {
+                if (!tried.contains(instance)) {
+                    candidates.add(instance);
+                }
+            }
+        }
+        if (candidates.size() <= 1) {
+            return candidates.isEmpty() ? null : candidates.get(0);
+        }
+
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        int first = random.nextInt(candidates.size());
+        int second = random.nextInt(candidates.size() - 1);
+        if (second >= first) {
+            second++;
+        }
+        Instance a = candidates.get(first);
+        Instance b = candidates.get(second);
+        return a.inFlight.get() <= b.inFlight.get() ? a : b;
+    }
+
+    private static boolean isUnavailable(HttpStatusCode status) {
+        int code = status.value();
+        return code == 502 || code == 503 || code == 504;
+    }
+
+    private static boolean isSheddingLoad(ClientHttpResponse response) throws IOException {
+        return response.getStatusCode().value() == 503 && response.getHeaders().containsKey(HttpHeaders.RETRY_AFTER);
+    }
+
+    /**
+     * Collects headers and body, and only creates the real request for the chosen instance on {@link #execute}.
+     */
+    private final class BalancedRequest implements ClientHttpRequest, StreamingHttpOutputMessage {
+
+        private final URI uri;
+        private final HttpMethod method;
+        private final HttpHeaders headers = new HttpHeaders();
+        private Body streamingBody;
+        private ByteArrayOutputStream bufferedBody;
+
+        BalancedRequest(URI uri, HttpMethod method) {
+            this.uri = uri;
+            this.method = method;
+        }
+
+        @Override
+        public ClientHttpResponse execute() throws IOException {
+            boolean replayable = streamingBody == null;
+            Set<Instance> tried = new HashSet<>();
+            for (int attempt = 0; ; attempt++) {
+                Instance instance = choose(tried);
+                tried.add(instance);
+                boolean canRetry = replayable && attempt < retries && tried.size() < instances.size();
+
+                ClientHttpRequest request = delegate.createRequest(instance.resolve(uri), method);
+                request.getHeaders().putAll(headers);
+                writeBody(request);
+
+                instance.inFlight.incrementAndGet();
+                ClientHttpResponse response;
+                try {
+                    response = request.execute();
+                    if (isSheddingLoad(response)) {
+                        log.debug("Upstream instance {} is shedding load, passing its 503 on", instance.name);
+                    } else if (isUnavailable(response.getStatusCode())) {
+                        instance.failed();
+                        if (canRetry) {
+                            response.close();
+                            instance.inFlight.decrementAndGet();
+                            retried.increment();
+                            log.warn("Upstream instance {} answered {}, retrying on another one", instance.name,
+                                    response.getStatusCode());
+                            continue;
+                        }
+                    } else {
+                        instance.succeeded();
+                    }
+                } catch (IOException | RuntimeException e) {
+                    instance.inFlight.decrementAndGet();
+                    instance.failed();
+                    if (!canRetry) {
+                        throw e;
+                    }
+                    retried.increment();
+                    log.warn("Upstream instance {} failed ({}), retrying on another one", instance.name, e.toString());
+                    continue;
+                }
+                return new BalancedResponse(response, instance);
+            }
+        }
+
+        private void writeBody(ClientHttpRequest request) throws IOException {
+            if (streamingBody != null) {
+                if (request instanceof StreamingHttpOutputMessage streamingRequest) {
+                    streamingRequest.setBody(streamingBody);
+                } else {
+                    streamingBody.writeTo(request.getBody());
+                }
+            } else if (bufferedBody != null) {
+                bufferedBody.writeTo(request.getBody());
+            }
+        }
+
+        @Override
+        public void setBody(Body body) {
+            this.streamingBody = body;
+        }
+
+        @Override
+        public OutputStream getBody() {
+            if (bufferedBody == null) {
+                bufferedBody = new ByteArrayOutputStream();
+            }
+            return bufferedBody;
+        }
+
+        @Override
+        public HttpMethod getMethod() {
+            return method;
+        }
+
+        @Override
+        public URI getURI() {
+            return uri;
+        }
+
+        @Override
+        public HttpHeaders getHeaders() {
+            return headers;
+        }
+    }
+
+    /**
+     * Takes the request off its instance's in-flight count once, when either the response or its body is closed.
+     */
+    private static final class BalancedResponse implements ClientHttpResponse {
+
+        private final ClientHttpResponse response;
+        private final Instance instance;
+        private final AtomicBoolean finished = new AtomicBoolean();
+        private InputStream body;
+
+        BalancedResponse(ClientHttpResponse response, Instance instance) {
+            this.response = response;
+            this.instance = instance;
+        }
+
+        private void finish() {
+            if (finished.compareAndSet(false, true)) {
+                instance.inFlight.decrementAndGet();
+            }
+        }
+
+        @Override
+        public InputStream getBody() throws IOException {
+            if (body == null) {
+                body = new FilterInputStream(response.getBody()) {
+                    @Override
+                    public void close() throws IOException {
+                        try {
+                            super.close();
+                        } finally {
+                            finish();
+                        }
+                    }
+                };
+            }
+            return body;
+        }
+
+        @Override
+        public HttpStatusCode getStatusCode() throws IOException {
+            return response.getStatusCode();
+        }
+
+        @Override
+        public String getStatusText() throws IOException {
+            return response.getStatusText();
+        }
+
+        @Override
+        public HttpHeaders getHeaders() {
+            return response.getHeaders();
+        }
+
+        @Override
+        public void close() {
+            try {
+                response.close();
+            } finally {
+                finish();
+            }
+        }
+    }
+}
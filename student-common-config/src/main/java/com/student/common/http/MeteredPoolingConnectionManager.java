@@ -0,0 +1,65 @@
+package com.student.common.http;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.binder.httpcomponents.hc5.PoolingHttpClientConnectionManagerMetricsBinder;
+import org.apache.hc.client5.http.HttpRoute;
+import org.apache.hc.client5.http.impl.io.PoolingHttpClientConnectionManager;
+import org.apache.hc.client5.http.io.ConnectionEndpoint;
+import org.apache.hc.client5.http.io.LeaseRequest;
+import org.apache.hc.core5.util.Timeout;
+
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Connection pool that reports how long requests wait for a connection. Besides the pool gauges
+ * ({@code httpcomponents.httpclient.pool.*}), every lease is timed as {@code httpcomponents.httpclient.pool.lease}
+ * tagged {@code result=acquired|timeout}, so exhaustion shows up as a growing wait rather than only as latency.
+ */
+public class MeteredPoolingConnectionManager extends PoolingHttpClientConnectionManager {
+
+    private final Timer acquired;
+    private final Timer timedOut;
+
+    public MeteredPoolingConnectionManager(String poolName, MeterRegistry meterRegistry) {
+        new PoolingHttpClientConnectionManagerMetricsBinder(this, poolName).bindTo(meterRegistry);
+        this.acquired = leaseTimer(poolName, "acquired", meterRegistry);
+        this.timedOut = leaseTimer(poolName, "timeout", meterRegistry);
+    }
+
+    private static Timer leaseTimer(String poolName, String result, MeterRegistry meterRegistry) {
+        return Timer.builder("httpcomponents.httpclient.pool.lease")
+                .description("Time spent waiting for a pooled connection")
+                .tag("httpclient", poolName)
+                .tag("result", result)
+                .register(meterRegistry);
+    }
+
+    @Override
+    public LeaseRequest lease(String id, HttpRoute route, Timeout requestTimeout, Object state) {
+        LeaseRequest leaseRequest = super.lease(id, route, requestTimeout, state);
+        long started = System.nanoTime();
+        return new LeaseRequest() {
+
+            @Override
+            public ConnectionEndpoint get(Timeout timeout)
+                    throws InterruptedException, ExecutionException, TimeoutException {
+                try {
+                    ConnectionEndpoint endpoint = leaseRequest.get(timeout);
+                    acquired.record(System.nanoTime() - started, TimeUnit.NANOSECONDS);
+                    return endpoint;
+                } catch (TimeoutException e) {
+                    timedOut.record(System.nanoTime() - started, TimeUnit.NANOSECONDS);
+                    throw e;
+                }
+            }
+
+            @Override
+            public boolean cancel() {
+                return leaseRequest.cancel();
+            }
+        };
+    }
+}
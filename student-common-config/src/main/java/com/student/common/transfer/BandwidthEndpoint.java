@@ -0,0 +1,42 @@
+package com.student.common.transfer;
+
+import org.springframework.boot.actuate.endpoint.annotation.Endpoint;
+import org.springframework.boot.actuate.endpoint.annotation.ReadOperation;
+import org.springframework.boot.actuate.endpoint.annotation.WriteOperation;
+import org.springframework.lang.Nullable;
+import org.springframework.util.unit.DataSize;
+
+/**
+ * {@code /actuator/bandwidth}: shows the {@link BandwidthShaper} settings with the active clients and streams,
+ * and changes them without a restart, e.g. {@code POST {"totalRate": "100MB", "weights": "partner-a=4"}}.
+ * Rates are per second; omitted values are left as they are.
+ * <p>
+ * The write operation is unauthenticated, so the endpoint is not in the default web exposure. Expose it only on
+ * a management port that clients can't reach, or behind authentication.
+ */
+@Endpoint(id = "bandwidth")
+public class BandwidthEndpoint {
+
+    private final BandwidthShaper shaper;
+
+    public BandwidthEndpoint(BandwidthShaper shaper) {
+        this.shaper = shaper;
+    }
+
+    @ReadOperation
+    public BandwidthShaper.Settings settings() {
+        return shaper.settings();
+    }
+
+    @WriteOperation
+    public BandwidthShaper.Settings update(@Nullable String clientRate, @Nullable String clientBurst,
+                                           @Nullable String totalRate, @Nullable String weights) {
+        BandwidthShaper.Settings current = shaper.settings();
+        shaper.update(
+                clientRate != null ? DataSize.parse(clientRate).toBytes() : current.clientRate(),
+                clientBurst != null ? DataSize.parse(clientBurst).toBytes() : current.clientBurst(),
+                totalRate != null ? DataSize.parse(totalRate).toBytes() : current.totalRate(),
+                weights != null ? BandwidthShaper.parseWeights(weights) : current.weights());
+        return shaper.settings();
+    }
+}
@@ -0,0 +1,148 @@
+package com.student.common.transfer;
+
+import jakarta.servlet.AsyncEvent;
+import jakarta.servlet.AsyncListener;
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.ServletOutputStream;
+import jakarta.servlet.WriteListener;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import jakarta.servlet.http.HttpServletResponseWrapper;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+import java.io.IOException;
+
+/**
+ * Paces what goes through the response output stream with the {@link BandwidthShaper}, so every relay loop
+ * writing to it is shaped without knowing about it. Writes are let through in slices of at most
+ * {@value #QUANTUM} bytes, which keeps the fair queue fine-grained whatever buffer size the caller uses.
+ * <p>
+ * The client is the {@code client-header} value (an API key) when it names a configured client (one listed in
+ * {@code weights}), the remote address otherwise. Unknown keys are ignored, so a caller can neither open a fresh
+ * bucket per request by inventing keys nor pick up a partner's weight without its key being configured.
+ * Bodies handed to Tomcat sendfile bypass the stream and are not shaped.
+ */
+public class BandwidthFilter extends OncePerRequestFilter {
+
+    private static final int QUANTUM = 16 * 1024;
+
+    private final BandwidthShaper shaper;
+    private final String clientHeader;
+
+    public BandwidthFilter(BandwidthShaper shaper, String clientHeader) {
+        this.shaper = shaper;
+        this.clientHeader = clientHeader;
+    }
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain filterChain)
+            throws ServletException, IOException {
+        String apiKey = request.getHeader(clientHeader);
+        String client = apiKey != null && shaper.isKnownClient(apiKey) ? apiKey : request.getRemoteAddr();
+        BandwidthShaper.Stream stream = shaper.open(client);
+
+        boolean async = false;
+        try {
+            filterChain.doFilter(request, new ShapedResponse(response, stream));
+            if (request.isAsyncStarted()) {
+                request.getAsyncContext().addListener(new CloseListener(stream));
+                async = true;
+            }
+        } finally {
+            if (!async) {
+                stream.close();
+            }
+        }
+    }
+
+    private record CloseListener(BandwidthShaper.Stream stream) implements AsyncListener {
+
+        @Override
+        public void onComplete(AsyncEvent event) {
+            stream.close();
+        }
+
+        @Override
+        public void onTimeout(AsyncEvent event) {
+            stream.close();
+        }
+
+        @Override
+        public void onError(AsyncEvent event) {
+            stream.close();
+        }
+
+        @Override
+        public void onStartAsync(AsyncEvent event) {
+            event.getAsyncContext().addListener(this);
+        }
+    }
+
+    private static class ShapedResponse extends HttpServletResponseWrapper {
+
+        private final BandwidthShaper.Stream stream;
+        private ShapedOutputStream outputStream;
+
+        ShapedResponse(HttpServletResponse response, BandwidthShaper.Stream stream) {
+            super(response);
+            this.stream = stream;
+        }
+
+        @Override
+        public ServletOutputStream getOutputStream() throws IOException {
+            if (outputStream == null) {
+                outputStream = new ShapedOutputStream(super.getOutputStream(), stream);
+            }
+            return outputStream;
+        }
+    }
+
+    private static class ShapedOutputStream extends ServletOutputStream {
+
+        private final ServletOutputStream delegate;
+        private final BandwidthShaper.Stream stream;
+
+        ShapedOutputStream(ServletOutputStream delegate, BandwidthShaper.Stream stream) {
+            this.delegate = delegate;
+            this.stream = stream;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            stream.acquire(1);
+            delegate.write(b);
+        }
+
+        @Override
+        public void write(byte[] buffer, int offset, int length) throws IOException {
+            while (length > 0) {
+                int slice = Math.min(length, QUANTUM);
+                stream.acquire(slice);
+                delegate.write(buffer, offset, slice);
+                offset += slice;
+                length -= slice;
+            }
+        }
+
+        @Override
+        public void flush() throws IOException {
+            delegate.flush();
+        }
+
+        @Override
+        public void close() throws IOException {
+            delegate.close();
+        }
+
+        @Override
+        public boolean isReady() {
+            return delegate.isReady();
+        }
+
+        @Override
+        public void setWriteListener(WriteListener writeListener) {
+            delegate.setWriteListener(writeListener);
+        }
+    }
+}
@@ -0,0 +1,269 @@
+package com.student.common.transfer;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+
+import java.io.InterruptedIOException;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Paces response bodies so no client can take the whole uplink.
+ * <p>
+ * Each client (API key, or address without one) has a token bucket of {@code client-rate} bytes per second with
+ * {@code client-burst} bytes of burst, shared by all its streams. On top of that, when {@code total-rate} is set,
+ * egress is scheduled with start-time fair queueing between clients: every chunk gets a virtual finish time of
+ * {@code max(now, client's previous finish) + bytes / weight}, and chunks go out in that order at
+ * {@code total-rate}. Busy clients share the link in proportion to their weight (default 1, see
+ * {@code weights}), however many streams each opens, and capacity a client leaves unused goes to the others.
+ * <p>
+ * Rates and weights can be changed while running ({@link #update}); {@code 0} means unlimited. Time spent
+ * waiting is recorded as {@code bandwidth.wait} ({@code limit=client|total}).
+ */
+public class BandwidthShaper {
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition turn = lock.newCondition();
+    private final Map<String, Client> clients = new HashMap<>();
+    private final PriorityQueue<Waiter> queue = new PriorityQueue<>();
+
+    private volatile long clientRate;
+    private volatile long clientBurst;
+    private volatile long totalRate;
+    private volatile Map<String, Integer> weights;
+
+    private double totalTokens;
+    private long totalRefilled = System.nanoTime();
+    private double virtualTime;
+    private long sequence;
+    private int streams;
+
+    private final Timer clientWait;
+    private final Timer totalWait;
+
+    public BandwidthShaper(long clientRate, long clientBurst, long totalRate, Map<String, Integer> weights,
+                           MeterRegistry meterRegistry) {
+        update(clientRate, clientBurst, totalRate, weights);
+
+        Gauge.builder("bandwidth.streams", this, shaper -> shaper.settings().streams()).register(meterRegistry);
+        Gauge.builder("bandwidth.clients", this, shaper -> shaper.settings().clients()).register(meterRegistry);
+        this.clientWait = Timer.builder("bandwidth.wait").tag("limit", "client").register(meterRegistry);
+        this.totalWait = Timer.builder("bandwidth.wait").tag("limit", "total").register(meterRegistry);
+    }
+
+    public record Settings(long clientRate, long clientBurst, long totalRate, Map<String, Integer> weights,
+                           int clients, int streams) {}
+
+    public Settings settings() {
+        lock.lock();
+        try {
+            return new Settings(clientRate, clientBurst, totalRate, weights, clients.size(), streams);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public void update(long clientRate, long clientBurst, long totalRate, Map<String, Integer> weights) {
+        lock.lock();
+        try {
+            this.clientRate = clientRate;
+            this.clientBurst = clientBurst;
+            this.totalRate = totalRate;
+            this.weights = Map.copyOf(weights);
+            turn.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Whether {@code key} is one of the configured clients, i.e. has an entry in {@code weights}.
+     */
+    public boolean isKnownClient(String key) {
+        return weights.containsKey(key);
+    }
+
+    /**
+     * Parses {@code key=weight} pairs separated by commas, e.g. {@code partner-a=4,partner-b=2}.
+     */
+    public static Map<String, Integer> parseWeights(String weights) {
+        Map<String, Integer> parsed = new LinkedHashMap<>();
+        if (weights == null) {
+            return parsed;
+        }
+        for (String entry : weights.split(",")) {
+            if (entry.isBlank()) {
+                continue;
+            }
+            int separator = entry.lastIndexOf('=');
+            if (separator <= 0) {
+                throw new IllegalArgumentException("Expected key=weight: " + entry);
+            }
+            int weight = Integer.parseInt(entry.substring(separator + 1).trim());
+            if (weight <= 0) {
+                throw new IllegalArgumentException("Weight must be positive: " + entry);
+            }
+            parsed.put(entry.substring(0, separator).trim(), weight);
+        }
+        return parsed;
+    }
+
+    private static final class Client {
+
+        private final String key;
+        private int streams;
+        private double tokens;
+        private long refilled = System.nanoTime();
+        private double virtualFinish;
+
+        Client(String key, double tokens) {
+            this.key = key;
+            this.tokens = tokens;
+        }
+    }
+
+    private record Waiter(double finish, long sequence) implements Comparable<Waiter> {
+
+        @Override
+        public int compareTo(Waiter other) {
+            int byFinish = Double.compare(finish, other.finish);
+            return byFinish != 0 ? byFinish : Long.compare(sequence, other.sequence);
+        }
+    }
+
+    /**
+     * One response body of a client; {@link #close} it when the response ends.
+     */
+    public final class Stream implements AutoCloseable {
+
+        private final Client client;
+        private boolean closed;
+
+        private Stream(Client client) {
+            this.client = client;
+        }
+
+        /**
+         * Blocks until {@code bytes} more may be sent.
+         */
+        public void acquire(int bytes) throws InterruptedIOException {
+            try {
+                awaitClient(client, bytes);
+                awaitTotal(client, bytes);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while waiting for bandwidth");
+            }
+        }
+
+        @Override
+        public void close() {
+            lock.lock();
+            try {
+                if (closed) {
+                    return;
+                }
+                closed = true;
+                streams--;
+                if (--client.streams == 0) {
+                    clients.remove(client.key);
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    public Stream open(String clientKey) {
+        lock.lock();
+        try {
+            Client client = clients.computeIfAbsent(clientKey, key -> new Client(key, clientBurst));
+            client.streams++;
+            streams++;
+            return new Stream(client);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Takes {@code bytes} from the client's bucket, going into debt if needed, and sleeps until the debt is
+     * repaid; concurrent streams of the client queue up behind it.
+     */
+    private void awaitClient(Client client, int bytes) throws InterruptedException {
+        long waitNanos;
+        lock.lock();
+        try {
+            long rate = clientRate;
+            if (rate <= 0) {
+                return;
+            }
+            long now = System.nanoTime();
+            client.tokens = Math.min(clientBurst, client.tokens + (now - client.refilled) * rate / 1e9);
+            client.refilled = now;
+            client.tokens -= bytes;
+            waitNanos = client.tokens < 0 ? (long) (-client.tokens * 1e9 / rate) : 0;
+        } finally {
+            lock.unlock();
+        }
+        if (waitNanos > 0) {
+            TimeUnit.NANOSECONDS.sleep(waitNanos);
+            clientWait.record(waitNanos, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    /**
+     * Waits for this chunk's turn in the fair queue, then for the link to have repaid the previous chunk, and
+     * takes {@code bytes} of it.
+     */
+    private void awaitTotal(Client client, int bytes) throws InterruptedException {
+        lock.lock();
+        try {
+            if (totalRate <= 0) {
+                return;
+            }
+            long started = System.nanoTime();
+            int weight = weights.getOrDefault(client.key, 1);
+            double start = Math.max(virtualTime, client.virtualFinish);
+            client.virtualFinish = start + (double) bytes / weight;
+            Waiter waiter = new Waiter(client.virtualFinish, sequence++);
+            queue.add(waiter);
+            boolean waited = false;
+            try {
+                while (true) {
+                    long rate = totalRate;
+                    if (rate <= 0) {
+                        break;
+                    }
+                    long now = System.nanoTime();
+                    totalTokens = Math.min(rate, totalTokens + (now - totalRefilled) * rate / 1e9);
+                    totalRefilled = now;
+                    if (queue.peek() == waiter && totalTokens >= 0) {
+                        totalTokens -= bytes;
+                        virtualTime = start;
+                        break;
+                    }
+                    long waitNanos = queue.peek() == waiter
+                            ? (long) (-totalTokens * 1e9 / rate) + 1
+                            : TimeUnit.MILLISECONDS.toNanos(100);
+                    turn.awaitNanos(waitNanos);
+                    waited = true;
+                }
+            } finally {
+                queue.remove(waiter);
+                turn.signalAll();
+            }
+            if (waited) {
+                totalWait.record(System.nanoTime() - started, TimeUnit.NANOSECONDS);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+}
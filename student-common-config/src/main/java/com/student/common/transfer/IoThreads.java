@@ -0,0 +1,30 @@
+package com.student.common.transfer;
+
+import org.springframework.core.task.VirtualThreadTaskExecutor;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Thread factories for the services' own pools whose tasks block on S3, upstream or disk I/O: virtual threads when
+ * {@code spring.threads.virtual.enabled} is set on Java 21+, platform threads otherwise. The pool sizes still cap
+ * concurrency either way. CPU-bound pools (compression) should keep platform threads.
+ */
+public class IoThreads {
+
+    private final boolean virtual;
+
+    public IoThreads(boolean virtual) {
+        this.virtual = virtual;
+    }
+
+    public boolean isVirtual() {
+        return virtual;
+    }
+
+    public ThreadFactory threadFactory(String prefix) {
+        return virtual
+                ? new VirtualThreadTaskExecutor(prefix).getVirtualThreadFactory()
+                : new CustomizableThreadFactory(prefix);
+    }
+}
@@ -0,0 +1,179 @@
+package com.student.common.transfer;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.servlet.http.HttpServletRequest;
+import lombok.extern.slf4j.Slf4j;
+
+import java.time.Duration;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Process-wide byte budget for downloads that buffer a whole body on the heap.
+ * <p>
+ * Objects of at least {@code streaming-threshold} bytes, or larger than the whole budget, are never buffered:
+ * {@link #admit} answers {@link Admission#STREAM} and the caller streams them instead. Smaller objects reserve
+ * their size, waiting up to {@code max-wait} in a queue of at most {@code max-queued} requests when the budget
+ * is exhausted, and are rejected with {@link MemoryBudgetExceededException} otherwise. Reservations are tied
+ * to the current request and released by {@link MemoryBudgetFilter} once the response has been written.
+ */
+@Slf4j
+public class MemoryBudget {
+
+    static final String RESERVATION_ATTRIBUTE = MemoryBudget.class.getName() + ".reservation";
+
+    public enum Admission { BUFFER, STREAM }
+
+    private final long capacityBytes;
+    private final long streamingThresholdBytes;
+    private final int maxQueued;
+    private final Duration maxWait;
+    private final Duration retryAfter;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition released = lock.newCondition();
+    private long usedBytes;
+    private int queued;
+
+    private final Counter buffered;
+    private final Counter streamed;
+    private final Counter rejected;
+
+    public MemoryBudget(long capacityBytes, long streamingThresholdBytes, int maxQueued,
+                        Duration maxWait, Duration retryAfter, MeterRegistry meterRegistry) {
+        this.capacityBytes = capacityBytes;
+        this.streamingThresholdBytes = streamingThresholdBytes;
+        this.maxQueued = maxQueued;
+        this.maxWait = maxWait;
+        this.retryAfter = retryAfter;
+
+        Gauge.builder("memory.budget.used", this, MemoryBudget::usedBytes).baseUnit("bytes").register(meterRegistry);
+        Gauge.builder("memory.budget.capacity", () -> capacityBytes).baseUnit("bytes").register(meterRegistry);
+        Gauge.builder("memory.budget.queued", this, MemoryBudget::queued).register(meterRegistry);
+        this.buffered = Counter.builder("memory.budget.admissions").tag("result", "buffer").register(meterRegistry);
+        this.streamed = Counter.builder("memory.budget.admissions").tag("result", "stream").register(meterRegistry);
+        this.rejected = Counter.builder("memory.budget.admissions").tag("result", "rejected").register(meterRegistry);
+    }
+
+    /**
+     * Decides how a body of {@code contentLength} bytes may be served for this request, reserving budget
+     * when it is to be buffered. A negative length means unknown and is always streamed.
+     */
+    public Admission admit(HttpServletRequest request, long contentLength) {
+        if (isStreamed(contentLength)) {
+            streamed.increment();
+            log.info("Memory budget: streaming {} bytes instead of buffering", contentLength);
+            return Admission.STREAM;
+        }
+
+        lock.lock();
+        try {
+            if (usedBytes + contentLength > capacityBytes) {
+                if (queued >= maxQueued) {
+                    throw reject(contentLength, "queue full");
+                }
+                queued++;
+                try {
+                    long remainingNanos = maxWait.toNanos();
+                    while (usedBytes + contentLength > capacityBytes) {
+                        if (remainingNanos <= 0) {
+                            throw reject(contentLength, "timed out after " + maxWait.toMillis() + " ms");
+                        }
+                        remainingNanos = released.awaitNanos(remainingNanos);
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw reject(contentLength, "interrupted");
+                } finally {
+                    queued--;
+                }
+            }
+            usedBytes += contentLength;
+        } finally {
+            lock.unlock();
+        }
+
+        addReservation(request, contentLength);
+        buffered.increment();
+        return Admission.BUFFER;
+    }
+
+    /**
+     * Whether a body of {@code contentLength} bytes would be streamed rather than buffered, without reserving
+     * anything; lets callers that know the size up front fetch it the streaming way in the first place.
+     */
+    public boolean isStreamed(long contentLength) {
+        return contentLength < 0 || contentLength >= streamingThresholdBytes || contentLength > capacityBytes;
+    }
+
+    /**
+     * Reserves {@code bytes} without waiting and without tying them to a request, for callers that hold memory
+     * outside a single response and give it back with {@link #release} themselves. {@code false} when the budget
+     * can't fit them right now.
+     */
+    public boolean tryReserve(long bytes) {
+        lock.lock();
+        try {
+            if (usedBytes + bytes > capacityBytes) {
+                return false;
+            }
+            usedBytes += bytes;
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Like {@link #tryReserve}, but rejects with {@link MemoryBudgetExceededException} when the bytes don't fit,
+     * for callers that turn the request away rather than fall back to something cheaper.
+     */
+    public void reserve(long bytes) {
+        if (!tryReserve(bytes)) {
+            throw reject(bytes, "no room without waiting");
+        }
+    }
+
+    public void release(long bytes) {
+        lock.lock();
+        try {
+            usedBytes -= bytes;
+            released.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private static void addReservation(HttpServletRequest request, long bytes) {
+        Long existing = (Long) request.getAttribute(RESERVATION_ATTRIBUTE);
+        request.setAttribute(RESERVATION_ATTRIBUTE, existing == null ? bytes : existing + bytes);
+    }
+
+    private MemoryBudgetExceededException reject(long contentLength, String reason) {
+        rejected.increment();
+        log.warn("Memory budget: rejecting a reservation of {} bytes ({}), used={} of {} bytes",
+                contentLength, reason, usedBytes, capacityBytes);
+        return new MemoryBudgetExceededException(
+                "Memory budget exhausted (" + reason + ")", retryAfter);
+    }
+
+    private long usedBytes() {
+        lock.lock();
+        try {
+            return usedBytes;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private int queued() {
+        lock.lock();
+        try {
+            return queued;
+        } finally {
+            lock.unlock();
+        }
+    }
+}
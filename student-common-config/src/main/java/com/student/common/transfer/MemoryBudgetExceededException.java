@@ -0,0 +1,17 @@
+package com.student.common.transfer;
+
+import java.time.Duration;
+
+public class MemoryBudgetExceededException extends RuntimeException {
+
+    private final Duration retryAfter;
+
+    public MemoryBudgetExceededException(String message, Duration retryAfter) {
+        super(message);
+        this.retryAfter = retryAfter;
+    }
+
+    public Duration getRetryAfter() {
+        return retryAfter;
+    }
+}
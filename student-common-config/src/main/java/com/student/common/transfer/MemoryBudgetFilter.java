@@ -0,0 +1,35 @@
+package com.student.common.transfer;
+
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+import java.io.IOException;
+
+/**
+ * Returns the bytes a request reserved from the {@link MemoryBudget} once its response has been written.
+ */
+public class MemoryBudgetFilter extends OncePerRequestFilter {
+
+    private final MemoryBudget memoryBudget;
+
+    public MemoryBudgetFilter(MemoryBudget memoryBudget) {
+        this.memoryBudget = memoryBudget;
+    }
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain filterChain)
+            throws ServletException, IOException {
+        try {
+            filterChain.doFilter(request, response);
+        } finally {
+            Long reserved = (Long) request.getAttribute(MemoryBudget.RESERVATION_ATTRIBUTE);
+            if (reserved != null) {
+                request.removeAttribute(MemoryBudget.RESERVATION_ATTRIBUTE);
+                memoryBudget.release(reserved);
+            }
+        }
+    }
+}
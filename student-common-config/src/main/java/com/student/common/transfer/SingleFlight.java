@@ -0,0 +1,408 @@
+package com.student.common.transfer;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+
+/**
+ * Coalesces concurrent downloads of the same key into one upstream fetch.
+ * <p>
+ * The first caller (the leader) opens the upstream; a pump thread copies it into a spool file, and every
+ * caller, leader included, reads that file at its own pace. Fast subscribers follow the pump closely
+ * while slow ones fall behind on disk instead of holding the pump back. When the last subscriber
+ * closes before the upstream is exhausted, the upstream is closed too.
+ * <p>
+ * Only bodies of known length up to {@code maxSpoolSize} are shared. Larger or unknown-length bodies go to the
+ * leader unspooled, and callers that were waiting to join open their own upstream. A source can also take over
+ * the complete spool file ({@link Source#onSpooled}), e.g. to adopt it as its cached copy instead of writing a
+ * second one.
+ */
+@Slf4j
+public class SingleFlight implements AutoCloseable {
+
+    private static final int PUMP_BUFFER_SIZE = 64 * 1024;
+
+    private final boolean enabled;
+    private final Path spoolDirectory;
+    private final long maxSpoolSize;
+    private final ExecutorService pumpExecutor;
+    private final Map<String, Flight<?>> flights = new HashMap<>();
+    // A lock rather than a monitor: joining takes the flight's lock too, and a virtual thread parked on it
+    // while holding a monitor would pin its carrier
+    private final ReentrantLock flightsLock = new ReentrantLock();
+
+    public SingleFlight(boolean enabled, Path spoolDirectory, long maxSpoolSize, IoThreads ioThreads) {
+        this.enabled = enabled;
+        this.spoolDirectory = spoolDirectory;
+        this.maxSpoolSize = maxSpoolSize;
+        this.pumpExecutor = Executors.newCachedThreadPool(ioThreads.threadFactory("single-flight-"));
+        if (enabled) {
+            try {
+                Files.createDirectories(spoolDirectory);
+            } catch (IOException e) {
+                throw new UncheckedIOException("Cannot create spool directory " + spoolDirectory, e);
+            }
+        }
+    }
+
+    /**
+     * An opened upstream: the metadata callers need to build their response, the body to share and its length
+     * ({@code -1} when unknown). {@code onSpooled}, when set, receives the spool file once it holds the whole body
+     * and may move it away; subscribers still reading keep their open channel to it.
+     */
+    public record Source<M>(M metadata, InputStream body, long length, Consumer<Path> onSpooled) {
+
+        public Source(M metadata, InputStream body, long length) {
+            this(metadata, body, length, null);
+        }
+    }
+
+    /**
+     * Whether a body of {@code length} bytes would be shared, so a source can prepare for {@link Source#onSpooled}
+     * instead of keeping its own copy.
+     */
+    public boolean shares(long length) {
+        return enabled && length >= 0 && length <= maxSpoolSize;
+    }
+
+    /**
+     * One caller's view of a shared download. {@code coalesced} is true when it joined an existing fetch.
+     */
+    public record Shared<M>(M metadata, InputStream body, boolean coalesced) {}
+
+    /**
+     * Joins the in-flight download for {@code key}, or starts one with {@code opener}. Errors from the
+     * opener are rethrown to every caller waiting on it.
+     */
+    @SuppressWarnings("unchecked")
+    public <M> Shared<M> open(String key, Callable<Source<M>> opener) throws Exception {
+        if (!enabled) {
+            Source<M> source = opener.call();
+            return new Shared<>(source.metadata(), source.body(), false);
+        }
+
+        Flight<M> flight;
+        boolean leader = false;
+        flightsLock.lock();
+        try {
+            flight = (Flight<M>) flights.get(key);
+            if (flight == null || !flight.join()) {
+                flight = new Flight<>(key);
+                flight.join();
+                flights.put(key, flight);
+                leader = true;
+            }
+        } finally {
+            flightsLock.unlock();
+        }
+
+        if (leader) {
+            flight.start(opener);
+        } else {
+            log.info("Joining in-flight download: key={}, subscribers={}", key, flight.subscriberCount());
+        }
+
+        M metadata;
+        try {
+            metadata = flight.metadata.get();
+        } catch (ExecutionException e) {
+            flight.leave();
+            throw e.getCause() instanceof Exception cause ? cause : e;
+        }
+        if (flight.unsharedBody != null) {
+            if (leader) {
+                return new Shared<>(metadata, flight.unsharedBody, false);
+            }
+            log.info("In-flight download is too large to share, fetching separately: key={}", key);
+            Source<M> source = opener.call();
+            return new Shared<>(source.metadata(), source.body(), false);
+        }
+        return new Shared<>(metadata, flight.newSubscriberStream(), !leader);
+    }
+
+    @Override
+    public void close() {
+        pumpExecutor.shutdownNow();
+    }
+
+    private static void closeQuietly(InputStream inputStream) {
+        try {
+            inputStream.close();
+        } catch (IOException e) {
+            log.debug("Could not close upstream", e);
+        }
+    }
+
+    private void finished(Flight<?> flight) {
+        flightsLock.lock();
+        try {
+            flights.remove(flight.key, flight);
+        } finally {
+            flightsLock.unlock();
+        }
+    }
+
+    private final class Flight<M> {
+
+        private final String key;
+        private final CompletableFuture<M> metadata = new CompletableFuture<>();
+        private final ReentrantLock lock = new ReentrantLock();
+        private final Condition progress = lock.newCondition();
+
+        private Path spoolFile;
+        private FileChannel spoolChannel;
+        private InputStream upstream;
+        private Consumer<Path> onSpooled;
+        private long expectedLength;
+        // Set before the metadata completes when the body goes to the leader alone
+        private volatile InputStream unsharedBody;
+        private long written;
+        private boolean done;
+        private boolean closedForJoins;
+        private Throwable failure;
+        private int subscribers;
+
+        Flight(String key) {
+            this.key = key;
+        }
+
+        /**
+         * Registers a subscriber unless the flight has already failed or lost all its subscribers.
+         */
+        boolean join() {
+            lock.lock();
+            try {
+                if (closedForJoins) {
+                    return false;
+                }
+                subscribers++;
+                return true;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        int subscriberCount() {
+            lock.lock();
+            try {
+                return subscribers;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        void start(Callable<Source<M>> opener) {
+            Source<M> source;
+            try {
+                source = opener.call();
+            } catch (Throwable e) {
+                fail(e);
+                metadata.completeExceptionally(e);
+                return;
+            }
+
+            if (!shares(source.length())) {
+                log.debug("Not sharing download of {} bytes: key={}", source.length(), key);
+                lock.lock();
+                try {
+                    closedForJoins = true;
+                } finally {
+                    lock.unlock();
+                }
+                finished(this);
+                unsharedBody = source.body();
+                metadata.complete(source.metadata());
+                return;
+            }
+
+            try {
+                spoolFile = Files.createTempFile(spoolDirectory, "flight-", ".spool");
+                spoolChannel = FileChannel.open(spoolFile, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            } catch (Throwable e) {
+                closeQuietly(source.body());
+                fail(e);
+                metadata.completeExceptionally(e);
+                return;
+            }
+
+            lock.lock();
+            try {
+                upstream = source.body();
+                onSpooled = source.onSpooled();
+                expectedLength = source.length();
+            } finally {
+                lock.unlock();
+            }
+            metadata.complete(source.metadata());
+            pumpExecutor.execute(this::pump);
+        }
+
+        private void pump() {
+            byte[] buffer = new byte[PUMP_BUFFER_SIZE];
+            try (InputStream in = upstream) {
+                int read;
+                while ((read = in.read(buffer)) != -1) {
+                    ByteBuffer chunk = ByteBuffer.wrap(buffer, 0, read);
+                    long position = written;
+                    while (chunk.hasRemaining()) {
+                        position += spoolChannel.write(chunk, position);
+                    }
+                    lock.lock();
+                    try {
+                        written = position;
+                        progress.signalAll();
+                        if (subscribers == 0) {
+                            log.info("All subscribers left, abandoning upstream fetch: key={}", key);
+                            return;
+                        }
+                    } finally {
+                        lock.unlock();
+                    }
+                }
+                if (expectedLength >= 0 && written != expectedLength) {
+                    throw new EOFException("Upstream ended after " + written + " of " + expectedLength + " bytes");
+                }
+                // Before subscribers can see the end, so the last of them can't delete the file first
+                if (onSpooled != null && written == expectedLength) {
+                    onSpooled.accept(spoolFile);
+                }
+                lock.lock();
+                try {
+                    done = true;
+                    progress.signalAll();
+                } finally {
+                    lock.unlock();
+                }
+                log.debug("Upstream fetch completed: key={}, bytes={}", key, written);
+            } catch (Throwable e) {
+                if (subscriberCount() == 0) {
+                    log.debug("Upstream fetch stopped after all subscribers left: key={}", key);
+                } else {
+                    log.warn("Upstream fetch failed: key={}", key, e);
+                }
+                fail(e);
+            } finally {
+                finished(this);
+            }
+        }
+
+        private void fail(Throwable e) {
+            lock.lock();
+            try {
+                failure = e;
+                closedForJoins = true;
+                progress.signalAll();
+            } finally {
+                lock.unlock();
+            }
+            finished(this);
+        }
+
+        void leave() {
+            boolean release;
+            lock.lock();
+            try {
+                subscribers = Math.max(0, subscribers - 1);
+                release = subscribers == 0;
+                if (release) {
+                    closedForJoins = true;
+                }
+            } finally {
+                lock.unlock();
+            }
+            if (release) {
+                finished(this);
+                releaseSpool();
+            }
+        }
+
+        private void releaseSpool() {
+            try {
+                if (spoolChannel != null) {
+                    spoolChannel.close();
+                }
+                if (spoolFile != null) {
+                    Files.deleteIfExists(spoolFile);
+                }
+            } catch (IOException e) {
+                log.warn("Could not remove spool file {}", spoolFile, e);
+            }
+        }
+
+        InputStream newSubscriberStream() {
+            return new SubscriberInputStream();
+        }
+
+        private final class SubscriberInputStream extends InputStream {
+
+            private long position;
+            private boolean closed;
+
+            @Override
+            public int read() throws IOException {
+                byte[] single = new byte[1];
+                int read = read(single, 0, 1);
+                return read == -1 ? -1 : single[0] & 0xFF;
+            }
+
+            @Override
+            public int read(byte[] buffer, int offset, int length) throws IOException {
+                if (closed) {
+                    throw new IOException("Stream closed");
+                }
+                if (length == 0) {
+                    return 0;
+                }
+                long available;
+                lock.lock();
+                try {
+                    while (position >= written && !done && failure == null) {
+                        progress.await();
+                    }
+                    if (failure != null) {
+                        throw new IOException("Shared upstream fetch failed for " + key, failure);
+                    }
+                    available = written - position;
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Interrupted while waiting for upstream data");
+                } finally {
+                    lock.unlock();
+                }
+                if (available == 0) {
+                    return -1;
+                }
+                int count = spoolChannel.read(ByteBuffer.wrap(buffer, offset, (int) Math.min(length, available)), position);
+                position += count;
+                return count;
+            }
+
+            @Override
+            public void close() {
+                if (!closed) {
+                    closed = true;
+                    leave();
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,121 @@
+package com.student.common.transfer;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Copies a response body from an upstream stream to the client through pooled buffers, replacing
+ * {@code InputStream.transferTo}, which allocates a fresh buffer for every transfer.
+ * <p>
+ * Buffers are plain heap arrays: both ends are {@link InputStream} / {@link OutputStream}, so a direct buffer
+ * would only add a copy. Up to {@code max-pooled-buffers} are kept; under a larger burst extra buffers are
+ * allocated and dropped afterwards, visible as {@code relay.buffers.allocated}.
+ * <p>
+ * Output is flushed once {@code flush-threshold} bytes are pending, or once {@code flush-interval} has passed
+ * since the last flush. The interval is checked after each read and before a read that would block
+ * ({@code available() == 0}), so a slow upstream still reaches the client promptly; it can't be checked while
+ * a read is blocked. Time spent blocked on each side is recorded as {@code relay.stall}
+ * ({@code side=upstream|downstream}), bytes as {@code relay.bytes}.
+ */
+public class StreamRelay {
+
+    private final int bufferSize;
+    private final long flushThreshold;
+    private final long flushIntervalNanos;
+    private final BlockingQueue<byte[]> pool;
+
+    private final Counter bytesCopied;
+    private final Counter buffersAllocated;
+    private final Timer upstreamStall;
+    private final Timer downstreamStall;
+
+    public StreamRelay(int bufferSize, int maxPooledBuffers, long flushThreshold, long flushIntervalMillis,
+                       MeterRegistry meterRegistry) {
+        this.bufferSize = bufferSize;
+        this.flushThreshold = flushThreshold;
+        this.flushIntervalNanos = TimeUnit.MILLISECONDS.toNanos(flushIntervalMillis);
+        this.pool = new ArrayBlockingQueue<>(maxPooledBuffers);
+
+        this.bytesCopied = Counter.builder("relay.bytes").baseUnit("bytes").register(meterRegistry);
+        this.buffersAllocated = Counter.builder("relay.buffers.allocated").register(meterRegistry);
+        Gauge.builder("relay.buffers.pooled", pool, BlockingQueue::size).register(meterRegistry);
+        this.upstreamStall = Timer.builder("relay.stall").tag("side", "upstream").register(meterRegistry);
+        this.downstreamStall = Timer.builder("relay.stall").tag("side", "downstream").register(meterRegistry);
+    }
+
+    /**
+     * Copies {@code input} to {@code output} until end of stream and flushes. Neither stream is closed.
+     *
+     * @return the number of bytes copied
+     */
+    public long relay(InputStream input, OutputStream output) throws IOException {
+        byte[] buffer = acquire();
+        long copied = 0;
+        long unflushed = 0;
+        long readNanos = 0;
+        long writeNanos = 0;
+        long now = System.nanoTime();
+        long lastFlush = now;
+        try {
+            while (true) {
+                if (unflushed > 0 && now - lastFlush >= flushIntervalNanos && input.available() == 0) {
+                    // The next read may block: don't hold back what is pending while it does
+                    output.flush();
+                    unflushed = 0;
+                    lastFlush = System.nanoTime();
+                    writeNanos += lastFlush - now;
+                    now = lastFlush;
+                }
+                int read = input.read(buffer);
+                long afterRead = System.nanoTime();
+                readNanos += afterRead - now;
+                if (read == -1) {
+                    break;
+                }
+
+                output.write(buffer, 0, read);
+                copied += read;
+                unflushed += read;
+                if (unflushed >= flushThreshold || afterRead - lastFlush >= flushIntervalNanos) {
+                    output.flush();
+                    unflushed = 0;
+                    lastFlush = afterRead;
+                }
+                now = System.nanoTime();
+                writeNanos += now - afterRead;
+            }
+
+            long beforeFlush = System.nanoTime();
+            output.flush();
+            writeNanos += System.nanoTime() - beforeFlush;
+            return copied;
+        } finally {
+            release(buffer);
+            bytesCopied.increment(copied);
+            upstreamStall.record(readNanos, TimeUnit.NANOSECONDS);
+            downstreamStall.record(writeNanos, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    private byte[] acquire() {
+        byte[] buffer = pool.poll();
+        if (buffer == null) {
+            buffersAllocated.increment();
+            buffer = new byte[bufferSize];
+        }
+        return buffer;
+    }
+
+    private void release(byte[] buffer) {
+        pool.offer(buffer);
+    }
+}
@@ -0,0 +1,149 @@
+package com.student.common.transfer;
+
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.boot.actuate.metrics.http.Outcome;
+
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Per-endpoint download metrics, measured on the bytes actually written to the client:
+ * <ul>
+ *     <li>{@code transfer.ttfb}: time until the first byte (or header flush) of the response</li>
+ *     <li>{@code transfer.duration}: time until the response is complete, tagged with its outcome</li>
+ *     <li>{@code transfer.bytes}: body bytes written per response</li>
+ *     <li>{@code transfer.throughput}: body bytes per second of each response that sent any</li>
+ *     <li>{@code transfer.in.flight}: responses currently being written</li>
+ *     <li>{@code transfer.upload.bytes} and {@code transfer.upload.throughput}: the same for request bodies read,
+ *     recorded for requests that had one</li>
+ * </ul>
+ * Endpoints are fixed up front so that the tag set stays bounded.
+ */
+public class TransferMetrics {
+
+    private final MeterRegistry meterRegistry;
+    private final Map<String, AtomicInteger> inFlight = new ConcurrentHashMap<>();
+
+    public TransferMetrics(Collection<String> endpoints, MeterRegistry meterRegistry) {
+        this.meterRegistry = meterRegistry;
+        for (String endpoint : endpoints) {
+            AtomicInteger count = new AtomicInteger();
+            inFlight.put(endpoint, count);
+            Gauge.builder("transfer.in.flight", count, AtomicInteger::get)
+                    .tag("endpoint", endpoint)
+                    .register(meterRegistry);
+        }
+    }
+
+    public Transfer start(String endpoint) {
+        AtomicInteger count = inFlight.get(endpoint);
+        if (count != null) {
+            count.incrementAndGet();
+        }
+        return new Transfer(endpoint, count);
+    }
+
+    /**
+     * One response being written. {@link #finish} records it exactly once, whichever thread completes it.
+     */
+    public final class Transfer {
+
+        private final String endpoint;
+        private final AtomicInteger inFlightCount;
+        private final long started = System.nanoTime();
+        private final AtomicLong firstByteNanos = new AtomicLong(-1);
+        private final AtomicLong bytes = new AtomicLong();
+        private final AtomicLong bytesRead = new AtomicLong();
+        private final AtomicBoolean finished = new AtomicBoolean();
+        private volatile boolean aborted;
+
+        private Transfer(String endpoint, AtomicInteger inFlightCount) {
+            this.endpoint = endpoint;
+            this.inFlightCount = inFlightCount;
+        }
+
+        public void firstByte() {
+            firstByteNanos.compareAndSet(-1, System.nanoTime() - started);
+        }
+
+        public void bytesWritten(long count) {
+            firstByte();
+            bytes.addAndGet(count);
+        }
+
+        public void bytesRead(long count) {
+            bytesRead.addAndGet(count);
+        }
+
+        /**
+         * The client went away or the response failed mid-body.
+         */
+        public void aborted() {
+            aborted = true;
+        }
+
+        public long bytes() {
+            return bytes.get();
+        }
+
+        public void finish(int status) {
+            if (!finished.compareAndSet(false, true)) {
+                return;
+            }
+            if (inFlightCount != null) {
+                inFlightCount.decrementAndGet();
+            }
+
+            long elapsed = System.nanoTime() - started;
+            firstByteNanos.compareAndSet(-1, elapsed);
+            String outcome = aborted ? "ABORTED" : Outcome.forStatus(status).name();
+            Tags tags = Tags.of("endpoint", endpoint);
+            long sent = bytes.get();
+
+            Timer.builder("transfer.ttfb")
+                    .tags(tags)
+                    .register(meterRegistry)
+                    .record(firstByteNanos.get(), TimeUnit.NANOSECONDS);
+            Timer.builder("transfer.duration")
+                    .tags(tags.and("outcome", outcome, "status", String.valueOf(status)))
+                    .register(meterRegistry)
+                    .record(elapsed, TimeUnit.NANOSECONDS);
+            DistributionSummary.builder("transfer.bytes")
+                    .baseUnit("bytes")
+                    .tags(tags)
+                    .register(meterRegistry)
+                    .record(sent);
+            if (sent > 0 && elapsed > 0) {
+                DistributionSummary.builder("transfer.throughput")
+                        .baseUnit("bytes.per.second")
+                        .tags(tags)
+                        .register(meterRegistry)
+                        .record(sent * 1e9 / elapsed);
+            }
+            long received = bytesRead.get();
+            if (received > 0) {
+                DistributionSummary.builder("transfer.upload.bytes")
+                        .baseUnit("bytes")
+                        .tags(tags)
+                        .register(meterRegistry)
+                        .record(received);
+                if (elapsed > 0) {
+                    DistributionSummary.builder("transfer.upload.throughput")
+                            .baseUnit("bytes.per.second")
+                            .tags(tags)
+                            .register(meterRegistry)
+                            .record(received * 1e9 / elapsed);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,244 @@
+package com.student.common.transfer;
+
+import jakarta.servlet.AsyncEvent;
+import jakarta.servlet.AsyncListener;
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.ReadListener;
+import jakarta.servlet.ServletInputStream;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.ServletOutputStream;
+import jakarta.servlet.WriteListener;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletRequestWrapper;
+import jakarta.servlet.http.HttpServletResponse;
+import jakarta.servlet.http.HttpServletResponseWrapper;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+import java.io.IOException;
+
+/**
+ * Feeds {@link TransferMetrics} by counting what goes through the response output stream, and the request input
+ * stream for uploads. Async responses
+ * ({@code StreamingResponseBody}, non-blocking writes) are finished from an {@link AsyncListener}, and bodies
+ * handed to Tomcat sendfile are counted from the sendfile range since they bypass the stream.
+ * <p>
+ * The endpoint tag is the last path segment; register the filter for exact URL patterns only.
+ */
+public class TransferMetricsFilter extends OncePerRequestFilter {
+
+    private static final String SENDFILE_FILENAME_ATTR = "org.apache.tomcat.sendfile.filename";
+    private static final String SENDFILE_START_ATTR = "org.apache.tomcat.sendfile.start";
+    private static final String SENDFILE_END_ATTR = "org.apache.tomcat.sendfile.end";
+
+    private final TransferMetrics transferMetrics;
+
+    public TransferMetricsFilter(TransferMetrics transferMetrics) {
+        this.transferMetrics = transferMetrics;
+    }
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain filterChain)
+            throws ServletException, IOException {
+        String path = request.getRequestURI().substring(request.getContextPath().length());
+        TransferMetrics.Transfer transfer = transferMetrics.start(path.substring(path.lastIndexOf('/') + 1));
+        MeteredResponse meteredResponse = new MeteredResponse(response, transfer);
+
+        boolean async = false;
+        try {
+            filterChain.doFilter(new MeteredRequest(request, transfer), meteredResponse);
+            if (request.isAsyncStarted()) {
+                request.getAsyncContext().addListener(new FinishListener(request, response, transfer));
+                async = true;
+            }
+        } catch (IOException | ServletException | RuntimeException e) {
+            transfer.aborted();
+            throw e;
+        } finally {
+            if (!async) {
+                finish(request, response, transfer);
+            }
+        }
+    }
+
+    private static void finish(HttpServletRequest request, HttpServletResponse response, TransferMetrics.Transfer transfer) {
+        if (transfer.bytes() == 0 && request.getAttribute(SENDFILE_FILENAME_ATTR) != null) {
+            Long start = (Long) request.getAttribute(SENDFILE_START_ATTR);
+            Long end = (Long) request.getAttribute(SENDFILE_END_ATTR);
+            if (start != null && end != null) {
+                transfer.bytesWritten(end - start);
+            }
+        }
+        transfer.finish(response.getStatus());
+    }
+
+    private record FinishListener(HttpServletRequest request, HttpServletResponse response,
+                                  TransferMetrics.Transfer transfer) implements AsyncListener {
+
+        @Override
+        public void onComplete(AsyncEvent event) {
+            finish(request, response, transfer);
+        }
+
+        @Override
+        public void onTimeout(AsyncEvent event) {
+            transfer.aborted();
+        }
+
+        @Override
+        public void onError(AsyncEvent event) {
+            transfer.aborted();
+        }
+
+        @Override
+        public void onStartAsync(AsyncEvent event) {
+            event.getAsyncContext().addListener(this);
+        }
+    }
+
+    private static class MeteredRequest extends HttpServletRequestWrapper {
+
+        private final TransferMetrics.Transfer transfer;
+        private MeteredInputStream inputStream;
+
+        MeteredRequest(HttpServletRequest request, TransferMetrics.Transfer transfer) {
+            super(request);
+            this.transfer = transfer;
+        }
+
+        @Override
+        public ServletInputStream getInputStream() throws IOException {
+            if (inputStream == null) {
+                inputStream = new MeteredInputStream(super.getInputStream(), transfer);
+            }
+            return inputStream;
+        }
+    }
+
+    private static class MeteredInputStream extends ServletInputStream {
+
+        private final ServletInputStream delegate;
+        private final TransferMetrics.Transfer transfer;
+
+        MeteredInputStream(ServletInputStream delegate, TransferMetrics.Transfer transfer) {
+            this.delegate = delegate;
+            this.transfer = transfer;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = delegate.read();
+            if (b >= 0) {
+                transfer.bytesRead(1);
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            int count = delegate.read(buffer, offset, length);
+            if (count > 0) {
+                transfer.bytesRead(count);
+            }
+            return count;
+        }
+
+        @Override
+        public void close() throws IOException {
+            delegate.close();
+        }
+
+        @Override
+        public boolean isFinished() {
+            return delegate.isFinished();
+        }
+
+        @Override
+        public boolean isReady() {
+            return delegate.isReady();
+        }
+
+        @Override
+        public void setReadListener(ReadListener readListener) {
+            delegate.setReadListener(readListener);
+        }
+    }
+
+    private static class MeteredResponse extends HttpServletResponseWrapper {
+
+        private final TransferMetrics.Transfer transfer;
+        private MeteredOutputStream outputStream;
+
+        MeteredResponse(HttpServletResponse response, TransferMetrics.Transfer transfer) {
+            super(response);
+            this.transfer = transfer;
+        }
+
+        @Override
+        public ServletOutputStream getOutputStream() throws IOException {
+            if (outputStream == null) {
+                outputStream = new MeteredOutputStream(super.getOutputStream(), transfer);
+            }
+            return outputStream;
+        }
+
+        @Override
+        public void flushBuffer() throws IOException {
+            transfer.firstByte();
+            super.flushBuffer();
+        }
+    }
+
+    private static class MeteredOutputStream extends ServletOutputStream {
+
+        private final ServletOutputStream delegate;
+        private final TransferMetrics.Transfer transfer;
+
+        MeteredOutputStream(ServletOutputStream delegate, TransferMetrics.Transfer transfer) {
+            this.delegate = delegate;
+            this.transfer = transfer;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            try {
+                delegate.write(b);
+            } catch (IOException e) {
+                transfer.aborted();
+                throw e;
+            }
+            transfer.bytesWritten(1);
+        }
+
+        @Override
+        public void write(byte[] buffer, int offset, int length) throws IOException {
+            try {
+                delegate.write(buffer, offset, length);
+            } catch (IOException e) {
+                transfer.aborted();
+                throw e;
+            }
+            transfer.bytesWritten(length);
+        }
+
+        @Override
+        public void flush() throws IOException {
+            transfer.firstByte();
+            delegate.flush();
+        }
+
+        @Override
+        public void close() throws IOException {
+            delegate.close();
+        }
+
+        @Override
+        public boolean isReady() {
+            return delegate.isReady();
+        }
+
+        @Override
+        public void setWriteListener(WriteListener writeListener) {
+            delegate.setWriteListener(writeListener);
+        }
+    }
+}
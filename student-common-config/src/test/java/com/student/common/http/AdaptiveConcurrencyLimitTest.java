@@ -0,0 +1,105 @@
+package com.student.common.http;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class AdaptiveConcurrencyLimitTest {
+
+    private static final long LATENCY = 1_000;
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+    @Test
+    void refusesCallsOverTheLimit() {
+        AdaptiveConcurrencyLimit limit = limit(2, 1, 10);
+
+        assertThat(limit.tryAcquire()).isZero();
+        assertThat(limit.tryAcquire()).isEqualTo(1);
+        assertThat(limit.tryAcquire()).isEqualTo(-1);
+        assertThat(meterRegistry.get("upstream.concurrency.rejected").counter().count()).isEqualTo(1);
+
+        limit.release(1, LATENCY, false);
+        assertThat(limit.tryAcquire()).isEqualTo(1);
+    }
+
+    @Test
+    void increasesAdditivelyWhileBusy() {
+        AdaptiveConcurrencyLimit limit = limit(4, 1, 6);
+
+        // About one step per limit's worth of answers received at full use
+        for (int i = 0; i < 4; i++) {
+            limit.release(limit.tryAcquire() + 3, LATENCY, false);
+        }
+        assertThat(currentLimit()).isEqualTo(4);
+        limit.release(limit.tryAcquire() + 3, LATENCY, false);
+        assertThat(currentLimit()).isEqualTo(5);
+
+        for (int i = 0; i < 100; i++) {
+            limit.release(limit.tryAcquire() + 5, LATENCY, false);
+        }
+        assertThat(currentLimit()).isEqualTo(6);
+    }
+
+    @Test
+    void doesNotIncreaseWhileMostlyIdle() {
+        AdaptiveConcurrencyLimit limit = limit(10, 1, 20);
+
+        for (int i = 0; i < 100; i++) {
+            limit.release(limit.tryAcquire(), LATENCY, false);
+        }
+        assertThat(currentLimit()).isEqualTo(10);
+    }
+
+    @Test
+    void decreasesMultiplicativelyOnOverload() {
+        AdaptiveConcurrencyLimit limit = limit(10, 2, 20);
+
+        limit.release(limit.tryAcquire(), LATENCY, true);
+        assertThat(currentLimit()).isEqualTo(5);
+
+        for (int i = 0; i < 10; i++) {
+            awaitRoundTrip();
+            limit.release(limit.tryAcquire(), LATENCY, true);
+        }
+        assertThat(currentLimit()).isEqualTo(2);
+    }
+
+    @Test
+    void decreasesOnSlowAnswers() {
+        AdaptiveConcurrencyLimit limit = limit(10, 1, 20);
+
+        limit.release(limit.tryAcquire(), LATENCY, false);
+        assertThat(currentLimit()).isEqualTo(10);
+        limit.release(limit.tryAcquire(), LATENCY * 10, false);
+        assertThat(currentLimit()).isEqualTo(5);
+    }
+
+    @Test
+    void abandonedCallsOnlyFreeTheirPlace() {
+        AdaptiveConcurrencyLimit limit = limit(1, 1, 10);
+
+        limit.release(limit.tryAcquire(), -1, true);
+        assertThat(currentLimit()).isEqualTo(1);
+        assertThat(limit.tryAcquire()).isZero();
+    }
+
+    private AdaptiveConcurrencyLimit limit(int initial, int min, int max) {
+        return new AdaptiveConcurrencyLimit("student-service", "download", initial, min, max, 2.0, 0.5, meterRegistry);
+    }
+
+    private int currentLimit() {
+        return (int) meterRegistry.get("upstream.concurrency.limit").gauge().value();
+    }
+
+    /**
+     * Decreases happen at most once per average round trip, which is {@link #LATENCY} nanoseconds here.
+     */
+    private static void awaitRoundTrip() {
+        long until = System.nanoTime() + LATENCY * 2;
+        while (System.nanoTime() < until) {
+            Thread.onSpinWait();
+        }
+    }
+}
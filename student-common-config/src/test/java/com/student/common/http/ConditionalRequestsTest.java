@@ -0,0 +1,95 @@
+package com.student.common.http;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.mock.web.MockHttpServletRequest;
+
+import java.time.Instant;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class ConditionalRequestsTest {
+
+    private static final String ETAG = "\"abc123\"";
+    private static final Instant LAST_MODIFIED = Instant.parse("2024-01-15T10:00:00Z");
+
+    @Test
+    void unconditionalRequestIsNotConditional() {
+        assertThat(ConditionalRequests.isConditional(new MockHttpServletRequest())).isFalse();
+        assertThat(ConditionalRequests.isNotModified(new MockHttpServletRequest(), ETAG, LAST_MODIFIED)).isFalse();
+    }
+
+    @Test
+    void matchingIfNoneMatchIsNotModified() {
+        assertThat(ConditionalRequests.isNotModified(request(HttpHeaders.IF_NONE_MATCH, ETAG), ETAG, LAST_MODIFIED))
+                .isTrue();
+        assertThat(ConditionalRequests.isNotModified(request(HttpHeaders.IF_NONE_MATCH, "\"other\", " + ETAG),
+                ETAG, LAST_MODIFIED)).isTrue();
+        assertThat(ConditionalRequests.isNotModified(request(HttpHeaders.IF_NONE_MATCH, "*"), ETAG, LAST_MODIFIED))
+                .isTrue();
+    }
+
+    @Test
+    void ifNoneMatchIsComparedWeakly() {
+        assertThat(ConditionalRequests.isNotModified(request(HttpHeaders.IF_NONE_MATCH, "W/" + ETAG), ETAG, null))
+                .isTrue();
+        assertThat(ConditionalRequests.isNotModified(request(HttpHeaders.IF_NONE_MATCH, ETAG), "W/" + ETAG, null))
+                .isTrue();
+    }
+
+    @Test
+    void differentETagIsModified() {
+        assertThat(ConditionalRequests.isNotModified(request(HttpHeaders.IF_NONE_MATCH, "\"other\""), ETAG, LAST_MODIFIED))
+                .isFalse();
+        assertThat(ConditionalRequests.isNotModified(request(HttpHeaders.IF_NONE_MATCH, ETAG), null, LAST_MODIFIED))
+                .isFalse();
+    }
+
+    @Test
+    void ifNoneMatchTakesPrecedenceOverIfModifiedSince() {
+        MockHttpServletRequest request = request(HttpHeaders.IF_NONE_MATCH, "\"other\"");
+        request.addHeader(HttpHeaders.IF_MODIFIED_SINCE, LAST_MODIFIED.plusSeconds(3600).toEpochMilli());
+
+        assertThat(ConditionalRequests.isNotModified(request, ETAG, LAST_MODIFIED)).isFalse();
+    }
+
+    @Test
+    void ifModifiedSinceComparesWholeSeconds() {
+        assertThat(ConditionalRequests.isNotModified(
+                request(HttpHeaders.IF_MODIFIED_SINCE, LAST_MODIFIED.toEpochMilli()), ETAG, LAST_MODIFIED.plusMillis(500)))
+                .isTrue();
+        assertThat(ConditionalRequests.isNotModified(
+                request(HttpHeaders.IF_MODIFIED_SINCE, LAST_MODIFIED.plusSeconds(60).toEpochMilli()), ETAG, LAST_MODIFIED))
+                .isTrue();
+        assertThat(ConditionalRequests.isNotModified(
+                request(HttpHeaders.IF_MODIFIED_SINCE, LAST_MODIFIED.minusSeconds(1).toEpochMilli()), ETAG, LAST_MODIFIED))
+                .isFalse();
+    }
+
+    @Test
+    void unparseableIfModifiedSinceIsModified() {
+        assertThat(ConditionalRequests.isNotModified(request(HttpHeaders.IF_MODIFIED_SINCE, "yesterday"), ETAG, LAST_MODIFIED))
+                .isFalse();
+        assertThat(ConditionalRequests.isNotModified(
+                request(HttpHeaders.IF_MODIFIED_SINCE, LAST_MODIFIED.toEpochMilli()), ETAG, null))
+                .isFalse();
+    }
+
+    @Test
+    void notModifiedCarriesValidatorsWithoutBody() {
+        ResponseEntity<Void> response = ConditionalRequests.notModified(ETAG, LAST_MODIFIED);
+
+        assertThat(response.getStatusCode()).isEqualTo(HttpStatus.NOT_MODIFIED);
+        assertThat(response.getHeaders().getETag()).isEqualTo(ETAG);
+        assertThat(response.getHeaders().getLastModified()).isEqualTo(LAST_MODIFIED.toEpochMilli());
+        assertThat(response.hasBody()).isFalse();
+    }
+
+    private static MockHttpServletRequest request(String header, Object value) {
+        MockHttpServletRequest request = new MockHttpServletRequest("GET", "/api/files/download");
+        request.addHeader(header, value);
+        return request;
+    }
+}
@@ -0,0 +1,87 @@
+package com.student.common.http;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.DefaultApplicationArguments;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class ConnectionWarmUpTest {
+
+    private static final Duration TIMEOUT = Duration.ofSeconds(5);
+
+    private final List<String> events = new CopyOnWriteArrayList<>();
+
+    @Test
+    void preparesOnceThenRunsEveryCallAtTheSameTime() {
+        // Only trips if all three calls are in flight together
+        CyclicBarrier together = new CyclicBarrier(3);
+
+        warmUp(true, 3, TIMEOUT, () -> {
+            together.await(TIMEOUT.toMillis(), TimeUnit.MILLISECONDS);
+            events.add("call");
+        }).run(new DefaultApplicationArguments());
+
+        assertThat(events).containsExactly("prepare", "call", "call", "call");
+    }
+
+    @Test
+    void disabledWarmUpCallsNothing() {
+        warmUp(false, 3, TIMEOUT, () -> events.add("call")).run(new DefaultApplicationArguments());
+
+        assertThat(events).isEmpty();
+    }
+
+    @Test
+    void failedCallDoesNotStopStartup() {
+        warmUp(true, 2, TIMEOUT, () -> {
+            throw new IllegalStateException("Connection refused");
+        }).run(new DefaultApplicationArguments());
+
+        assertThat(events).containsExactly("prepare");
+    }
+
+    @Test
+    void givesUpAfterTheTimeoutAndInterruptsTheCalls() throws InterruptedException {
+        CountDownLatch interrupted = new CountDownLatch(1);
+        long started = System.nanoTime();
+
+        warmUp(true, 1, Duration.ofMillis(100), () -> {
+            try {
+                Thread.sleep(TIMEOUT.toMillis());
+            } catch (InterruptedException e) {
+                interrupted.countDown();
+            }
+        }).run(new DefaultApplicationArguments());
+
+        assertThat(System.nanoTime() - started).isLessThan(TIMEOUT.toNanos());
+        assertThat(interrupted.await(1, TimeUnit.SECONDS)).isTrue();
+    }
+
+    private interface Call {
+        void run() throws Exception;
+    }
+
+    private ConnectionWarmUp warmUp(boolean enabled, int connections, Duration timeout, Call call) {
+        return new ConnectionWarmUp("test-upstream", enabled, connections, timeout,
+                new CustomizableThreadFactory("warm-up-")) {
+
+            @Override
+            protected void prepare() {
+                events.add("prepare");
+            }
+
+            @Override
+            protected void call() throws Exception {
+                call.run();
+            }
+        };
+    }
+}
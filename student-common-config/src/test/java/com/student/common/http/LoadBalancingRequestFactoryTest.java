@@ -0,0 +1,175 @@
+package com.student.common.http;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.StreamingHttpOutputMessage;
+import org.springframework.http.client.ClientHttpRequest;
+import org.springframework.http.client.ClientHttpRequestFactory;
+import org.springframework.http.client.ClientHttpResponse;
+import org.springframework.mock.http.client.MockClientHttpRequest;
+import org.springframework.mock.http.client.MockClientHttpResponse;
+
+import java.io.IOException;
+import java.net.ConnectException;
+import java.net.URI;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class LoadBalancingRequestFactoryTest {
+
+    private static final URI HEALTHY = URI.create("http://healthy:8088");
+    private static final URI BROKEN = URI.create("http://broken:8088");
+    private static final URI REQUEST = URI.create("http://student-service/api/files/download?mode=AUTO");
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private final Map<String, Answer> answers = new ConcurrentHashMap<>();
+    private final List<URI> sent = new ArrayList<>();
+
+    @FunctionalInterface
+    private interface Answer {
+
+        ClientHttpResponse answer() throws IOException;
+    }
+
+    private final ClientHttpRequestFactory delegate = (uri, method) -> new MockClientHttpRequest(method, uri) {
+        @Override
+        protected ClientHttpResponse executeInternal() throws IOException {
+            synchronized (sent) {
+                sent.add(uri);
+            }
+            return answers.get(uri.getHost()).answer();
+        }
+    };
+
+    @Test
+    void sendsToTheInstanceWithPathAndQuery() throws IOException {
+        answers.put("healthy", () -> response(HttpStatus.OK));
+        LoadBalancingRequestFactory factory = factory(List.of(HEALTHY), 3, 0);
+
+        try (ClientHttpResponse response = factory.createRequest(REQUEST, HttpMethod.GET).execute()) {
+            assertThat(response.getStatusCode()).isEqualTo(HttpStatus.OK);
+        }
+        assertThat(sent).containsExactly(URI.create("http://healthy:8088/api/files/download?mode=AUTO"));
+    }
+
+    @Test
+    void retriesFailedRequestOnAnotherInstance() throws IOException {
+        answers.put("healthy", () -> response(HttpStatus.OK));
+        answers.put("broken", () -> {
+            throw new ConnectException("Connection refused");
+        });
+        LoadBalancingRequestFactory factory = factory(List.of(HEALTHY, BROKEN), 3, 1);
+
+        for (int i = 0; i < 20; i++) {
+            try (ClientHttpResponse response = factory.createRequest(REQUEST, HttpMethod.GET).execute()) {
+                assertThat(response.getStatusCode()).isEqualTo(HttpStatus.OK);
+            }
+        }
+    }
+
+    @Test
+    void ejectsInstanceAfterConsecutiveFailures() throws IOException {
+        answers.put("healthy", () -> response(HttpStatus.OK));
+        answers.put("broken", () -> response(HttpStatus.BAD_GATEWAY));
+        LoadBalancingRequestFactory factory = factory(List.of(HEALTHY, BROKEN), 2, 1);
+
+        for (int i = 0; i < 50; i++) {
+            factory.createRequest(REQUEST, HttpMethod.GET).execute().close();
+        }
+
+        assertThat(meterRegistry.get("upstream.instance.ejections").tag("instance", "broken:8088").counter().count())
+                .isEqualTo(1);
+        assertThat(meterRegistry.get("upstream.instance.available").tag("instance", "broken:8088").gauge().value())
+                .isZero();
+        assertThat(sent.stream().filter(uri -> uri.getHost().equals("broken"))).hasSize(2);
+
+        sent.clear();
+        for (int i = 0; i < 10; i++) {
+            factory.createRequest(REQUEST, HttpMethod.GET).execute().close();
+        }
+        assertThat(sent).allMatch(uri -> uri.getHost().equals("healthy"));
+    }
+
+    @Test
+    void sendsToEjectedInstancesWhenNoneIsLeft() throws IOException {
+        answers.put("broken", () -> response(HttpStatus.SERVICE_UNAVAILABLE));
+        LoadBalancingRequestFactory factory = factory(List.of(BROKEN), 1, 0);
+
+        for (int i = 0; i < 3; i++) {
+            try (ClientHttpResponse response = factory.createRequest(REQUEST, HttpMethod.GET).execute()) {
+                assertThat(response.getStatusCode()).isEqualTo(HttpStatus.SERVICE_UNAVAILABLE);
+            }
+        }
+        assertThat(sent).hasSize(3);
+    }
+
+    @Test
+    void passesLoadSheddingOnWithoutEjectingOrRetrying() throws IOException {
+        answers.put("healthy", () -> {
+            MockClientHttpResponse response = response(HttpStatus.SERVICE_UNAVAILABLE);
+            response.getHeaders().set(HttpHeaders.RETRY_AFTER, "1");
+            return response;
+        });
+        LoadBalancingRequestFactory factory = factory(List.of(HEALTHY, URI.create("http://healthy:8089")), 1, 1);
+
+        for (int i = 0; i < 10; i++) {
+            try (ClientHttpResponse response = factory.createRequest(REQUEST, HttpMethod.GET).execute()) {
+                assertThat(response.getStatusCode()).isEqualTo(HttpStatus.SERVICE_UNAVAILABLE);
+            }
+        }
+
+        assertThat(sent).hasSize(10);
+        assertThat(meterRegistry.get("upstream.instance.ejections").counters())
+                .allMatch(counter -> counter.count() == 0);
+        assertThat(meterRegistry.get("upstream.instance.retries").counter().count()).isZero();
+    }
+
+    @Test
+    void doesNotRetryStreamedBodies() {
+        answers.put("healthy", () -> {
+            throw new ConnectException("Connection refused");
+        });
+        LoadBalancingRequestFactory factory = factory(List.of(HEALTHY, URI.create("http://healthy:8089")), 3, 1);
+
+        ClientHttpRequest upload = factory.createRequest(REQUEST, HttpMethod.PUT);
+        ((StreamingHttpOutputMessage) upload).setBody(output -> output.write(1));
+
+        assertThatThrownBy(upload::execute).isInstanceOf(ConnectException.class);
+        assertThat(sent).hasSize(1);
+    }
+
+    @Test
+    void countsStreamedResponseInFlightUntilBodyIsClosed() throws IOException {
+        answers.put("healthy", () -> response(HttpStatus.OK));
+        LoadBalancingRequestFactory factory = factory(List.of(HEALTHY), 3, 0);
+
+        ClientHttpResponse response = factory.createRequest(REQUEST, HttpMethod.GET).execute();
+        assertThat(inFlight("healthy:8088")).isEqualTo(1);
+        response.getBody().close();
+        assertThat(inFlight("healthy:8088")).isZero();
+        response.close();
+        assertThat(inFlight("healthy:8088")).isZero();
+    }
+
+    private LoadBalancingRequestFactory factory(List<URI> instances, int maxFailures, int retries) {
+        return new LoadBalancingRequestFactory(delegate, "student-service", instances, maxFailures,
+                Duration.ofMinutes(1), retries, meterRegistry);
+    }
+
+    private double inFlight(String instance) {
+        return meterRegistry.get("upstream.instance.in.flight").tag("instance", instance).gauge().value();
+    }
+
+    private static MockClientHttpResponse response(HttpStatus status) {
+        return new MockClientHttpResponse(new byte[0], status);
+    }
+}
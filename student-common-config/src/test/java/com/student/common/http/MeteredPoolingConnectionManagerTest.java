@@ -0,0 +1,72 @@
+package com.student.common.http;
+
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.apache.hc.client5.http.HttpRoute;
+import org.apache.hc.client5.http.io.ConnectionEndpoint;
+import org.apache.hc.core5.http.HttpHost;
+import org.apache.hc.core5.io.CloseMode;
+import org.apache.hc.core5.util.TimeValue;
+import org.apache.hc.core5.util.Timeout;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class MeteredPoolingConnectionManagerTest {
+
+    private static final HttpRoute ROUTE = new HttpRoute(new HttpHost("http", "student-service", 8088));
+    private static final Timeout LEASE_TIMEOUT = Timeout.ofMilliseconds(100);
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private final MeteredPoolingConnectionManager connectionManager =
+            new MeteredPoolingConnectionManager("student-service", meterRegistry);
+
+    @AfterEach
+    void close() {
+        connectionManager.close(CloseMode.IMMEDIATE);
+    }
+
+    @Test
+    void bindsThePoolGauges() {
+        connectionManager.setMaxTotal(7);
+
+        assertThat(meterRegistry.get("httpcomponents.httpclient.pool.total.max")
+                .tag("httpclient", "student-service").gauge().value()).isEqualTo(7);
+    }
+
+    @Test
+    void timesEveryAcquiredLease() throws Exception {
+        ConnectionEndpoint endpoint = connectionManager.lease("first", ROUTE, LEASE_TIMEOUT, null).get(LEASE_TIMEOUT);
+        connectionManager.release(endpoint, null, TimeValue.ZERO_MILLISECONDS);
+        connectionManager.lease("second", ROUTE, LEASE_TIMEOUT, null).get(LEASE_TIMEOUT);
+
+        assertThat(leases("acquired").count()).isEqualTo(2);
+        assertThat(leases("timeout").count()).isZero();
+    }
+
+    @Test
+    void timesALeaseThatFindsThePoolFull() throws Exception {
+        connectionManager.setMaxTotal(1);
+        connectionManager.setDefaultMaxPerRoute(1);
+        connectionManager.lease("holder", ROUTE, LEASE_TIMEOUT, null).get(LEASE_TIMEOUT);
+
+        assertThatThrownBy(() -> connectionManager.lease("waiter", ROUTE, LEASE_TIMEOUT, null).get(LEASE_TIMEOUT))
+                .isInstanceOf(TimeoutException.class);
+
+        Timer timedOut = leases("timeout");
+        assertThat(timedOut.count()).isEqualTo(1);
+        assertThat(timedOut.totalTime(TimeUnit.MILLISECONDS))
+                .isGreaterThanOrEqualTo(LEASE_TIMEOUT.toMilliseconds());
+        assertThat(leases("acquired").count()).isEqualTo(1);
+    }
+
+    private Timer leases(String result) {
+        return meterRegistry.get("httpcomponents.httpclient.pool.lease")
+                .tag("httpclient", "student-service").tag("result", result).timer();
+    }
+}
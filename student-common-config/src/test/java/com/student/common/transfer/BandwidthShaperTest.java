@@ -0,0 +1,132 @@
+package com.student.common.transfer;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class BandwidthShaperTest {
+
+    private static final int CHUNK = 16 * 1024;
+    private static final long TOTAL_RATE = 4 * 1024 * 1024;
+    private static final long RUN_MILLIS = 1500;
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+    @Test
+    void sharesTheLinkInProportionToWeight() throws InterruptedException {
+        BandwidthShaper shaper = new BandwidthShaper(0, 0, TOTAL_RATE, Map.of("gold", 3), meterRegistry);
+
+        AtomicLong gold = new AtomicLong();
+        AtomicLong other = new AtomicLong();
+        run(List.of(sender(shaper, "gold", gold), sender(shaper, "other", other)));
+
+        assertThat((double) gold.get() / other.get()).isBetween(2.0, 4.5);
+        assertThat(gold.get() + other.get()).isLessThan(TOTAL_RATE * (RUN_MILLIS / 1000 + 2));
+    }
+
+    @Test
+    void sharesPerClientNotPerStream() throws InterruptedException {
+        BandwidthShaper shaper = new BandwidthShaper(0, 0, TOTAL_RATE, Map.of(), meterRegistry);
+
+        AtomicLong busy = new AtomicLong();
+        AtomicLong single = new AtomicLong();
+        List<Runnable> senders = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            senders.add(sender(shaper, "busy", busy));
+        }
+        senders.add(sender(shaper, "single", single));
+        run(senders);
+
+        assertThat((double) busy.get() / single.get()).isBetween(0.6, 1.6);
+    }
+
+    @Test
+    void paysClientRateOnceTheBurstIsSpent() throws InterruptedIOException {
+        BandwidthShaper shaper = new BandwidthShaper(200 * 1024, 0, 0, Map.of(), meterRegistry);
+
+        long started = System.nanoTime();
+        try (BandwidthShaper.Stream stream = shaper.open("client")) {
+            stream.acquire(50 * 1024);
+            stream.acquire(50 * 1024);
+        }
+
+        assertThat(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started)).isGreaterThanOrEqualTo(400);
+        assertThat(meterRegistry.get("bandwidth.wait").tag("limit", "client").timer().count()).isEqualTo(2);
+    }
+
+    @Test
+    void unlimitedRatesDoNotWait() throws InterruptedIOException {
+        BandwidthShaper shaper = new BandwidthShaper(0, 0, 0, Map.of(), meterRegistry);
+
+        long started = System.nanoTime();
+        try (BandwidthShaper.Stream stream = shaper.open("client")) {
+            for (int i = 0; i < 1000; i++) {
+                stream.acquire(CHUNK);
+            }
+        }
+
+        assertThat(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started)).isLessThan(1000);
+    }
+
+    @Test
+    void tracksOpenStreamsAndClients() {
+        BandwidthShaper shaper = new BandwidthShaper(0, 0, 0, Map.of(), meterRegistry);
+
+        BandwidthShaper.Stream first = shaper.open("a");
+        BandwidthShaper.Stream second = shaper.open("a");
+        BandwidthShaper.Stream third = shaper.open("b");
+        assertThat(shaper.settings().streams()).isEqualTo(3);
+        assertThat(shaper.settings().clients()).isEqualTo(2);
+
+        first.close();
+        first.close();
+        third.close();
+        assertThat(shaper.settings().streams()).isEqualTo(1);
+        assertThat(shaper.settings().clients()).isEqualTo(1);
+        second.close();
+        assertThat(shaper.settings().clients()).isZero();
+    }
+
+    @Test
+    void parsesWeights() {
+        assertThat(BandwidthShaper.parseWeights("partner-a=4, partner-b = 2,")).containsExactly(
+                Map.entry("partner-a", 4), Map.entry("partner-b", 2));
+        assertThat(BandwidthShaper.parseWeights(null)).isEmpty();
+        assertThatThrownBy(() -> BandwidthShaper.parseWeights("partner-a")).isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> BandwidthShaper.parseWeights("partner-a=0")).isInstanceOf(IllegalArgumentException.class);
+    }
+
+    /**
+     * Sends chunks as fast as the shaper allows until {@link #RUN_MILLIS} have passed.
+     */
+    private static Runnable sender(BandwidthShaper shaper, String client, AtomicLong sent) {
+        return () -> {
+            long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(RUN_MILLIS);
+            try (BandwidthShaper.Stream stream = shaper.open(client)) {
+                while (System.nanoTime() < deadline) {
+                    stream.acquire(CHUNK);
+                    sent.addAndGet(CHUNK);
+                }
+            } catch (InterruptedIOException e) {
+                Thread.currentThread().interrupt();
+            }
+        };
+    }
+
+    private static void run(List<Runnable> senders) throws InterruptedException {
+        List<Thread> threads = senders.stream().map(Thread::new).toList();
+        threads.forEach(Thread::start);
+        for (Thread thread : threads) {
+            thread.join(RUN_MILLIS * 4);
+        }
+    }
+}
@@ -0,0 +1,52 @@
+package com.student.common.transfer;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledForJreRange;
+import org.junit.jupiter.api.condition.JRE;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class IoThreadsTest {
+
+    @Test
+    void platformThreadsAreNamedAfterTheirPool() throws Exception {
+        IoThreads ioThreads = new IoThreads(false);
+
+        Thread thread = run(ioThreads.threadFactory("s3-part-"));
+
+        assertThat(ioThreads.isVirtual()).isFalse();
+        assertThat(thread.getName()).startsWith("s3-part-");
+        assertThat(isVirtual(thread)).isFalse();
+    }
+
+    @Test
+    @EnabledForJreRange(min = JRE.JAVA_21)
+    void virtualThreadsAreNamedAfterTheirPool() throws Exception {
+        IoThreads ioThreads = new IoThreads(true);
+
+        Thread thread = run(ioThreads.threadFactory("s3-bundle-"));
+
+        assertThat(ioThreads.isVirtual()).isTrue();
+        assertThat(thread.getName()).startsWith("s3-bundle-");
+        assertThat(isVirtual(thread)).isTrue();
+    }
+
+    private static Thread run(ThreadFactory threadFactory) throws Exception {
+        CompletableFuture<Thread> current = new CompletableFuture<>();
+        Thread thread = threadFactory.newThread(() -> current.complete(Thread.currentThread()));
+        thread.start();
+        return current.get(5, TimeUnit.SECONDS);
+    }
+
+    private static boolean isVirtual(Thread thread) throws ReflectiveOperationException {
+        // Thread.isVirtual() only exists from Java 21; the build targets 17
+        if (Runtime.version().feature() < 21) {
+            return false;
+        }
+        return (boolean) Thread.class.getMethod("isVirtual").invoke(thread);
+    }
+}
@@ -0,0 +1,150 @@
+package com.student.common.transfer;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.mock.web.MockFilterChain;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class MemoryBudgetTest {
+
+    private static final long CAPACITY = 1000;
+    private static final long STREAMING_THRESHOLD = 600;
+    private static final Duration MAX_WAIT = Duration.ofMillis(300);
+    private static final Duration RETRY_AFTER = Duration.ofSeconds(4);
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private final MemoryBudget memoryBudget = new MemoryBudget(CAPACITY, STREAMING_THRESHOLD, 1, MAX_WAIT, RETRY_AFTER,
+            meterRegistry);
+
+    @Test
+    void buffersBodiesBelowTheStreamingThreshold() {
+        MockHttpServletRequest request = new MockHttpServletRequest();
+
+        assertThat(memoryBudget.admit(request, 400)).isEqualTo(MemoryBudget.Admission.BUFFER);
+        assertThat(memoryBudget.admit(request, 100)).isEqualTo(MemoryBudget.Admission.BUFFER);
+
+        assertThat(used()).isEqualTo(500);
+        assertThat(request.getAttribute(MemoryBudget.RESERVATION_ATTRIBUTE)).isEqualTo(500L);
+        assertThat(admissions("buffer")).isEqualTo(2);
+    }
+
+    @Test
+    void streamsLargeAndUnknownBodiesWithoutReserving() {
+        MockHttpServletRequest request = new MockHttpServletRequest();
+
+        assertThat(memoryBudget.admit(request, STREAMING_THRESHOLD)).isEqualTo(MemoryBudget.Admission.STREAM);
+        assertThat(memoryBudget.admit(request, -1)).isEqualTo(MemoryBudget.Admission.STREAM);
+        assertThat(memoryBudget.isStreamed(STREAMING_THRESHOLD - 1)).isFalse();
+
+        assertThat(used()).isZero();
+        assertThat(request.getAttribute(MemoryBudget.RESERVATION_ATTRIBUTE)).isNull();
+        assertThat(admissions("stream")).isEqualTo(2);
+    }
+
+    @Test
+    void queuedRequestIsAdmittedOnceMemoryIsReleased() throws Exception {
+        MockHttpServletRequest first = new MockHttpServletRequest();
+        memoryBudget.admit(first, 500);
+        memoryBudget.admit(first, 400);
+
+        CompletableFuture<MemoryBudget.Admission> second =
+                CompletableFuture.supplyAsync(() -> memoryBudget.admit(new MockHttpServletRequest(), 500));
+        awaitQueued(1);
+        assertThat(second).isNotDone();
+
+        new MemoryBudgetFilter(memoryBudget).doFilter(first, new MockHttpServletResponse(), new MockFilterChain());
+
+        assertThat(second.get(1, TimeUnit.SECONDS)).isEqualTo(MemoryBudget.Admission.BUFFER);
+        assertThat(used()).isEqualTo(500);
+        assertThat(queued()).isZero();
+    }
+
+    @Test
+    void queuedRequestTimesOutAfterMaxWait() {
+        memoryBudget.admit(new MockHttpServletRequest(), 500);
+        memoryBudget.admit(new MockHttpServletRequest(), 400);
+        long started = System.nanoTime();
+
+        assertThatThrownBy(() -> memoryBudget.admit(new MockHttpServletRequest(), 500))
+                .isInstanceOfSatisfying(MemoryBudgetExceededException.class,
+                        e -> assertThat(e.getRetryAfter()).isEqualTo(RETRY_AFTER))
+                .hasMessageContaining("timed out");
+
+        assertThat(System.nanoTime() - started).isGreaterThanOrEqualTo(MAX_WAIT.toNanos());
+        assertThat(used()).isEqualTo(900);
+        assertThat(queued()).isZero();
+        assertThat(admissions("rejected")).isEqualTo(1);
+    }
+
+    @Test
+    void requestBeyondMaxQueuedIsRejectedAtOnce() throws Exception {
+        memoryBudget.admit(new MockHttpServletRequest(), 500);
+        memoryBudget.admit(new MockHttpServletRequest(), 400);
+        CompletableFuture<MemoryBudget.Admission> waiting =
+                CompletableFuture.supplyAsync(() -> memoryBudget.admit(new MockHttpServletRequest(), 500));
+        awaitQueued(1);
+
+        long started = System.nanoTime();
+        assertThatThrownBy(() -> memoryBudget.admit(new MockHttpServletRequest(), 500))
+                .isInstanceOf(MemoryBudgetExceededException.class)
+                .hasMessageContaining("queue full");
+        assertThat(System.nanoTime() - started).isLessThan(MAX_WAIT.toNanos());
+
+        assertThat(waiting).failsWithin(1, TimeUnit.SECONDS);
+    }
+
+    @Test
+    void tryReserveNeverWaits() {
+        assertThat(memoryBudget.tryReserve(800)).isTrue();
+        assertThat(memoryBudget.tryReserve(300)).isFalse();
+        assertThatThrownBy(() -> memoryBudget.reserve(300))
+                .isInstanceOfSatisfying(MemoryBudgetExceededException.class,
+                        e -> assertThat(e.getRetryAfter()).isEqualTo(RETRY_AFTER));
+
+        memoryBudget.release(800);
+        assertThat(memoryBudget.tryReserve(1000)).isTrue();
+        assertThat(used()).isEqualTo(1000);
+    }
+
+    @Test
+    void filterReleasesTheReservationWhenTheRequestFails() {
+        MockHttpServletRequest request = new MockHttpServletRequest();
+        MemoryBudgetFilter filter = new MemoryBudgetFilter(memoryBudget);
+
+        assertThatThrownBy(() -> filter.doFilter(request, new MockHttpServletResponse(), (req, res) -> {
+            memoryBudget.admit(request, 300);
+            throw new IllegalStateException("write failed");
+        })).isInstanceOf(IllegalStateException.class);
+
+        assertThat(used()).isZero();
+        assertThat(request.getAttribute(MemoryBudget.RESERVATION_ATTRIBUTE)).isNull();
+    }
+
+    private void awaitQueued(int expected) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (queued() != expected && System.nanoTime() < deadline) {
+            Thread.sleep(5);
+        }
+        assertThat(queued()).isEqualTo(expected);
+    }
+
+    private double used() {
+        return meterRegistry.get("memory.budget.used").gauge().value();
+    }
+
+    private double queued() {
+        return meterRegistry.get("memory.budget.queued").gauge().value();
+    }
+
+    private double admissions(String result) {
+        return meterRegistry.get("memory.budget.admissions").tag("result", result).counter().count();
+    }
+}
@@ -0,0 +1,327 @@
+package com.student.common.transfer;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class SingleFlightTest {
+
+    private static final String KEY = "jmz-bucket/test.txt?mode=AUTO";
+    private static final byte[] FIRST = "first half, ".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] SECOND = "second half".getBytes(StandardCharsets.UTF_8);
+    private static final String BODY = "first half, second half";
+
+    @TempDir
+    Path spoolDirectory;
+
+    private SingleFlight singleFlight;
+
+    @AfterEach
+    void closeSingleFlight() {
+        if (singleFlight != null) {
+            singleFlight.close();
+        }
+    }
+
+    @Test
+    void concurrentCallersShareOneUpstreamFetch() throws Exception {
+        singleFlight = new SingleFlight(true, spoolDirectory, 1024, new IoThreads(false));
+        ScriptedInputStream upstream = new ScriptedInputStream();
+        AtomicInteger opened = new AtomicInteger();
+
+        SingleFlight.Shared<String> leader = singleFlight.open(KEY, () -> {
+            opened.incrementAndGet();
+            return new SingleFlight.Source<>("metadata", upstream, BODY.length());
+        });
+        SingleFlight.Shared<String> joiner = singleFlight.open(KEY, () -> {
+            opened.incrementAndGet();
+            return new SingleFlight.Source<>("other", new ByteArrayInputStream(new byte[0]), 0);
+        });
+
+        assertThat(leader.coalesced()).isFalse();
+        assertThat(joiner.coalesced()).isTrue();
+        assertThat(joiner.metadata()).isEqualTo("metadata");
+
+        upstream.send(FIRST);
+        upstream.send(SECOND);
+        upstream.end();
+        assertThat(readAll(leader.body())).isEqualTo(BODY);
+        assertThat(readAll(joiner.body())).isEqualTo(BODY);
+        assertThat(opened).hasValue(1);
+
+        leader.body().close();
+        joiner.body().close();
+        awaitNoSpoolFiles();
+    }
+
+    @Test
+    void lateJoinerStillReadsFromTheStart() throws Exception {
+        singleFlight = new SingleFlight(true, spoolDirectory, 1024, new IoThreads(false));
+        ScriptedInputStream upstream = new ScriptedInputStream();
+
+        SingleFlight.Shared<String> leader = singleFlight.open(KEY,
+                () -> new SingleFlight.Source<>("metadata", upstream, BODY.length()));
+        upstream.send(FIRST);
+        assertThat(new String(leader.body().readNBytes(FIRST.length), StandardCharsets.UTF_8))
+                .isEqualTo("first half, ");
+
+        SingleFlight.Shared<String> joiner = singleFlight.open(KEY, () -> {
+            throw new AssertionError("Joiner must not open the upstream");
+        });
+        upstream.send(SECOND);
+        upstream.end();
+
+        assertThat(readAll(joiner.body())).isEqualTo(BODY);
+        assertThat(readAll(leader.body())).isEqualTo("second half");
+        leader.body().close();
+        joiner.body().close();
+    }
+
+    @Test
+    void upstreamIsClosedOnceEverySubscriberLeaves() throws Exception {
+        singleFlight = new SingleFlight(true, spoolDirectory, 1024, new IoThreads(false));
+        ScriptedInputStream upstream = new ScriptedInputStream();
+
+        SingleFlight.Shared<String> leader = singleFlight.open(KEY,
+                () -> new SingleFlight.Source<>("metadata", upstream, BODY.length()));
+        SingleFlight.Shared<String> joiner = singleFlight.open(KEY,
+                () -> new SingleFlight.Source<>("metadata", upstream, BODY.length()));
+        upstream.send(FIRST);
+
+        leader.body().close();
+        assertThat(upstream.closed).isFalse();
+        joiner.body().close();
+        // The pump notices on its next chunk
+        upstream.send(SECOND);
+        awaitClosed(upstream);
+        awaitNoSpoolFiles();
+
+        AtomicInteger opened = new AtomicInteger();
+        SingleFlight.Shared<String> next = singleFlight.open(KEY, () -> {
+            opened.incrementAndGet();
+            return new SingleFlight.Source<>("fresh", new ByteArrayInputStream(SECOND), SECOND.length);
+        });
+        assertThat(next.coalesced()).isFalse();
+        assertThat(readAll(next.body())).isEqualTo("second half");
+        assertThat(opened).hasValue(1);
+        next.body().close();
+    }
+
+    @Test
+    void upstreamFailureReachesEverySubscriber() throws Exception {
+        singleFlight = new SingleFlight(true, spoolDirectory, 1024, new IoThreads(false));
+        ScriptedInputStream upstream = new ScriptedInputStream();
+
+        SingleFlight.Shared<String> leader = singleFlight.open(KEY,
+                () -> new SingleFlight.Source<>("metadata", upstream, BODY.length()));
+        SingleFlight.Shared<String> joiner = singleFlight.open(KEY,
+                () -> new SingleFlight.Source<>("metadata", upstream, BODY.length()));
+        upstream.send(FIRST);
+        upstream.fail(new IOException("Connection reset"));
+
+        assertThatThrownBy(() -> readAll(leader.body())).isInstanceOf(IOException.class)
+                .hasRootCauseMessage("Connection reset");
+        assertThatThrownBy(() -> readAll(joiner.body())).isInstanceOf(IOException.class)
+                .hasRootCauseMessage("Connection reset");
+        leader.body().close();
+        joiner.body().close();
+
+        // A failed flight takes no new subscribers
+        SingleFlight.Shared<String> retry = singleFlight.open(KEY,
+                () -> new SingleFlight.Source<>("retry", new ByteArrayInputStream(SECOND), SECOND.length));
+        assertThat(retry.metadata()).isEqualTo("retry");
+        assertThat(readAll(retry.body())).isEqualTo("second half");
+        retry.body().close();
+    }
+
+    @Test
+    void upstreamEndingShortFailsEverySubscriber() throws Exception {
+        singleFlight = new SingleFlight(true, spoolDirectory, 1024, new IoThreads(false));
+        ScriptedInputStream upstream = new ScriptedInputStream();
+
+        SingleFlight.Shared<String> leader = singleFlight.open(KEY,
+                () -> new SingleFlight.Source<>("metadata", upstream, BODY.length()));
+        SingleFlight.Shared<String> joiner = singleFlight.open(KEY,
+                () -> new SingleFlight.Source<>("metadata", upstream, BODY.length()));
+        upstream.send(FIRST);
+        upstream.end();
+
+        assertThatThrownBy(() -> readAll(leader.body())).isInstanceOf(IOException.class)
+                .hasRootCauseInstanceOf(EOFException.class);
+        assertThatThrownBy(() -> readAll(joiner.body())).isInstanceOf(IOException.class)
+                .hasRootCauseInstanceOf(EOFException.class);
+        leader.body().close();
+        joiner.body().close();
+        awaitNoSpoolFiles();
+    }
+
+    @Test
+    void openerFailureIsRethrownAndNotRemembered() throws Exception {
+        singleFlight = new SingleFlight(true, spoolDirectory, 1024, new IoThreads(false));
+
+        assertThatThrownBy(() -> singleFlight.open(KEY, () -> {
+            throw new IllegalStateException("NoSuchKey");
+        })).isInstanceOf(IllegalStateException.class).hasMessage("NoSuchKey");
+
+        SingleFlight.Shared<String> retry = singleFlight.open(KEY,
+                () -> new SingleFlight.Source<>("retry", new ByteArrayInputStream(SECOND), SECOND.length));
+        assertThat(readAll(retry.body())).isEqualTo("second half");
+        retry.body().close();
+        assertThat(spoolDirectory).isEmptyDirectory();
+    }
+
+    @Test
+    void bodiesOverTheSpoolLimitAreNotShared() throws Exception {
+        singleFlight = new SingleFlight(true, spoolDirectory, 8, new IoThreads(false));
+        ScriptedInputStream upstream = new ScriptedInputStream();
+        AtomicInteger opened = new AtomicInteger();
+
+        SingleFlight.Shared<String> leader = singleFlight.open(KEY, () -> {
+            opened.incrementAndGet();
+            return new SingleFlight.Source<>("metadata", upstream, BODY.length());
+        });
+        SingleFlight.Shared<String> other = singleFlight.open(KEY, () -> {
+            opened.incrementAndGet();
+            return new SingleFlight.Source<>("own", new ByteArrayInputStream(SECOND), SECOND.length);
+        });
+
+        assertThat(leader.body()).isSameAs(upstream);
+        assertThat(other.coalesced()).isFalse();
+        assertThat(other.metadata()).isEqualTo("own");
+        assertThat(opened).hasValue(2);
+        assertThat(singleFlight.shares(BODY.length())).isFalse();
+        assertThat(singleFlight.shares(-1)).isFalse();
+        assertThat(spoolDirectory).isEmptyDirectory();
+    }
+
+    @Test
+    void completeSpoolIsHandedToTheSource() throws Exception {
+        singleFlight = new SingleFlight(true, spoolDirectory, 1024, new IoThreads(false));
+        Path adopted = spoolDirectory.resolveSibling(spoolDirectory.getFileName() + "-adopted");
+
+        SingleFlight.Shared<String> shared = singleFlight.open(KEY, () -> new SingleFlight.Source<>("metadata",
+                new ByteArrayInputStream(BODY.getBytes(StandardCharsets.UTF_8)), BODY.length(), spool -> {
+                    try {
+                        Files.move(spool, adopted);
+                    } catch (IOException e) {
+                        throw new IllegalStateException(e);
+                    }
+                }));
+
+        assertThat(readAll(shared.body())).isEqualTo(BODY);
+        shared.body().close();
+        assertThat(adopted).hasContent(BODY);
+        Files.delete(adopted);
+    }
+
+    @Test
+    void disabledOpensEveryCallerSeparately() throws Exception {
+        singleFlight = new SingleFlight(false, spoolDirectory, 1024, new IoThreads(false));
+        AtomicInteger opened = new AtomicInteger();
+
+        for (int i = 0; i < 2; i++) {
+            SingleFlight.Shared<String> shared = singleFlight.open(KEY, () -> {
+                opened.incrementAndGet();
+                return new SingleFlight.Source<>("metadata", new ByteArrayInputStream(SECOND), SECOND.length);
+            });
+            assertThat(shared.coalesced()).isFalse();
+        }
+        assertThat(opened).hasValue(2);
+    }
+
+    private static String readAll(InputStream inputStream) throws IOException {
+        return new String(inputStream.readAllBytes(), StandardCharsets.UTF_8);
+    }
+
+    private void awaitNoSpoolFiles() throws IOException, InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (System.nanoTime() < deadline) {
+            try (var files = Files.list(spoolDirectory)) {
+                if (files.findAny().isEmpty()) {
+                    return;
+                }
+            }
+            Thread.sleep(10);
+        }
+        assertThat(spoolDirectory).isEmptyDirectory();
+    }
+
+    private static void awaitClosed(ScriptedInputStream upstream) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (!upstream.closed && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+        assertThat(upstream.closed).isTrue();
+    }
+
+    /**
+     * An upstream body that hands out exactly what the test sends, when it sends it.
+     */
+    private static final class ScriptedInputStream extends InputStream {
+
+        private static final Object END = new Object();
+
+        private final BlockingQueue<Object> chunks = new LinkedBlockingQueue<>();
+        private volatile boolean closed;
+
+        void send(byte[] chunk) {
+            chunks.add(chunk);
+        }
+
+        void fail(IOException e) {
+            chunks.add(e);
+        }
+
+        void end() {
+            chunks.add(END);
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] single = new byte[1];
+            return read(single, 0, 1) == -1 ? -1 : single[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            Object next;
+            try {
+                next = chunks.take();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted", e);
+            }
+            if (next instanceof IOException e) {
+                throw e;
+            }
+            if (next == END) {
+                chunks.add(END);
+                return -1;
+            }
+            byte[] chunk = (byte[]) next;
+            // Chunks fit the callers' buffers in these tests
+            System.arraycopy(chunk, 0, buffer, offset, chunk.length);
+            return chunk.length;
+        }
+
+        @Override
+        public void close() {
+            closed = true;
+        }
+    }
+}
@@ -0,0 +1,152 @@
+package com.student.common.transfer;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class StreamRelayTest {
+
+    private static final long FLUSH_INTERVAL_MILLIS = 50;
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+    @Test
+    void copiesEverythingThroughOnePooledBuffer() throws IOException {
+        StreamRelay relay = new StreamRelay(16, 2, 1024, 60_000, meterRegistry);
+        byte[] data = data(100);
+
+        for (int i = 0; i < 3; i++) {
+            ByteArrayOutputStream output = new ByteArrayOutputStream();
+            assertThat(relay.relay(new ByteArrayInputStream(data), output)).isEqualTo(100);
+            assertThat(output.toByteArray()).isEqualTo(data);
+        }
+
+        assertThat(meterRegistry.get("relay.bytes").counter().count()).isEqualTo(300);
+        assertThat(meterRegistry.get("relay.buffers.allocated").counter().count()).isEqualTo(1);
+        assertThat(meterRegistry.get("relay.buffers.pooled").gauge().value()).isEqualTo(1);
+    }
+
+    @Test
+    void flushesEveryFlushThresholdBytes() throws IOException {
+        StreamRelay relay = new StreamRelay(10, 2, 30, 60_000, meterRegistry);
+        FlushRecordingStream output = new FlushRecordingStream(0);
+
+        relay.relay(new ByteArrayInputStream(data(100)), output);
+
+        // Three at the threshold, one at the end of stream
+        assertThat(output.flushedAt).containsExactly(30, 60, 90, 100);
+    }
+
+    @Test
+    void flushesBeforeAReadThatWouldBlockOnceTheIntervalHasPassed() throws IOException {
+        StreamRelay relay = new StreamRelay(10, 2, 1024, FLUSH_INTERVAL_MILLIS, meterRegistry);
+        // The write outlasts the interval, so it has passed by the time of the next read
+        FlushRecordingStream output = new FlushRecordingStream(FLUSH_INTERVAL_MILLIS + 10);
+        ChunkedStream input = new ChunkedStream(output, 0);
+
+        relay.relay(input, output);
+
+        assertThat(input.flushedBeforeRead).containsExactly(0, 10, 20);
+    }
+
+    @Test
+    void keepsCoalescingWhileUpstreamHasDataReady() throws IOException {
+        StreamRelay relay = new StreamRelay(10, 2, 1024, FLUSH_INTERVAL_MILLIS, meterRegistry);
+        FlushRecordingStream output = new FlushRecordingStream(FLUSH_INTERVAL_MILLIS + 10);
+        ChunkedStream input = new ChunkedStream(output, 1);
+
+        relay.relay(input, output);
+
+        // Reads that won't block come first: the interval flush waits for the next read to return
+        assertThat(input.flushedBeforeRead).containsExactly(0, 0, 20);
+        assertThat(output.flushedAt).containsExactly(20, 30, 30);
+    }
+
+    /**
+     * Records the bytes written at each flush; every write takes {@code writeMillis}.
+     */
+    private static class FlushRecordingStream extends ByteArrayOutputStream {
+
+        private final long writeMillis;
+        private final List<Integer> flushedAt = new ArrayList<>();
+
+        FlushRecordingStream(long writeMillis) {
+            this.writeMillis = writeMillis;
+        }
+
+        @Override
+        public synchronized void write(byte[] b, int off, int len) {
+            sleep(writeMillis);
+            super.write(b, off, len);
+        }
+
+        @Override
+        public void flush() {
+            flushedAt.add(size());
+        }
+
+        private int lastFlushed() {
+            return flushedAt.isEmpty() ? 0 : flushedAt.get(flushedAt.size() - 1);
+        }
+    }
+
+    /**
+     * Returns three chunks of ten bytes, recording how much {@code output} had flushed when each read began.
+     */
+    private static class ChunkedStream extends InputStream {
+
+        private final FlushRecordingStream output;
+        private final int available;
+        private final List<Integer> flushedBeforeRead = new ArrayList<>();
+        private int chunks = 3;
+
+        ChunkedStream(FlushRecordingStream output, int available) {
+            this.output = output;
+            this.available = available;
+        }
+
+        @Override
+        public int read() {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) {
+            if (chunks == 0) {
+                return -1;
+            }
+            flushedBeforeRead.add(output.lastFlushed());
+            chunks--;
+            return Math.min(length, 10);
+        }
+
+        @Override
+        public int available() {
+            return chunks == 0 ? 0 : available;
+        }
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static byte[] data(int length) {
+        byte[] data = new byte[length];
+        for (int i = 0; i < length; i++) {
+            data[i] = (byte) i;
+        }
+        return data;
+    }
+}
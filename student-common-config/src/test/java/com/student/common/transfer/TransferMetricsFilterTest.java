@@ -0,0 +1,100 @@
+package com.student.common.transfer;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import jakarta.servlet.AsyncContext;
+import org.junit.jupiter.api.Test;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+
+import java.io.IOException;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class TransferMetricsFilterTest {
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private final TransferMetricsFilter filter =
+            new TransferMetricsFilter(new TransferMetrics(List.of("download", "upload"), meterRegistry));
+
+    @Test
+    void countsTheBytesWrittenToTheResponse() throws Exception {
+        filter.doFilter(request("/api/files/download"), new MockHttpServletResponse(),
+                (req, res) -> res.getOutputStream().write(new byte[100]));
+
+        assertThat(meterRegistry.get("transfer.bytes").tag("endpoint", "download").summary().totalAmount())
+                .isEqualTo(100);
+        assertThat(meterRegistry.get("transfer.duration").tag("endpoint", "download")
+                .tag("outcome", "SUCCESS").tag("status", "200").timer().count()).isEqualTo(1);
+        assertThat(meterRegistry.get("transfer.ttfb").tag("endpoint", "download").timer().count()).isEqualTo(1);
+        assertThat(inFlight("download")).isZero();
+    }
+
+    @Test
+    void countsTheBytesReadFromAnUpload() throws Exception {
+        MockHttpServletRequest request = request("/api/files/upload");
+        request.setContent(new byte[50]);
+
+        filter.doFilter(request, new MockHttpServletResponse(), (req, res) -> req.getInputStream().readAllBytes());
+
+        assertThat(meterRegistry.get("transfer.upload.bytes").tag("endpoint", "upload").summary().totalAmount())
+                .isEqualTo(50);
+        assertThat(meterRegistry.get("transfer.bytes").tag("endpoint", "upload").summary().totalAmount()).isZero();
+    }
+
+    @Test
+    void asyncResponseIsRecordedWhenItCompletes() throws Exception {
+        MockHttpServletRequest request = request("/api/files/download");
+        request.setAsyncSupported(true);
+
+        filter.doFilter(request, new MockHttpServletResponse(), (req, res) -> {
+            req.startAsync();
+            res.getOutputStream().write(new byte[30]);
+        });
+
+        assertThat(inFlight("download")).isEqualTo(1);
+        assertThat(meterRegistry.find("transfer.duration").timer()).isNull();
+
+        AsyncContext asyncContext = request.getAsyncContext();
+        asyncContext.complete();
+
+        assertThat(inFlight("download")).isZero();
+        assertThat(meterRegistry.get("transfer.bytes").tag("endpoint", "download").summary().totalAmount())
+                .isEqualTo(30);
+    }
+
+    @Test
+    void sendfileBodyIsCountedFromItsRange() throws Exception {
+        MockHttpServletRequest request = request("/api/files/download");
+
+        filter.doFilter(request, new MockHttpServletResponse(), (req, res) -> {
+            req.setAttribute("org.apache.tomcat.sendfile.filename", "/tmp/cache/file");
+            req.setAttribute("org.apache.tomcat.sendfile.start", 0L);
+            req.setAttribute("org.apache.tomcat.sendfile.end", 4096L);
+        });
+
+        assertThat(meterRegistry.get("transfer.bytes").tag("endpoint", "download").summary().totalAmount())
+                .isEqualTo(4096);
+    }
+
+    @Test
+    void failedResponseIsRecordedAsAborted() {
+        assertThatThrownBy(() -> filter.doFilter(request("/api/files/download"), new MockHttpServletResponse(),
+                (req, res) -> {
+                    res.getOutputStream().write(new byte[10]);
+                    throw new IOException("Broken pipe");
+                })).isInstanceOf(IOException.class);
+
+        assertThat(meterRegistry.get("transfer.duration").tag("outcome", "ABORTED").timer().count()).isEqualTo(1);
+        assertThat(inFlight("download")).isZero();
+    }
+
+    private double inFlight(String endpoint) {
+        return meterRegistry.get("transfer.in.flight").tag("endpoint", endpoint).gauge().value();
+    }
+
+    private static MockHttpServletRequest request(String uri) {
+        return new MockHttpServletRequest("GET", uri);
+    }
+}
@@ -0,0 +1,76 @@
+package com.student.service.controller;
+
+import com.student.common.http.ConditionalRequests;
+import com.student.service.service.S3AsyncFileService;
+import com.student.service.service.S3FileService;
+import jakarta.servlet.AsyncContext;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.ContentDisposition;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+import software.amazon.awssdk.services.s3.model.GetObjectResponse;
+
+@Slf4j
+@RestController
+@RequestMapping("/api/files")
+@RequiredArgsConstructor
+public class FileAsyncDownloadController {
+
+    private final S3FileService s3FileService;
+    private final S3AsyncFileService s3AsyncFileService;
+
+    @Value("${spring.mvc.async.request-timeout}")
+    private long asyncRequestTimeout;
+
+    /**
+     * Non-blocking download backed by the CRT {@code S3AsyncClient}. No thread is held for the transfer:
+     * S3 chunks are written as the socket becomes writable and requested one at a time.
+     */
+    @GetMapping(value = "/download-async")
+    public void downloadFileAsync(HttpServletRequest request, HttpServletResponse response) {
+        log.info("Received request to download file (non-blocking)");
+
+        if (ConditionalRequests.isConditional(request)) {
+            S3FileService.S3ObjectInfo info = s3FileService.getObjectInfo();
+            if (ConditionalRequests.isNotModified(request, info.eTag(), info.lastModified())) {
+                response.setStatus(HttpStatus.NOT_MODIFIED.value());
+                response.setHeader(HttpHeaders.ETAG, info.eTag());
+                if (info.lastModified() != null) {
+                    response.setDateHeader(HttpHeaders.LAST_MODIFIED, info.lastModified().toEpochMilli());
+                }
+                return;
+            }
+        }
+
+        AsyncContext asyncContext = request.startAsync(request, response);
+        asyncContext.setTimeout(asyncRequestTimeout);
+
+        s3AsyncFileService.downloadFile().whenComplete((publisher, error) -> {
+            if (error != null) {
+                NonBlockingResponseWriter.fail(asyncContext, error);
+                return;
+            }
+
+            GetObjectResponse object = publisher.response();
+            response.setStatus(HttpStatus.OK.value());
+            response.setContentType(object.contentType());
+            response.setContentLengthLong(object.contentLength());
+            response.setHeader(HttpHeaders.ETAG, object.eTag());
+            if (object.lastModified() != null) {
+                response.setDateHeader(HttpHeaders.LAST_MODIFIED, object.lastModified().toEpochMilli());
+            }
+            response.setHeader(HttpHeaders.CONTENT_DISPOSITION,
+                    ContentDisposition.attachment().filename(s3FileService.getFileName()).build().toString());
+
+            log.info("Streaming file (non-blocking): {}, contentType={}", s3FileService.getFileName(), object.contentType());
+            NonBlockingResponseWriter.start(asyncContext, publisher);
+        });
+    }
+}
@@ -0,0 +1,63 @@
+package com.student.service.controller;
+
+import com.student.service.exception.FileDownloadException;
+import com.student.service.service.S3BundleService;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.http.ContentDisposition;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+import java.util.List;
+
+@Slf4j
+@RestController
+@RequestMapping("/api/files")
+@RequiredArgsConstructor
+public class FileBundleController {
+
+    private static final String BUNDLE_FILE_NAME = "bundle.zip";
+
+    private final S3BundleService s3BundleService;
+
+    /**
+     * Streams the objects named by {@code key} (repeatable) and/or found under {@code prefix} as one ZIP archive,
+     * built while it is sent. The first object is opened before the response starts, so a missing key still gets
+     * a proper error status.
+     */
+    @GetMapping(value = "/bundle")
+    public ResponseEntity<StreamingResponseBody> downloadBundle(
+            @RequestParam(value = "key", required = false) List<String> keys,
+            @RequestParam(value = "prefix", required = false) String prefix) {
+        log.info("Received request to download bundle, keys={}, prefix={}", keys, prefix);
+
+        List<String> resolvedKeys = s3BundleService.resolveKeys(keys, prefix);
+        try {
+            S3BundleService.Bundle bundle = s3BundleService.open(resolvedKeys);
+
+            HttpHeaders headers = new HttpHeaders();
+            headers.setContentDisposition(ContentDisposition.attachment().filename(BUNDLE_FILE_NAME).build());
+            headers.setContentType(MediaType.parseMediaType("application/zip"));
+
+            log.info("Streaming bundle of {} objects", bundle.size());
+
+            StreamingResponseBody responseBody = bundle::writeTo;
+
+            return ResponseEntity.ok()
+                    .headers(headers)
+                    .body(responseBody);
+
+        } catch (FileDownloadException e) {
+            throw e;
+        } catch (Exception e) {
+            log.error("Error initiating bundle download", e);
+            throw new FileDownloadException("Failed to initiate bundle download", e);
+        }
+    }
+}
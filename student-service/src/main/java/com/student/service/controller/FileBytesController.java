@@ -0,0 +1,90 @@
+package com.student.service.controller;
+
+import com.student.common.transfer.MemoryBudget;
+import com.student.common.transfer.MemoryBudgetExceededException;
+import com.student.common.transfer.StreamRelay;
+import com.student.service.exception.FileDownloadException;
+import com.student.service.service.S3FileService;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.http.ContentDisposition;
+import org.springframework.http.HttpHeaders;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+@Slf4j
+@RestController
+@RequestMapping("/api/files")
+@RequiredArgsConstructor
+public class FileBytesController {
+
+    private final S3FileService s3FileService;
+    private final MemoryBudget memoryBudget;
+    private final StreamRelay streamRelay;
+
+    /**
+     * Buffers the file in a byte[] when the {@link MemoryBudget} admits it. Files too large to buffer are
+     * streamed straight to the response instead, and requests that find the budget exhausted after
+     * queueing get 503 with {@code Retry-After}. Either way the body is written here, on the request thread,
+     * so the reservation is held until the bytes are sent.
+     */
+    @GetMapping(value = "/download-bytes")
+    public void downloadFileAsBytes(HttpServletRequest request, HttpServletResponse response) {
+        log.info("Received request to download file as byte[]");
+
+        try {
+            S3FileService.S3File s3File = s3FileService.openFileForBuffering();
+            String fileName = s3FileService.getFileName();
+
+            MemoryBudget.Admission admission;
+            try {
+                admission = memoryBudget.admit(request, s3File.contentLength() == null ? -1 : s3File.contentLength());
+            } catch (MemoryBudgetExceededException e) {
+                s3File.inputStream().close();
+                throw e;
+            }
+
+            if (admission == MemoryBudget.Admission.STREAM) {
+                streamUnbuffered(s3File, fileName, response);
+                return;
+            }
+
+            S3FileService.S3BytesFile s3BytesFile = s3FileService.readAllBytes(s3File);
+
+            log.info("Returning file as byte[]: {}, size={} bytes, contentType={}", fileName, s3BytesFile.data().length, s3BytesFile.contentType());
+
+            setDownloadHeaders(response, s3BytesFile.contentType(), fileName, (long) s3BytesFile.data().length);
+            response.getOutputStream().write(s3BytesFile.data());
+
+        } catch (MemoryBudgetExceededException e) {
+            throw e;
+        } catch (Exception e) {
+            log.error("Error downloading file as byte[]", e);
+            throw new FileDownloadException("Failed to download file as byte[]", e);
+        }
+    }
+
+    private void streamUnbuffered(S3FileService.S3File s3File, String fileName, HttpServletResponse response) throws IOException {
+        log.info("Streaming byte[] request without buffering: {}, size={} bytes", fileName, s3File.contentLength());
+
+        setDownloadHeaders(response, s3File.contentType(), fileName, s3File.contentLength());
+        try (InputStream inputStream = s3File.inputStream()) {
+            streamRelay.relay(inputStream, response.getOutputStream());
+        }
+    }
+
+    private static void setDownloadHeaders(HttpServletResponse response, String contentType, String fileName, Long contentLength) {
+        response.setContentType(contentType);
+        response.setHeader(HttpHeaders.CONTENT_DISPOSITION,
+                ContentDisposition.attachment().filename(fileName).build().toString());
+        if (contentLength != null) {
+            response.setContentLengthLong(contentLength);
+        }
+    }
+}
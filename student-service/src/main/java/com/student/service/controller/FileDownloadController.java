@@ -1,21 +1,40 @@
 package com.student.service.controller;
 
+import com.student.common.http.ConditionalRequests;
+import com.student.common.transfer.StreamRelay;
 import com.student.service.exception.FileDownloadException;
+import com.student.service.exception.ObjectChangedException;
+import com.student.service.service.ContentEncoder;
+import com.student.service.service.S3DiskCache;
 import com.student.service.service.S3FileService;
+import com.student.service.service.S3PresignedUrls;
+import jakarta.servlet.http.HttpServletRequest;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.http.CacheControl;
 import org.springframework.http.ContentDisposition;
 import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpRange;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
-import org.springframework.web.bind.annotation.ExceptionHandler;
+import org.springframework.util.MimeTypeUtils;
 import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestHeader;
 import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestMethod;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
 import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
 import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
 
 @Slf4j
 @RestController
@@ -23,26 +42,93 @@ import java.io.InputStream;
 @RequiredArgsConstructor
 public class FileDownloadController {
 
+    private static final String BYTES = "bytes";
+    // Ranges are served from the stored bytes only, so an encoded representation is never range-addressable
+    private static final String NO_RANGES = "none";
+    private static final String SENDFILE_SUPPORT_ATTR = "org.apache.tomcat.sendfile.support";
+    private static final String SENDFILE_FILENAME_ATTR = "org.apache.tomcat.sendfile.filename";
+    private static final String SENDFILE_START_ATTR = "org.apache.tomcat.sendfile.start";
+    private static final String SENDFILE_END_ATTR = "org.apache.tomcat.sendfile.end";
+
     private final S3FileService s3FileService;
+    private final S3PresignedUrls presignedUrls;
+    private final S3DiskCache diskCache;
+    private final ContentEncoder contentEncoder;
+    private final StreamRelay streamRelay;
 
     @GetMapping(value = "/download")
-    public ResponseEntity<StreamingResponseBody> downloadFile() {
-        log.info("Received request to download file");
+    public ResponseEntity<StreamingResponseBody> downloadFile(
+            @RequestHeader(value = HttpHeaders.RANGE, required = false) String range,
+            @RequestHeader(value = HttpHeaders.IF_RANGE, required = false) String ifRange,
+            @RequestParam(value = "mode", defaultValue = "AUTO") S3FileService.DownloadMode mode,
+            HttpServletRequest request) {
+        log.info("Received request to download file, range={}, mode={}", range, mode);
 
         try {
-            S3FileService.S3File s3File = s3FileService.downloadFile();
+            if (ConditionalRequests.isConditional(request)) {
+                S3FileService.S3ObjectInfo info = s3FileService.getObjectInfo();
+                // Ranges are always served as stored, so only a full GET's ETag depends on Accept-Encoding
+                String eTag = range == null ? representationETag(info, request) : info.eTag();
+                if (ConditionalRequests.isNotModified(request, eTag, info.lastModified())) {
+                    log.info("Client copy is current (eTag={}), answering 304", eTag);
+                    return ConditionalRequests.notModified(eTag, info.lastModified());
+                }
+            }
+
+            if (range == null && mode == S3FileService.DownloadMode.AUTO) {
+                ResponseEntity<StreamingResponseBody> redirect = redirectToS3();
+                if (redirect != null) {
+                    return redirect;
+                }
+            }
+
+            if (range != null) {
+                ResponseEntity<StreamingResponseBody> partialResponse = downloadFileRanges(range, ifRange);
+                if (partialResponse != null) {
+                    return partialResponse;
+                }
+            }
+
+            String acceptEncoding = request.getHeader(HttpHeaders.ACCEPT_ENCODING);
+            if (contentEncoder.isEnabled() && acceptEncoding != null) {
+                ResponseEntity<StreamingResponseBody> encodedResponse = downloadFileEncoded(acceptEncoding, mode, request);
+                if (encodedResponse != null) {
+                    return encodedResponse;
+                }
+            }
+
+            Optional<S3DiskCache.CachedFile> cachedFile = s3FileService.findCachedFile();
+            if (cachedFile.isPresent()) {
+                return serveCachedFile(cachedFile.get(), null, request);
+            }
+
+            S3FileService.S3File s3File = s3FileService.downloadFile(mode);
             String fileName = s3FileService.getFileName();
 
+            // The index may have lagged behind S3; the GET's own validators are authoritative
+            if (ConditionalRequests.isConditional(request)
+                    && ConditionalRequests.isNotModified(request, s3File.eTag(), s3File.lastModified())) {
+                s3File.inputStream().close();
+                return ConditionalRequests.notModified(s3File.eTag(), s3File.lastModified());
+            }
+
             HttpHeaders headers = new HttpHeaders();
             headers.setContentDisposition(ContentDisposition.attachment().filename(fileName).build());
             headers.setContentType(MediaType.parseMediaType(s3File.contentType()));
+            headers.set(HttpHeaders.ACCEPT_RANGES, BYTES);
+            if (s3File.contentLength() != null) {
+                headers.setContentLength(s3File.contentLength());
+            }
+            ConditionalRequests.setValidators(headers, s3File.eTag(), s3File.lastModified());
+            if (contentEncoder.isEnabled()) {
+                headers.setVary(List.of(HttpHeaders.ACCEPT_ENCODING));
+            }
 
             log.info("Streaming file: {}, contentType={}", fileName, s3File.contentType());
 
             StreamingResponseBody responseBody = outputStream -> {
                 try (InputStream inputStream = s3File.inputStream()) {
-                    inputStream.transferTo(outputStream);
-                    outputStream.flush();
+                    streamRelay.relay(inputStream, outputStream);
                     log.info("File download completed successfully");
                 }
             };
@@ -57,42 +143,330 @@ public class FileDownloadController {
         }
     }
 
-    @GetMapping(value = "/download-bytes")
-    public ResponseEntity<byte[]> downloadFileAsBytes() {
-        log.info("Received request to download file as byte[]");
+    /**
+     * A 302 to a presigned S3 GET when the file is large enough to bypass the service, otherwise {@code null}.
+     * Not cacheable: the URL expires.
+     */
+    private <T> ResponseEntity<T> redirectToS3() {
+        if (!presignedUrls.isEnabled()) {
+            return null;
+        }
+        S3FileService.S3ObjectInfo info = s3FileService.getObjectInfo();
+        if (!presignedUrls.shouldRedirect(info)) {
+            return null;
+        }
+        log.info("Redirecting download of {} bytes to S3", info.contentLength());
+        return ResponseEntity.status(HttpStatus.FOUND)
+                .location(presignedUrls.downloadUrl(s3FileService.getFileName()))
+                .cacheControl(CacheControl.noStore())
+                .build();
+    }
+
+    /**
+     * Serves the full file in the best content coding the client accepts: the cached variant when there is one,
+     * otherwise compressed on the {@link ContentEncoder} pool while it streams, and cached for the next request.
+     * Returns {@code null} when the file should go out as stored: its type is not worth compressing, the client
+     * accepts no supported coding, or the encoder pool is saturated.
+     */
+    private ResponseEntity<StreamingResponseBody> downloadFileEncoded(
+            String acceptEncoding, S3FileService.DownloadMode mode, HttpServletRequest request) {
+        Optional<ContentEncoder.Coding> negotiated = contentEncoder.negotiate(acceptEncoding, s3FileService.getObjectInfo());
+        if (negotiated.isEmpty()) {
+            return null;
+        }
+        ContentEncoder.Coding coding = negotiated.get();
 
+        Optional<S3DiskCache.CachedFile> cachedVariant = s3FileService.findCachedVariant(coding.token());
+        if (cachedVariant.isPresent()) {
+            contentEncoder.recordVariantServed(coding);
+            return serveCachedFile(cachedVariant.get(), coding, request);
+        }
+
+        ContentEncoder.Slot slot = contentEncoder.reserve();
+        if (slot == null) {
+            log.info("Encoder pool saturated, sending the file without {}", coding.token());
+            return null;
+        }
+
+        S3FileService.S3File s3File;
         try {
-            S3FileService.S3BytesFile s3BytesFile = s3FileService.downloadFileAsBytes();
-            String fileName = s3FileService.getFileName();
+            Optional<S3DiskCache.CachedFile> cachedFile = s3FileService.findCachedFile();
+            s3File = cachedFile.isPresent()
+                    ? new S3FileService.S3File(diskCache.openStream(cachedFile.get()), cachedFile.get().contentType(),
+                            cachedFile.get().contentLength(), cachedFile.get().eTag(), cachedFile.get().lastModified())
+                    : s3FileService.downloadFile(mode);
+        } catch (RuntimeException e) {
+            slot.close();
+            throw e;
+        }
+        S3DiskCache.VariantSink variant = s3FileService.storeVariant(coding.token(), new S3FileService.S3ObjectInfo(
+                s3File.contentLength() == null ? -1 : s3File.contentLength(), s3File.contentType(),
+                s3File.eTag(), s3File.lastModified()));
+
+        HttpHeaders headers = new HttpHeaders();
+        headers.setContentDisposition(ContentDisposition.attachment().filename(s3FileService.getFileName()).build());
+        headers.setContentType(MediaType.parseMediaType(s3File.contentType()));
+        headers.set(HttpHeaders.CONTENT_ENCODING, coding.token());
+        headers.setVary(List.of(HttpHeaders.ACCEPT_ENCODING));
+        headers.set(HttpHeaders.ACCEPT_RANGES, NO_RANGES);
+        ConditionalRequests.setValidators(headers, ContentEncoder.variantETag(s3File.eTag(), coding), s3File.lastModified());
+
+        log.info("Streaming file encoded as {}: {}", coding.token(), s3FileService.getFileName());
+
+        StreamingResponseBody responseBody = outputStream -> {
+            contentEncoder.encode(slot, coding, s3File.inputStream(), outputStream, variant, s3File.eTag());
+            log.info("Encoded file download completed successfully");
+        };
+
+        return ResponseEntity.ok()
+                .headers(headers)
+                .body(responseBody);
+    }
 
+    /**
+     * Answers HEAD from the metadata index, so size and type checks don't cost a GET (nor, while the entry
+     * is fresh, any S3 call).
+     */
+    @RequestMapping(value = "/download", method = RequestMethod.HEAD)
+    public ResponseEntity<Void> headFile(HttpServletRequest request) {
+        log.info("Received HEAD request for file");
+
+        try {
+            S3FileService.S3ObjectInfo info = s3FileService.getObjectInfo();
+            String eTag = representationETag(info, request);
+            if (ConditionalRequests.isNotModified(request, eTag, info.lastModified())) {
+                return ConditionalRequests.notModified(eTag, info.lastModified());
+            }
+
+            // Same answer as a GET would get, so the gateway knows not to assemble the file from its block cache
+            ResponseEntity<Void> redirect = redirectToS3();
+            if (redirect != null) {
+                return redirect;
+            }
             HttpHeaders headers = new HttpHeaders();
-            headers.setContentDisposition(ContentDisposition.attachment().filename(fileName).build());
-            headers.setContentType(MediaType.parseMediaType(s3BytesFile.contentType()));
-            headers.setContentLength(s3BytesFile.data().length);
+            headers.setContentDisposition(ContentDisposition.attachment().filename(s3FileService.getFileName()).build());
+            headers.setContentType(MediaType.parseMediaType(info.contentType()));
 
-            log.info("Returning file as byte[]: {}, size={} bytes, contentType={}", fileName, s3BytesFile.data().length, s3BytesFile.contentType());
+            // Describes what a GET with the same Accept-Encoding would send; an encoding's length is known once cached
+            Optional<ContentEncoder.Coding> coding =
+                    contentEncoder.negotiate(request.getHeader(HttpHeaders.ACCEPT_ENCODING), info);
+            if (coding.isPresent()) {
+                headers.set(HttpHeaders.CONTENT_ENCODING, coding.get().token());
+                headers.set(HttpHeaders.ACCEPT_RANGES, NO_RANGES);
+                s3FileService.findCachedVariant(coding.get().token())
+                        .ifPresent(variant -> headers.setContentLength(variant.contentLength()));
+                ConditionalRequests.setValidators(headers, ContentEncoder.variantETag(info.eTag(), coding.get()), info.lastModified());
+            } else {
+                headers.set(HttpHeaders.ACCEPT_RANGES, BYTES);
+                headers.setContentLength(info.contentLength());
+                ConditionalRequests.setValidators(headers, info.eTag(), info.lastModified());
+            }
+            if (contentEncoder.isEnabled()) {
+                headers.setVary(List.of(HttpHeaders.ACCEPT_ENCODING));
+            }
 
             return ResponseEntity.ok()
                     .headers(headers)
-                    .body(s3BytesFile.data());
+                    .build();
 
+        } catch (FileDownloadException e) {
+            throw e;
         } catch (Exception e) {
-            log.error("Error downloading file as byte[]", e);
-            throw new FileDownloadException("Failed to download file as byte[]", e);
+            log.error("Error reading file metadata", e);
+            throw new FileDownloadException("Failed to read file metadata", e);
+        }
+    }
+
+    /**
+     * The ETag of the representation a full GET with the request's {@code Accept-Encoding} would get.
+     */
+    private String representationETag(S3FileService.S3ObjectInfo info, HttpServletRequest request) {
+        return contentEncoder.negotiate(request.getHeader(HttpHeaders.ACCEPT_ENCODING), info)
+                .map(coding -> ContentEncoder.variantETag(info.eTag(), coding))
+                .orElse(info.eTag());
+    }
+
+    /**
+     * Serves a cached file without copying it through the heap: via Tomcat sendfile when the connector
+     * supports it, otherwise with {@link java.nio.channels.FileChannel#transferTo} inside the streaming body.
+     * {@code contentCoding} is the coding of a cached encoded variant, or {@code null} for the file as stored.
+     */
+    private ResponseEntity<StreamingResponseBody> serveCachedFile(
+            S3DiskCache.CachedFile cachedFile, ContentEncoder.Coding contentCoding, HttpServletRequest request) {
+        HttpHeaders headers = new HttpHeaders();
+        headers.setContentDisposition(ContentDisposition.attachment().filename(s3FileService.getFileName()).build());
+        headers.setContentType(MediaType.parseMediaType(cachedFile.contentType()));
+        headers.set(HttpHeaders.ACCEPT_RANGES, contentCoding == null ? BYTES : NO_RANGES);
+        headers.setContentLength(cachedFile.contentLength());
+        if (contentCoding != null) {
+            headers.set(HttpHeaders.CONTENT_ENCODING, contentCoding.token());
+            ConditionalRequests.setValidators(headers, ContentEncoder.variantETag(cachedFile.eTag(), contentCoding),
+                    cachedFile.lastModified());
+        } else {
+            ConditionalRequests.setValidators(headers, cachedFile.eTag(), cachedFile.lastModified());
+        }
+        if (contentEncoder.isEnabled()) {
+            headers.setVary(List.of(HttpHeaders.ACCEPT_ENCODING));
+        }
+
+        if (Boolean.TRUE.equals(request.getAttribute(SENDFILE_SUPPORT_ATTR))) {
+            log.info("Serving cached file via sendfile: {}", cachedFile.path());
+            request.setAttribute(SENDFILE_FILENAME_ATTR, cachedFile.path().toAbsolutePath().toString());
+            request.setAttribute(SENDFILE_START_ATTR, 0L);
+            request.setAttribute(SENDFILE_END_ATTR, cachedFile.contentLength());
+            diskCache.recordServed(cachedFile.contentLength());
+            return ResponseEntity.ok()
+                    .headers(headers)
+                    .build();
+        }
+
+        log.info("Serving cached file via transferTo: {}", cachedFile.path());
+        StreamingResponseBody responseBody = outputStream -> {
+            diskCache.transferTo(cachedFile, outputStream);
+            outputStream.flush();
+            log.info("Cached file download completed successfully");
+        };
+
+        return ResponseEntity.ok()
+                .headers(headers)
+                .body(responseBody);
+    }
+
+    /**
+     * Serves a {@code Range} request as 206 Partial Content, or 416 when no range is satisfiable.
+     * Returns {@code null} when the full representation should be sent instead: the header is
+     * malformed, or {@code If-Range} no longer matches the stored object.
+     * <p>
+     * Ranges are computed from the metadata index entry, and its ETag is sent with every ranged GET as
+     * {@code If-Match}. If S3 rejects the first GET because the entry was stale, everything is worked out again
+     * once from a fresh HEAD; later parts of a multipart response that fail are a real overwrite mid-response.
+     */
+    private ResponseEntity<StreamingResponseBody> downloadFileRanges(String range, String ifRange) {
+        List<HttpRange> httpRanges;
+        try {
+            httpRanges = HttpRange.parseRanges(range);
+        } catch (IllegalArgumentException e) {
+            log.warn("Ignoring invalid Range header: {}", range);
+            return null;
+        }
+
+        try {
+            return downloadFileRanges(httpRanges, range, ifRange, s3FileService.getObjectInfo());
+        } catch (ObjectChangedException e) {
+            log.info("Indexed metadata was stale, retrying the range request with a fresh HEAD");
+            return downloadFileRanges(httpRanges, range, ifRange, s3FileService.headFile());
+        }
+    }
+
+    private ResponseEntity<StreamingResponseBody> downloadFileRanges(
+            List<HttpRange> httpRanges, String range, String ifRange, S3FileService.S3ObjectInfo info) {
+        if (ifRange != null && !ifRangeMatches(ifRange, info)) {
+            log.info("If-Range validator does not match, sending full file");
+            return null;
+        }
+
+        long length = info.contentLength();
+        List<S3FileService.ByteRange> byteRanges = new ArrayList<>();
+        for (HttpRange httpRange : httpRanges) {
+            long start = httpRange.getRangeStart(length);
+            if (start >= length) {
+                log.debug("Skipping unsatisfiable range {} for length {}", httpRange, length);
+                continue;
+            }
+            byteRanges.add(new S3FileService.ByteRange(start, httpRange.getRangeEnd(length)));
+        }
+
+        if (byteRanges.isEmpty()) {
+            log.info("No satisfiable range in {} for length {}", range, length);
+            return ResponseEntity.status(HttpStatus.REQUESTED_RANGE_NOT_SATISFIABLE)
+                    .header(HttpHeaders.CONTENT_RANGE, BYTES + " */" + length)
+                    .build();
+        }
+
+        HttpHeaders headers = new HttpHeaders();
+        headers.setContentDisposition(ContentDisposition.attachment().filename(s3FileService.getFileName()).build());
+        headers.set(HttpHeaders.ACCEPT_RANGES, BYTES);
+
+        if (byteRanges.size() == 1) {
+            S3FileService.ByteRange byteRange = byteRanges.get(0);
+            S3FileService.S3File s3File = s3FileService.downloadFileRange(byteRange, info.eTag());
+
+            headers.setContentType(MediaType.parseMediaType(s3File.contentType()));
+            headers.setContentLength(byteRange.length());
+            headers.set(HttpHeaders.CONTENT_RANGE, contentRange(byteRange, length));
+            ConditionalRequests.setValidators(headers, info.eTag(), info.lastModified());
+
+            log.info("Streaming single range {} of {} bytes", byteRange, length);
+
+            StreamingResponseBody responseBody = outputStream -> {
+                try (InputStream inputStream = s3File.inputStream()) {
+                    streamRelay.relay(inputStream, outputStream);
+                    log.info("Range download completed successfully");
+                }
+            };
+
+            return ResponseEntity.status(HttpStatus.PARTIAL_CONTENT)
+                    .headers(headers)
+                    .body(responseBody);
+        }
+
+        // Opened before the headers are committed, so a stale ETag can still be retried
+        S3FileService.S3File firstPart = s3FileService.downloadFileRange(byteRanges.get(0), info.eTag());
+
+        String boundary = MimeTypeUtils.generateMultipartBoundaryString();
+        List<byte[]> partHeaders = new ArrayList<>();
+        long contentLength = 0;
+        for (S3FileService.ByteRange byteRange : byteRanges) {
+            byte[] partHeader = ("\r\n--" + boundary + "\r\n"
+                    + HttpHeaders.CONTENT_TYPE + ": " + info.contentType() + "\r\n"
+                    + HttpHeaders.CONTENT_RANGE + ": " + contentRange(byteRange, length) + "\r\n\r\n")
+                    .getBytes(StandardCharsets.US_ASCII);
+            partHeaders.add(partHeader);
+            contentLength += partHeader.length + byteRange.length();
         }
+        byte[] closingBoundary = ("\r\n--" + boundary + "--").getBytes(StandardCharsets.US_ASCII);
+        contentLength += closingBoundary.length;
+
+        headers.setContentType(MediaType.parseMediaType("multipart/byteranges; boundary=" + boundary));
+        headers.setContentLength(contentLength);
+
+        log.info("Streaming {} ranges of {} bytes as multipart/byteranges", byteRanges.size(), length);
+
+        StreamingResponseBody responseBody = outputStream -> {
+            for (int i = 0; i < byteRanges.size(); i++) {
+                S3FileService.S3File s3File = i == 0
+                        ? firstPart : s3FileService.downloadFileRange(byteRanges.get(i), info.eTag());
+                try (InputStream inputStream = s3File.inputStream()) {
+                    outputStream.write(partHeaders.get(i));
+                    streamRelay.relay(inputStream, outputStream);
+                }
+            }
+            outputStream.write(closingBoundary);
+            outputStream.flush();
+            log.info("Multi-range download completed successfully");
+        };
+
+        return ResponseEntity.status(HttpStatus.PARTIAL_CONTENT)
+                .headers(headers)
+                .body(responseBody);
     }
 
-    @ExceptionHandler(FileDownloadException.class)
-    public ResponseEntity<String> handleFileDownloadException(FileDownloadException ex) {
-        log.error("File download exception: {}", ex.getMessage(), ex);
-        return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
-                .body("Error downloading file: " + ex.getMessage());
+    private static boolean ifRangeMatches(String ifRange, S3FileService.S3ObjectInfo info) {
+        if (ifRange.startsWith("\"")) {
+            return ifRange.equals(info.eTag());
+        }
+        if (ifRange.startsWith("W/") || info.lastModified() == null) {
+            return false;
+        }
+        try {
+            ZonedDateTime date = ZonedDateTime.parse(ifRange, DateTimeFormatter.RFC_1123_DATE_TIME);
+            return date.toEpochSecond() == info.lastModified().getEpochSecond();
+        } catch (DateTimeParseException e) {
+            return false;
+        }
     }
 
-    @ExceptionHandler(Exception.class)
-    public ResponseEntity<String> handleGeneralException(Exception ex) {
-        log.error("Unexpected error: {}", ex.getMessage(), ex);
-        return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
-                .body("An unexpected error occurred");
+    private static String contentRange(S3FileService.ByteRange byteRange, long length) {
+        return BYTES + " " + byteRange.start() + "-" + byteRange.end() + "/" + length;
     }
 }
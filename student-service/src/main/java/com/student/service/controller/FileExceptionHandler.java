@@ -0,0 +1,55 @@
+package com.student.service.controller;
+
+import com.student.common.transfer.MemoryBudgetExceededException;
+import com.student.service.exception.FileDownloadException;
+import com.student.service.exception.FileUploadException;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.ExceptionHandler;
+import org.springframework.web.bind.annotation.RestControllerAdvice;
+
+/**
+ * Error responses shared by the {@code /api/files} controllers.
+ */
+@Slf4j
+@RestControllerAdvice(basePackageClasses = FileExceptionHandler.class)
+public class FileExceptionHandler {
+
+    @ExceptionHandler(MemoryBudgetExceededException.class)
+    public ResponseEntity<String> handleMemoryBudgetExceeded(MemoryBudgetExceededException ex) {
+        log.warn("Rejecting buffered download: {}", ex.getMessage());
+        return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+                .header(HttpHeaders.RETRY_AFTER, String.valueOf(ex.getRetryAfter().toSeconds()))
+                .body("Server busy: " + ex.getMessage());
+    }
+
+    @ExceptionHandler(IllegalArgumentException.class)
+    public ResponseEntity<String> handleIllegalArgument(IllegalArgumentException ex) {
+        log.warn("Rejecting request: {}", ex.getMessage());
+        return ResponseEntity.badRequest()
+                .body("Invalid request: " + ex.getMessage());
+    }
+
+    @ExceptionHandler(FileUploadException.class)
+    public ResponseEntity<String> handleFileUploadException(FileUploadException ex) {
+        log.error("File upload exception: {}", ex.getMessage(), ex);
+        return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
+                .body("Error uploading file: " + ex.getMessage());
+    }
+
+    @ExceptionHandler(FileDownloadException.class)
+    public ResponseEntity<String> handleFileDownloadException(FileDownloadException ex) {
+        log.error("File download exception: {}", ex.getMessage(), ex);
+        return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
+                .body("Error downloading file: " + ex.getMessage());
+    }
+
+    @ExceptionHandler(Exception.class)
+    public ResponseEntity<String> handleGeneralException(Exception ex) {
+        log.error("Unexpected error: {}", ex.getMessage(), ex);
+        return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
+                .body("An unexpected error occurred");
+    }
+}
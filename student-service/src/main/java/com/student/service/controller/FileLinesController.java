@@ -0,0 +1,63 @@
+package com.student.service.controller;
+
+import com.student.service.exception.FileDownloadException;
+import com.student.service.service.S3FileService;
+import com.student.service.service.S3LineQueryService;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+@Slf4j
+@RestController
+@RequestMapping("/api/files")
+@RequiredArgsConstructor
+public class FileLinesController {
+
+    private final S3FileService s3FileService;
+    private final S3LineQueryService s3LineQueryService;
+
+    /**
+     * Sends only some lines of the text file: {@code op=head} or {@code op=tail} for the first or last {@code count}
+     * lines, {@code op=grep} for up to {@code count} lines containing {@code pattern}. The object is read in growing
+     * ranged GETs (backwards from the end for tail) and the query stops as soon as it has its lines.
+     */
+    @GetMapping(value = "/lines")
+    public ResponseEntity<StreamingResponseBody> queryLines(
+            @RequestParam("op") String operation,
+            @RequestParam(value = "count", required = false) Integer count,
+            @RequestParam(value = "pattern", required = false) String pattern,
+            @RequestParam(value = "regex", defaultValue = "false") boolean regex,
+            @RequestParam(value = "ignore-case", defaultValue = "false") boolean ignoreCase) {
+        log.info("Received line query: op={}, count={}, pattern={}, regex={}", operation, count, pattern, regex);
+
+        S3LineQueryService.Query query = s3LineQueryService.query(operation, count, pattern, regex, ignoreCase);
+        try {
+            S3FileService.S3ObjectInfo info = s3FileService.getObjectInfo();
+
+            HttpHeaders headers = new HttpHeaders();
+            headers.setContentType(info.contentType() != null && info.contentType().startsWith("text/")
+                    ? MediaType.parseMediaType(info.contentType())
+                    : MediaType.TEXT_PLAIN);
+            headers.set(HttpHeaders.ETAG, info.eTag());
+
+            StreamingResponseBody responseBody = outputStream -> s3LineQueryService.write(query, info, outputStream);
+
+            return ResponseEntity.ok()
+                    .headers(headers)
+                    .body(responseBody);
+
+        } catch (FileDownloadException e) {
+            throw e;
+        } catch (Exception e) {
+            log.error("Error initiating line query", e);
+            throw new FileDownloadException("Failed to initiate line query", e);
+        }
+    }
+}
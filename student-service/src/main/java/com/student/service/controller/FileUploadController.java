@@ -0,0 +1,45 @@
+package com.student.service.controller;
+
+import com.student.service.service.S3UploadService;
+import jakarta.servlet.http.HttpServletRequest;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.PutMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.io.IOException;
+
+@Slf4j
+@RestController
+@RequestMapping("/api/files")
+@RequiredArgsConstructor
+public class FileUploadController {
+
+    private final S3UploadService s3UploadService;
+
+    /**
+     * Streams the request body into S3 under {@code key} as a multipart upload, sending parts while the body is
+     * still arriving. Memory stays at about {@code upload.parts-in-flight x upload.part-size} whatever the size,
+     * reserved from the memory budget up front; when it doesn't fit, the upload is answered 503 with {@code Retry-After}.
+     */
+    @PutMapping(value = "/upload")
+    public ResponseEntity<S3UploadService.UploadResult> uploadFile(
+            @RequestParam("key") String key,
+            HttpServletRequest request) throws IOException {
+        log.info("Received request to upload file, key={}, contentLength={}", key, request.getContentLengthLong());
+
+        String contentType = request.getContentType() != null
+                ? request.getContentType()
+                : MediaType.APPLICATION_OCTET_STREAM_VALUE;
+        S3UploadService.UploadResult result = s3UploadService.upload(key, contentType, request.getContentLengthLong(),
+                request.getInputStream());
+
+        return ResponseEntity.ok()
+                .eTag(result.eTag())
+                .body(result);
+    }
+}
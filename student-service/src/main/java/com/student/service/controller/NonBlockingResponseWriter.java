@@ -0,0 +1,233 @@
+package com.student.service.controller;
+
+import jakarta.servlet.AsyncContext;
+import jakarta.servlet.AsyncEvent;
+import jakarta.servlet.AsyncListener;
+import jakarta.servlet.ServletOutputStream;
+import jakarta.servlet.WriteListener;
+import jakarta.servlet.http.HttpServletResponse;
+import lombok.extern.slf4j.Slf4j;
+import org.reactivestreams.Publisher;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Bridges a {@link Publisher} of body chunks to a servlet response in non-blocking mode. The next chunk is
+ * requested only once the previous one has been handed to the container and the socket is writable again,
+ * so no thread waits on either side and the publisher never runs ahead of the client.
+ */
+@Slf4j
+class NonBlockingResponseWriter implements Subscriber<ByteBuffer>, WriteListener, AsyncListener {
+
+    private final AsyncContext asyncContext;
+    private final ServletOutputStream outputStream;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final long started = System.nanoTime();
+
+    private Subscription subscription;
+    private ByteBuffer pending;
+    private boolean demand;
+    private boolean upstreamComplete;
+    private boolean finished;
+    private long bytesWritten;
+
+    private NonBlockingResponseWriter(AsyncContext asyncContext) throws IOException {
+        this.asyncContext = asyncContext;
+        this.outputStream = asyncContext.getResponse().getOutputStream();
+    }
+
+    static void start(AsyncContext asyncContext, Publisher<ByteBuffer> publisher) {
+        try {
+            NonBlockingResponseWriter writer = new NonBlockingResponseWriter(asyncContext);
+            asyncContext.addListener(writer);
+            publisher.subscribe(writer);
+        } catch (IOException e) {
+            fail(asyncContext, e);
+        }
+    }
+
+    /**
+     * Ends an async request that failed before any body was written.
+     */
+    static void fail(AsyncContext asyncContext, Throwable error) {
+        log.error("Error in non-blocking file download", error);
+        HttpServletResponse response = (HttpServletResponse) asyncContext.getResponse();
+        try {
+            if (!response.isCommitted()) {
+                response.reset();
+                response.setStatus(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+                response.setContentType("text/plain;charset=UTF-8");
+                response.getOutputStream().write(("Error downloading file: " + error.getMessage())
+                        .getBytes(StandardCharsets.UTF_8));
+            }
+        } catch (IOException | IllegalStateException e) {
+            log.debug("Could not write error response", e);
+        } finally {
+            asyncContext.complete();
+        }
+    }
+
+    @Override
+    public void onSubscribe(Subscription subscription) {
+        lock.lock();
+        try {
+            this.subscription = subscription;
+        } finally {
+            lock.unlock();
+        }
+        outputStream.setWriteListener(this);
+    }
+
+    @Override
+    public void onNext(ByteBuffer chunk) {
+        lock.lock();
+        try {
+            pending = chunk;
+            demand = false;
+        } finally {
+            lock.unlock();
+        }
+        drain();
+    }
+
+    @Override
+    public void onComplete() {
+        lock.lock();
+        try {
+            upstreamComplete = true;
+        } finally {
+            lock.unlock();
+        }
+        drain();
+    }
+
+    /**
+     * Shared by {@link Subscriber} (S3 failed) and {@link WriteListener} (client write failed).
+     */
+    @Override
+    public void onError(Throwable error) {
+        if (markFinished()) {
+            Subscription current = subscription;
+            if (current != null) {
+                current.cancel();
+            }
+            if (bytesWritten == 0) {
+                fail(asyncContext, error);
+            } else {
+                log.error("Non-blocking download failed after {} bytes, aborting response", bytesWritten, error);
+                asyncContext.complete();
+            }
+        }
+    }
+
+    @Override
+    public void onWritePossible() {
+        drain();
+    }
+
+    @Override
+    public void onTimeout(AsyncEvent event) {
+        log.warn("Non-blocking download timed out after {} bytes", bytesWritten);
+        cancel();
+    }
+
+    @Override
+    public void onError(AsyncEvent event) {
+        log.warn("Non-blocking download failed after {} bytes: {}", bytesWritten, String.valueOf(event.getThrowable()));
+        cancel();
+    }
+
+    @Override
+    public void onComplete(AsyncEvent event) {
+        // Nothing to release: completion always goes through this writer
+    }
+
+    @Override
+    public void onStartAsync(AsyncEvent event) {
+        // Not re-dispatched
+    }
+
+    /**
+     * Writes as long as the container accepts data without blocking. When the socket is full,
+     * {@link #onWritePossible()} resumes; when nothing is pending, one more chunk is requested.
+     */
+    private void drain() {
+        boolean request = false;
+        boolean complete = false;
+        lock.lock();
+        try {
+            if (finished || subscription == null) {
+                return;
+            }
+            while (outputStream.isReady()) {
+                if (pending != null) {
+                    int length = pending.remaining();
+                    if (pending.hasArray()) {
+                        // Written straight from the chunk's backing array; the container copies what it cannot send yet
+                        outputStream.write(pending.array(), pending.arrayOffset() + pending.position(), length);
+                    } else {
+                        byte[] chunk = new byte[length];
+                        pending.get(chunk);
+                        outputStream.write(chunk);
+                    }
+                    pending = null;
+                    bytesWritten += length;
+                    continue;
+                }
+                if (upstreamComplete) {
+                    finished = true;
+                    complete = true;
+                } else if (!demand) {
+                    demand = true;
+                    request = true;
+                }
+                break;
+            }
+        } catch (IOException e) {
+            onError(e);
+            return;
+        } finally {
+            lock.unlock();
+        }
+
+        if (request) {
+            subscription.request(1);
+        }
+        if (complete) {
+            long elapsed = System.nanoTime() - started;
+            log.info("Non-blocking file download completed: {} bytes in {} ms", bytesWritten,
+                    TimeUnit.NANOSECONDS.toMillis(elapsed));
+            asyncContext.complete();
+        }
+    }
+
+    private void cancel() {
+        if (markFinished()) {
+            Subscription current = subscription;
+            if (current != null) {
+                current.cancel();
+            }
+            asyncContext.complete();
+        }
+    }
+
+    private boolean markFinished() {
+        lock.lock();
+        try {
+            if (finished) {
+                return false;
+            }
+            finished = true;
+            pending = null;
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+}
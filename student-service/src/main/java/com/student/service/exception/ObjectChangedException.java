@@ -0,0 +1,12 @@
+package com.student.service.exception;
+
+/**
+ * S3 rejected a GET conditioned on an ETag ({@code If-Match}) with 412: the object is no longer the version the
+ * caller described.
+ */
+public class ObjectChangedException extends FileDownloadException {
+
+    public ObjectChangedException(String message, Throwable cause) {
+        super(message, cause);
+    }
+}
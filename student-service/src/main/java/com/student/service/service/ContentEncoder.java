@@ -0,0 +1,356 @@
+package com.student.service.service;
+
+import com.github.luben.zstd.ZstdOutputStream;
+import com.student.common.transfer.StreamRelay;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.MediaType;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Component;
+import org.springframework.util.unit.DataSize;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * {@code Accept-Encoding} negotiation (gzip, zstd) and streaming compression for full downloads.
+ * <p>
+ * Compression runs on a fixed pool of {@code content-encoding.pool-size} threads, so CPU spent on it stays bounded
+ * however many clients ask; once {@code pool-size + max-queued} encodings are running or waiting, further requests
+ * are sent uncompressed rather than queued. The encoded bytes are copied into the disk cache as they are sent, so
+ * later requests for the same object version are served from the stored variant without compressing again.
+ * <p>
+ * Types listed in {@code content-encoding.excluded-types} (images, archives, ...) are never compressed, nor are
+ * object versions whose first encoding saved less than {@value #MIN_SAVING_PERCENT}%.
+ */
+@Slf4j
+@Component
+public class ContentEncoder {
+
+    private static final int MIN_SAVING_PERCENT = 10;
+    private static final int MAX_INCOMPRESSIBLE_ENTRIES = 1024;
+    private static final int GZIP_BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * Supported content codings, in order of preference when the client weighs them equally.
+     */
+    public enum Coding {
+        ZSTD("zstd"),
+        GZIP("gzip");
+
+        private final String token;
+
+        Coding(String token) {
+            this.token = token;
+        }
+
+        public String token() {
+            return token;
+        }
+    }
+
+    private final StreamRelay streamRelay;
+    private final boolean enabled;
+    private final long minSize;
+    private final List<MediaType> excludedTypes;
+    private final int zstdLevel;
+    private final ExecutorService executor;
+    private final Semaphore slots;
+
+    private final LinkedHashMap<String, Boolean> incompressible = new LinkedHashMap<>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Boolean> eldest) {
+            return size() > MAX_INCOMPRESSIBLE_ENTRIES;
+        }
+    };
+
+    private final Map<Coding, Counter> encoded = new EnumMap<>(Coding.class);
+    private final Map<Coding, Counter> variantsServed = new EnumMap<>(Coding.class);
+    private final AtomicLong bytesIn = new AtomicLong();
+    private final AtomicLong bytesOut = new AtomicLong();
+    private final AtomicLong saturated = new AtomicLong();
+
+    public ContentEncoder(
+            MeterRegistry meterRegistry,
+            StreamRelay streamRelay,
+            @Value("${content-encoding.enabled}") boolean enabled,
+            @Value("${content-encoding.min-size}") DataSize minSize,
+            @Value("${content-encoding.excluded-types}") List<String> excludedTypes,
+            @Value("${content-encoding.zstd-level}") int zstdLevel,
+            @Value("${content-encoding.pool-size}") int poolSize,
+            @Value("${content-encoding.max-queued}") int maxQueued) {
+        this.streamRelay = streamRelay;
+        this.enabled = enabled;
+        this.minSize = minSize.toBytes();
+        this.excludedTypes = excludedTypes.stream().map(MediaType::parseMediaType).toList();
+        this.zstdLevel = zstdLevel;
+        this.executor = Executors.newFixedThreadPool(poolSize, new CustomizableThreadFactory("content-encoder-"));
+        this.slots = new Semaphore(poolSize + maxQueued);
+
+        for (Coding coding : Coding.values()) {
+            encoded.put(coding, Counter.builder("content.encoding.responses")
+                    .tag("coding", coding.token()).tag("source", "encoder").register(meterRegistry));
+            variantsServed.put(coding, Counter.builder("content.encoding.responses")
+                    .tag("coding", coding.token()).tag("source", "variant").register(meterRegistry));
+        }
+        FunctionCounter.builder("content.encoding.bytes.in", bytesIn, AtomicLong::get)
+                .baseUnit("bytes").register(meterRegistry);
+        FunctionCounter.builder("content.encoding.bytes.out", bytesOut, AtomicLong::get)
+                .baseUnit("bytes").register(meterRegistry);
+        FunctionCounter.builder("content.encoding.saturated", saturated, AtomicLong::get).register(meterRegistry);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Picks the coding for an object from the request's {@code Accept-Encoding}: the supported one with the
+     * highest q-value, ties going to zstd. Empty when the identity representation should be sent.
+     */
+    public Optional<Coding> negotiate(String acceptEncoding, S3FileService.S3ObjectInfo info) {
+        if (!enabled || acceptEncoding == null || !isCompressible(info)) {
+            return Optional.empty();
+        }
+
+        Map<String, Double> weights = new LinkedHashMap<>();
+        for (String element : acceptEncoding.split(",")) {
+            String[] parts = element.split(";");
+            String token = parts[0].trim().toLowerCase(Locale.ROOT);
+            double q = 1.0;
+            for (int i = 1; i < parts.length; i++) {
+                String parameter = parts[i].trim();
+                if (parameter.startsWith("q=")) {
+                    try {
+                        q = Double.parseDouble(parameter.substring(2));
+                    } catch (NumberFormatException e) {
+                        q = 0;
+                    }
+                }
+            }
+            weights.put(token, q);
+        }
+
+        Coding best = null;
+        double bestWeight = 0;
+        for (Coding coding : Coding.values()) {
+            double weight = weights.getOrDefault(coding.token(), weights.getOrDefault("*", 0.0));
+            if (weight > bestWeight) {
+                best = coding;
+                bestWeight = weight;
+            }
+        }
+        return Optional.ofNullable(best);
+    }
+
+    private boolean isCompressible(S3FileService.S3ObjectInfo info) {
+        if (info.contentLength() < minSize) {
+            return false;
+        }
+        if (info.contentType() != null) {
+            MediaType contentType;
+            try {
+                contentType = MediaType.parseMediaType(info.contentType());
+            } catch (IllegalArgumentException e) {
+                return false;
+            }
+            if (excludedTypes.stream().anyMatch(excluded -> excluded.includes(contentType))) {
+                return false;
+            }
+        }
+        synchronized (incompressible) {
+            return info.eTag() == null || !incompressible.containsKey(info.eTag());
+        }
+    }
+
+    /**
+     * The ETag of an encoded variant: the object's with the coding appended, e.g. {@code "<etag>-gzip"}. Each
+     * representation needs its own strong ETag, or a cache could answer a range or conditional request for one
+     * coding with the bytes of another (RFC 9110, section 8.8.3).
+     */
+    public static String variantETag(String eTag, Coding coding) {
+        if (eTag == null) {
+            return null;
+        }
+        boolean weak = eTag.startsWith("W/");
+        String opaqueTag = weak ? eTag.substring(2) : eTag;
+        if (opaqueTag.length() >= 2 && opaqueTag.startsWith("\"") && opaqueTag.endsWith("\"")) {
+            opaqueTag = opaqueTag.substring(1, opaqueTag.length() - 1);
+        }
+        return (weak ? "W/" : "") + "\"" + opaqueTag + "-" + coding.token() + "\"";
+    }
+
+    public void recordVariantServed(Coding coding) {
+        variantsServed.get(coding).increment();
+    }
+
+    /**
+     * A place on the encoder pool, held from before the response headers are sent until the encoding ends.
+     */
+    public final class Slot implements AutoCloseable {
+
+        private final AtomicBoolean released = new AtomicBoolean();
+
+        private Slot() {
+        }
+
+        @Override
+        public void close() {
+            if (released.compareAndSet(false, true)) {
+                slots.release();
+            }
+        }
+    }
+
+    /**
+     * Claims a place on the encoder pool, or returns {@code null} when it is saturated and the response should
+     * go out uncompressed.
+     */
+    public Slot reserve() {
+        if (!slots.tryAcquire()) {
+            saturated.incrementAndGet();
+            return null;
+        }
+        return new Slot();
+    }
+
+    /**
+     * Compresses {@code source} into {@code target} on the encoder pool, waiting for it to finish. The encoded
+     * bytes also go to {@code variant} (may be {@code null}), which is committed if the coding was worth it.
+     * {@code target} is flushed but not closed. The slot is released and {@code source} closed in all cases.
+     */
+    public long encode(Slot slot, Coding coding, InputStream source, OutputStream target,
+                       S3DiskCache.VariantSink variant, String eTag) throws IOException {
+        try (slot) {
+            Future<Long> job;
+            try {
+                job = executor.submit(() -> copy(coding, source, target, variant, eTag));
+            } catch (RuntimeException e) {
+                source.close();
+                if (variant != null) {
+                    variant.close();
+                }
+                throw e;
+            }
+            try {
+                return job.get();
+            } catch (InterruptedException e) {
+                job.cancel(true);
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while encoding the response");
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof IOException ioException) {
+                    throw ioException;
+                }
+                if (e.getCause() instanceof RuntimeException runtimeException) {
+                    throw runtimeException;
+                }
+                throw new IOException("Failed to encode the response", e.getCause());
+            }
+        }
+    }
+
+    private long copy(Coding coding, InputStream source, OutputStream target,
+                      S3DiskCache.VariantSink variant, String eTag) throws IOException {
+        TeeOutputStream tee = new TeeOutputStream(target, variant);
+        long read;
+        try (source) {
+            OutputStream encoder = switch (coding) {
+                case GZIP -> new GZIPOutputStream(tee, GZIP_BUFFER_SIZE);
+                case ZSTD -> new ZstdOutputStream(tee, zstdLevel);
+            };
+            read = streamRelay.relay(source, encoder);
+            // Writes the coding's trailer; the tee only flushes the response
+            encoder.close();
+        } catch (IOException | RuntimeException e) {
+            if (variant != null) {
+                variant.close();
+            }
+            throw e;
+        }
+
+        bytesIn.addAndGet(read);
+        bytesOut.addAndGet(tee.count);
+        encoded.get(coding).increment();
+        log.info("Encoded {} bytes as {} into {} bytes", read, coding.token(), tee.count);
+
+        if (tee.count * 100 > read * (100 - MIN_SAVING_PERCENT)) {
+            log.info("{} barely compresses, sending it uncompressed from now on", eTag);
+            if (eTag != null) {
+                synchronized (incompressible) {
+                    incompressible.put(eTag, Boolean.TRUE);
+                }
+            }
+            if (variant != null) {
+                variant.close();
+            }
+        } else if (variant != null) {
+            variant.commit();
+        }
+        return tee.count;
+    }
+
+    /**
+     * Sends the encoded bytes to the response and a copy to the variant being cached.
+     */
+    private static final class TeeOutputStream extends OutputStream {
+
+        private final OutputStream target;
+        private final OutputStream copy;
+        private long count;
+
+        TeeOutputStream(OutputStream target, OutputStream copy) {
+            this.target = target;
+            this.copy = copy;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[] {(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] buffer, int offset, int length) throws IOException {
+            target.write(buffer, offset, length);
+            if (copy != null) {
+                copy.write(buffer, offset, length);
+            }
+            count += length;
+        }
+
+        @Override
+        public void flush() throws IOException {
+            target.flush();
+        }
+
+        @Override
+        public void close() throws IOException {
+            target.flush();
+        }
+    }
+}
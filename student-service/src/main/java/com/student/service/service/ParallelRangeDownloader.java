@@ -0,0 +1,236 @@
+package com.student.service.service;
+
+import com.student.common.transfer.IoThreads;
+import com.student.common.transfer.MemoryBudget;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.util.unit.DataSize;
+import software.amazon.awssdk.core.ResponseInputStream;
+import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.s3.model.GetObjectRequest;
+import software.amazon.awssdk.services.s3.model.GetObjectResponse;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Downloads an object as a sequence of byte ranges fetched concurrently on a shared, bounded pool and
+ * reassembled in order. Each download keeps at most {@code parts-in-flight} parts fetched ahead of the
+ * reader, so memory per download stays at roughly {@code (parts-in-flight + 1) x part-size}. That much is
+ * reserved from the {@link MemoryBudget} until the stream is closed; when the budget can't fit it,
+ * {@link #open} declines and the caller falls back to a single GET.
+ * <p>
+ * Meters: {@code s3.parallel.part.duration} and {@code s3.parallel.part.first.byte} per part fetched,
+ * {@code s3.parallel.slowest.part} (seconds) per completed download, and {@code s3.parallel.declined}.
+ */
+@Slf4j
+@Component
+public class ParallelRangeDownloader {
+
+    private final S3Client s3Client;
+    private final S3RequestMetrics requestMetrics;
+    private final int partSize;
+    private final int partsInFlight;
+    private final ExecutorService executor;
+    private final MemoryBudget memoryBudget;
+    private final AtomicLong declined = new AtomicLong();
+    private final Timer partDuration;
+    private final Timer partFirstByte;
+    private final DistributionSummary slowestPart;
+
+    public ParallelRangeDownloader(
+            S3Client s3Client,
+            S3RequestMetrics requestMetrics,
+            IoThreads ioThreads,
+            MemoryBudget memoryBudget,
+            MeterRegistry meterRegistry,
+            @Value("${aws.s3.parallel.part-size}") DataSize partSize,
+            @Value("${aws.s3.parallel.parts-in-flight}") int partsInFlight,
+            @Value("${aws.s3.parallel.pool-size}") int poolSize) {
+        this.s3Client = s3Client;
+        this.requestMetrics = requestMetrics;
+        this.partSize = Math.toIntExact(partSize.toBytes());
+        this.partsInFlight = partsInFlight;
+        this.executor = Executors.newFixedThreadPool(poolSize, ioThreads.threadFactory("s3-part-"));
+        this.memoryBudget = memoryBudget;
+
+        FunctionCounter.builder("s3.parallel.declined", declined, AtomicLong::get).register(meterRegistry);
+        this.partDuration = Timer.builder("s3.parallel.part.duration").register(meterRegistry);
+        this.partFirstByte = Timer.builder("s3.parallel.part.first.byte").register(meterRegistry);
+        this.slowestPart = DistributionSummary.builder("s3.parallel.slowest.part").baseUnit("seconds")
+                .register(meterRegistry);
+    }
+
+    /**
+     * Starts a parallel download, or returns {@code null} when the {@link MemoryBudget} can't fit its buffers.
+     */
+    public InputStream open(String bucketName, String key, long contentLength, String eTag) {
+        int partCount = (int) ((contentLength + partSize - 1) / partSize);
+        // The part being read plus a full window behind it
+        long reservedBytes = Math.min((long) (partsInFlight + 1) * partSize, contentLength);
+        if (!memoryBudget.tryReserve(reservedBytes)) {
+            declined.incrementAndGet();
+            log.info("Memory budget can't fit {} bytes of parts for {}, not downloading in parallel", reservedBytes, key);
+            return null;
+        }
+        log.info("Starting parallel download: key={}, size={} bytes, parts={}, partSize={}, partsInFlight={}",
+                key, contentLength, partCount, partSize, partsInFlight);
+        return new ParallelRangeInputStream(bucketName, key, contentLength, eTag, partCount, reservedBytes);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    private record Part(int index, byte[] data, long firstByteNanos, long totalNanos) {}
+
+    private Part fetchPart(String bucketName, String key, String eTag, int index, S3FileService.ByteRange range) throws IOException {
+        long started = System.nanoTime();
+        GetObjectRequest request = GetObjectRequest.builder()
+                .bucket(bucketName)
+                .key(key)
+                .range(range.toHeaderValue())
+                .ifMatch(eTag)
+                .build();
+
+        try (ResponseInputStream<GetObjectResponse> response = requestMetrics.record("GetObjectPart", () -> s3Client.getObject(request))) {
+            long firstByte = System.nanoTime() - started;
+            byte[] data = response.readNBytes((int) range.length());
+            if (data.length != range.length()) {
+                throw new IOException("Short read for part " + index + ": expected " + range.length() + " bytes, got " + data.length);
+            }
+            Part part = new Part(index, data, firstByte, System.nanoTime() - started);
+            partFirstByte.record(part.firstByteNanos(), TimeUnit.NANOSECONDS);
+            partDuration.record(part.totalNanos(), TimeUnit.NANOSECONDS);
+            log.debug("Part {} {} fetched: {} bytes, firstByte={} ms, total={} ms",
+                    index, range, data.length,
+                    TimeUnit.NANOSECONDS.toMillis(part.firstByteNanos()),
+                    TimeUnit.NANOSECONDS.toMillis(part.totalNanos()));
+            return part;
+        }
+    }
+
+    private class ParallelRangeInputStream extends InputStream {
+
+        private final String bucketName;
+        private final String key;
+        private final long contentLength;
+        private final String eTag;
+        private final int partCount;
+        private final long reservedBytes;
+        private final Deque<Future<Part>> window = new ArrayDeque<>();
+        private final long started = System.nanoTime();
+
+        private int nextPartToSubmit;
+        private byte[] current = new byte[0];
+        private int position;
+        private long slowestPartNanos;
+        private boolean closed;
+
+        ParallelRangeInputStream(String bucketName, String key, long contentLength, String eTag, int partCount,
+                                 long reservedBytes) {
+            this.bucketName = bucketName;
+            this.key = key;
+            this.contentLength = contentLength;
+            this.eTag = eTag;
+            this.partCount = partCount;
+            this.reservedBytes = reservedBytes;
+            fillWindow();
+        }
+
+        private void fillWindow() {
+            while (window.size() < partsInFlight && nextPartToSubmit < partCount) {
+                int index = nextPartToSubmit++;
+                long start = (long) index * partSize;
+                S3FileService.ByteRange range = new S3FileService.ByteRange(
+                        start, Math.min(start + partSize, contentLength) - 1);
+                window.addLast(executor.submit(() -> fetchPart(bucketName, key, eTag, index, range)));
+            }
+        }
+
+        private boolean advance() throws IOException {
+            if (closed) {
+                throw new IOException("Stream closed");
+            }
+            Future<Part> next = window.pollFirst();
+            if (next == null) {
+                return false;
+            }
+            try {
+                Part part = next.get();
+                slowestPartNanos = Math.max(slowestPartNanos, part.totalNanos());
+                current = part.data();
+                position = 0;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while waiting for part");
+            } catch (ExecutionException e) {
+                throw new IOException("Failed to fetch part of " + key, e.getCause());
+            }
+            fillWindow();
+            if (window.isEmpty() && nextPartToSubmit == partCount) {
+                long elapsed = System.nanoTime() - started;
+                slowestPart.record(slowestPartNanos / 1e9);
+                log.info("Parallel download fetched all parts: key={}, parts={}, total={} ms, slowestPart={} ms, throughput={} MB/s",
+                        key, partCount, TimeUnit.NANOSECONDS.toMillis(elapsed),
+                        TimeUnit.NANOSECONDS.toMillis(slowestPartNanos),
+                        String.format("%.1f", contentLength / 1_048_576.0 / Math.max(elapsed / 1e9, 1e-9)));
+            }
+            return true;
+        }
+
+        @Override
+        public int read() throws IOException {
+            while (position >= current.length) {
+                if (!advance()) {
+                    return -1;
+                }
+            }
+            return current[position++] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            if (length == 0) {
+                return 0;
+            }
+            while (position >= current.length) {
+                if (!advance()) {
+                    return -1;
+                }
+            }
+            int count = Math.min(length, current.length - position);
+            System.arraycopy(current, position, buffer, offset, count);
+            position += count;
+            return count;
+        }
+
+        @Override
+        public void close() {
+            if (!closed) {
+                closed = true;
+                window.forEach(future -> future.cancel(true));
+                window.clear();
+                current = new byte[0];
+                // Parts already being fetched finish into nothing; their buffers become garbage with them
+                memoryBudget.release(reservedBytes);
+            }
+        }
+    }
+}
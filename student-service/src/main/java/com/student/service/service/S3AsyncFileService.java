@@ -0,0 +1,49 @@
+package com.student.service.service;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import software.amazon.awssdk.core.async.AsyncResponseTransformer;
+import software.amazon.awssdk.core.async.ResponsePublisher;
+import software.amazon.awssdk.services.s3.S3AsyncClient;
+import software.amazon.awssdk.services.s3.model.GetObjectRequest;
+import software.amazon.awssdk.services.s3.model.GetObjectResponse;
+
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Non-blocking counterpart of {@link S3FileService#downloadFile()}: the returned future completes on the
+ * CRT event loop once response headers arrive, and the body is pulled through the publisher on demand.
+ */
+@Slf4j
+@Service
+public class S3AsyncFileService {
+
+    private final S3AsyncClient s3AsyncClient;
+    private final S3RequestMetrics requestMetrics;
+    private final String bucketName;
+    private final String fileKey;
+
+    public S3AsyncFileService(
+            S3AsyncClient s3AsyncClient,
+            S3RequestMetrics requestMetrics,
+            @Value("${aws.s3.bucket-name}") String bucketName,
+            @Value("${aws.s3.file-key}") String fileKey) {
+        this.s3AsyncClient = s3AsyncClient;
+        this.requestMetrics = requestMetrics;
+        this.bucketName = bucketName;
+        this.fileKey = fileKey;
+    }
+
+    public CompletableFuture<ResponsePublisher<GetObjectResponse>> downloadFile() {
+        log.info("Starting async file download from S3: bucket={}, key={}", bucketName, fileKey);
+
+        GetObjectRequest getObjectRequest = GetObjectRequest.builder()
+                .bucket(bucketName)
+                .key(fileKey)
+                .build();
+
+        return requestMetrics.recordAsync("GetObjectAsync",
+                () -> s3AsyncClient.getObject(getObjectRequest, AsyncResponseTransformer.toPublisher()));
+    }
+}
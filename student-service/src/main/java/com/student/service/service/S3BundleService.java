@@ -0,0 +1,256 @@
+package com.student.service.service;
+
+import com.student.common.transfer.IoThreads;
+import com.student.common.transfer.StreamRelay;
+import com.student.service.exception.FileDownloadException;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import software.amazon.awssdk.core.ResponseInputStream;
+import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.s3.model.GetObjectRequest;
+import software.amazon.awssdk.services.s3.model.GetObjectResponse;
+import software.amazon.awssdk.services.s3.model.ListObjectsV2Request;
+import software.amazon.awssdk.services.s3.model.ListObjectsV2Response;
+import software.amazon.awssdk.services.s3.model.S3Exception;
+import software.amazon.awssdk.services.s3.model.S3Object;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Streams several objects as one ZIP archive, written entry by entry as the objects are read. While one entry
+ * is being written, the GETs for the next {@code bundle.prefetch} objects are already open on a shared pool, so
+ * their S3 time to first byte overlaps the current transfer. Only response headers and socket buffers are held
+ * ahead, so memory stays constant whatever the bundle size.
+ * <p>
+ * Keys must lie under {@code bundle.key-prefix}, which is also stripped from the entry names.
+ */
+@Slf4j
+@Service
+public class S3BundleService {
+
+    private final S3Client s3Client;
+    private final S3RequestMetrics requestMetrics;
+    private final StreamRelay streamRelay;
+    private final String bucketName;
+    private final String keyPrefix;
+    private final int maxObjects;
+    private final int prefetch;
+    private final int compressionLevel;
+    private final ExecutorService executor;
+
+    public S3BundleService(
+            S3Client s3Client,
+            S3RequestMetrics requestMetrics,
+            StreamRelay streamRelay,
+            IoThreads ioThreads,
+            @Value("${aws.s3.bucket-name}") String bucketName,
+            @Value("${bundle.key-prefix}") String keyPrefix,
+            @Value("${bundle.max-objects}") int maxObjects,
+            @Value("${bundle.prefetch}") int prefetch,
+            @Value("${bundle.compression-level}") int compressionLevel,
+            @Value("${bundle.pool-size}") int poolSize) {
+        this.s3Client = s3Client;
+        this.requestMetrics = requestMetrics;
+        this.streamRelay = streamRelay;
+        this.bucketName = bucketName;
+        this.keyPrefix = keyPrefix;
+        this.maxObjects = maxObjects;
+        this.prefetch = prefetch;
+        this.compressionLevel = compressionLevel;
+        this.executor = Executors.newFixedThreadPool(poolSize, ioThreads.threadFactory("s3-bundle-"));
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * Resolves the bundle's keys: the given ones, or every object under {@code prefix}, in listing order.
+     *
+     * @throws IllegalArgumentException when a key lies outside {@code bundle.key-prefix}, nothing is selected,
+     *                                  or more than {@code bundle.max-objects} are
+     */
+    public List<String> resolveKeys(List<String> keys, String prefix) {
+        LinkedHashSet<String> resolved = new LinkedHashSet<>();
+        if (keys != null) {
+            for (String key : keys) {
+                resolved.add(checkKey(key));
+            }
+        }
+        if (prefix != null) {
+            resolved.addAll(listKeys(checkKey(prefix)));
+        }
+        if (resolved.isEmpty()) {
+            throw new IllegalArgumentException("No objects selected for the bundle");
+        }
+        if (resolved.size() > maxObjects) {
+            throw new IllegalArgumentException("Bundle exceeds " + maxObjects + " objects");
+        }
+        return new ArrayList<>(resolved);
+    }
+
+    private String checkKey(String key) {
+        if (!key.startsWith(keyPrefix) || key.contains("..")) {
+            throw new IllegalArgumentException("Key outside the bundle prefix: " + key);
+        }
+        return key;
+    }
+
+    private List<String> listKeys(String prefix) {
+        log.info("Listing bundle objects: bucket={}, prefix={}", bucketName, prefix);
+
+        try {
+            List<String> keys = new ArrayList<>();
+            String continuationToken = null;
+            do {
+                ListObjectsV2Request request = ListObjectsV2Request.builder()
+                        .bucket(bucketName)
+                        .prefix(prefix)
+                        .continuationToken(continuationToken)
+                        .build();
+                ListObjectsV2Response response = requestMetrics.record("ListObjects", () -> s3Client.listObjectsV2(request));
+                for (S3Object object : response.contents()) {
+                    if (!object.key().endsWith("/")) {
+                        keys.add(object.key());
+                    }
+                }
+                continuationToken = response.nextContinuationToken();
+            } while (continuationToken != null && keys.size() <= maxObjects);
+            return keys;
+        } catch (S3Exception e) {
+            log.error("Error listing bundle objects", e);
+            throw new FileDownloadException("S3 Error: " + e.awsErrorDetails().errorMessage(), e);
+        }
+    }
+
+    /**
+     * Starts fetching a bundle and waits for its first object, so a missing key fails the request before any
+     * byte of the archive is sent. The returned bundle must be written or closed.
+     */
+    public Bundle open(List<String> keys) {
+        Bundle bundle = new Bundle(keys);
+        try {
+            bundle.awaitFirst();
+            return bundle;
+        } catch (IOException | RuntimeException e) {
+            bundle.close();
+            throw e instanceof FileDownloadException fileDownloadException
+                    ? fileDownloadException
+                    : new FileDownloadException("Failed to open bundle", e);
+        }
+    }
+
+    private ResponseInputStream<GetObjectResponse> getObject(String key) {
+        GetObjectRequest request = GetObjectRequest.builder()
+                .bucket(bucketName)
+                .key(key)
+                .build();
+        try {
+            return requestMetrics.record("GetObject", () -> s3Client.getObject(request));
+        } catch (S3Exception e) {
+            log.error("Error opening bundle object {}", key, e);
+            throw new FileDownloadException("S3 Error for " + key + ": " + e.awsErrorDetails().errorMessage(), e);
+        }
+    }
+
+    public class Bundle implements AutoCloseable {
+
+        private final List<String> keys;
+        private final Deque<CompletableFuture<ResponseInputStream<GetObjectResponse>>> window = new ArrayDeque<>();
+        private int nextToSubmit;
+
+        private Bundle(List<String> keys) {
+            this.keys = keys;
+            fillWindow();
+        }
+
+        public int size() {
+            return keys.size();
+        }
+
+        private void fillWindow() {
+            while (window.size() <= prefetch && nextToSubmit < keys.size()) {
+                String key = keys.get(nextToSubmit++);
+                window.addLast(CompletableFuture.supplyAsync(() -> getObject(key), executor));
+            }
+        }
+
+        private void awaitFirst() throws IOException {
+            await(window.peekFirst());
+        }
+
+        /**
+         * Writes every object as a ZIP entry to {@code outputStream}, then finishes the archive. The stream is
+         * not closed.
+         */
+        public void writeTo(OutputStream outputStream) throws IOException {
+            long started = System.nanoTime();
+            long totalBytes = 0;
+            try {
+                ZipOutputStream zip = new ZipOutputStream(outputStream);
+                zip.setLevel(compressionLevel);
+                for (String key : keys) {
+                    // The window holds this object plus the next `prefetch` ones
+                    fillWindow();
+                    CompletableFuture<ResponseInputStream<GetObjectResponse>> next = window.pollFirst();
+                    try (ResponseInputStream<GetObjectResponse> object = await(next)) {
+                        ZipEntry entry = new ZipEntry(key.substring(keyPrefix.length()));
+                        if (object.response().lastModified() != null) {
+                            entry.setTime(object.response().lastModified().toEpochMilli());
+                        }
+                        zip.putNextEntry(entry);
+                        totalBytes += streamRelay.relay(object, zip);
+                        zip.closeEntry();
+                    }
+                }
+                zip.finish();
+                outputStream.flush();
+            } finally {
+                close();
+            }
+            log.info("Bundle completed: {} objects, {} bytes in {} ms", keys.size(), totalBytes,
+                    TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started));
+        }
+
+        private ResponseInputStream<GetObjectResponse> await(
+                CompletableFuture<ResponseInputStream<GetObjectResponse>> future) throws IOException {
+            try {
+                return future.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while opening bundle object");
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof RuntimeException runtimeException) {
+                    throw runtimeException;
+                }
+                throw new IOException("Failed to open bundle object", e.getCause());
+            }
+        }
+
+        /**
+         * Aborts the GETs opened ahead, including those still in flight once they complete.
+         */
+        @Override
+        public void close() {
+            window.forEach(future -> future.thenAccept(ResponseInputStream::abort));
+            window.clear();
+        }
+    }
+}
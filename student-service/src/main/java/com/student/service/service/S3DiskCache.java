@@ -0,0 +1,539 @@
+package com.student.service.service;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.util.unit.DataSize;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HexFormat;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+
+/**
+ * On-disk cache of S3 objects keyed by bucket, key and ETag, bounded by {@code cache.disk.max-size} with LRU
+ * eviction. Objects are written while they stream to the first client and published only once complete.
+ * Entries older than {@code cache.disk.revalidate-after} are checked against a fresh HEAD before being served.
+ */
+@Slf4j
+@Component
+public class S3DiskCache {
+
+    /**
+     * Evicted files stay on disk this long so that a response already handed to the container
+     * (sendfile or an in-progress transfer) can finish reading them.
+     */
+    private static final Duration DELETE_GRACE = Duration.ofSeconds(30);
+
+    private final boolean enabled;
+    private final Path directory;
+    private final long maxSizeBytes;
+    private final Duration revalidateAfter;
+
+    private final LinkedHashMap<String, CachedFile> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private final ArrayDeque<PendingDelete> pendingDeletes = new ArrayDeque<>();
+    private long currentSizeBytes;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+    private final AtomicLong bytesServed = new AtomicLong();
+
+    public S3DiskCache(
+            MeterRegistry meterRegistry,
+            @Value("${cache.disk.enabled}") boolean enabled,
+            @Value("${cache.disk.directory}") Path directory,
+            @Value("${cache.disk.max-size}") DataSize maxSize,
+            @Value("${cache.disk.revalidate-after}") Duration revalidateAfter) {
+        this.enabled = enabled;
+        this.directory = directory;
+        this.maxSizeBytes = maxSize.toBytes();
+        this.revalidateAfter = revalidateAfter;
+
+        if (enabled) {
+            prepareDirectory();
+        }
+
+        FunctionCounter.builder("s3.cache.disk.hits", hits, AtomicLong::get).register(meterRegistry);
+        FunctionCounter.builder("s3.cache.disk.misses", misses, AtomicLong::get).register(meterRegistry);
+        FunctionCounter.builder("s3.cache.disk.evictions", evictions, AtomicLong::get).register(meterRegistry);
+        FunctionCounter.builder("s3.cache.disk.served", bytesServed, AtomicLong::get)
+                .baseUnit("bytes").register(meterRegistry);
+        Gauge.builder("s3.cache.disk.size", this, S3DiskCache::currentSizeBytes)
+                .baseUnit("bytes").register(meterRegistry);
+        Gauge.builder("s3.cache.disk.entries", this, S3DiskCache::entryCount).register(meterRegistry);
+    }
+
+    public record CachedFile(String bucketName, String key, String eTag, Instant lastModified,
+                             String contentType, long contentLength, Path path, Instant validatedAt) {}
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Returns the cached copy of an object, revalidating it first when it is older than {@code revalidate-after}.
+     * An entry whose ETag or Last-Modified no longer matches S3 is dropped and reported as a miss.
+     */
+    public Optional<CachedFile> lookup(String bucketName, String key, Supplier<S3FileService.S3ObjectInfo> revalidator) {
+        if (!enabled) {
+            return Optional.empty();
+        }
+
+        CachedFile cachedFile = get(bucketName, key);
+        if (cachedFile == null) {
+            misses.incrementAndGet();
+            return Optional.empty();
+        }
+
+        if (Duration.between(cachedFile.validatedAt(), Instant.now()).compareTo(revalidateAfter) >= 0) {
+            S3FileService.S3ObjectInfo info = revalidator.get();
+            if (!matches(cachedFile, info)) {
+                log.info("Cached copy of {} is stale (eTag {} -> {}), dropping it", key, cachedFile.eTag(), info.eTag());
+                remove(cachedFile);
+                misses.incrementAndGet();
+                return Optional.empty();
+            }
+            cachedFile = revalidated(cachedFile);
+        }
+
+        hits.incrementAndGet();
+        return Optional.of(cachedFile);
+    }
+
+    /**
+     * Wraps an S3 stream so that reading it to the end also stores it in the cache. Streams closed early,
+     * or objects larger than the whole cache, are passed through without caching.
+     */
+    public InputStream fill(String bucketName, String key, S3FileService.S3ObjectInfo info, InputStream source) {
+        if (!enabled || info.eTag() == null || info.contentLength() > maxSizeBytes) {
+            return source;
+        }
+        try {
+            Path tempFile = Files.createTempFile(directory, "fill-", ".part");
+            return new CacheFillInputStream(source, tempFile, new CachedFile(bucketName, key, info.eTag(),
+                    info.lastModified(), info.contentType(), info.contentLength(),
+                    directory.resolve(fileName(bucketName, key, info.eTag())), Instant.now()));
+        } catch (IOException e) {
+            log.warn("Could not create cache file for {}, serving uncached", key, e);
+            return source;
+        }
+    }
+
+    /**
+     * Takes over a complete copy of an object written elsewhere, such as a single-flight spool, instead of writing
+     * a second one. The file is moved into the cache directory (a rename when both are on the same filesystem);
+     * readers that already have it open are unaffected.
+     */
+    public void adopt(String bucketName, String key, S3FileService.S3ObjectInfo info, Path file) {
+        if (!enabled || info.eTag() == null || info.contentLength() > maxSizeBytes) {
+            return;
+        }
+        Path tempFile = null;
+        try {
+            tempFile = Files.createTempFile(directory, "fill-", ".part");
+            Files.move(file, tempFile, StandardCopyOption.REPLACE_EXISTING);
+            publish(tempFile, new CachedFile(bucketName, key, info.eTag(), info.lastModified(), info.contentType(),
+                    info.contentLength(), directory.resolve(fileName(bucketName, key, info.eTag())), Instant.now()));
+        } catch (IOException e) {
+            log.warn("Could not adopt {} into the cache for {}", file, key, e);
+            if (tempFile != null) {
+                deleteQuietly(tempFile);
+            }
+        }
+    }
+
+    /**
+     * Starts storing a variant of an object, such as a compressed encoding, whose length is only known once it
+     * is written. The variant is cached under {@code variantKey} with the original's validators, so it is
+     * revalidated and invalidated along with the object. Returns {@code null} when the cache is disabled.
+     */
+    public VariantSink storeVariant(String bucketName, String variantKey, S3FileService.S3ObjectInfo info) {
+        if (!enabled || info.eTag() == null) {
+            return null;
+        }
+        try {
+            Path tempFile = Files.createTempFile(directory, "variant-", ".part");
+            return new VariantSink(tempFile, bucketName, variantKey, info);
+        } catch (IOException e) {
+            log.warn("Could not create cache file for {}, serving uncached", variantKey, e);
+            return null;
+        }
+    }
+
+    /**
+     * Copies a cached file to the response with {@link FileChannel#transferTo}, which avoids staging the bytes
+     * in a heap buffer when the target channel allows it.
+     */
+    public long transferTo(CachedFile cachedFile, OutputStream outputStream) throws IOException {
+        try (FileChannel channel = FileChannel.open(cachedFile.path(), StandardOpenOption.READ)) {
+            WritableByteChannel target = Channels.newChannel(outputStream);
+            long position = 0;
+            long size = channel.size();
+            while (position < size) {
+                position += channel.transferTo(position, size - position, target);
+            }
+            bytesServed.addAndGet(position);
+            return position;
+        }
+    }
+
+    public InputStream openStream(CachedFile cachedFile) {
+        try {
+            InputStream inputStream = Files.newInputStream(cachedFile.path());
+            bytesServed.addAndGet(cachedFile.contentLength());
+            return inputStream;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Records bytes the container will send straight from the cached file, e.g. via Tomcat sendfile.
+     */
+    public void recordServed(long bytes) {
+        bytesServed.addAndGet(bytes);
+    }
+
+    private synchronized CachedFile get(String bucketName, String key) {
+        return entries.get(indexKey(bucketName, key));
+    }
+
+    private synchronized CachedFile revalidated(CachedFile cachedFile) {
+        CachedFile current = entries.get(indexKey(cachedFile.bucketName(), cachedFile.key()));
+        if (current == null || !current.eTag().equals(cachedFile.eTag())) {
+            return cachedFile;
+        }
+        CachedFile refreshed = new CachedFile(current.bucketName(), current.key(), current.eTag(), current.lastModified(),
+                current.contentType(), current.contentLength(), current.path(), Instant.now());
+        entries.put(indexKey(current.bucketName(), current.key()), refreshed);
+        return refreshed;
+    }
+
+    private void remove(CachedFile cachedFile) {
+        synchronized (this) {
+            String indexKey = indexKey(cachedFile.bucketName(), cachedFile.key());
+            CachedFile current = entries.get(indexKey);
+            if (current != null && current.path().equals(cachedFile.path())) {
+                entries.remove(indexKey);
+                currentSizeBytes -= current.contentLength();
+                pendingDeletes.addLast(new PendingDelete(current.path(), Instant.now()));
+            }
+        }
+        purgePendingDeletes();
+    }
+
+    private void publish(Path tempFile, CachedFile cachedFile) throws IOException {
+        Files.move(tempFile, cachedFile.path(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+        List<String> evicted = new ArrayList<>();
+        synchronized (this) {
+            String indexKey = indexKey(cachedFile.bucketName(), cachedFile.key());
+            CachedFile previous = entries.put(indexKey, cachedFile);
+            if (previous != null) {
+                currentSizeBytes -= previous.contentLength();
+                if (!previous.path().equals(cachedFile.path())) {
+                    pendingDeletes.addLast(new PendingDelete(previous.path(), Instant.now()));
+                }
+            }
+            currentSizeBytes += cachedFile.contentLength();
+
+            Iterator<Map.Entry<String, CachedFile>> eldest = entries.entrySet().iterator();
+            while (currentSizeBytes > maxSizeBytes && eldest.hasNext()) {
+                CachedFile victim = eldest.next().getValue();
+                if (victim == cachedFile) {
+                    continue;
+                }
+                eldest.remove();
+                currentSizeBytes -= victim.contentLength();
+                pendingDeletes.addLast(new PendingDelete(victim.path(), Instant.now()));
+                evicted.add(victim.key());
+            }
+        }
+
+        evictions.addAndGet(evicted.size());
+        if (!evicted.isEmpty()) {
+            log.info("Evicted {} cached object(s) to stay within {} bytes: {}", evicted.size(), maxSizeBytes, evicted);
+        }
+        log.info("Cached {} ({} bytes, eTag={})", cachedFile.key(), cachedFile.contentLength(), cachedFile.eTag());
+        purgePendingDeletes();
+    }
+
+    private void purgePendingDeletes() {
+        List<Path> expired = new ArrayList<>();
+        synchronized (this) {
+            Instant cutoff = Instant.now().minus(DELETE_GRACE);
+            while (!pendingDeletes.isEmpty() && pendingDeletes.peekFirst().evictedAt().isBefore(cutoff)) {
+                expired.add(pendingDeletes.pollFirst().path());
+            }
+        }
+        expired.forEach(S3DiskCache::deleteQuietly);
+    }
+
+    private synchronized long currentSizeBytes() {
+        return currentSizeBytes;
+    }
+
+    private synchronized int entryCount() {
+        return entries.size();
+    }
+
+    private void prepareDirectory() {
+        try {
+            Files.createDirectories(directory);
+            // The index lives in memory only, so files left by a previous run can't be trusted. Anything else in
+            // the directory isn't ours and is left alone.
+            try (Stream<Path> files = Files.list(directory)) {
+                files.filter(S3DiskCache::isCacheFile).forEach(S3DiskCache::deleteQuietly);
+            }
+            log.info("Disk cache ready: directory={}, maxSize={} bytes, revalidateAfter={}",
+                    directory, maxSizeBytes, revalidateAfter);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot prepare disk cache directory " + directory, e);
+        }
+    }
+
+    private static boolean isCacheFile(Path path) {
+        String name = path.getFileName().toString();
+        return Files.isRegularFile(path) && (name.endsWith(".obj")
+                || (name.endsWith(".part") && (name.startsWith("fill-") || name.startsWith("variant-"))));
+    }
+
+    private static boolean matches(CachedFile cachedFile, S3FileService.S3ObjectInfo info) {
+        return cachedFile.eTag().equals(info.eTag())
+                && (cachedFile.lastModified() == null || cachedFile.lastModified().equals(info.lastModified()));
+    }
+
+    private static String indexKey(String bucketName, String key) {
+        return bucketName + "/" + key;
+    }
+
+    private static String fileName(String bucketName, String key, String eTag) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            byte[] hash = digest.digest((bucketName + "/" + key + "/" + eTag).getBytes(StandardCharsets.UTF_8));
+            return HexFormat.of().formatHex(hash) + ".obj";
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static void deleteQuietly(Path path) {
+        try {
+            Files.deleteIfExists(path);
+        } catch (IOException e) {
+            log.warn("Could not delete cache file {}", path, e);
+        }
+    }
+
+    private record PendingDelete(Path path, Instant evictedAt) {}
+
+    /**
+     * Receives a variant's bytes as they are produced. Write failures only stop the caching, never the caller;
+     * {@link #commit()} publishes what was written, and closing without committing discards it.
+     */
+    public class VariantSink extends OutputStream {
+
+        private final Path tempFile;
+        private final String bucketName;
+        private final String variantKey;
+        private final S3FileService.S3ObjectInfo info;
+        private final FileChannel channel;
+        private long written;
+        private boolean failed;
+        private boolean finished;
+
+        VariantSink(Path tempFile, String bucketName, String variantKey, S3FileService.S3ObjectInfo info) throws IOException {
+            this.tempFile = tempFile;
+            this.bucketName = bucketName;
+            this.variantKey = variantKey;
+            this.info = info;
+            this.channel = FileChannel.open(tempFile, StandardOpenOption.WRITE);
+        }
+
+        public long written() {
+            return written;
+        }
+
+        @Override
+        public void write(int b) {
+            write(new byte[] {(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] buffer, int offset, int length) {
+            if (failed || finished) {
+                return;
+            }
+            try {
+                ByteBuffer byteBuffer = ByteBuffer.wrap(buffer, offset, length);
+                while (byteBuffer.hasRemaining()) {
+                    channel.write(byteBuffer);
+                }
+                written += length;
+            } catch (IOException e) {
+                log.warn("Failed writing cache file for {}, continuing uncached", variantKey, e);
+                failed = true;
+            }
+        }
+
+        public void commit() {
+            if (finished) {
+                return;
+            }
+            finished = true;
+            closeChannel();
+            if (failed || written > maxSizeBytes) {
+                deleteQuietly(tempFile);
+                return;
+            }
+            try {
+                publish(tempFile, new CachedFile(bucketName, variantKey, info.eTag(), info.lastModified(),
+                        info.contentType(), written, directory.resolve(fileName(bucketName, variantKey, info.eTag())),
+                        Instant.now()));
+            } catch (IOException e) {
+                log.warn("Failed publishing cache file for {}", variantKey, e);
+                deleteQuietly(tempFile);
+            }
+        }
+
+        @Override
+        public void close() {
+            if (!finished) {
+                finished = true;
+                closeChannel();
+                deleteQuietly(tempFile);
+            }
+        }
+
+        private void closeChannel() {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                failed = true;
+            }
+        }
+    }
+
+    private class CacheFillInputStream extends FilterInputStream {
+
+        private final Path tempFile;
+        private final CachedFile target;
+        private final FileChannel channel;
+        private long written;
+        private boolean failed;
+        private boolean finished;
+
+        CacheFillInputStream(InputStream source, Path tempFile, CachedFile target) throws IOException {
+            super(source);
+            this.tempFile = tempFile;
+            this.target = target;
+            this.channel = FileChannel.open(tempFile, StandardOpenOption.WRITE);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b < 0) {
+                complete();
+            } else {
+                write(new byte[] {(byte) b}, 0, 1);
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            int count = super.read(buffer, offset, length);
+            if (count < 0) {
+                complete();
+            } else if (count > 0) {
+                write(buffer, offset, count);
+            }
+            return count;
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                super.close();
+            } finally {
+                if (!finished) {
+                    finished = true;
+                    closeChannel();
+                    deleteQuietly(tempFile);
+                }
+            }
+        }
+
+        private void write(byte[] buffer, int offset, int length) {
+            if (failed) {
+                return;
+            }
+            try {
+                ByteBuffer byteBuffer = ByteBuffer.wrap(buffer, offset, length);
+                while (byteBuffer.hasRemaining()) {
+                    channel.write(byteBuffer);
+                }
+                written += length;
+            } catch (IOException e) {
+                log.warn("Failed writing cache file for {}, continuing uncached", target.key(), e);
+                failed = true;
+            }
+        }
+
+        private void complete() {
+            if (finished) {
+                return;
+            }
+            finished = true;
+            closeChannel();
+            if (failed || written != target.contentLength()) {
+                deleteQuietly(tempFile);
+                return;
+            }
+            try {
+                publish(tempFile, target);
+            } catch (IOException e) {
+                log.warn("Failed publishing cache file for {}", target.key(), e);
+                deleteQuietly(tempFile);
+            }
+        }
+
+        private void closeChannel() {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                failed = true;
+            }
+        }
+    }
+}
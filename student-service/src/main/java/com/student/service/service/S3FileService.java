@@ -1,38 +1,114 @@
 package com.student.service.service;
 
+import com.student.common.transfer.SingleFlight;
 import com.student.service.exception.FileDownloadException;
+import com.student.service.exception.ObjectChangedException;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpStatus;
 import org.springframework.stereotype.Service;
+import org.springframework.util.unit.DataSize;
 import software.amazon.awssdk.core.ResponseInputStream;
+import software.amazon.awssdk.core.exception.AbortedException;
 import software.amazon.awssdk.services.s3.S3Client;
 import software.amazon.awssdk.services.s3.model.GetObjectRequest;
 import software.amazon.awssdk.services.s3.model.GetObjectResponse;
+import software.amazon.awssdk.services.s3.model.HeadObjectRequest;
+import software.amazon.awssdk.services.s3.model.HeadObjectResponse;
 import software.amazon.awssdk.services.s3.model.S3Exception;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.time.Instant;
+import java.util.Optional;
 
 @Slf4j
 @Service
 public class S3FileService {
 
     private final S3Client s3Client;
+    private final ParallelRangeDownloader parallelRangeDownloader;
+    private final S3DiskCache diskCache;
+    private final SingleFlight singleFlight;
+    private final S3RequestMetrics requestMetrics;
+    private final S3MetadataIndex metadataIndex;
+    private final S3HedgedRequests hedgedRequests;
     private final String bucketName;
     private final String fileKey;
+    private final DataSize parallelThreshold;
 
     public S3FileService(
             S3Client s3Client,
+            ParallelRangeDownloader parallelRangeDownloader,
+            S3DiskCache diskCache,
+            SingleFlight singleFlight,
+            S3RequestMetrics requestMetrics,
+            S3MetadataIndex metadataIndex,
+            S3HedgedRequests hedgedRequests,
             @Value("${aws.s3.bucket-name}") String bucketName,
-            @Value("${aws.s3.file-key}") String fileKey) {
+            @Value("${aws.s3.file-key}") String fileKey,
+            @Value("${aws.s3.parallel.threshold}") DataSize parallelThreshold) {
         this.s3Client = s3Client;
+        this.parallelRangeDownloader = parallelRangeDownloader;
+        this.diskCache = diskCache;
+        this.singleFlight = singleFlight;
+        this.requestMetrics = requestMetrics;
+        this.metadataIndex = metadataIndex;
+        this.hedgedRequests = hedgedRequests;
         this.bucketName = bucketName;
         this.fileKey = fileKey;
+        this.parallelThreshold = parallelThreshold;
     }
 
-    public record S3File(InputStream inputStream, String contentType) {}
+    /**
+     * How {@link #downloadFile(DownloadMode)} reads the object: one sequential GET, concurrent ranged
+     * GETs, or parallel only when the object is at least {@code aws.s3.parallel.threshold} bytes.
+     */
+    public enum DownloadMode { AUTO, SINGLE, PARALLEL }
+
+    public record S3ObjectInfo(long contentLength, String contentType, String eTag, Instant lastModified) {}
+
+    /**
+     * Object metadata from the {@link S3MetadataIndex}, issuing a HEAD only when the entry is missing or expired.
+     */
+    public S3ObjectInfo getObjectInfo() {
+        return metadataIndex.get(bucketName, fileKey, this::headObject);
+    }
+
+    /**
+     * Always asks S3, for callers that must not act on stale metadata. The answer refreshes the index.
+     */
+    public S3ObjectInfo headFile() {
+        S3ObjectInfo info = headObject();
+        metadataIndex.put(bucketName, fileKey, info);
+        return info;
+    }
+
+    private S3ObjectInfo headObject() {
+        log.info("Fetching file metadata from S3: bucket={}, key={}", bucketName, fileKey);
+
+        HeadObjectRequest headObjectRequest = HeadObjectRequest.builder()
+                .bucket(bucketName)
+                .key(fileKey)
+                .build();
+
+        try {
+            HeadObjectResponse response = requestMetrics.record("HeadObject", () -> s3Client.headObject(headObjectRequest));
+            return new S3ObjectInfo(response.contentLength(), response.contentType(),
+                    response.eTag(), response.lastModified());
+        } catch (S3Exception e) {
+            log.error("Error fetching file metadata from S3", e);
+            throw new FileDownloadException("S3 Error: " + e.awsErrorDetails().errorMessage(), e);
+        }
+    }
+
+    public record S3File(InputStream inputStream, String contentType, Long contentLength, String eTag, Instant lastModified) {}
 
     public S3File downloadFile() {
+        return withCacheFill(openObject());
+    }
+
+    private S3File openObject() {
         log.info("Starting file download from S3: bucket={}, key={}", bucketName, fileKey);
 
         GetObjectRequest getObjectRequest = GetObjectRequest.builder()
@@ -40,43 +116,186 @@ public class S3FileService {
                 .key(fileKey)
                 .build();
 
+        ResponseInputStream<GetObjectResponse> response = hedgedRequests.isEnabled()
+                ? hedgedRequests.get(() -> getObject("GetObject", getObjectRequest))
+                : getObject("GetObject", getObjectRequest);
+        GetObjectResponse object = response.response();
+        S3ObjectInfo info = new S3ObjectInfo(object.contentLength(), object.contentType(),
+                object.eTag(), object.lastModified());
+        metadataIndex.put(bucketName, fileKey, info);
+        return new S3File(response, info.contentType(), info.contentLength(), info.eTag(), info.lastModified());
+    }
+
+    private S3File withCacheFill(S3File s3File) {
+        return new S3File(diskCache.fill(bucketName, fileKey, objectInfo(s3File), s3File.inputStream()),
+                s3File.contentType(), s3File.contentLength(), s3File.eTag(), s3File.lastModified());
+    }
+
+    private static S3ObjectInfo objectInfo(S3File s3File) {
+        return new S3ObjectInfo(s3File.contentLength(), s3File.contentType(), s3File.eTag(), s3File.lastModified());
+    }
+
+    /**
+     * Returns the locally cached copy of the file, if the disk cache holds a current one.
+     */
+    public Optional<S3DiskCache.CachedFile> findCachedFile() {
+        return diskCache.lookup(bucketName, fileKey, this::headFile);
+    }
+
+    /**
+     * Returns the cached copy of the file in the given content coding, if the disk cache holds a current one.
+     */
+    public Optional<S3DiskCache.CachedFile> findCachedVariant(String contentCoding) {
+        return diskCache.lookup(bucketName, variantKey(contentCoding), this::headFile);
+    }
+
+    /**
+     * Starts caching the file in the given content coding, or returns {@code null} when it can't be cached.
+     */
+    public S3DiskCache.VariantSink storeVariant(String contentCoding, S3ObjectInfo info) {
+        return diskCache.storeVariant(bucketName, variantKey(contentCoding), info);
+    }
+
+    private String variantKey(String contentCoding) {
+        return fileKey + ";content-coding=" + contentCoding;
+    }
+
+    /**
+     * Downloads the file in the given mode. Concurrent calls for the same object and mode share one S3 fetch
+     * through {@link SingleFlight}, each reading the shared bytes at its own pace. A shared fetch's spool file
+     * becomes the disk-cache copy once complete; objects too large to share fill the cache as they stream.
+     */
+    public S3File downloadFile(DownloadMode mode) {
         try {
-            ResponseInputStream<GetObjectResponse> response = s3Client.getObject(getObjectRequest);
-            String contentType = response.response().contentType();
-            return new S3File(response, contentType);
-        } catch (S3Exception e) {
-            log.error("Error downloading file from S3", e);
-            throw new FileDownloadException("S3 Error: " + e.awsErrorDetails().errorMessage(), e);
+            SingleFlight.Shared<S3File> shared = singleFlight.open(bucketName + "/" + fileKey + "?mode=" + mode, () -> {
+                S3File s3File = openFile(mode);
+                S3ObjectInfo info = objectInfo(s3File);
+                long length = s3File.contentLength() != null ? s3File.contentLength() : -1;
+                if (singleFlight.shares(length)) {
+                    return new SingleFlight.Source<>(s3File, s3File.inputStream(), length,
+                            spool -> diskCache.adopt(bucketName, fileKey, info, spool));
+                }
+                S3File filling = withCacheFill(s3File);
+                return new SingleFlight.Source<>(filling, filling.inputStream(), length);
+            });
+            S3File upstream = shared.metadata();
+            return new S3File(shared.body(), upstream.contentType(), upstream.contentLength(),
+                    upstream.eTag(), upstream.lastModified());
+        } catch (FileDownloadException e) {
+            throw e;
         } catch (Exception e) {
             log.error("Error downloading file from S3", e);
             throw new FileDownloadException("Failed to download file from S3", e);
         }
     }
 
-    public record S3BytesFile(byte[] data, String contentType) {}
+    private S3File openFile(DownloadMode mode) {
+        boolean thresholdEnabled = parallelThreshold.toBytes() > 0;
+        if (mode == DownloadMode.SINGLE || (mode == DownloadMode.AUTO && !thresholdEnabled)) {
+            return openObject();
+        }
 
-    public S3BytesFile downloadFileAsBytes() {
-        log.info("Starting byte[] file download from S3: bucket={}, key={}", bucketName, fileKey);
+        S3ObjectInfo info = headFile();
+        if (mode == DownloadMode.AUTO && info.contentLength() < parallelThreshold.toBytes()) {
+            return openObject();
+        }
+
+        InputStream inputStream = parallelRangeDownloader.open(bucketName, fileKey, info.contentLength(), info.eTag());
+        if (inputStream == null) {
+            return openObject();
+        }
+        return new S3File(inputStream, info.contentType(), info.contentLength(), info.eTag(), info.lastModified());
+    }
+
+    /**
+     * Byte range of an object, both ends inclusive as in the HTTP {@code Range} header.
+     */
+    public record ByteRange(long start, long end) {
+
+        public long length() {
+            return end - start + 1;
+        }
+
+        public String toHeaderValue() {
+            return "bytes=" + start + "-" + end;
+        }
+    }
+
+    /**
+     * Opens a ranged GET for the given bytes. {@code eTag}, the version the caller described to its client, is
+     * sent as {@code If-Match} so that an overwrite fails with {@link ObjectChangedException} instead of mixing
+     * versions; the failure also drops the outdated entry from the {@link S3MetadataIndex}.
+     */
+    public S3File downloadFileRange(ByteRange range, String eTag) {
+        log.info("Starting ranged file download from S3: bucket={}, key={}, range={}", bucketName, fileKey, range);
 
         GetObjectRequest getObjectRequest = GetObjectRequest.builder()
                 .bucket(bucketName)
                 .key(fileKey)
+                .range(range.toHeaderValue())
+                .ifMatch(eTag)
                 .build();
 
-        try (ResponseInputStream<GetObjectResponse> response = s3Client.getObject(getObjectRequest)) {
-            String contentType = response.response().contentType();
-            byte[] bytes = response.readAllBytes();
-            log.info("Byte[] file download completed, size={} bytes", bytes.length);
-            return new S3BytesFile(bytes, contentType);
+        ResponseInputStream<GetObjectResponse> response = getObject("GetObjectRange", getObjectRequest);
+        GetObjectResponse object = response.response();
+        return new S3File(response, object.contentType(), object.contentLength(), object.eTag(), object.lastModified());
+    }
+
+    private ResponseInputStream<GetObjectResponse> getObject(String operation, GetObjectRequest getObjectRequest) {
+        try {
+            return requestMetrics.record(operation, () -> s3Client.getObject(getObjectRequest));
         } catch (S3Exception e) {
-            log.error("Error downloading file as bytes from S3", e);
+            if (e.statusCode() == HttpStatus.PRECONDITION_FAILED.value()) {
+                metadataIndex.invalidate(bucketName, fileKey);
+                log.info("Object {} changed since its ETag was read", fileKey);
+                throw new ObjectChangedException("S3 Error: " + e.awsErrorDetails().errorMessage(), e);
+            }
+            log.error("Error downloading file from S3", e);
             throw new FileDownloadException("S3 Error: " + e.awsErrorDetails().errorMessage(), e);
+        } catch (AbortedException e) {
+            // A hedged GET cancelled because the other one answered first
+            log.debug("S3 request aborted", e);
+            throw new FileDownloadException("S3 request aborted", e);
+        } catch (Exception e) {
+            log.error("Error downloading file from S3", e);
+            throw new FileDownloadException("Failed to download file from S3", e);
+        }
+    }
+
+    public record S3BytesFile(byte[] data, String contentType) {}
+
+    /**
+     * Opens the file for a buffered download: the disk-cached copy when it is current, otherwise a single
+     * GET that also fills the cache. The content length is known up front so callers can budget for it.
+     */
+    public S3File openFileForBuffering() {
+        Optional<S3DiskCache.CachedFile> cachedFile = findCachedFile();
+        if (cachedFile.isPresent()) {
+            log.info("Opening byte[] file from disk cache: key={}", fileKey);
+            S3DiskCache.CachedFile cached = cachedFile.get();
+            return new S3File(diskCache.openStream(cached), cached.contentType(), cached.contentLength(),
+                    cached.eTag(), cached.lastModified());
+        }
+
+        log.info("Starting byte[] file download from S3: bucket={}, key={}", bucketName, fileKey);
+        return downloadFile();
+    }
+
+    public S3BytesFile readAllBytes(S3File s3File) {
+        try (InputStream inputStream = s3File.inputStream()) {
+            byte[] bytes = inputStream.readAllBytes();
+            log.info("Byte[] file download completed, size={} bytes", bytes.length);
+            return new S3BytesFile(bytes, s3File.contentType());
         } catch (IOException e) {
             log.error("Error reading file bytes from S3", e);
             throw new FileDownloadException("Failed to read file bytes from S3", e);
         }
     }
 
+    public S3BytesFile downloadFileAsBytes() {
+        return readAllBytes(openFileForBuffering());
+    }
+
     public String getFileName() {
         return fileKey.substring(fileKey.lastIndexOf('/') + 1);
     }
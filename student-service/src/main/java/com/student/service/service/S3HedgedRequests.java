@@ -0,0 +1,215 @@
+package com.student.service.service;
+
+import com.student.common.transfer.IoThreads;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import software.amazon.awssdk.core.ResponseInputStream;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * Hedged S3 GETs: when a GET has not returned its response headers after the {@code aws.s3.hedging.percentile}
+ * of recent time-to-first-byte, an identical second GET is sent. Whichever answers first is used and the other
+ * is cancelled, or aborted if its headers arrive anyway.
+ * <p>
+ * Each GET earns {@code budget} of a hedge and each hedge spends one, so hedges stay below that fraction of GETs
+ * and can't double the load on S3 when it is slow across the board.
+ * <p>
+ * Meters: {@code s3.hedge.sent}, {@code s3.hedge.wins} (the hedge answered first), {@code s3.hedge.skipped}
+ * (over budget) and {@code s3.hedge.delay}.
+ */
+@Slf4j
+@Component
+public class S3HedgedRequests {
+
+    private static final int WINDOW_SIZE = 1024;
+    private static final int MIN_SAMPLES = 32;
+    private static final int RECOMPUTE_EVERY = 32;
+    private static final double MAX_BUDGET_TOKENS = 10;
+
+    private final boolean enabled;
+    private final double percentile;
+    private final long minDelayNanos;
+    private final long maxDelayNanos;
+    private final double budget;
+    private final ExecutorService executor;
+
+    private final long[] samples = new long[WINDOW_SIZE];
+    private int sampleCount;
+    private int nextSample;
+    private int sinceRecompute;
+    private long delayNanos;
+    private double budgetTokens;
+
+    private final AtomicLong sent = new AtomicLong();
+    private final AtomicLong wins = new AtomicLong();
+    private final AtomicLong skipped = new AtomicLong();
+
+    public S3HedgedRequests(
+            MeterRegistry meterRegistry,
+            IoThreads ioThreads,
+            @Value("${aws.s3.hedging.enabled}") boolean enabled,
+            @Value("${aws.s3.hedging.percentile}") double percentile,
+            @Value("${aws.s3.hedging.min-delay}") Duration minDelay,
+            @Value("${aws.s3.hedging.max-delay}") Duration maxDelay,
+            @Value("${aws.s3.hedging.budget}") double budget) {
+        this.enabled = enabled;
+        this.percentile = percentile;
+        this.minDelayNanos = minDelay.toNanos();
+        this.maxDelayNanos = maxDelay.toNanos();
+        this.budget = budget;
+        this.delayNanos = maxDelayNanos;
+        this.executor = Executors.newCachedThreadPool(ioThreads.threadFactory("s3-hedge-"));
+
+        FunctionCounter.builder("s3.hedge.sent", sent, AtomicLong::get).register(meterRegistry);
+        FunctionCounter.builder("s3.hedge.wins", wins, AtomicLong::get).register(meterRegistry);
+        FunctionCounter.builder("s3.hedge.skipped", skipped, AtomicLong::get).register(meterRegistry);
+        Gauge.builder("s3.hedge.delay", this, hedging -> hedging.delayNanos() / 1e9)
+                .baseUnit("seconds").register(meterRegistry);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Runs {@code request}, hedging it as described above. Exceptions from the request are rethrown as they are,
+     * once every attempt has failed.
+     */
+    public <T> ResponseInputStream<T> get(Supplier<ResponseInputStream<T>> request) {
+        depositBudget();
+        Race<T> race = new Race<>(request);
+        race.launch();
+        try {
+            try {
+                return race.winner.get(delayNanos(), TimeUnit.NANOSECONDS);
+            } catch (TimeoutException e) {
+                if (withdrawBudget()) {
+                    sent.incrementAndGet();
+                    log.debug("No S3 response after {} ms, sending a hedged request",
+                            TimeUnit.NANOSECONDS.toMillis(delayNanos()));
+                    race.launch();
+                } else {
+                    skipped.incrementAndGet();
+                }
+                return race.winner.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for S3", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException runtimeException) {
+                throw runtimeException;
+            }
+            throw new IllegalStateException("S3 request failed", e.getCause());
+        } finally {
+            race.cancelLosers();
+        }
+    }
+
+    /**
+     * The attempts of one request. The first to return headers completes {@link #winner}; a later one aborts its
+     * own response. The winner fails only once every launched attempt has failed.
+     */
+    private final class Race<T> {
+
+        private final Supplier<ResponseInputStream<T>> request;
+        private final CompletableFuture<ResponseInputStream<T>> winner = new CompletableFuture<>();
+        private final List<Future<?>> attempts = new ArrayList<>();
+        private int failures;
+
+        Race(Supplier<ResponseInputStream<T>> request) {
+            this.request = request;
+        }
+
+        synchronized void launch() {
+            if (winner.isDone()) {
+                return;
+            }
+            int attempt = attempts.size();
+            attempts.add(executor.submit(() -> run(attempt)));
+        }
+
+        private void run(int attempt) {
+            long started = System.nanoTime();
+            ResponseInputStream<T> response;
+            try {
+                response = request.get();
+            } catch (RuntimeException e) {
+                if (winner.isDone()) {
+                    // Cancelled after losing: it took at least this long, which keeps slow answers in the window
+                    recordSample(System.nanoTime() - started);
+                    return;
+                }
+                synchronized (this) {
+                    if (++failures == attempts.size()) {
+                        winner.completeExceptionally(e);
+                    }
+                }
+                return;
+            }
+
+            recordSample(System.nanoTime() - started);
+            if (!winner.complete(response)) {
+                response.abort();
+            } else if (attempt > 0) {
+                wins.incrementAndGet();
+            }
+        }
+
+        synchronized void cancelLosers() {
+            attempts.forEach(attempt -> attempt.cancel(true));
+        }
+    }
+
+    private synchronized void recordSample(long nanos) {
+        samples[nextSample] = nanos;
+        nextSample = (nextSample + 1) % WINDOW_SIZE;
+        sampleCount = Math.min(sampleCount + 1, WINDOW_SIZE);
+        if (sampleCount >= MIN_SAMPLES && ++sinceRecompute >= RECOMPUTE_EVERY) {
+            sinceRecompute = 0;
+            long[] sorted = Arrays.copyOf(samples, sampleCount);
+            Arrays.sort(sorted);
+            long value = sorted[(int) Math.min(sampleCount - 1, Math.ceil(percentile * sampleCount) - 1)];
+            delayNanos = Math.max(minDelayNanos, Math.min(maxDelayNanos, value));
+        }
+    }
+
+    private synchronized long delayNanos() {
+        return delayNanos;
+    }
+
+    private synchronized void depositBudget() {
+        budgetTokens = Math.min(MAX_BUDGET_TOKENS, budgetTokens + budget);
+    }
+
+    private synchronized boolean withdrawBudget() {
+        if (budgetTokens < 1) {
+            return false;
+        }
+        budgetTokens -= 1;
+        return true;
+    }
+}
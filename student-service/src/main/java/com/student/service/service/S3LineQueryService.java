@@ -0,0 +1,508 @@
+package com.student.service.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.util.unit.DataSize;
+import software.amazon.awssdk.http.Abortable;
+
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.EnumMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Optional;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+/**
+ * Line queries on the text file that send only the lines asked for:
+ * <ul>
+ *   <li>{@code head}: the first {@code count} lines, read forward and stopped as soon as they are out;</li>
+ *   <li>{@code tail}: the last {@code count} lines. Ranged reads walk back from the end of the object to find where
+ *   they start, then that suffix is sent, from the windows already read where they are still held;</li>
+ *   <li>{@code grep}: up to {@code count} lines containing {@code pattern} (a literal, or a regex with
+ *   {@code regex=true}), scanned in one line buffer.</li>
+ * </ul>
+ * Forward reads use the disk-cached copy when there is one, otherwise ranged GETs that start at
+ * {@code lines.initial-window} and double up to {@code lines.max-window}, so stopping early leaves little unread.
+ * Every ranged GET carries the object's ETag as {@code If-Match}, so a concurrent overwrite fails the query instead
+ * of mixing versions.
+ * <p>
+ * Lines are matched as bytes, without decoding: literals are compared as their UTF-8 bytes, and regexes run over a
+ * Latin-1 view of the line. Non-ASCII text in a regex still matches, but a character class only matches single
+ * bytes. Lines longer than {@code lines.max-line-length} are matched on that many leading bytes, and are sent whole
+ * when they match.
+ */
+@Slf4j
+@Service
+public class S3LineQueryService {
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    public enum Operation { HEAD, TAIL, GREP }
+
+    /**
+     * A validated query. For {@code grep}, either {@code pattern} (with {@code regex=true}) or {@code literal} is set.
+     */
+    public record Query(Operation operation, int count, Pattern pattern, byte[] literal, boolean ignoreCase) {}
+
+    private final S3FileService s3FileService;
+    private final S3DiskCache diskCache;
+    private final long initialWindow;
+    private final long maxWindow;
+    private final int maxLineLength;
+    private final int maxCount;
+    private final Map<Operation, Counter> bytesRead = new EnumMap<>(Operation.class);
+    private final Map<Operation, Counter> bytesSent = new EnumMap<>(Operation.class);
+
+    public S3LineQueryService(
+            S3FileService s3FileService,
+            S3DiskCache diskCache,
+            MeterRegistry meterRegistry,
+            @Value("${lines.initial-window}") DataSize initialWindow,
+            @Value("${lines.max-window}") DataSize maxWindow,
+            @Value("${lines.max-line-length}") DataSize maxLineLength,
+            @Value("${lines.max-count}") int maxCount) {
+        this.s3FileService = s3FileService;
+        this.diskCache = diskCache;
+        this.initialWindow = initialWindow.toBytes();
+        this.maxWindow = Math.max(maxWindow.toBytes(), this.initialWindow);
+        this.maxLineLength = (int) maxLineLength.toBytes();
+        this.maxCount = maxCount;
+
+        for (Operation operation : Operation.values()) {
+            String tag = operation.name().toLowerCase(Locale.ROOT);
+            bytesRead.put(operation, Counter.builder("lines.bytes.read").baseUnit("bytes")
+                    .tag("operation", tag).register(meterRegistry));
+            bytesSent.put(operation, Counter.builder("lines.bytes.sent").baseUnit("bytes")
+                    .tag("operation", tag).register(meterRegistry));
+        }
+    }
+
+    /**
+     * Validates a query. {@code count} defaults to 10 lines for {@code head} and {@code tail}, and to
+     * {@code lines.max-count} matches for {@code grep}.
+     *
+     * @throws IllegalArgumentException for an unknown operation, a count outside 0..{@code lines.max-count},
+     *                                  or a missing or invalid pattern
+     */
+    public Query query(String operation, Integer count, String pattern, boolean regex, boolean ignoreCase) {
+        Operation op;
+        try {
+            op = Operation.valueOf(operation.trim().toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Unknown line operation: " + operation);
+        }
+        int resolvedCount = count != null ? count : op == Operation.GREP ? maxCount : 10;
+        if (resolvedCount < 0 || resolvedCount > maxCount) {
+            throw new IllegalArgumentException("count must be between 0 and " + maxCount);
+        }
+        if (op != Operation.GREP) {
+            return new Query(op, resolvedCount, null, null, false);
+        }
+
+        if (pattern == null || pattern.isEmpty()) {
+            throw new IllegalArgumentException("grep needs a pattern");
+        }
+        byte[] utf8 = pattern.getBytes(StandardCharsets.UTF_8);
+        if (!regex) {
+            return new Query(op, resolvedCount, null, utf8, ignoreCase);
+        }
+        try {
+            // Regexes run over a Latin-1 view of the bytes, so the pattern's own text must be read the same way
+            return new Query(op, resolvedCount,
+                    Pattern.compile(new String(utf8, StandardCharsets.ISO_8859_1), ignoreCase ? Pattern.CASE_INSENSITIVE : 0),
+                    null, ignoreCase);
+        } catch (PatternSyntaxException e) {
+            throw new IllegalArgumentException("Invalid pattern: " + e.getDescription());
+        }
+    }
+
+    /**
+     * Writes the query's lines to {@code outputStream}. {@code info} must be current metadata of the file, so its
+     * ETag pins every read to one version.
+     */
+    public void write(Query query, S3FileService.S3ObjectInfo info, OutputStream outputStream) throws IOException {
+        CountingOutputStream output = new CountingOutputStream(outputStream);
+        long read = switch (query.operation()) {
+            case HEAD -> head(query.count(), info, output);
+            case TAIL -> tail(query.count(), info, output);
+            case GREP -> grep(query, info, output);
+        };
+        output.flush();
+
+        bytesRead.get(query.operation()).increment(read);
+        bytesSent.get(query.operation()).increment(output.count);
+        log.info("Line query {} completed: read {} of {} bytes, sent {}", query.operation(), read, info.contentLength(),
+                output.count);
+    }
+
+    private long head(int count, S3FileService.S3ObjectInfo info, OutputStream output) throws IOException {
+        if (count == 0) {
+            return 0;
+        }
+        try (CountingInputStream input = openForward(info)) {
+            byte[] buffer = new byte[BUFFER_SIZE];
+            int lines = 0;
+            int read;
+            while ((read = input.read(buffer)) != -1) {
+                for (int i = 0; i < read; i++) {
+                    if (buffer[i] == '\n' && ++lines == count) {
+                        output.write(buffer, 0, i + 1);
+                        return input.count;
+                    }
+                }
+                output.write(buffer, 0, read);
+            }
+            return input.count;
+        }
+    }
+
+    private long tail(int count, S3FileService.S3ObjectInfo info, OutputStream output) throws IOException {
+        long length = info.contentLength();
+        if (count == 0 || length == 0) {
+            return 0;
+        }
+
+        // Walk back window by window, keeping the positions of the last newlines seen in each, until the one
+        // before the wanted lines turns up. A newline ending the file terminates the last line, not a new one.
+        // The windows read are kept while they add up to at most max-window, so that suffix isn't fetched twice
+        long[] newlines = new long[count];
+        Deque<byte[]> kept = new ArrayDeque<>();
+        long keptFrom = length;
+        long keptBytes = 0;
+        long read = 0;
+        long start = 0;
+        long end = length;
+        long window = initialWindow;
+        int found = 0;
+        while (end > 0) {
+            long from = Math.max(0, end - window);
+            int needed = count - found;
+            int inWindow = 0;
+            byte[] data;
+            try (InputStream input = s3FileService.downloadFileRange(
+                    new S3FileService.ByteRange(from, end - 1), info.eTag()).inputStream()) {
+                data = input.readNBytes((int) (end - from));
+            }
+            if (data.length != end - from) {
+                throw new IOException("Short read of bytes " + from + "-" + (end - 1) + ": got " + data.length);
+            }
+            read += data.length;
+            for (int i = 0; i < data.length; i++) {
+                if (data[i] == '\n' && from + i != length - 1) {
+                    newlines[inWindow++ % needed] = from + i;
+                }
+            }
+            if (keptFrom == end && keptBytes + data.length <= maxWindow) {
+                kept.addFirst(data);
+                keptFrom = from;
+                keptBytes += data.length;
+            }
+            if (inWindow >= needed) {
+                // The oldest of the last `needed` newlines in this window
+                start = newlines[inWindow % needed] + 1;
+                break;
+            }
+            found += inWindow;
+            end = from;
+            window = Math.min(window * 2, maxWindow);
+        }
+
+        if (start < keptFrom) {
+            try (InputStream input = s3FileService.downloadFileRange(
+                    new S3FileService.ByteRange(start, keptFrom - 1), info.eTag()).inputStream()) {
+                read += input.transferTo(output);
+            }
+        }
+        long position = keptFrom;
+        for (byte[] data : kept) {
+            int skip = (int) Math.min(Math.max(0, start - position), data.length);
+            output.write(data, skip, data.length - skip);
+            position += data.length;
+        }
+        return read;
+    }
+
+    private long grep(Query query, S3FileService.S3ObjectInfo info, OutputStream output) throws IOException {
+        if (query.count() == 0) {
+            return 0;
+        }
+        LineMatcher matcher = query.pattern() != null
+                ? new RegexMatcher(query.pattern())
+                : new LiteralMatcher(query.literal(), query.ignoreCase());
+
+        try (CountingInputStream input = openForward(info)) {
+            byte[] buffer = new byte[BUFFER_SIZE];
+            byte[] line = new byte[maxLineLength];
+            int lineLength = 0;
+            // For a line longer than the buffer: null while undecided, then whether it matched
+            Boolean longLine = null;
+            int matches = 0;
+            int read;
+            while ((read = input.read(buffer)) != -1) {
+                int position = 0;
+                while (position < read) {
+                    int newline = indexOf(buffer, (byte) '\n', position, read);
+                    int segmentEnd = newline >= 0 ? newline : read;
+                    int segmentLength = segmentEnd - position;
+
+                    if (longLine == null) {
+                        int copied = Math.min(segmentLength, line.length - lineLength);
+                        System.arraycopy(buffer, position, line, lineLength, copied);
+                        lineLength += copied;
+                        if (copied < segmentLength) {
+                            longLine = matcher.matches(line, lineLength);
+                            if (longLine) {
+                                output.write(line, 0, lineLength);
+                                output.write(buffer, position + copied, segmentLength - copied);
+                            }
+                        }
+                    } else if (longLine) {
+                        output.write(buffer, position, segmentLength);
+                    }
+
+                    if (newline < 0) {
+                        break;
+                    }
+                    boolean matched = longLine != null ? longLine : matcher.matches(line, lineLength);
+                    if (matched) {
+                        if (longLine == null) {
+                            output.write(line, 0, lineLength);
+                        }
+                        output.write('\n');
+                        if (++matches == query.count()) {
+                            return input.count;
+                        }
+                    }
+                    lineLength = 0;
+                    longLine = null;
+                    position = newline + 1;
+                }
+            }
+            // A last line without a newline
+            if (longLine == null && lineLength > 0 && matcher.matches(line, lineLength)) {
+                output.write(line, 0, lineLength);
+            }
+            return input.count;
+        }
+    }
+
+    private static int indexOf(byte[] buffer, byte value, int from, int to) {
+        for (int i = from; i < to; i++) {
+            if (buffer[i] == value) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Reads the file from the start: the disk-cached copy when it holds this version, otherwise growing ranged GETs.
+     */
+    private CountingInputStream openForward(S3FileService.S3ObjectInfo info) {
+        Optional<S3DiskCache.CachedFile> cachedFile = s3FileService.findCachedFile();
+        if (cachedFile.isPresent() && cachedFile.get().eTag().equals(info.eTag())) {
+            return new CountingInputStream(diskCache.openStream(cachedFile.get()));
+        }
+        return new CountingInputStream(new WindowedInputStream(info));
+    }
+
+    private interface LineMatcher {
+
+        boolean matches(byte[] line, int length);
+    }
+
+    private record LiteralMatcher(byte[] needle, boolean ignoreCase) implements LineMatcher {
+
+        @Override
+        public boolean matches(byte[] line, int length) {
+            int last = length - needle.length;
+            for (int i = 0; i <= last; i++) {
+                int j = 0;
+                while (j < needle.length && equal(line[i + j], needle[j])) {
+                    j++;
+                }
+                if (j == needle.length) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        private boolean equal(byte a, byte b) {
+            if (a == b) {
+                return true;
+            }
+            return ignoreCase && (a | 0x20) == (b | 0x20) && (a | 0x20) >= 'a' && (a | 0x20) <= 'z';
+        }
+    }
+
+    private static final class RegexMatcher implements LineMatcher {
+
+        private final Latin1Sequence sequence = new Latin1Sequence();
+        private final Matcher matcher;
+
+        RegexMatcher(Pattern pattern) {
+            this.matcher = pattern.matcher(sequence);
+        }
+
+        @Override
+        public boolean matches(byte[] line, int length) {
+            sequence.bytes = line;
+            sequence.length = length;
+            return matcher.reset(sequence).find();
+        }
+    }
+
+    /**
+     * One char per byte, so a line can be matched without being decoded into a String.
+     */
+    private static final class Latin1Sequence implements CharSequence {
+
+        private byte[] bytes = new byte[0];
+        private int offset;
+        private int length;
+
+        @Override
+        public int length() {
+            return length;
+        }
+
+        @Override
+        public char charAt(int index) {
+            return (char) (bytes[offset + index] & 0xff);
+        }
+
+        @Override
+        public CharSequence subSequence(int start, int end) {
+            Latin1Sequence sub = new Latin1Sequence();
+            sub.bytes = bytes;
+            sub.offset = offset + start;
+            sub.length = end - start;
+            return sub;
+        }
+
+        @Override
+        public String toString() {
+            return new String(bytes, offset, length, StandardCharsets.ISO_8859_1);
+        }
+    }
+
+    /**
+     * The object from its first byte as consecutive ranged GETs, each twice the size of the previous one up to
+     * {@code lines.max-window}. Closing it mid-window aborts that GET: a plain close would make the HTTP client
+     * drain the rest of the window to reuse the connection.
+     */
+    private final class WindowedInputStream extends InputStream {
+
+        private final S3FileService.S3ObjectInfo info;
+        private long position;
+        private long window = initialWindow;
+        private InputStream current;
+        private long remainingInCurrent;
+
+        WindowedInputStream(S3FileService.S3ObjectInfo info) {
+            this.info = info;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] single = new byte[1];
+            return read(single, 0, 1) == -1 ? -1 : single[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            while (true) {
+                if (current == null) {
+                    if (position >= info.contentLength()) {
+                        return -1;
+                    }
+                    long end = Math.min(info.contentLength(), position + window);
+                    current = s3FileService.downloadFileRange(
+                            new S3FileService.ByteRange(position, end - 1), info.eTag()).inputStream();
+                    remainingInCurrent = end - position;
+                    position = end;
+                    window = Math.min(window * 2, maxWindow);
+                }
+                int read = current.read(buffer, offset, length);
+                if (read != -1) {
+                    remainingInCurrent -= read;
+                    return read;
+                }
+                current.close();
+                current = null;
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (current != null) {
+                if (remainingInCurrent > 0 && current instanceof Abortable abortable) {
+                    abortable.abort();
+                }
+                current.close();
+                current = null;
+            }
+        }
+    }
+
+    private static final class CountingInputStream extends FilterInputStream {
+
+        private long count;
+
+        CountingInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b != -1) {
+                count++;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            int read = in.read(buffer, offset, length);
+            if (read > 0) {
+                count += read;
+            }
+            return read;
+        }
+    }
+
+    private static final class CountingOutputStream extends FilterOutputStream {
+
+        private long count;
+
+        CountingOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            count++;
+        }
+
+        @Override
+        public void write(byte[] buffer, int offset, int length) throws IOException {
+            out.write(buffer, offset, length);
+            count += length;
+        }
+    }
+}
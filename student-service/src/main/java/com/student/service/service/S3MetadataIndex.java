@@ -0,0 +1,115 @@
+package com.student.service.service;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * In-memory index of object metadata (size, ETag, content type, last-modified) keyed by bucket and key, so
+ * that {@code Content-Length}, HEAD responses and range validation don't each cost an S3 round trip.
+ * <p>
+ * Entries come from HEAD and GET responses and are trusted for {@code metadata-index.ttl}; at most
+ * {@code metadata-index.max-entries} are kept, least recently used first out. A ranged GET rejected with
+ * 412 drops the entry, since the object changed under it.
+ */
+@Slf4j
+@Component
+public class S3MetadataIndex {
+
+    private final boolean enabled;
+    private final Duration ttl;
+    private final int maxEntries;
+
+    private final LinkedHashMap<String, Entry> entries;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    public S3MetadataIndex(
+            MeterRegistry meterRegistry,
+            @Value("${metadata-index.enabled}") boolean enabled,
+            @Value("${metadata-index.ttl}") Duration ttl,
+            @Value("${metadata-index.max-entries}") int maxEntries) {
+        this.enabled = enabled;
+        this.ttl = ttl;
+        this.maxEntries = maxEntries;
+        this.entries = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                return size() > S3MetadataIndex.this.maxEntries;
+            }
+        };
+
+        FunctionCounter.builder("s3.metadata.index.hits", hits, AtomicLong::get).register(meterRegistry);
+        FunctionCounter.builder("s3.metadata.index.misses", misses, AtomicLong::get).register(meterRegistry);
+        Gauge.builder("s3.metadata.index.entries", this, S3MetadataIndex::entryCount).register(meterRegistry);
+    }
+
+    private record Entry(S3FileService.S3ObjectInfo info, Instant loadedAt) {}
+
+    /**
+     * Returns the indexed metadata of an object, calling {@code loader} (a HEAD) when it is missing or
+     * older than the TTL.
+     */
+    public S3FileService.S3ObjectInfo get(String bucketName, String key, Supplier<S3FileService.S3ObjectInfo> loader) {
+        if (!enabled) {
+            return loader.get();
+        }
+
+        Entry entry = find(bucketName, key);
+        if (entry != null && Duration.between(entry.loadedAt(), Instant.now()).compareTo(ttl) < 0) {
+            hits.incrementAndGet();
+            return entry.info();
+        }
+
+        misses.incrementAndGet();
+        S3FileService.S3ObjectInfo info = loader.get();
+        put(bucketName, key, info);
+        return info;
+    }
+
+    /**
+     * Records metadata seen on any S3 response for the object.
+     */
+    public void put(String bucketName, String key, S3FileService.S3ObjectInfo info) {
+        if (!enabled || info.eTag() == null) {
+            return;
+        }
+        synchronized (this) {
+            entries.put(indexKey(bucketName, key), new Entry(info, Instant.now()));
+        }
+    }
+
+    public void invalidate(String bucketName, String key) {
+        S3FileService.S3ObjectInfo dropped;
+        synchronized (this) {
+            Entry entry = entries.remove(indexKey(bucketName, key));
+            dropped = entry == null ? null : entry.info();
+        }
+        if (dropped != null) {
+            log.info("Dropped indexed metadata of {} (eTag={})", key, dropped.eTag());
+        }
+    }
+
+    private synchronized Entry find(String bucketName, String key) {
+        return entries.get(indexKey(bucketName, key));
+    }
+
+    private synchronized int entryCount() {
+        return entries.size();
+    }
+
+    private static String indexKey(String bucketName, String key) {
+        return bucketName + "/" + key;
+    }
+}
@@ -0,0 +1,116 @@
+package com.student.service.service;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.ContentDisposition;
+import org.springframework.stereotype.Service;
+import org.springframework.util.unit.DataSize;
+import software.amazon.awssdk.services.s3.presigner.S3Presigner;
+import software.amazon.awssdk.services.s3.presigner.model.PresignedGetObjectRequest;
+
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * With {@code aws.s3.redirect.enabled}, full downloads of objects of at least {@code aws.s3.redirect.threshold}
+ * are answered with a 302 to a presigned S3 GET, so the bytes go from storage to the client without passing
+ * through either service. The URL asks S3 to send the same {@code Content-Disposition} as a proxied download.
+ * <p>
+ * Signing is local (no call to S3), but a URL is still reused per key until {@code refresh-before} ahead of its
+ * expiry, so a client always gets at least that long to follow it.
+ */
+@Slf4j
+@Service
+public class S3PresignedUrls {
+
+    private record PresignedUrl(URI uri, Instant reuseUntil) {}
+
+    private final S3Presigner s3Presigner;
+    private final String bucketName;
+    private final String fileKey;
+    private final boolean enabled;
+    private final long threshold;
+    private final Duration expiry;
+    private final Duration refreshBefore;
+    private final Clock clock;
+    private final Map<String, PresignedUrl> urls = new ConcurrentHashMap<>();
+    private final AtomicLong signed = new AtomicLong();
+    private final AtomicLong reused = new AtomicLong();
+
+    public S3PresignedUrls(
+            S3Presigner s3Presigner,
+            MeterRegistry meterRegistry,
+            @Value("${aws.s3.bucket-name}") String bucketName,
+            @Value("${aws.s3.file-key}") String fileKey,
+            @Value("${aws.s3.redirect.enabled}") boolean enabled,
+            @Value("${aws.s3.redirect.threshold}") DataSize threshold,
+            @Value("${aws.s3.redirect.expiry}") Duration expiry,
+            @Value("${aws.s3.redirect.refresh-before}") Duration refreshBefore) {
+        if (refreshBefore.compareTo(expiry) >= 0) {
+            throw new IllegalArgumentException("aws.s3.redirect.refresh-before must be shorter than expiry");
+        }
+        this.s3Presigner = s3Presigner;
+        this.bucketName = bucketName;
+        this.fileKey = fileKey;
+        this.enabled = enabled;
+        this.threshold = threshold.toBytes();
+        this.expiry = expiry;
+        this.refreshBefore = refreshBefore;
+        this.clock = Clock.systemUTC();
+
+        FunctionCounter.builder("s3.presigned.urls", signed, AtomicLong::get)
+                .tag("result", "signed").register(meterRegistry);
+        FunctionCounter.builder("s3.presigned.urls", reused, AtomicLong::get)
+                .tag("result", "reused").register(meterRegistry);
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Whether a full download of the object should be redirected to S3 rather than proxied.
+     */
+    public boolean shouldRedirect(S3FileService.S3ObjectInfo info) {
+        return enabled && info.contentLength() >= threshold;
+    }
+
+    /**
+     * A presigned GET of the configured file, valid for at least {@code refresh-before}.
+     */
+    public URI downloadUrl(String fileName) {
+        Instant now = clock.instant();
+        PresignedUrl current = urls.get(fileKey);
+        if (current != null && now.isBefore(current.reuseUntil())) {
+            reused.incrementAndGet();
+            return current.uri();
+        }
+        // Concurrent misses for the same key sign once
+        return urls.compute(fileKey, (key, existing) ->
+                existing != null && now.isBefore(existing.reuseUntil()) ? existing : presign(key, fileName)).uri();
+    }
+
+    private PresignedUrl presign(String key, String fileName) {
+        PresignedGetObjectRequest presigned = s3Presigner.presignGetObject(request -> request
+                .signatureDuration(expiry)
+                .getObjectRequest(getObject -> getObject
+                        .bucket(bucketName)
+                        .key(key)
+                        .responseContentDisposition(ContentDisposition.attachment().filename(fileName).build().toString())));
+        signed.incrementAndGet();
+        log.info("Presigned GET for bucket={}, key={}, expires {}", bucketName, key, presigned.expiration());
+        try {
+            return new PresignedUrl(presigned.url().toURI(), presigned.expiration().minus(refreshBefore));
+        } catch (URISyntaxException e) {
+            throw new IllegalStateException("Presigned URL is not a valid URI", e);
+        }
+    }
+}
@@ -0,0 +1,47 @@
+package com.student.service.service;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Supplier;
+
+/**
+ * Records {@code s3.requests} latency per S3 operation. For GETs the clock stops when the response headers
+ * arrive, so the timer shows S3 time-to-first-byte; body transfer time shows up in {@code transfer.duration}.
+ */
+@Component
+public class S3RequestMetrics {
+
+    private final MeterRegistry meterRegistry;
+
+    public S3RequestMetrics(MeterRegistry meterRegistry) {
+        this.meterRegistry = meterRegistry;
+    }
+
+    public <T> T record(String operation, Supplier<T> call) {
+        Timer.Sample sample = Timer.start(meterRegistry);
+        String outcome = "ERROR";
+        try {
+            T result = call.get();
+            outcome = "SUCCESS";
+            return result;
+        } finally {
+            sample.stop(timer(operation, outcome));
+        }
+    }
+
+    public <T> CompletableFuture<T> recordAsync(String operation, Supplier<CompletableFuture<T>> call) {
+        Timer.Sample sample = Timer.start(meterRegistry);
+        return call.get().whenComplete((result, error) ->
+                sample.stop(timer(operation, error == null ? "SUCCESS" : "ERROR")));
+    }
+
+    private Timer timer(String operation, String outcome) {
+        return Timer.builder("s3.requests")
+                .tag("operation", operation)
+                .tag("outcome", outcome)
+                .register(meterRegistry);
+    }
+}
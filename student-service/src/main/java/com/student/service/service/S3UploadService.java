@@ -0,0 +1,368 @@
+package com.student.service.service;
+
+import com.student.common.transfer.IoThreads;
+import com.student.common.transfer.MemoryBudget;
+import com.student.service.exception.FileUploadException;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.util.unit.DataSize;
+import software.amazon.awssdk.core.sync.RequestBody;
+import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.s3.model.AbortMultipartUploadRequest;
+import software.amazon.awssdk.services.s3.model.CompleteMultipartUploadRequest;
+import software.amazon.awssdk.services.s3.model.CompleteMultipartUploadResponse;
+import software.amazon.awssdk.services.s3.model.CompletedMultipartUpload;
+import software.amazon.awssdk.services.s3.model.CompletedPart;
+import software.amazon.awssdk.services.s3.model.CreateMultipartUploadRequest;
+import software.amazon.awssdk.services.s3.model.CreateMultipartUploadResponse;
+import software.amazon.awssdk.services.s3.model.PutObjectRequest;
+import software.amazon.awssdk.services.s3.model.PutObjectResponse;
+import software.amazon.awssdk.services.s3.model.S3Exception;
+import software.amazon.awssdk.services.s3.model.UploadPartRequest;
+import software.amazon.awssdk.services.s3.model.UploadPartResponse;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Streams a request body into S3 as a multipart upload. The body is cut into {@code upload.part-size} parts that
+ * are sent concurrently on a shared pool while the next one is read, with at most {@code upload.parts-in-flight}
+ * parts buffered or uploading per upload, so memory stays at roughly {@code parts-in-flight x part-size}. A body
+ * smaller than one part goes up as a single PutObject.
+ * <p>
+ * The part buffers are reserved from the {@link MemoryBudget} before anything is read, and only as many as the
+ * {@code Content-Length} needs when it is known; an upload the budget can't fit is rejected with
+ * {@link com.student.common.transfer.MemoryBudgetExceededException}.
+ * <p>
+ * Any failure (client disconnect, part error) aborts the upload, so no orphaned parts are left billed in S3.
+ * Keys must lie under {@code upload.key-prefix}.
+ */
+@Slf4j
+@Service
+public class S3UploadService {
+
+    /**
+     * S3's limit on parts per upload.
+     */
+    private static final int MAX_PARTS = 10_000;
+
+    private final S3Client s3Client;
+    private final S3RequestMetrics requestMetrics;
+    private final S3MetadataIndex metadataIndex;
+    private final String bucketName;
+    private final String keyPrefix;
+    private final int partSize;
+    private final int partsInFlight;
+    private final ExecutorService executor;
+    private final MemoryBudget memoryBudget;
+
+    public S3UploadService(
+            S3Client s3Client,
+            S3RequestMetrics requestMetrics,
+            S3MetadataIndex metadataIndex,
+            IoThreads ioThreads,
+            MemoryBudget memoryBudget,
+            @Value("${aws.s3.bucket-name}") String bucketName,
+            @Value("${upload.key-prefix}") String keyPrefix,
+            @Value("${upload.part-size}") DataSize partSize,
+            @Value("${upload.parts-in-flight}") int partsInFlight,
+            @Value("${upload.pool-size}") int poolSize) {
+        this.s3Client = s3Client;
+        this.requestMetrics = requestMetrics;
+        this.metadataIndex = metadataIndex;
+        this.bucketName = bucketName;
+        this.keyPrefix = keyPrefix;
+        this.partSize = Math.toIntExact(partSize.toBytes());
+        this.partsInFlight = partsInFlight;
+        this.executor = Executors.newFixedThreadPool(poolSize, ioThreads.threadFactory("s3-upload-part-"));
+        this.memoryBudget = memoryBudget;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    public record UploadResult(String key, String eTag, long size, int parts) {}
+
+    private void checkKey(String key) {
+        if (key == null || !key.startsWith(keyPrefix) || key.contains("..") || key.endsWith("/")) {
+            throw new IllegalArgumentException("Key outside the upload prefix: " + key);
+        }
+    }
+
+    /**
+     * Uploads {@code body} to {@code key}, reading it to the end. The stream is not closed. A negative
+     * {@code contentLength} means unknown.
+     *
+     * @throws IllegalArgumentException when the key lies outside {@code upload.key-prefix}
+     * @throws com.student.common.transfer.MemoryBudgetExceededException when the part buffers don't fit the budget
+     */
+    public UploadResult upload(String key, String contentType, long contentLength, InputStream body) {
+        checkKey(key);
+        long started = System.nanoTime();
+
+        boolean singlePart = contentLength >= 0 && contentLength < partSize;
+        long reservedBytes = singlePart ? contentLength : (long) partBuffers(contentLength) * partSize;
+        memoryBudget.reserve(reservedBytes);
+        UploadResult result;
+        try {
+            byte[] first = new byte[singlePart ? (int) contentLength : partSize];
+            int firstLength = readPart(body, first);
+            if (singlePart && firstLength < contentLength) {
+                throw new FileUploadException("Upload body ended after " + firstLength + " of " + contentLength + " bytes");
+            }
+            result = firstLength < partSize
+                    ? putObject(key, contentType, first, firstLength)
+                    : new MultipartUpload(key, contentType, body).run(first);
+        } finally {
+            // Parts still being cancelled finish into nothing; their buffers become garbage with them
+            memoryBudget.release(reservedBytes);
+        }
+        metadataIndex.invalidate(bucketName, key);
+
+        long elapsed = System.nanoTime() - started;
+        log.info("Upload completed: key={}, size={} bytes, parts={}, total={} ms, throughput={} MB/s",
+                key, result.size(), result.parts(), TimeUnit.NANOSECONDS.toMillis(elapsed),
+                String.format("%.1f", result.size() / 1_048_576.0 / Math.max(elapsed / 1e9, 1e-9)));
+        return result;
+    }
+
+    /**
+     * Part buffers a multipart upload of {@code contentLength} bytes allocates at most: one per part, up to
+     * {@code parts-in-flight}.
+     */
+    private int partBuffers(long contentLength) {
+        return contentLength < 0 ? partsInFlight : (int) Math.min(partsInFlight, (contentLength + partSize - 1) / partSize);
+    }
+
+    private UploadResult putObject(String key, String contentType, byte[] data, int length) {
+        log.info("Starting single-request upload: bucket={}, key={}, size={} bytes", bucketName, key, length);
+
+        PutObjectRequest request = PutObjectRequest.builder()
+                .bucket(bucketName)
+                .key(key)
+                .contentType(contentType)
+                .build();
+        try {
+            PutObjectResponse response = requestMetrics.record("PutObject",
+                    () -> s3Client.putObject(request, partBody(data, length)));
+            return new UploadResult(key, response.eTag(), length, 1);
+        } catch (S3Exception e) {
+            log.error("Error uploading file to S3", e);
+            throw new FileUploadException("S3 Error: " + e.awsErrorDetails().errorMessage(), e);
+        }
+    }
+
+    /**
+     * Fills {@code buffer} from the body, returning fewer bytes than its length only at the end of the body.
+     */
+    private static int readPart(InputStream body, byte[] buffer) {
+        try {
+            return body.readNBytes(buffer, 0, buffer.length);
+        } catch (IOException e) {
+            throw new FileUploadException("Failed to read upload body", e);
+        }
+    }
+
+    /**
+     * Sends the part straight from its buffer, without the copy {@code RequestBody.fromBytes} would make.
+     */
+    private static RequestBody partBody(byte[] data, int length) {
+        return RequestBody.fromContentProvider(() -> new ByteArrayInputStream(data, 0, length), length,
+                "application/octet-stream");
+    }
+
+    private class MultipartUpload {
+
+        private final String key;
+        private final String contentType;
+        private final InputStream body;
+        private final BlockingQueue<byte[]> freeBuffers = new ArrayBlockingQueue<>(partsInFlight);
+        private final List<Future<CompletedPart>> parts = new ArrayList<>();
+        private String uploadId;
+        private long size;
+
+        MultipartUpload(String key, String contentType, InputStream body) {
+            this.key = key;
+            this.contentType = contentType;
+            this.body = body;
+        }
+
+        UploadResult run(byte[] first) {
+            CreateMultipartUploadRequest createRequest = CreateMultipartUploadRequest.builder()
+                    .bucket(bucketName)
+                    .key(key)
+                    .contentType(contentType)
+                    .build();
+            try {
+                CreateMultipartUploadResponse created = requestMetrics.record("CreateMultipartUpload",
+                        () -> s3Client.createMultipartUpload(createRequest));
+                uploadId = created.uploadId();
+            } catch (S3Exception e) {
+                log.error("Error starting multipart upload", e);
+                throw new FileUploadException("S3 Error: " + e.awsErrorDetails().errorMessage(), e);
+            }
+            log.info("Starting multipart upload: bucket={}, key={}, uploadId={}, partSize={}, partsInFlight={}",
+                    bucketName, key, uploadId, partSize, partsInFlight);
+
+            try {
+                submitParts(first);
+                return complete();
+            } catch (RuntimeException e) {
+                abort(e);
+                throw e instanceof FileUploadException fileUploadException
+                        ? fileUploadException
+                        : new FileUploadException("Multipart upload of " + key + " failed", e);
+            }
+        }
+
+        private void submitParts(byte[] first) {
+            byte[] buffer = first;
+            int length = partSize;
+            for (int partNumber = 1; ; partNumber++) {
+                if (partNumber > MAX_PARTS) {
+                    throw new FileUploadException("Upload exceeds " + MAX_PARTS + " parts of " + partSize + " bytes");
+                }
+                submit(partNumber, buffer, length);
+                size += length;
+                if (length < partSize) {
+                    return;
+                }
+
+                buffer = nextBuffer();
+                length = readPart(body, buffer);
+                if (length == 0) {
+                    freeBuffers.add(buffer);
+                    return;
+                }
+            }
+        }
+
+        private void submit(int partNumber, byte[] buffer, int length) {
+            parts.add(executor.submit(() -> {
+                try {
+                    return uploadPart(partNumber, buffer, length);
+                } finally {
+                    freeBuffers.add(buffer);
+                }
+            }));
+        }
+
+        /**
+         * Waits until fewer than {@code parts-in-flight} parts are buffered or uploading, then hands out a buffer
+         * for the next one. Fails fast once any part has failed.
+         */
+        private byte[] nextBuffer() {
+            int allocated = parts.size();
+            while (true) {
+                failIfAnyPartFailed();
+                byte[] buffer;
+                try {
+                    buffer = allocated < partsInFlight ? new byte[partSize] : freeBuffers.poll(100, TimeUnit.MILLISECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new FileUploadException("Interrupted while waiting for a part to finish", e);
+                }
+                if (buffer != null) {
+                    return buffer;
+                }
+            }
+        }
+
+        private void failIfAnyPartFailed() {
+            for (Future<CompletedPart> part : parts) {
+                if (part.isDone()) {
+                    await(part);
+                }
+            }
+        }
+
+        private CompletedPart uploadPart(int partNumber, byte[] buffer, int length) {
+            long started = System.nanoTime();
+            UploadPartRequest request = UploadPartRequest.builder()
+                    .bucket(bucketName)
+                    .key(key)
+                    .uploadId(uploadId)
+                    .partNumber(partNumber)
+                    .contentLength((long) length)
+                    .build();
+            try {
+                UploadPartResponse response = requestMetrics.record("UploadPart",
+                        () -> s3Client.uploadPart(request, partBody(buffer, length)));
+                log.debug("Part {} uploaded: {} bytes in {} ms", partNumber, length,
+                        TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started));
+                return CompletedPart.builder()
+                        .partNumber(partNumber)
+                        .eTag(response.eTag())
+                        .build();
+            } catch (S3Exception e) {
+                throw new FileUploadException("S3 Error on part " + partNumber + ": " + e.awsErrorDetails().errorMessage(), e);
+            }
+        }
+
+        private UploadResult complete() {
+            List<CompletedPart> completedParts = new ArrayList<>(parts.size());
+            for (Future<CompletedPart> part : parts) {
+                completedParts.add(await(part));
+            }
+
+            CompleteMultipartUploadRequest request = CompleteMultipartUploadRequest.builder()
+                    .bucket(bucketName)
+                    .key(key)
+                    .uploadId(uploadId)
+                    .multipartUpload(CompletedMultipartUpload.builder().parts(completedParts).build())
+                    .build();
+            try {
+                CompleteMultipartUploadResponse response = requestMetrics.record("CompleteMultipartUpload",
+                        () -> s3Client.completeMultipartUpload(request));
+                return new UploadResult(key, response.eTag(), size, completedParts.size());
+            } catch (S3Exception e) {
+                throw new FileUploadException("S3 Error: " + e.awsErrorDetails().errorMessage(), e);
+            }
+        }
+
+        private CompletedPart await(Future<CompletedPart> part) {
+            try {
+                return part.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new FileUploadException("Interrupted while waiting for a part to finish", e);
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof RuntimeException runtimeException) {
+                    throw runtimeException;
+                }
+                throw new FileUploadException("Failed to upload part of " + key, e.getCause());
+            }
+        }
+
+        private void abort(Exception cause) {
+            log.warn("Aborting multipart upload: key={}, uploadId={}, cause={}", key, uploadId, cause.getMessage());
+            parts.forEach(part -> part.cancel(true));
+
+            AbortMultipartUploadRequest request = AbortMultipartUploadRequest.builder()
+                    .bucket(bucketName)
+                    .key(key)
+                    .uploadId(uploadId)
+                    .build();
+            try {
+                requestMetrics.record("AbortMultipartUpload", () -> s3Client.abortMultipartUpload(request));
+            } catch (RuntimeException e) {
+                log.error("Could not abort multipart upload {}; its parts stay in S3 until a lifecycle rule removes them",
+                        uploadId, e);
+            }
+        }
+    }
+}
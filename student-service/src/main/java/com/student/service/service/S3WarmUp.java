@@ -0,0 +1,43 @@
+package com.student.service.service;
+
+import com.student.common.http.ConnectionWarmUp;
+import com.student.common.transfer.IoThreads;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import software.amazon.awssdk.auth.credentials.AwsCredentialsProvider;
+
+import java.time.Duration;
+
+/**
+ * With {@code warm-up.enabled}, resolves the AWS credential chain and HEADs the configured object over
+ * {@code warm-up.connections} concurrent connections before the service reports ready, so the first downloads
+ * find credentials cached and TLS connections to S3 open. The HEADs also fill the metadata index.
+ */
+@Component
+public class S3WarmUp extends ConnectionWarmUp {
+
+    private final AwsCredentialsProvider credentialsProvider;
+    private final S3FileService s3FileService;
+
+    public S3WarmUp(
+            AwsCredentialsProvider credentialsProvider,
+            S3FileService s3FileService,
+            IoThreads ioThreads,
+            @Value("${warm-up.enabled:false}") boolean enabled,
+            @Value("${warm-up.connections:4}") int connections,
+            @Value("${warm-up.timeout:30s}") Duration timeout) {
+        super("S3", enabled, connections, timeout, ioThreads.threadFactory("warm-up-"));
+        this.credentialsProvider = credentialsProvider;
+        this.s3FileService = s3FileService;
+    }
+
+    @Override
+    protected void prepare() {
+        credentialsProvider.resolveCredentials();
+    }
+
+    @Override
+    protected void call() {
+        s3FileService.headFile();
+    }
+}
@@ -0,0 +1,115 @@
+package com.student.service.controller;
+
+import com.student.common.transfer.MemoryBudget;
+import com.student.common.transfer.MemoryBudgetFilter;
+import com.student.common.transfer.StreamRelay;
+import com.student.service.service.S3FileService;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpHeaders;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.setup.MockMvcBuilders;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.content;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.header;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+class FileBytesControllerTest {
+
+    private static final long STREAMING_THRESHOLD = 64;
+
+    private final S3FileService s3FileService = mock(S3FileService.class);
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private final MemoryBudget memoryBudget = new MemoryBudget(100, STREAMING_THRESHOLD, 0,
+            Duration.ofMillis(50), Duration.ofSeconds(4), meterRegistry);
+    private MockMvc mockMvc;
+
+    @BeforeEach
+    void setUp() {
+        FileBytesController controller = new FileBytesController(s3FileService, memoryBudget,
+                new StreamRelay(8192, 4, 64 * 1024, 100, meterRegistry));
+        mockMvc = MockMvcBuilders.standaloneSetup(controller)
+                .setControllerAdvice(new FileExceptionHandler())
+                .addFilters(new MemoryBudgetFilter(memoryBudget))
+                .build();
+
+        when(s3FileService.getFileName()).thenReturn("test.txt");
+        when(s3FileService.readAllBytes(any())).thenCallRealMethod();
+    }
+
+    @Test
+    void smallFileIsBufferedAndItsReservationReleased() throws Exception {
+        String content = "a".repeat(40);
+        when(s3FileService.openFileForBuffering()).thenReturn(file(content, new AtomicBoolean()));
+
+        mockMvc.perform(get("/api/files/download-bytes"))
+                .andExpect(status().isOk())
+                .andExpect(header().longValue(HttpHeaders.CONTENT_LENGTH, 40))
+                .andExpect(content().string(content));
+
+        assertThat(admissions("buffer")).isEqualTo(1);
+        assertThat(used()).isZero();
+    }
+
+    @Test
+    void fileFromTheStreamingThresholdUpIsStreamed() throws Exception {
+        String content = "b".repeat((int) STREAMING_THRESHOLD * 2);
+        when(s3FileService.openFileForBuffering()).thenReturn(file(content, new AtomicBoolean()));
+
+        mockMvc.perform(get("/api/files/download-bytes"))
+                .andExpect(status().isOk())
+                .andExpect(content().string(content));
+
+        assertThat(admissions("stream")).isEqualTo(1);
+        verify(s3FileService, never()).readAllBytes(any());
+    }
+
+    @Test
+    void exhaustedBudgetIs503WithRetryAfter() throws Exception {
+        assertThat(memoryBudget.tryReserve(80)).isTrue();
+        AtomicBoolean closed = new AtomicBoolean();
+        when(s3FileService.openFileForBuffering()).thenReturn(file("c".repeat(40), closed));
+
+        mockMvc.perform(get("/api/files/download-bytes"))
+                .andExpect(status().isServiceUnavailable())
+                .andExpect(header().string(HttpHeaders.RETRY_AFTER, "4"));
+
+        assertThat(closed).isTrue();
+        assertThat(used()).isEqualTo(80);
+    }
+
+    private static S3FileService.S3File file(String content, AtomicBoolean closed) {
+        byte[] bytes = content.getBytes(StandardCharsets.UTF_8);
+        ByteArrayInputStream body = new ByteArrayInputStream(bytes) {
+            @Override
+            public void close() throws IOException {
+                closed.set(true);
+                super.close();
+            }
+        };
+        return new S3FileService.S3File(body, "text/plain", (long) bytes.length, "\"v1\"", Instant.now());
+    }
+
+    private double used() {
+        return meterRegistry.get("memory.budget.used").gauge().value();
+    }
+
+    private double admissions(String result) {
+        return meterRegistry.get("memory.budget.admissions").tag("result", result).counter().count();
+    }
+}
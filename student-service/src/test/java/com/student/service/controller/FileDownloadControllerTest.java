@@ -0,0 +1,311 @@
+package com.student.service.controller;
+
+import com.student.common.transfer.StreamRelay;
+import com.student.service.exception.ObjectChangedException;
+import com.student.service.service.ContentEncoder;
+import com.student.service.service.S3DiskCache;
+import com.student.service.service.S3FileService;
+import com.student.service.service.S3PresignedUrls;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+import org.springframework.test.web.servlet.RequestBuilder;
+import org.springframework.test.web.servlet.setup.MockMvcBuilders;
+
+import java.io.ByteArrayInputStream;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.Optional;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.asyncDispatch;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.head;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.content;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.header;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.request;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+class FileDownloadControllerTest {
+
+    private static final String CONTENT = "abcdefghijklmnopqrstuvwxyz";
+    private static final String ETAG = "\"v1\"";
+    private static final Instant LAST_MODIFIED = Instant.parse("2024-01-15T10:00:00Z");
+    private static final S3FileService.S3ObjectInfo INFO =
+            new S3FileService.S3ObjectInfo(CONTENT.length(), "text/plain", ETAG, LAST_MODIFIED);
+    private static final URI PRESIGNED = URI.create("http://localhost:9000/bucket/test.txt?X-Amz-Signature=abc");
+
+    private final S3FileService s3FileService = mock(S3FileService.class);
+    private final S3PresignedUrls presignedUrls = mock(S3PresignedUrls.class);
+    private final ContentEncoder contentEncoder = mock(ContentEncoder.class);
+    private MockMvc mockMvc;
+
+    @BeforeEach
+    void setUp() {
+        SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+        FileDownloadController controller = new FileDownloadController(s3FileService, presignedUrls,
+                mock(S3DiskCache.class), contentEncoder,
+                new StreamRelay(8192, 4, 64 * 1024, 100, meterRegistry));
+        mockMvc = MockMvcBuilders.standaloneSetup(controller)
+                .setControllerAdvice(new FileExceptionHandler())
+                .build();
+
+        when(s3FileService.getFileName()).thenReturn("test.txt");
+        when(s3FileService.getObjectInfo()).thenReturn(INFO);
+        when(s3FileService.downloadFileRange(any(), eq(ETAG))).thenAnswer(invocation -> {
+            S3FileService.ByteRange range = invocation.getArgument(0);
+            return file(CONTENT.substring((int) range.start(), (int) range.end() + 1), ETAG);
+        });
+        when(s3FileService.downloadFile(any())).thenAnswer(invocation -> file(CONTENT, ETAG));
+    }
+
+    @Test
+    void singleRangeIsPartialContent() throws Exception {
+        MvcResult result = streamed(get("/api/files/download").header(HttpHeaders.RANGE, "bytes=2-5"));
+
+        assertThat(result.getResponse().getStatus()).isEqualTo(206);
+        assertThat(result.getResponse().getContentAsString()).isEqualTo("cdef");
+        assertThat(result.getResponse().getHeader(HttpHeaders.CONTENT_RANGE)).isEqualTo("bytes 2-5/26");
+        assertThat(result.getResponse().getHeader(HttpHeaders.CONTENT_LENGTH)).isEqualTo("4");
+        assertThat(result.getResponse().getHeader(HttpHeaders.ETAG)).isEqualTo(ETAG);
+    }
+
+    @Test
+    void suffixAndOpenEndedRangesAreClampedToTheFile() throws Exception {
+        MvcResult suffix = streamed(get("/api/files/download").header(HttpHeaders.RANGE, "bytes=-3"));
+        assertThat(suffix.getResponse().getContentAsString()).isEqualTo("xyz");
+        assertThat(suffix.getResponse().getHeader(HttpHeaders.CONTENT_RANGE)).isEqualTo("bytes 23-25/26");
+
+        MvcResult openEnded = streamed(get("/api/files/download").header(HttpHeaders.RANGE, "bytes=20-100"));
+        assertThat(openEnded.getResponse().getContentAsString()).isEqualTo("uvwxyz");
+        assertThat(openEnded.getResponse().getHeader(HttpHeaders.CONTENT_RANGE)).isEqualTo("bytes 20-25/26");
+    }
+
+    @Test
+    void severalRangesAreMultipartByteranges() throws Exception {
+        MvcResult result = streamed(get("/api/files/download").header(HttpHeaders.RANGE, "bytes=0-1, 24-, 40-50"));
+
+        assertThat(result.getResponse().getStatus()).isEqualTo(206);
+        MediaType contentType = MediaType.parseMediaType(result.getResponse().getContentType());
+        assertThat(contentType.isCompatibleWith(MediaType.parseMediaType("multipart/byteranges"))).isTrue();
+        String boundary = contentType.getParameter("boundary");
+
+        String body = result.getResponse().getContentAsString();
+        assertThat(body).isEqualTo("\r\n--" + boundary + "\r\n"
+                + "Content-Type: text/plain\r\nContent-Range: bytes 0-1/26\r\n\r\nab"
+                + "\r\n--" + boundary + "\r\n"
+                + "Content-Type: text/plain\r\nContent-Range: bytes 24-25/26\r\n\r\nyz"
+                + "\r\n--" + boundary + "--");
+        assertThat(result.getResponse().getHeader(HttpHeaders.CONTENT_LENGTH))
+                .isEqualTo(String.valueOf(body.getBytes(StandardCharsets.US_ASCII).length));
+    }
+
+    @Test
+    void unsatisfiableRangeIs416() throws Exception {
+        mockMvc.perform(get("/api/files/download").header(HttpHeaders.RANGE, "bytes=26-30, 40-"))
+                .andExpect(status().isRequestedRangeNotSatisfiable())
+                .andExpect(header().string(HttpHeaders.CONTENT_RANGE, "bytes */26"));
+        verify(s3FileService, never()).downloadFileRange(any(), anyString());
+    }
+
+    @Test
+    void malformedRangeGetsTheFullFile() throws Exception {
+        MvcResult result = streamed(get("/api/files/download").header(HttpHeaders.RANGE, "bytes=z-1"));
+
+        assertThat(result.getResponse().getStatus()).isEqualTo(200);
+        assertThat(result.getResponse().getContentAsString()).isEqualTo(CONTENT);
+    }
+
+    @Test
+    void matchingIfRangeGetsTheRange() throws Exception {
+        MvcResult byETag = streamed(get("/api/files/download")
+                .header(HttpHeaders.RANGE, "bytes=0-2").header(HttpHeaders.IF_RANGE, ETAG));
+        assertThat(byETag.getResponse().getStatus()).isEqualTo(206);
+
+        MvcResult byDate = streamed(get("/api/files/download")
+                .header(HttpHeaders.RANGE, "bytes=0-2").header(HttpHeaders.IF_RANGE, httpDate(LAST_MODIFIED)));
+        assertThat(byDate.getResponse().getStatus()).isEqualTo(206);
+        assertThat(byDate.getResponse().getContentAsString()).isEqualTo("abc");
+    }
+
+    @Test
+    void staleIfRangeGetsTheFullFile() throws Exception {
+        for (String ifRange : new String[] {"\"v0\"", "W/" + ETAG, httpDate(LAST_MODIFIED.minusSeconds(60)), "garbage"}) {
+            MvcResult result = streamed(get("/api/files/download")
+                    .header(HttpHeaders.RANGE, "bytes=0-2").header(HttpHeaders.IF_RANGE, ifRange));
+            assertThat(result.getResponse().getStatus()).as(ifRange).isEqualTo(200);
+            assertThat(result.getResponse().getContentAsString()).isEqualTo(CONTENT);
+        }
+    }
+
+    @Test
+    void staleIndexedETagIsRetriedOnceWithAFreshHead() throws Exception {
+        String changed = "ABCDEFGHIJKLMNOPQRSTUVWXYZ";
+        when(s3FileService.downloadFileRange(any(), eq(ETAG)))
+                .thenThrow(new ObjectChangedException("PreconditionFailed", null));
+        when(s3FileService.headFile())
+                .thenReturn(new S3FileService.S3ObjectInfo(changed.length(), "text/plain", "\"v2\"", LAST_MODIFIED));
+        when(s3FileService.downloadFileRange(any(), eq("\"v2\""))).thenAnswer(invocation -> {
+            S3FileService.ByteRange range = invocation.getArgument(0);
+            return file(changed.substring((int) range.start(), (int) range.end() + 1), "\"v2\"");
+        });
+
+        MvcResult result = streamed(get("/api/files/download").header(HttpHeaders.RANGE, "bytes=0-1,3-4"));
+
+        assertThat(result.getResponse().getStatus()).isEqualTo(206);
+        assertThat(result.getResponse().getContentAsString()).contains("AB").contains("DE");
+        verify(s3FileService).headFile();
+    }
+
+    @Test
+    void objectChangingAgainFailsTheRequest() throws Exception {
+        when(s3FileService.downloadFileRange(any(), anyString()))
+                .thenThrow(new ObjectChangedException("PreconditionFailed", null));
+        when(s3FileService.headFile()).thenReturn(INFO);
+
+        mockMvc.perform(get("/api/files/download").header(HttpHeaders.RANGE, "bytes=0-1"))
+                .andExpect(status().isInternalServerError());
+    }
+
+    @Test
+    void currentCopyIsNotModified() throws Exception {
+        mockMvc.perform(get("/api/files/download").header(HttpHeaders.IF_NONE_MATCH, ETAG))
+                .andExpect(status().isNotModified())
+                .andExpect(header().string(HttpHeaders.ETAG, ETAG))
+                .andExpect(content().string(""));
+        mockMvc.perform(head("/api/files/download").header(HttpHeaders.IF_MODIFIED_SINCE, httpDate(LAST_MODIFIED)))
+                .andExpect(status().isNotModified());
+        verify(s3FileService, never()).downloadFile(any());
+    }
+
+    @Test
+    void outdatedCopyGetsTheFile() throws Exception {
+        MvcResult result = streamed(get("/api/files/download").header(HttpHeaders.IF_NONE_MATCH, "\"v0\""));
+
+        assertThat(result.getResponse().getStatus()).isEqualTo(200);
+        assertThat(result.getResponse().getContentAsString()).isEqualTo(CONTENT);
+        assertThat(result.getResponse().getHeader(HttpHeaders.ACCEPT_RANGES)).isEqualTo("bytes");
+    }
+
+    @Test
+    void headDescribesTheFileWithoutABody() throws Exception {
+        mockMvc.perform(head("/api/files/download"))
+                .andExpect(status().isOk())
+                .andExpect(header().string(HttpHeaders.CONTENT_LENGTH, "26"))
+                .andExpect(header().string(HttpHeaders.ETAG, ETAG))
+                .andExpect(header().string(HttpHeaders.ACCEPT_RANGES, "bytes"));
+    }
+
+    @Test
+    void encodedResponseAdvertisesNoRanges() throws Exception {
+        encodingAsGzip();
+        when(contentEncoder.reserve()).thenReturn(mock(ContentEncoder.Slot.class));
+
+        MvcResult result = streamed(get("/api/files/download").header(HttpHeaders.ACCEPT_ENCODING, "gzip"));
+
+        assertThat(result.getResponse().getStatus()).isEqualTo(200);
+        assertThat(result.getResponse().getHeader(HttpHeaders.CONTENT_ENCODING)).isEqualTo("gzip");
+        assertThat(result.getResponse().getHeader(HttpHeaders.ACCEPT_RANGES)).isEqualTo("none");
+        mockMvc.perform(head("/api/files/download").header(HttpHeaders.ACCEPT_ENCODING, "gzip"))
+                .andExpect(status().isOk())
+                .andExpect(header().string(HttpHeaders.CONTENT_ENCODING, "gzip"))
+                .andExpect(header().string(HttpHeaders.ACCEPT_RANGES, "none"));
+    }
+
+    @Test
+    void unencodedResponseStillAcceptsRanges() throws Exception {
+        encodingAsGzip();
+
+        mockMvc.perform(head("/api/files/download").header(HttpHeaders.ACCEPT_ENCODING, "identity"))
+                .andExpect(status().isOk())
+                .andExpect(header().doesNotExist(HttpHeaders.CONTENT_ENCODING))
+                .andExpect(header().string(HttpHeaders.ACCEPT_RANGES, "bytes"));
+    }
+
+    @Test
+    void largeFileIsRedirectedToStorage() throws Exception {
+        redirectingToStorage();
+
+        mockMvc.perform(get("/api/files/download"))
+                .andExpect(status().isFound())
+                .andExpect(header().string(HttpHeaders.LOCATION, PRESIGNED.toString()))
+                .andExpect(header().string(HttpHeaders.CACHE_CONTROL, "no-store"));
+        mockMvc.perform(head("/api/files/download"))
+                .andExpect(status().isFound())
+                .andExpect(header().string(HttpHeaders.LOCATION, PRESIGNED.toString()))
+                .andExpect(header().string(HttpHeaders.CACHE_CONTROL, "no-store"));
+        verify(s3FileService, never()).downloadFile(any());
+    }
+
+    @Test
+    void rangesAndExplicitModesAreNotRedirected() throws Exception {
+        redirectingToStorage();
+
+        MvcResult ranged = streamed(get("/api/files/download").header(HttpHeaders.RANGE, "bytes=0-2"));
+        assertThat(ranged.getResponse().getStatus()).isEqualTo(206);
+        assertThat(ranged.getResponse().getContentAsString()).isEqualTo("abc");
+
+        MvcResult single = streamed(get("/api/files/download").param("mode", "SINGLE"));
+        assertThat(single.getResponse().getStatus()).isEqualTo(200);
+        assertThat(single.getResponse().getContentAsString()).isEqualTo(CONTENT);
+        verify(presignedUrls, never()).downloadUrl(anyString());
+    }
+
+    @Test
+    void smallFileIsNotRedirected() throws Exception {
+        redirectingToStorage();
+        when(presignedUrls.shouldRedirect(INFO)).thenReturn(false);
+
+        MvcResult result = streamed(get("/api/files/download"));
+
+        assertThat(result.getResponse().getStatus()).isEqualTo(200);
+        assertThat(result.getResponse().getContentAsString()).isEqualTo(CONTENT);
+        verify(presignedUrls, never()).downloadUrl(anyString());
+    }
+
+    private void encodingAsGzip() {
+        when(contentEncoder.isEnabled()).thenReturn(true);
+        when(contentEncoder.negotiate(any(), eq(INFO))).thenReturn(Optional.empty());
+        when(contentEncoder.negotiate(eq("gzip"), eq(INFO))).thenReturn(Optional.of(ContentEncoder.Coding.GZIP));
+    }
+
+    private void redirectingToStorage() {
+        when(presignedUrls.isEnabled()).thenReturn(true);
+        when(presignedUrls.shouldRedirect(INFO)).thenReturn(true);
+        when(presignedUrls.downloadUrl("test.txt")).thenReturn(PRESIGNED);
+    }
+
+    /**
+     * Performs a request whose body is a {@code StreamingResponseBody} and completes its async dispatch.
+     */
+    private MvcResult streamed(RequestBuilder requestBuilder) throws Exception {
+        MvcResult started = mockMvc.perform(requestBuilder)
+                .andExpect(request().asyncStarted())
+                .andReturn();
+        return mockMvc.perform(asyncDispatch(started)).andReturn();
+    }
+
+    private static S3FileService.S3File file(String content, String eTag) {
+        byte[] bytes = content.getBytes(StandardCharsets.UTF_8);
+        return new S3FileService.S3File(new ByteArrayInputStream(bytes), "text/plain", (long) bytes.length, eTag,
+                LAST_MODIFIED);
+    }
+
+    private static String httpDate(Instant instant) {
+        return DateTimeFormatter.RFC_1123_DATE_TIME.format(instant.atZone(ZoneOffset.UTC));
+    }
+}
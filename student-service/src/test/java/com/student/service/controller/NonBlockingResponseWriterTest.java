@@ -0,0 +1,158 @@
+package com.student.service.controller;
+
+import jakarta.servlet.AsyncContext;
+import jakarta.servlet.AsyncEvent;
+import jakarta.servlet.ServletOutputStream;
+import jakarta.servlet.WriteListener;
+import jakarta.servlet.http.HttpServletResponse;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.reactivestreams.Publisher;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class NonBlockingResponseWriterTest {
+
+    private final AsyncContext asyncContext = mock(AsyncContext.class);
+    private final HttpServletResponse response = mock(HttpServletResponse.class);
+    private final TestOutputStream outputStream = new TestOutputStream();
+    private final TestPublisher publisher = new TestPublisher();
+
+    @BeforeEach
+    void setUp() throws IOException {
+        when(asyncContext.getResponse()).thenReturn(response);
+        when(response.getOutputStream()).thenReturn(outputStream);
+        NonBlockingResponseWriter.start(asyncContext, publisher);
+        // The container calls back once the listener is set and the stream is writable
+        outputStream.writeListener.onWritePossible();
+    }
+
+    @Test
+    void requestsOneChunkAtATimeWhileTheClientKeepsUp() {
+        assertThat(publisher.requested).isEqualTo(1);
+
+        publisher.emit("abc");
+        assertThat(publisher.requested).isEqualTo(2);
+        publisher.emit("def");
+        assertThat(publisher.requested).isEqualTo(3);
+        publisher.subscriber.onComplete();
+
+        assertThat(outputStream.written()).isEqualTo("abcdef");
+        verify(asyncContext).complete();
+    }
+
+    @Test
+    void stopsRequestingWhileTheSocketIsFull() throws IOException {
+        outputStream.ready = false;
+        publisher.emit("abc");
+
+        // Held until the container says the socket is writable again
+        assertThat(outputStream.written()).isEmpty();
+        assertThat(publisher.requested).isEqualTo(1);
+
+        outputStream.ready = true;
+        outputStream.writeListener.onWritePossible();
+
+        assertThat(outputStream.written()).isEqualTo("abc");
+        assertThat(publisher.requested).isEqualTo(2);
+    }
+
+    @Test
+    void upstreamFailureBeforeAnyBytesIsA500() {
+        publisher.subscriber.onError(new IOException("S3 unavailable"));
+
+        verify(response).setStatus(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+        assertThat(outputStream.written()).isEqualTo("Error downloading file: S3 unavailable");
+        assertThat(publisher.cancelled).isTrue();
+        verify(asyncContext).complete();
+    }
+
+    @Test
+    void failureAfterTheFirstBytesAbortsTheResponse() {
+        publisher.emit("abc");
+
+        publisher.subscriber.onError(new IOException("S3 connection reset"));
+
+        verify(response, never()).setStatus(anyInt());
+        assertThat(outputStream.written()).isEqualTo("abc");
+        verify(asyncContext).complete();
+    }
+
+    @Test
+    void timeoutCancelsTheUpstreamAndCompletesOnce() {
+        NonBlockingResponseWriter writer = (NonBlockingResponseWriter) publisher.subscriber;
+
+        writer.onTimeout(new AsyncEvent(asyncContext));
+        publisher.subscriber.onComplete();
+        writer.onError(new AsyncEvent(asyncContext, new IOException("Broken pipe")));
+
+        assertThat(publisher.cancelled).isTrue();
+        verify(asyncContext, times(1)).complete();
+    }
+
+    private static class TestPublisher implements Publisher<ByteBuffer> {
+
+        private Subscriber<? super ByteBuffer> subscriber;
+        private long requested;
+        private boolean cancelled;
+
+        @Override
+        public void subscribe(Subscriber<? super ByteBuffer> subscriber) {
+            this.subscriber = subscriber;
+            subscriber.onSubscribe(new Subscription() {
+                @Override
+                public void request(long n) {
+                    requested += n;
+                }
+
+                @Override
+                public void cancel() {
+                    cancelled = true;
+                }
+            });
+        }
+
+        void emit(String chunk) {
+            subscriber.onNext(ByteBuffer.wrap(chunk.getBytes(StandardCharsets.UTF_8)));
+        }
+    }
+
+    private static class TestOutputStream extends ServletOutputStream {
+
+        private final ByteArrayOutputStream written = new ByteArrayOutputStream();
+        private WriteListener writeListener;
+        private boolean ready = true;
+
+        @Override
+        public boolean isReady() {
+            return ready;
+        }
+
+        @Override
+        public void setWriteListener(WriteListener writeListener) {
+            this.writeListener = writeListener;
+        }
+
+        @Override
+        public void write(int b) {
+            written.write(b);
+        }
+
+        String written() {
+            return written.toString(StandardCharsets.UTF_8);
+        }
+    }
+}
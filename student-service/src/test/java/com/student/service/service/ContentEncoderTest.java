@@ -0,0 +1,136 @@
+package com.student.service.service;
+
+import com.student.common.transfer.StreamRelay;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.util.unit.DataSize;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.List;
+import java.util.Random;
+import java.util.zip.GZIPInputStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class ContentEncoderTest {
+
+    private static final S3FileService.S3ObjectInfo TEXT =
+            new S3FileService.S3ObjectInfo(10_000, "text/plain", "\"text\"", Instant.EPOCH);
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private final ContentEncoder encoder = encoder(true, 2, 0);
+
+    @AfterEach
+    void shutdown() {
+        encoder.shutdown();
+    }
+
+    @Test
+    void prefersZstdWhenWeighedEqually() {
+        assertThat(encoder.negotiate("gzip, deflate, br, zstd", TEXT)).contains(ContentEncoder.Coding.ZSTD);
+        assertThat(encoder.negotiate("gzip, deflate", TEXT)).contains(ContentEncoder.Coding.GZIP);
+    }
+
+    @Test
+    void followsQValues() {
+        assertThat(encoder.negotiate("zstd;q=0.5, gzip;q=0.8", TEXT)).contains(ContentEncoder.Coding.GZIP);
+        assertThat(encoder.negotiate("zstd;q=0, gzip", TEXT)).contains(ContentEncoder.Coding.GZIP);
+        assertThat(encoder.negotiate("gzip;q=0, zstd;q=0", TEXT)).isEmpty();
+        assertThat(encoder.negotiate("gzip;q=oops", TEXT)).isEmpty();
+    }
+
+    @Test
+    void wildcardCoversUnlistedCodings() {
+        assertThat(encoder.negotiate("*", TEXT)).contains(ContentEncoder.Coding.ZSTD);
+        assertThat(encoder.negotiate("zstd;q=0, *;q=0.5", TEXT)).contains(ContentEncoder.Coding.GZIP);
+    }
+
+    @Test
+    void identityWhenNothingSupportedIsAccepted() {
+        assertThat(encoder.negotiate(null, TEXT)).isEmpty();
+        assertThat(encoder.negotiate("br, deflate", TEXT)).isEmpty();
+        assertThat(encoder.negotiate("identity", TEXT)).isEmpty();
+    }
+
+    @Test
+    void skipsSmallAndExcludedObjects() {
+        assertThat(encoder.negotiate("gzip", new S3FileService.S3ObjectInfo(100, "text/plain", "\"small\"", null)))
+                .isEmpty();
+        assertThat(encoder.negotiate("gzip", new S3FileService.S3ObjectInfo(10_000, "image/png", "\"png\"", null)))
+                .isEmpty();
+        assertThat(encoder.negotiate("gzip", new S3FileService.S3ObjectInfo(10_000, "application/zip", "\"zip\"", null)))
+                .isEmpty();
+        assertThat(encoder.negotiate("gzip", new S3FileService.S3ObjectInfo(10_000, "not a type", "\"bad\"", null)))
+                .isEmpty();
+    }
+
+    @Test
+    void disabledEncoderNeverNegotiates() {
+        ContentEncoder disabled = encoder(false, 1, 0);
+        try {
+            assertThat(disabled.negotiate("gzip, zstd", TEXT)).isEmpty();
+        } finally {
+            disabled.shutdown();
+        }
+    }
+
+    @Test
+    void variantETagsAreDistinctPerCoding() {
+        assertThat(ContentEncoder.variantETag("\"abc\"", ContentEncoder.Coding.GZIP)).isEqualTo("\"abc-gzip\"");
+        assertThat(ContentEncoder.variantETag("\"abc\"", ContentEncoder.Coding.ZSTD)).isEqualTo("\"abc-zstd\"");
+        assertThat(ContentEncoder.variantETag("W/\"abc\"", ContentEncoder.Coding.GZIP)).isEqualTo("W/\"abc-gzip\"");
+        assertThat(ContentEncoder.variantETag(null, ContentEncoder.Coding.GZIP)).isNull();
+    }
+
+    @Test
+    void encodesAndCommitsTheVariant() throws IOException {
+        byte[] text = "a line that repeats\n".repeat(500).getBytes(StandardCharsets.UTF_8);
+        ByteArrayOutputStream response = new ByteArrayOutputStream();
+
+        long written = encoder.encode(encoder.reserve(), ContentEncoder.Coding.GZIP, new ByteArrayInputStream(text),
+                response, null, "\"text\"");
+
+        assertThat(written).isEqualTo(response.size()).isLessThan(text.length / 10);
+        try (GZIPInputStream decoded = new GZIPInputStream(new ByteArrayInputStream(response.toByteArray()))) {
+            assertThat(decoded.readAllBytes()).isEqualTo(text);
+        }
+        assertThat(encoder.negotiate("gzip", TEXT)).isPresent();
+    }
+
+    @Test
+    void stopsCompressingObjectsThatBarelyShrink() throws IOException {
+        byte[] random = new byte[10_000];
+        new Random(42).nextBytes(random);
+        S3FileService.S3ObjectInfo info = new S3FileService.S3ObjectInfo(random.length, "text/plain", "\"random\"", null);
+
+        encoder.encode(encoder.reserve(), ContentEncoder.Coding.GZIP, new ByteArrayInputStream(random),
+                new ByteArrayOutputStream(), null, info.eTag());
+
+        assertThat(encoder.negotiate("gzip", info)).isEmpty();
+        assertThat(encoder.negotiate("gzip", TEXT)).isPresent();
+    }
+
+    @Test
+    void refusesSlotsOncePoolAndQueueAreTaken() {
+        ContentEncoder.Slot first = encoder.reserve();
+        ContentEncoder.Slot second = encoder.reserve();
+        assertThat(encoder.reserve()).isNull();
+
+        first.close();
+        first.close();
+        assertThat(encoder.reserve()).isNotNull();
+        assertThat(encoder.reserve()).isNull();
+        second.close();
+        assertThat(meterRegistry.get("content.encoding.saturated").functionCounter().count()).isEqualTo(2);
+    }
+
+    private ContentEncoder encoder(boolean enabled, int poolSize, int maxQueued) {
+        return new ContentEncoder(meterRegistry, new StreamRelay(8192, 4, 64 * 1024, 100, meterRegistry), enabled,
+                DataSize.ofKilobytes(1), List.of("image/*", "application/zip"), 3, poolSize, maxQueued);
+    }
+}
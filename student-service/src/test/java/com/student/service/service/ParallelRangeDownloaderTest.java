@@ -0,0 +1,160 @@
+package com.student.service.service;
+
+import com.student.common.transfer.IoThreads;
+import com.student.common.transfer.MemoryBudget;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.util.unit.DataSize;
+import software.amazon.awssdk.core.ResponseInputStream;
+import software.amazon.awssdk.http.AbortableInputStream;
+import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.s3.model.GetObjectRequest;
+import software.amazon.awssdk.services.s3.model.GetObjectResponse;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class ParallelRangeDownloaderTest {
+
+    private static final String BUCKET = "jmz-bucket";
+    private static final String KEY = "files/data.bin";
+    private static final String ETAG = "\"v1\"";
+    private static final int PART_SIZE = 10;
+    private static final Pattern RANGE = Pattern.compile("bytes=(\\d+)-(\\d+)");
+
+    private final S3Client s3Client = mock(S3Client.class);
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    // Room for the reader's part plus two in flight
+    private final MemoryBudget memoryBudget = new MemoryBudget(PART_SIZE * 3, PART_SIZE, 0,
+            Duration.ZERO, Duration.ofSeconds(1), meterRegistry);
+    private final ParallelRangeDownloader downloader = new ParallelRangeDownloader(s3Client,
+            new S3RequestMetrics(meterRegistry), new IoThreads(false), memoryBudget, meterRegistry,
+            DataSize.ofBytes(PART_SIZE), 2, 4);
+    private final List<String> requestedRanges = new CopyOnWriteArrayList<>();
+
+    @AfterEach
+    void shutdown() {
+        downloader.shutdown();
+    }
+
+    @Test
+    void partsAreReassembledInOrderWhateverOrderTheyArriveIn() throws IOException {
+        byte[] object = object(45);
+        // Earlier parts answer last
+        serving(object, 0, range -> (45 - range[0]) / 2);
+
+        byte[] read;
+        try (InputStream in = downloader.open(BUCKET, KEY, object.length, ETAG)) {
+            read = in.readAllBytes();
+        }
+
+        assertThat(read).isEqualTo(object);
+        assertThat(requestedRanges).containsExactlyInAnyOrder(
+                "bytes=0-9", "bytes=10-19", "bytes=20-29", "bytes=30-39", "bytes=40-44");
+        assertThat(meterRegistry.get("s3.parallel.part.duration").timer().count()).isEqualTo(5);
+        assertThat(meterRegistry.get("s3.parallel.part.first.byte").timer().count()).isEqualTo(5);
+        assertThat(meterRegistry.get("s3.parallel.slowest.part").summary().count()).isEqualTo(1);
+        assertThat(used()).isZero();
+    }
+
+    @Test
+    void partsAreFetchedWithIfMatch() throws IOException {
+        serving(object(15), 0, range -> 0);
+
+        try (InputStream in = downloader.open(BUCKET, KEY, 15, ETAG)) {
+            in.readAllBytes();
+        }
+
+        ArgumentCaptor<GetObjectRequest> requests = ArgumentCaptor.forClass(GetObjectRequest.class);
+        verify(s3Client, times(2)).getObject(requests.capture());
+        assertThat(requests.getAllValues()).extracting(GetObjectRequest::ifMatch).containsOnly(ETAG);
+    }
+
+    @Test
+    void shortPartFailsTheRead() throws IOException {
+        byte[] object = object(30);
+        // Every part comes back one byte short
+        serving(object, 1, range -> 0);
+
+        try (InputStream in = downloader.open(BUCKET, KEY, object.length, ETAG)) {
+            assertThatThrownBy(in::readAllBytes)
+                    .isInstanceOf(IOException.class)
+                    .hasRootCauseMessage("Short read for part 0: expected 10 bytes, got 9");
+        }
+        assertThat(used()).isZero();
+    }
+
+    @Test
+    void declinesWhenTheBudgetCannotFitTheParts() {
+        assertThat(memoryBudget.tryReserve(PART_SIZE)).isTrue();
+
+        assertThat(downloader.open(BUCKET, KEY, 100, ETAG)).isNull();
+
+        assertThat(meterRegistry.get("s3.parallel.declined").functionCounter().count()).isEqualTo(1);
+        verify(s3Client, never()).getObject(any(GetObjectRequest.class));
+    }
+
+    @Test
+    void closingEarlyReleasesTheReservation() throws IOException {
+        serving(object(100), 0, range -> 0);
+
+        InputStream in = downloader.open(BUCKET, KEY, 100, ETAG);
+        assertThat(used()).isEqualTo(PART_SIZE * 3);
+        assertThat(in.read()).isZero();
+        in.close();
+
+        assertThat(used()).isZero();
+        assertThatThrownBy(in::read).isInstanceOf(IOException.class);
+    }
+
+    private interface Delay {
+        long millis(long[] range);
+    }
+
+    /**
+     * Answers ranged GETs from {@code object}, each {@code missing} bytes short, after {@code delay}.
+     */
+    private void serving(byte[] object, int missing, Delay delay) {
+        when(s3Client.getObject(any(GetObjectRequest.class))).thenAnswer(invocation -> {
+            GetObjectRequest request = invocation.getArgument(0);
+            requestedRanges.add(request.range());
+            Matcher matcher = RANGE.matcher(request.range());
+            assertThat(matcher.matches()).isTrue();
+            long[] range = {Long.parseLong(matcher.group(1)), Long.parseLong(matcher.group(2))};
+            Thread.sleep(delay.millis(range));
+            byte[] part = Arrays.copyOfRange(object, (int) range[0], (int) range[1] + 1 - missing);
+            return new ResponseInputStream<>(GetObjectResponse.builder().eTag(ETAG).build(),
+                    AbortableInputStream.create(new ByteArrayInputStream(part)));
+        });
+    }
+
+    private double used() {
+        return meterRegistry.get("memory.budget.used").gauge().value();
+    }
+
+    private static byte[] object(int length) {
+        byte[] data = new byte[length];
+        for (int i = 0; i < length; i++) {
+            data[i] = (byte) i;
+        }
+        return data;
+    }
+}
@@ -0,0 +1,145 @@
+package com.student.service.service;
+
+import com.student.common.transfer.IoThreads;
+import com.student.common.transfer.StreamRelay;
+import com.student.service.exception.FileDownloadException;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import software.amazon.awssdk.awscore.exception.AwsErrorDetails;
+import software.amazon.awssdk.core.ResponseInputStream;
+import software.amazon.awssdk.http.AbortableInputStream;
+import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.s3.model.GetObjectRequest;
+import software.amazon.awssdk.services.s3.model.GetObjectResponse;
+import software.amazon.awssdk.services.s3.model.ListObjectsV2Request;
+import software.amazon.awssdk.services.s3.model.ListObjectsV2Response;
+import software.amazon.awssdk.services.s3.model.S3Exception;
+import software.amazon.awssdk.services.s3.model.S3Object;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class S3BundleServiceTest {
+
+    private static final String PREFIX = "bundle/";
+    private static final Instant LAST_MODIFIED = Instant.parse("2024-01-15T10:00:00Z");
+
+    private final S3Client s3Client = mock(S3Client.class);
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private final S3BundleService bundleService = new S3BundleService(s3Client, new S3RequestMetrics(meterRegistry),
+            new StreamRelay(8192, 4, 64 * 1024, 100, meterRegistry), new IoThreads(false),
+            "jmz-bucket", PREFIX, 3, 1, 6, 2);
+    private final Set<String> aborted = new CopyOnWriteArraySet<>();
+
+    @AfterEach
+    void shutdown() {
+        bundleService.shutdown();
+    }
+
+    @Test
+    void writesEachObjectAsAnEntryNamedBelowThePrefix() throws IOException {
+        serving();
+
+        ByteArrayOutputStream archive = new ByteArrayOutputStream();
+        try (S3BundleService.Bundle bundle = bundleService.open(List.of("bundle/a.txt", "bundle/dir/b.txt"))) {
+            bundle.writeTo(archive);
+        }
+
+        List<String> names = new ArrayList<>();
+        try (ZipInputStream zip = new ZipInputStream(new ByteArrayInputStream(archive.toByteArray()))) {
+            for (ZipEntry entry = zip.getNextEntry(); entry != null; entry = zip.getNextEntry()) {
+                names.add(entry.getName());
+                assertThat(entry.getLastModifiedTime().toInstant()).isEqualTo(LAST_MODIFIED);
+                assertThat(new String(zip.readAllBytes(), StandardCharsets.UTF_8))
+                        .isEqualTo("content of " + PREFIX + entry.getName());
+            }
+        }
+        assertThat(names).containsExactly("a.txt", "dir/b.txt");
+    }
+
+    @Test
+    void resolvesExplicitKeysAndAListedPrefixWithoutDuplicates() {
+        when(s3Client.listObjectsV2(any(ListObjectsV2Request.class))).thenReturn(ListObjectsV2Response.builder()
+                .contents(object("bundle/reports/"), object("bundle/reports/q1.csv"), object("bundle/reports/q2.csv"))
+                .build());
+
+        assertThat(bundleService.resolveKeys(List.of("bundle/reports/q2.csv"), "bundle/reports/"))
+                .containsExactly("bundle/reports/q2.csv", "bundle/reports/q1.csv");
+    }
+
+    @Test
+    void rejectsKeysOutsideThePrefixAndOversizedOrEmptyBundles() {
+        assertThatThrownBy(() -> bundleService.resolveKeys(List.of("private/secret.txt"), null))
+                .isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> bundleService.resolveKeys(List.of("bundle/../private/secret.txt"), null))
+                .isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> bundleService.resolveKeys(null, "private/"))
+                .isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> bundleService.resolveKeys(List.of(), null))
+                .isInstanceOf(IllegalArgumentException.class)
+                .hasMessage("No objects selected for the bundle");
+        assertThatThrownBy(() -> bundleService.resolveKeys(
+                List.of("bundle/1", "bundle/2", "bundle/3", "bundle/4"), null))
+                .isInstanceOf(IllegalArgumentException.class)
+                .hasMessage("Bundle exceeds 3 objects");
+    }
+
+    @Test
+    void missingFirstObjectFailsBeforeTheArchiveStarts() {
+        when(s3Client.getObject(any(GetObjectRequest.class))).thenThrow(S3Exception.builder()
+                .statusCode(404)
+                .awsErrorDetails(AwsErrorDetails.builder().errorMessage("The specified key does not exist.").build())
+                .build());
+
+        assertThatThrownBy(() -> bundleService.open(List.of("bundle/missing.txt")))
+                .isInstanceOf(FileDownloadException.class)
+                .hasMessageContaining("bundle/missing.txt");
+    }
+
+    @Test
+    void closingAbortsTheGetsOpenedAhead() throws InterruptedException {
+        serving();
+
+        // The first object plus one prefetched
+        bundleService.open(List.of("bundle/a.txt", "bundle/b.txt", "bundle/c.txt")).close();
+
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (aborted.size() < 2 && System.nanoTime() < deadline) {
+            Thread.sleep(5);
+        }
+        assertThat(aborted).containsExactlyInAnyOrder("bundle/a.txt", "bundle/b.txt");
+    }
+
+    /**
+     * Answers every GET with "content of <key>", recording aborted responses in {@link #aborted}.
+     */
+    private void serving() {
+        when(s3Client.getObject(any(GetObjectRequest.class))).thenAnswer(invocation -> {
+            String key = invocation.<GetObjectRequest>getArgument(0).key();
+            byte[] content = ("content of " + key).getBytes(StandardCharsets.UTF_8);
+            return new ResponseInputStream<>(GetObjectResponse.builder().lastModified(LAST_MODIFIED).build(),
+                    AbortableInputStream.create(new ByteArrayInputStream(content), () -> aborted.add(key)));
+        });
+    }
+
+    private static S3Object object(String key) {
+        return S3Object.builder().key(key).build();
+    }
+}
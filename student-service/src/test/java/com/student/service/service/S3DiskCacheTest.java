@@ -0,0 +1,203 @@
+package com.student.service.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.util.unit.DataSize;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class S3DiskCacheTest {
+
+    private static final String BUCKET = "jmz-bucket";
+    private static final Instant LAST_MODIFIED = Instant.parse("2024-01-15T10:00:00Z");
+
+    @TempDir
+    Path directory;
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+    @Test
+    void publishesOnlyCompletelyReadObjects() throws IOException {
+        S3DiskCache cache = cache(100, Duration.ofMinutes(5));
+
+        InputStream partial = cache.fill(BUCKET, "a.txt", info("0123456789", "\"a\""), body("0123456789"));
+        partial.readNBytes(4);
+        partial.close();
+        assertThat(lookup(cache, "a.txt")).isEmpty();
+
+        fillCompletely(cache, "a.txt", "0123456789", "\"a\"");
+        Optional<S3DiskCache.CachedFile> cached = lookup(cache, "a.txt");
+        assertThat(cached).isPresent();
+        assertThat(cached.get().eTag()).isEqualTo("\"a\"");
+        assertThat(cached.get().path()).hasContent("0123456789");
+        assertThat(cached.get().path().getFileName().toString()).endsWith(".obj");
+        try (var files = Files.list(directory)) {
+            assertThat(files.filter(path -> path.toString().endsWith(".part"))).isEmpty();
+        }
+    }
+
+    @Test
+    void doesNotPublishTruncatedObjects() throws IOException {
+        S3DiskCache cache = cache(100, Duration.ofMinutes(5));
+
+        try (InputStream inputStream = cache.fill(BUCKET, "a.txt", info("0123456789", "\"a\""), body("01234"))) {
+            inputStream.readAllBytes();
+        }
+        assertThat(lookup(cache, "a.txt")).isEmpty();
+    }
+
+    @Test
+    void evictsLeastRecentlyUsedFirst() throws IOException {
+        S3DiskCache cache = cache(30, Duration.ofMinutes(5));
+        fillCompletely(cache, "a.txt", "aaaaaaaaaa", "\"a\"");
+        fillCompletely(cache, "b.txt", "bbbbbbbbbb", "\"b\"");
+        fillCompletely(cache, "c.txt", "cccccccccc", "\"c\"");
+
+        // a becomes the most recently used, so b goes first
+        assertThat(lookup(cache, "a.txt")).isPresent();
+        fillCompletely(cache, "d.txt", "dddddddddd", "\"d\"");
+
+        assertThat(lookup(cache, "b.txt")).isEmpty();
+        assertThat(lookup(cache, "a.txt")).isPresent();
+        assertThat(lookup(cache, "c.txt")).isPresent();
+        assertThat(lookup(cache, "d.txt")).isPresent();
+        assertThat(meterRegistry.get("s3.cache.disk.evictions").functionCounter().count()).isEqualTo(1);
+        assertThat(meterRegistry.get("s3.cache.disk.size").gauge().value()).isEqualTo(30);
+    }
+
+    @Test
+    void objectsLargerThanTheCacheAreNotStored() throws IOException {
+        S3DiskCache cache = cache(5, Duration.ofMinutes(5));
+        InputStream source = body("0123456789");
+
+        assertThat(cache.fill(BUCKET, "a.txt", info("0123456789", "\"a\""), source)).isSameAs(source);
+    }
+
+    @Test
+    void newVersionReplacesTheOldOne() throws IOException {
+        S3DiskCache cache = cache(100, Duration.ofMinutes(5));
+        fillCompletely(cache, "a.txt", "version one", "\"v1\"");
+        fillCompletely(cache, "a.txt", "version two", "\"v2\"");
+
+        assertThat(lookup(cache, "a.txt")).get().extracting(S3DiskCache.CachedFile::eTag).isEqualTo("\"v2\"");
+        assertThat(meterRegistry.get("s3.cache.disk.entries").gauge().value()).isEqualTo(1);
+        assertThat(meterRegistry.get("s3.cache.disk.size").gauge().value()).isEqualTo(11);
+    }
+
+    @Test
+    void revalidatesOldEntriesAndDropsStaleOnes() throws IOException {
+        S3DiskCache cache = cache(100, Duration.ZERO);
+        fillCompletely(cache, "a.txt", "0123456789", "\"a\"");
+        AtomicInteger heads = new AtomicInteger();
+
+        assertThat(cache.lookup(BUCKET, "a.txt", () -> {
+            heads.incrementAndGet();
+            return info("0123456789", "\"a\"");
+        })).isPresent();
+        assertThat(cache.lookup(BUCKET, "a.txt", () -> {
+            heads.incrementAndGet();
+            return info("changed!", "\"b\"");
+        })).isEmpty();
+
+        assertThat(heads).hasValue(2);
+        assertThat(lookup(cache, "a.txt")).isEmpty();
+    }
+
+    @Test
+    void adoptsCompleteFilesWrittenElsewhere() throws IOException {
+        S3DiskCache cache = cache(100, Duration.ofMinutes(5));
+        Path spool = Files.createTempFile("flight-", ".spool");
+        Files.writeString(spool, "0123456789");
+
+        cache.adopt(BUCKET, "a.txt", info("0123456789", "\"a\""), spool);
+
+        assertThat(spool).doesNotExist();
+        assertThat(lookup(cache, "a.txt")).get().extracting(S3DiskCache.CachedFile::path)
+                .satisfies(path -> assertThat(path).hasContent("0123456789"));
+    }
+
+    @Test
+    void storesVariantsOnlyWhenCommitted() throws IOException {
+        S3DiskCache cache = cache(100, Duration.ofMinutes(5));
+
+        try (S3DiskCache.VariantSink discarded = cache.storeVariant(BUCKET, "a.txt#gzip", info("0123456789", "\"a\""))) {
+            discarded.write("abandoned".getBytes(StandardCharsets.UTF_8));
+        }
+        assertThat(lookup(cache, "a.txt#gzip")).isEmpty();
+
+        S3DiskCache.VariantSink variant = cache.storeVariant(BUCKET, "a.txt#gzip", info("0123456789", "\"a\""));
+        variant.write("gz".getBytes(StandardCharsets.UTF_8));
+        variant.commit();
+
+        Optional<S3DiskCache.CachedFile> cached = lookup(cache, "a.txt#gzip");
+        assertThat(cached).isPresent();
+        assertThat(cached.get().contentLength()).isEqualTo(2);
+        ByteArrayOutputStream served = new ByteArrayOutputStream();
+        assertThat(cache.transferTo(cached.get(), served)).isEqualTo(2);
+        assertThat(served.toString(StandardCharsets.UTF_8)).isEqualTo("gz");
+    }
+
+    @Test
+    void startupRemovesOnlyItsOwnLeftovers() throws IOException {
+        Files.writeString(directory.resolve("0123abcd.obj"), "stale");
+        Files.writeString(directory.resolve("fill-123.part"), "stale");
+        Files.writeString(directory.resolve("variant-123.part"), "stale");
+        Files.writeString(directory.resolve("notes.txt"), "keep");
+        Files.writeString(directory.resolve("other.part"), "keep");
+
+        cache(100, Duration.ofMinutes(5));
+
+        try (var files = Files.list(directory)) {
+            assertThat(files.map(path -> path.getFileName().toString()))
+                    .containsExactlyInAnyOrder("notes.txt", "other.part");
+        }
+    }
+
+    @Test
+    void disabledCacheIsTransparent() {
+        S3DiskCache cache = new S3DiskCache(meterRegistry, false, directory.resolve("unused"), DataSize.ofBytes(100),
+                Duration.ofMinutes(5));
+        InputStream source = body("0123456789");
+
+        assertThat(cache.fill(BUCKET, "a.txt", info("0123456789", "\"a\""), source)).isSameAs(source);
+        assertThat(lookup(cache, "a.txt")).isEmpty();
+        assertThat(directory.resolve("unused")).doesNotExist();
+    }
+
+    private S3DiskCache cache(long maxSize, Duration revalidateAfter) {
+        return new S3DiskCache(meterRegistry, true, directory, DataSize.ofBytes(maxSize), revalidateAfter);
+    }
+
+    private static void fillCompletely(S3DiskCache cache, String key, String content, String eTag) throws IOException {
+        try (InputStream inputStream = cache.fill(BUCKET, key, info(content, eTag), body(content))) {
+            assertThat(new String(inputStream.readAllBytes(), StandardCharsets.UTF_8)).isEqualTo(content);
+        }
+    }
+
+    private static Optional<S3DiskCache.CachedFile> lookup(S3DiskCache cache, String key) {
+        return cache.lookup(BUCKET, key, () -> {
+            throw new AssertionError("Unexpected revalidation");
+        });
+    }
+
+    private static S3FileService.S3ObjectInfo info(String content, String eTag) {
+        return new S3FileService.S3ObjectInfo(content.length(), "text/plain", eTag, LAST_MODIFIED);
+    }
+
+    private static InputStream body(String content) {
+        return new ByteArrayInputStream(content.getBytes(StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,165 @@
+package com.student.service.service;
+
+import com.student.common.transfer.IoThreads;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import software.amazon.awssdk.core.ResponseInputStream;
+import software.amazon.awssdk.http.AbortableInputStream;
+import software.amazon.awssdk.services.s3.model.GetObjectResponse;
+
+import java.io.ByteArrayInputStream;
+import java.time.Duration;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class S3HedgedRequestsTest {
+
+    private static final Duration DELAY = Duration.ofMillis(100);
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private S3HedgedRequests hedgedRequests;
+
+    @AfterEach
+    void shutdown() {
+        hedgedRequests.shutdown();
+    }
+
+    @Test
+    void fastAnswerIsNotHedged() {
+        hedgedRequests = hedging(1.0);
+        AtomicInteger calls = new AtomicInteger();
+
+        ResponseInputStream<GetObjectResponse> response = hedgedRequests.get(() -> {
+            calls.incrementAndGet();
+            return response("first", new CountDownLatch(1));
+        });
+
+        assertThat(response.response().eTag()).isEqualTo("first");
+        assertThat(calls).hasValue(1);
+        assertThat(counter("s3.hedge.sent")).isZero();
+    }
+
+    @Test
+    void hedgeIsSentOnlyAfterTheDelayAndWins() throws Exception {
+        hedgedRequests = hedging(1.0);
+        CountDownLatch interrupted = new CountDownLatch(1);
+        AtomicLong hedgeSentAfterNanos = new AtomicLong();
+        AtomicInteger attempts = new AtomicInteger();
+        long started = System.nanoTime();
+
+        ResponseInputStream<GetObjectResponse> response = hedgedRequests.get(() -> {
+            if (attempts.getAndIncrement() == 0) {
+                try {
+                    Thread.sleep(10_000);
+                } catch (InterruptedException e) {
+                    interrupted.countDown();
+                }
+                throw new IllegalStateException("cancelled");
+            }
+            hedgeSentAfterNanos.set(System.nanoTime() - started);
+            return response("hedge", new CountDownLatch(1));
+        });
+
+        assertThat(response.response().eTag()).isEqualTo("hedge");
+        assertThat(hedgeSentAfterNanos.get()).isGreaterThanOrEqualTo(DELAY.toNanos());
+        assertThat(counter("s3.hedge.sent")).isEqualTo(1);
+        assertThat(counter("s3.hedge.wins")).isEqualTo(1);
+        // The first attempt is still waiting for headers and gets cancelled
+        assertThat(interrupted.await(5, TimeUnit.SECONDS)).isTrue();
+    }
+
+    @Test
+    void budgetCapsTheHedgesSent() {
+        hedgedRequests = hedging(0.5);
+
+        for (int i = 0; i < 4; i++) {
+            AtomicInteger attempts = new AtomicInteger();
+            hedgedRequests.get(() -> {
+                if (attempts.getAndIncrement() == 0) {
+                    sleep(DELAY.multipliedBy(3));
+                    return response("slow", new CountDownLatch(1));
+                }
+                return response("hedge", new CountDownLatch(1));
+            });
+        }
+
+        // Each GET earns half a hedge: every second slow GET may hedge
+        assertThat(counter("s3.hedge.sent")).isEqualTo(2);
+        assertThat(counter("s3.hedge.skipped")).isEqualTo(2);
+    }
+
+    @Test
+    void loserAnsweringLateIsAborted() throws Exception {
+        hedgedRequests = hedging(1.0);
+        CountDownLatch loserMayAnswer = new CountDownLatch(1);
+        CountDownLatch loserAborted = new CountDownLatch(1);
+        CountDownLatch winnerAborted = new CountDownLatch(1);
+        AtomicInteger attempts = new AtomicInteger();
+
+        ResponseInputStream<GetObjectResponse> response = hedgedRequests.get(() -> {
+            if (attempts.getAndIncrement() == 0) {
+                // Headers on their way: a cancel can't stop them from arriving
+                awaitUninterruptibly(loserMayAnswer);
+                return response("slow", loserAborted);
+            }
+            return response("hedge", winnerAborted);
+        });
+        loserMayAnswer.countDown();
+
+        assertThat(response.response().eTag()).isEqualTo("hedge");
+        assertThat(loserAborted.await(5, TimeUnit.SECONDS)).isTrue();
+        assertThat(winnerAborted.getCount()).isEqualTo(1);
+    }
+
+    @Test
+    void failureIsRethrownOnceEveryAttemptFailed() {
+        hedgedRequests = hedging(1.0);
+
+        assertThatThrownBy(() -> hedgedRequests.get(() -> {
+            throw new IllegalStateException("NoSuchKey");
+        })).isInstanceOf(IllegalStateException.class).hasMessage("NoSuchKey");
+        assertThat(counter("s3.hedge.sent")).isZero();
+    }
+
+    /**
+     * A fixed hedge delay: min and max are equal, so the percentile never moves it.
+     */
+    private S3HedgedRequests hedging(double budget) {
+        return new S3HedgedRequests(meterRegistry, new IoThreads(false), true, 0.95, DELAY, DELAY, budget);
+    }
+
+    private double counter(String name) {
+        return meterRegistry.get(name).functionCounter().count();
+    }
+
+    private static ResponseInputStream<GetObjectResponse> response(String eTag, CountDownLatch aborted) {
+        return new ResponseInputStream<>(GetObjectResponse.builder().eTag(eTag).build(),
+                AbortableInputStream.create(new ByteArrayInputStream(new byte[0]), aborted::countDown));
+    }
+
+    private static void sleep(Duration duration) {
+        try {
+            Thread.sleep(duration.toMillis());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static void awaitUninterruptibly(CountDownLatch latch) {
+        while (true) {
+            try {
+                latch.await();
+                return;
+            } catch (InterruptedException ignored) {
+                // Keep waiting, like a response whose headers are already on the wire
+            }
+        }
+    }
+}
@@ -0,0 +1,242 @@
+package com.student.service.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.Arguments;
+import org.junit.jupiter.params.provider.MethodSource;
+import org.springframework.util.unit.DataSize;
+import software.amazon.awssdk.http.Abortable;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class S3LineQueryServiceTest {
+
+    private static final String ETAG = "\"v1\"";
+    private static final int INITIAL_WINDOW = 8;
+    private static final int MAX_WINDOW = 32;
+    private static final int MAX_LINE_LENGTH = 16;
+
+    private final S3FileService s3FileService = mock(S3FileService.class);
+    private final List<S3FileService.ByteRange> requested = new ArrayList<>();
+    private final List<AbortableInputStream> opened = new ArrayList<>();
+    private S3LineQueryService service;
+    private byte[] content;
+
+    @BeforeEach
+    void setUp() {
+        service = new S3LineQueryService(s3FileService, mock(S3DiskCache.class), new SimpleMeterRegistry(),
+                DataSize.ofBytes(INITIAL_WINDOW), DataSize.ofBytes(MAX_WINDOW), DataSize.ofBytes(MAX_LINE_LENGTH), 1000);
+        when(s3FileService.downloadFileRange(any(), anyString())).thenAnswer(invocation -> {
+            S3FileService.ByteRange range = invocation.getArgument(0);
+            assertThat(invocation.<String>getArgument(1)).isEqualTo(ETAG);
+            assertThat(range.end()).isLessThan(content.length);
+            requested.add(range);
+            AbortableInputStream inputStream = new AbortableInputStream(content, (int) range.start(), (int) range.length());
+            opened.add(inputStream);
+            return new S3FileService.S3File(inputStream, "text/plain", range.length(), ETAG, Instant.EPOCH);
+        });
+    }
+
+    static Stream<String> files() {
+        return Stream.of(
+                "",
+                "\n",
+                "\n\n\n",
+                "single line without newline",
+                "single line\n",
+                "one\ntwo\nthree\n",
+                "one\ntwo\nthree",
+                "short\n" + "x".repeat(100) + "\nafter the long line\n",
+                "x".repeat(70) + "\n" + "y".repeat(40),
+                // Newlines right at the 8, 16 and 32 byte window edges
+                "1234567\n1234567\n1234567\n1234567\n1234567\n",
+                "12345678\n12345678\n12345678\n",
+                "a\n\nb\n\n\nc\n");
+    }
+
+    static Stream<Arguments> filesAndCounts() {
+        return files().flatMap(file -> Stream.of(0, 1, 2, 3, 5, 100).map(count -> Arguments.of(file, count)));
+    }
+
+    @ParameterizedTest
+    @MethodSource("filesAndCounts")
+    void headMatchesCoreutils(String file, int count) throws IOException {
+        assertThat(run("head", count, null, false, file)).isEqualTo(expectedHead(file, count));
+    }
+
+    @ParameterizedTest
+    @MethodSource("filesAndCounts")
+    void tailMatchesCoreutils(String file, int count) throws IOException {
+        String expected = expectedTail(file, count);
+        assertThat(run("tail", count, null, false, file)).isEqualTo(expected);
+        // The first two windows (8 + 16 bytes) fit in max-window, so a suffix within them is sent from memory
+        if (expected.length() <= INITIAL_WINDOW * 3) {
+            assertThat(requested.stream().mapToLong(S3FileService.ByteRange::length).sum())
+                    .as("each byte is fetched at most once")
+                    .isLessThanOrEqualTo(content.length);
+        }
+    }
+
+    @ParameterizedTest
+    @MethodSource("files")
+    void grepSendsMatchingLines(String file) throws IOException {
+        assertThat(run("grep", null, "e", false, file)).isEqualTo(expectedGrep(file, "e", 1000));
+        assertThat(run("grep", 1, "e", false, file)).isEqualTo(expectedGrep(file, "e", 1));
+    }
+
+    @Test
+    void headStopsReadingOnceTheLinesAreOut() throws IOException {
+        String file = "first\n" + "filler line\n".repeat(100);
+
+        assertThat(run("head", 1, null, false, file)).isEqualTo("first\n");
+        assertThat(requested).hasSize(1);
+        assertThat(opened.get(0).aborted).as("the unread rest of the window is not drained").isTrue();
+    }
+
+    @Test
+    void fullyReadWindowsAreNotAborted() throws IOException {
+        assertThat(run("head", 100, null, false, "one\ntwo\n")).isEqualTo("one\ntwo\n");
+        assertThat(opened).noneMatch(inputStream -> inputStream.aborted);
+    }
+
+    @Test
+    void tailReadsOnlyTheEndOfTheFile() throws IOException {
+        String file = "filler line\n".repeat(100) + "last\n";
+
+        assertThat(run("tail", 1, null, false, file)).isEqualTo("last\n");
+        assertThat(requested).containsExactly(new S3FileService.ByteRange(file.length() - INITIAL_WINDOW, file.length() - 1));
+    }
+
+    @Test
+    void grepMatchesLongLinesOnTheirPrefix() throws IOException {
+        String longMatch = "needle" + "x".repeat(100);
+        String file = "short\n" + longMatch + "\n" + "x".repeat(100) + "needle\nneedle\n";
+
+        // The third line's match lies past max-line-length
+        assertThat(run("grep", null, "needle", false, file)).isEqualTo(longMatch + "\nneedle\n");
+    }
+
+    @Test
+    void grepIgnoresCaseAndSupportsRegexes() throws IOException {
+        String file = "Error: disk\nwarning\nERROR: net\nerrors=0\n";
+
+        assertThat(run("grep", null, "error:", false, file)).isEmpty();
+        assertThat(run("grep", null, "error:", true, file)).isEqualTo("Error: disk\nERROR: net\n");
+        assertThat(runRegex("^[A-Z]+:", file)).isEqualTo("ERROR: net\n");
+        assertThat(runRegex("café", "café au lait\ncafe\n")).isEqualTo("café au lait\n");
+    }
+
+    @Test
+    void rejectsInvalidQueries() {
+        assertThatThrownBy(() -> service.query("sort", null, null, false, false))
+                .isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> service.query("head", 1001, null, false, false))
+                .isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> service.query("head", -1, null, false, false))
+                .isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> service.query("grep", null, "", false, false))
+                .isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> service.query("grep", null, "(", true, false))
+                .isInstanceOf(IllegalArgumentException.class);
+        assertThat(service.query(" Tail ", null, null, false, false).count()).isEqualTo(10);
+    }
+
+    private String run(String operation, Integer count, String pattern, boolean ignoreCase, String file)
+            throws IOException {
+        return write(service.query(operation, count, pattern, false, ignoreCase), file);
+    }
+
+    private String runRegex(String pattern, String file) throws IOException {
+        return write(service.query("grep", null, pattern, true, false), file);
+    }
+
+    private String write(S3LineQueryService.Query query, String file) throws IOException {
+        content = file.getBytes(StandardCharsets.UTF_8);
+        requested.clear();
+        opened.clear();
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        service.write(query, new S3FileService.S3ObjectInfo(content.length, "text/plain", ETAG, Instant.EPOCH), output);
+        return output.toString(StandardCharsets.UTF_8);
+    }
+
+    private static String expectedHead(String file, int count) {
+        int end = 0;
+        for (int lines = 0; lines < count && end < file.length(); lines++) {
+            int newline = file.indexOf('\n', end);
+            end = newline < 0 ? file.length() : newline + 1;
+        }
+        return file.substring(0, end);
+    }
+
+    private static String expectedTail(String file, int count) {
+        if (count == 0) {
+            return "";
+        }
+        int start = file.endsWith("\n") ? file.length() - 1 : file.length();
+        for (int lines = 0; lines < count; lines++) {
+            start = file.lastIndexOf('\n', start - 1);
+            if (start < 0) {
+                return file;
+            }
+        }
+        return file.substring(start + 1);
+    }
+
+    private static String expectedGrep(String file, String literal, int count) {
+        StringBuilder expected = new StringBuilder();
+        int matches = 0;
+        int start = 0;
+        while (start < file.length() && matches < count) {
+            int newline = file.indexOf('\n', start);
+            int end = newline < 0 ? file.length() : newline;
+            String line = file.substring(start, end);
+            if (line.substring(0, Math.min(line.length(), MAX_LINE_LENGTH)).contains(literal)) {
+                expected.append(line).append(newline < 0 ? "" : "\n");
+                matches++;
+            }
+            start = end + 1;
+        }
+        return expected.toString();
+    }
+
+    /**
+     * Stands in for the SDK's response stream, which aborts its connection rather than draining it. Reads return
+     * a few bytes at a time, as a network stream would.
+     */
+    private static final class AbortableInputStream extends ByteArrayInputStream implements Abortable {
+
+        private static final int MAX_READ = 3;
+
+        private boolean aborted;
+
+        AbortableInputStream(byte[] buffer, int offset, int length) {
+            super(buffer, offset, length);
+        }
+
+        @Override
+        public synchronized int read(byte[] buffer, int offset, int length) {
+            return super.read(buffer, offset, Math.min(length, MAX_READ));
+        }
+
+        @Override
+        public void abort() {
+            aborted = true;
+        }
+    }
+}
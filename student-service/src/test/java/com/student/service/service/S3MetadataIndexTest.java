@@ -0,0 +1,115 @@
+package com.student.service.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class S3MetadataIndexTest {
+
+    private static final String BUCKET = "jmz-bucket";
+    private static final Duration TTL = Duration.ofMinutes(1);
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private final AtomicInteger heads = new AtomicInteger();
+
+    @Test
+    void servesTheIndexedEntryWithinTheTtl() {
+        S3MetadataIndex index = index(true, 10);
+
+        S3FileService.S3ObjectInfo first = index.get(BUCKET, "a.txt", head("\"v1\""));
+        S3FileService.S3ObjectInfo second = index.get(BUCKET, "a.txt", head("\"v2\""));
+
+        assertThat(second).isSameAs(first);
+        assertThat(heads).hasValue(1);
+        assertThat(counter("s3.metadata.index.hits")).isEqualTo(1);
+        assertThat(counter("s3.metadata.index.misses")).isEqualTo(1);
+    }
+
+    @Test
+    void reloadsAnEntryOlderThanTheTtl() throws InterruptedException {
+        S3MetadataIndex index = new S3MetadataIndex(meterRegistry, true, Duration.ofMillis(50), 10);
+        index.get(BUCKET, "a.txt", head("\"v1\""));
+
+        Thread.sleep(100);
+
+        assertThat(index.get(BUCKET, "a.txt", head("\"v2\"")).eTag()).isEqualTo("\"v2\"");
+        assertThat(heads).hasValue(2);
+    }
+
+    @Test
+    void invalidatedEntryIsLoadedAgain() {
+        S3MetadataIndex index = index(true, 10);
+        index.get(BUCKET, "a.txt", head("\"v1\""));
+
+        index.invalidate(BUCKET, "a.txt");
+
+        assertThat(index.get(BUCKET, "a.txt", head("\"v2\"")).eTag()).isEqualTo("\"v2\"");
+        assertThat(entries()).isEqualTo(1);
+    }
+
+    @Test
+    void entriesFromResponsesAreIndexedOnlyWithAnETag() {
+        S3MetadataIndex index = index(true, 10);
+
+        index.put(BUCKET, "a.txt", info(null));
+        index.put(BUCKET, "b.txt", info("\"v1\""));
+
+        assertThat(entries()).isEqualTo(1);
+        assertThat(index.get(BUCKET, "b.txt", head("\"v2\"")).eTag()).isEqualTo("\"v1\"");
+        assertThat(heads).hasValue(0);
+    }
+
+    @Test
+    void leastRecentlyUsedEntryIsEvictedFirst() {
+        S3MetadataIndex index = index(true, 2);
+        index.put(BUCKET, "a.txt", info("\"a\""));
+        index.put(BUCKET, "b.txt", info("\"b\""));
+        index.get(BUCKET, "a.txt", head("\"a2\""));
+
+        index.put(BUCKET, "c.txt", info("\"c\""));
+
+        assertThat(entries()).isEqualTo(2);
+        assertThat(index.get(BUCKET, "a.txt", head("\"a2\"")).eTag()).isEqualTo("\"a\"");
+        assertThat(index.get(BUCKET, "b.txt", head("\"b2\"")).eTag()).isEqualTo("\"b2\"");
+    }
+
+    @Test
+    void disabledIndexAlwaysLoads() {
+        S3MetadataIndex index = index(false, 10);
+
+        index.get(BUCKET, "a.txt", head("\"v1\""));
+        index.get(BUCKET, "a.txt", head("\"v1\""));
+
+        assertThat(heads).hasValue(2);
+        assertThat(entries()).isZero();
+    }
+
+    private S3MetadataIndex index(boolean enabled, int maxEntries) {
+        return new S3MetadataIndex(meterRegistry, enabled, TTL, maxEntries);
+    }
+
+    private Supplier<S3FileService.S3ObjectInfo> head(String eTag) {
+        return () -> {
+            heads.incrementAndGet();
+            return info(eTag);
+        };
+    }
+
+    private double counter(String name) {
+        return meterRegistry.get(name).functionCounter().count();
+    }
+
+    private double entries() {
+        return meterRegistry.get("s3.metadata.index.entries").gauge().value();
+    }
+
+    private static S3FileService.S3ObjectInfo info(String eTag) {
+        return new S3FileService.S3ObjectInfo(26, "text/plain", eTag, Instant.now());
+    }
+}
@@ -0,0 +1,130 @@
+package com.student.service.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.util.unit.DataSize;
+import software.amazon.awssdk.http.SdkHttpMethod;
+import software.amazon.awssdk.http.SdkHttpRequest;
+import software.amazon.awssdk.services.s3.presigner.S3Presigner;
+import software.amazon.awssdk.services.s3.presigner.model.GetObjectPresignRequest;
+import software.amazon.awssdk.services.s3.presigner.model.PresignedGetObjectRequest;
+
+import java.net.URI;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class S3PresignedUrlsTest {
+
+    private static final Duration EXPIRY = Duration.ofHours(1);
+    private static final Duration REFRESH_BEFORE = Duration.ofMinutes(5);
+
+    private final S3Presigner s3Presigner = mock(S3Presigner.class);
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+    @Test
+    void redirectsOnlyObjectsFromTheThresholdUp() {
+        S3PresignedUrls enabled = presignedUrls(true);
+        assertThat(enabled.shouldRedirect(info(99))).isFalse();
+        assertThat(enabled.shouldRedirect(info(100))).isTrue();
+
+        S3PresignedUrls disabled = presignedUrls(false);
+        assertThat(disabled.shouldRedirect(info(1_000_000))).isFalse();
+    }
+
+    @Test
+    void signsAnAttachmentDownloadOfTheFile() {
+        signingExpiringIn(EXPIRY);
+
+        presignedUrls(true).downloadUrl("report.pdf");
+
+        ArgumentCaptor<GetObjectPresignRequest> request = ArgumentCaptor.forClass(GetObjectPresignRequest.class);
+        verify(s3Presigner).presignGetObject(request.capture());
+        assertThat(request.getValue().signatureDuration()).isEqualTo(EXPIRY);
+        assertThat(request.getValue().getObjectRequest().bucket()).isEqualTo("jmz-bucket");
+        assertThat(request.getValue().getObjectRequest().key()).isEqualTo("files/report.pdf");
+        assertThat(request.getValue().getObjectRequest().responseContentDisposition())
+                .isEqualTo("attachment; filename=\"report.pdf\"");
+    }
+
+    @Test
+    void reusesTheUrlUntilRefreshBeforeItsExpiry() {
+        signingExpiringIn(EXPIRY);
+        S3PresignedUrls presignedUrls = presignedUrls(true);
+
+        URI first = presignedUrls.downloadUrl("report.pdf");
+        URI second = presignedUrls.downloadUrl("report.pdf");
+
+        assertThat(second).isEqualTo(first);
+        verify(s3Presigner, times(1)).presignGetObject(any(GetObjectPresignRequest.class));
+        assertThat(urls("signed")).isEqualTo(1);
+        assertThat(urls("reused")).isEqualTo(1);
+    }
+
+    @Test
+    void resignsOnceTheUrlIsWithinRefreshBeforeOfExpiring() {
+        // Left with less than refresh-before, so a client might not get to follow it in time
+        signingExpiringIn(REFRESH_BEFORE.minusSeconds(1));
+        S3PresignedUrls presignedUrls = presignedUrls(true);
+
+        URI first = presignedUrls.downloadUrl("report.pdf");
+        URI second = presignedUrls.downloadUrl("report.pdf");
+
+        assertThat(second).isNotEqualTo(first);
+        verify(s3Presigner, times(2)).presignGetObject(any(GetObjectPresignRequest.class));
+        assertThat(urls("signed")).isEqualTo(2);
+        assertThat(urls("reused")).isZero();
+    }
+
+    @Test
+    void refreshBeforeMustBeShorterThanExpiry() {
+        assertThatThrownBy(() -> new S3PresignedUrls(s3Presigner, meterRegistry, "jmz-bucket", "files/report.pdf",
+                true, DataSize.ofBytes(100), EXPIRY, EXPIRY))
+                .isInstanceOf(IllegalArgumentException.class);
+    }
+
+    private S3PresignedUrls presignedUrls(boolean enabled) {
+        return new S3PresignedUrls(s3Presigner, meterRegistry, "jmz-bucket", "files/report.pdf",
+                enabled, DataSize.ofBytes(100), EXPIRY, REFRESH_BEFORE);
+    }
+
+    /**
+     * Answers every signing with a distinct URL that expires {@code remaining} from now.
+     */
+    @SuppressWarnings("unchecked")
+    private void signingExpiringIn(Duration remaining) {
+        AtomicInteger signatures = new AtomicInteger();
+        when(s3Presigner.presignGetObject(any(Consumer.class))).thenCallRealMethod();
+        when(s3Presigner.presignGetObject(any(GetObjectPresignRequest.class))).thenAnswer(invocation ->
+                PresignedGetObjectRequest.builder()
+                        .expiration(Instant.now().plus(remaining))
+                        .isBrowserExecutable(true)
+                        .signedHeaders(Map.of("host", List.of("localhost")))
+                        .httpRequest(SdkHttpRequest.builder()
+                                .method(SdkHttpMethod.GET)
+                                .uri(URI.create("http://localhost:9000/jmz-bucket/files/report.pdf?X-Amz-Signature="
+                                        + signatures.incrementAndGet()))
+                                .build())
+                        .build());
+    }
+
+    private double urls(String result) {
+        return meterRegistry.get("s3.presigned.urls").tag("result", result).functionCounter().count();
+    }
+
+    private static S3FileService.S3ObjectInfo info(long contentLength) {
+        return new S3FileService.S3ObjectInfo(contentLength, "application/pdf", "\"v1\"", Instant.now());
+    }
+}
@@ -0,0 +1,234 @@
+package com.student.service.service;
+
+import com.student.common.transfer.IoThreads;
+import com.student.common.transfer.MemoryBudget;
+import com.student.common.transfer.MemoryBudgetExceededException;
+import com.student.service.exception.FileUploadException;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.util.unit.DataSize;
+import software.amazon.awssdk.awscore.exception.AwsErrorDetails;
+import software.amazon.awssdk.core.sync.RequestBody;
+import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.s3.model.AbortMultipartUploadRequest;
+import software.amazon.awssdk.services.s3.model.CompleteMultipartUploadRequest;
+import software.amazon.awssdk.services.s3.model.CompleteMultipartUploadResponse;
+import software.amazon.awssdk.services.s3.model.CreateMultipartUploadRequest;
+import software.amazon.awssdk.services.s3.model.CreateMultipartUploadResponse;
+import software.amazon.awssdk.services.s3.model.PutObjectRequest;
+import software.amazon.awssdk.services.s3.model.PutObjectResponse;
+import software.amazon.awssdk.services.s3.model.S3Exception;
+import software.amazon.awssdk.services.s3.model.UploadPartRequest;
+import software.amazon.awssdk.services.s3.model.UploadPartResponse;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.time.Duration;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class S3UploadServiceTest {
+
+    private static final String BUCKET = "jmz-bucket";
+    private static final int PART_SIZE = 16;
+
+    private final S3Client s3Client = mock(S3Client.class);
+    private final S3MetadataIndex metadataIndex = mock(S3MetadataIndex.class);
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    // Room for exactly one upload's two parts in flight
+    private final MemoryBudget memoryBudget = new MemoryBudget(PART_SIZE * 2, PART_SIZE, 1,
+            Duration.ofMillis(100), Duration.ofSeconds(3), meterRegistry);
+    private final S3UploadService service = new S3UploadService(s3Client,
+            new S3RequestMetrics(meterRegistry), metadataIndex, new IoThreads(false), memoryBudget, BUCKET, "uploads/",
+            DataSize.ofBytes(PART_SIZE), 2, 2);
+
+    @AfterEach
+    void shutdown() {
+        service.shutdown();
+    }
+
+    @Test
+    void smallBodyIsOnePutObject() {
+        when(s3Client.putObject(any(PutObjectRequest.class), any(RequestBody.class)))
+                .thenReturn(PutObjectResponse.builder().eTag("\"small\"").build());
+
+        S3UploadService.UploadResult result = service.upload("uploads/small.txt", "text/plain", 10, body(10));
+
+        assertThat(result).isEqualTo(new S3UploadService.UploadResult("uploads/small.txt", "\"small\"", 10, 1));
+        verify(s3Client, never()).createMultipartUpload(any(CreateMultipartUploadRequest.class));
+        verify(metadataIndex).invalidate(BUCKET, "uploads/small.txt");
+        assertThat(budgetUsed()).isZero();
+    }
+
+    @Test
+    void largeBodyIsSentInParts() {
+        startMultipart();
+        when(s3Client.uploadPart(any(UploadPartRequest.class), any(RequestBody.class)))
+                .thenAnswer(invocation -> UploadPartResponse.builder()
+                        .eTag("\"part-" + invocation.<UploadPartRequest>getArgument(0).partNumber() + "\"").build());
+        when(s3Client.completeMultipartUpload(any(CompleteMultipartUploadRequest.class)))
+                .thenReturn(CompleteMultipartUploadResponse.builder().eTag("\"large-3\"").build());
+
+        S3UploadService.UploadResult result = service.upload("uploads/large.bin", "application/octet-stream",
+                PART_SIZE * 2 + 5, body(PART_SIZE * 2 + 5));
+
+        assertThat(result).isEqualTo(new S3UploadService.UploadResult("uploads/large.bin", "\"large-3\"", 37, 3));
+        ArgumentCaptor<CompleteMultipartUploadRequest> complete = ArgumentCaptor.forClass(CompleteMultipartUploadRequest.class);
+        verify(s3Client).completeMultipartUpload(complete.capture());
+        assertThat(complete.getValue().multipartUpload().parts())
+                .extracting(part -> part.partNumber() + "=" + part.eTag())
+                .containsExactly("1=\"part-1\"", "2=\"part-2\"", "3=\"part-3\"");
+        verify(s3Client, never()).abortMultipartUpload(any(AbortMultipartUploadRequest.class));
+        assertThat(budgetUsed()).isZero();
+    }
+
+    @Test
+    void bodyOfWholePartsEndsWithoutAnEmptyPart() {
+        startMultipart();
+        when(s3Client.uploadPart(any(UploadPartRequest.class), any(RequestBody.class)))
+                .thenReturn(UploadPartResponse.builder().eTag("\"part\"").build());
+        when(s3Client.completeMultipartUpload(any(CompleteMultipartUploadRequest.class)))
+                .thenReturn(CompleteMultipartUploadResponse.builder().eTag("\"whole\"").build());
+
+        S3UploadService.UploadResult result = service.upload("uploads/whole.bin", null, -1, body(PART_SIZE * 2));
+
+        assertThat(result.parts()).isEqualTo(2);
+        assertThat(result.size()).isEqualTo(PART_SIZE * 2);
+        verify(s3Client, times(2)).uploadPart(any(UploadPartRequest.class), any(RequestBody.class));
+    }
+
+    @Test
+    void failedPartAbortsTheUpload() {
+        startMultipart();
+        when(s3Client.uploadPart(any(UploadPartRequest.class), any(RequestBody.class))).thenAnswer(invocation -> {
+            if (invocation.<UploadPartRequest>getArgument(0).partNumber() == 2) {
+                throw S3Exception.builder().statusCode(500)
+                        .awsErrorDetails(AwsErrorDetails.builder().errorMessage("InternalError").build()).build();
+            }
+            return UploadPartResponse.builder().eTag("\"part\"").build();
+        });
+
+        assertThatThrownBy(() -> service.upload("uploads/large.bin", null, -1, body(PART_SIZE * 5)))
+                .isInstanceOf(FileUploadException.class)
+                .hasMessageContaining("InternalError");
+
+        assertAborted();
+        verify(s3Client, never()).completeMultipartUpload(any(CompleteMultipartUploadRequest.class));
+    }
+
+    @Test
+    void clientDisconnectAbortsTheUpload() {
+        startMultipart();
+        when(s3Client.uploadPart(any(UploadPartRequest.class), any(RequestBody.class)))
+                .thenReturn(UploadPartResponse.builder().eTag("\"part\"").build());
+        InputStream disconnecting = new SequenceInputStream(body(PART_SIZE * 2), new InputStream() {
+            @Override
+            public int read() throws IOException {
+                throw new IOException("Connection reset by peer");
+            }
+        });
+
+        assertThatThrownBy(() -> service.upload("uploads/large.bin", null, -1, disconnecting))
+                .isInstanceOf(FileUploadException.class);
+
+        assertAborted();
+        verify(s3Client, never()).completeMultipartUpload(any(CompleteMultipartUploadRequest.class));
+    }
+
+    @Test
+    void failedCompletionAbortsTheUpload() {
+        startMultipart();
+        when(s3Client.uploadPart(any(UploadPartRequest.class), any(RequestBody.class)))
+                .thenReturn(UploadPartResponse.builder().eTag("\"part\"").build());
+        when(s3Client.completeMultipartUpload(any(CompleteMultipartUploadRequest.class)))
+                .thenThrow(S3Exception.builder().statusCode(400)
+                        .awsErrorDetails(AwsErrorDetails.builder().errorMessage("InvalidPart").build()).build());
+
+        assertThatThrownBy(() -> service.upload("uploads/large.bin", null, -1, body(PART_SIZE + 1)))
+                .isInstanceOf(FileUploadException.class)
+                .hasMessageContaining("InvalidPart");
+
+        assertAborted();
+    }
+
+    @Test
+    void uploadThatDoesNotFitTheBudgetIsRejectedBeforeStarting() throws IOException {
+        assertThat(memoryBudget.tryReserve(1)).isTrue();
+        InputStream body = body(PART_SIZE * 3);
+
+        assertThatThrownBy(() -> service.upload("uploads/large.bin", null, -1, body))
+                .isInstanceOfSatisfying(MemoryBudgetExceededException.class,
+                        e -> assertThat(e.getRetryAfter()).isEqualTo(Duration.ofSeconds(3)));
+
+        verify(s3Client, never()).createMultipartUpload(any(CreateMultipartUploadRequest.class));
+        assertThat(body.available()).as("body left unread").isEqualTo(PART_SIZE * 3);
+        assertThat(budgetUsed()).isEqualTo(1);
+    }
+
+    @Test
+    void knownSmallBodyReservesOnlyItsLength() {
+        assertThat(memoryBudget.tryReserve(PART_SIZE * 2 - 10)).isTrue();
+        when(s3Client.putObject(any(PutObjectRequest.class), any(RequestBody.class)))
+                .thenReturn(PutObjectResponse.builder().eTag("\"small\"").build());
+
+        assertThat(service.upload("uploads/small.txt", null, 10, body(10)).size()).isEqualTo(10);
+        assertThatThrownBy(() -> service.upload("uploads/small.txt", null, -1, body(10)))
+                .isInstanceOf(MemoryBudgetExceededException.class);
+        assertThat(budgetUsed()).isEqualTo(PART_SIZE * 2 - 10);
+    }
+
+    @Test
+    void shortBodyOfKnownLengthIsNotStored() {
+        assertThatThrownBy(() -> service.upload("uploads/small.txt", null, 10, body(4)))
+                .isInstanceOf(FileUploadException.class);
+
+        verify(s3Client, never()).putObject(any(PutObjectRequest.class), any(RequestBody.class));
+        assertThat(budgetUsed()).isZero();
+    }
+
+    @Test
+    void rejectsKeysOutsideThePrefix() {
+        for (String key : new String[] {"other/file.txt", "uploads/../secret", "uploads/dir/", null}) {
+            assertThatThrownBy(() -> service.upload(key, null, 1, body(1)))
+                    .isInstanceOf(IllegalArgumentException.class);
+        }
+        verify(s3Client, never()).putObject(any(PutObjectRequest.class), any(RequestBody.class));
+    }
+
+    private void startMultipart() {
+        when(s3Client.createMultipartUpload(any(CreateMultipartUploadRequest.class)))
+                .thenReturn(CreateMultipartUploadResponse.builder().uploadId("upload-1").build());
+    }
+
+    private void assertAborted() {
+        ArgumentCaptor<AbortMultipartUploadRequest> abort = ArgumentCaptor.forClass(AbortMultipartUploadRequest.class);
+        verify(s3Client).abortMultipartUpload(abort.capture());
+        assertThat(abort.getValue().uploadId()).isEqualTo("upload-1");
+        assertThat(abort.getValue().key()).isEqualTo("uploads/large.bin");
+        verify(metadataIndex, never()).invalidate(any(), any());
+        assertThat(budgetUsed()).isZero();
+    }
+
+    private double budgetUsed() {
+        return meterRegistry.get("memory.budget.used").gauge().value();
+    }
+
+    private static InputStream body(int length) {
+        byte[] data = new byte[length];
+        for (int i = 0; i < length; i++) {
+            data[i] = (byte) i;
+        }
+        return new ByteArrayInputStream(data);
+    }
+}
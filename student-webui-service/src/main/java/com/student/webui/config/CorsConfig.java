@@ -14,7 +14,7 @@ public class CorsConfig implements WebMvcConfigurer {
                 .allowedMethods("GET", "POST", "PUT", "DELETE", "OPTIONS")
                 .allowedHeaders("*")
                 .allowCredentials(true)
-                .exposedHeaders("Content-Disposition")
+                .exposedHeaders("Content-Disposition", "Content-Length", "Content-Range", "Accept-Ranges")
                 .maxAge(3600);
     }
 }
@@ -1,15 +1,10 @@
 package com.student.webui.config;
 
-import org.apache.hc.client5.http.config.RequestConfig;
-import org.apache.hc.client5.http.impl.classic.CloseableHttpClient;
-import org.apache.hc.client5.http.impl.classic.HttpClients;
-import org.apache.hc.client5.http.impl.io.PoolingHttpClientConnectionManager;
-import org.apache.hc.core5.util.Timeout;
 import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
-import org.springframework.http.client.HttpComponentsClientHttpRequestFactory;
+import org.springframework.http.client.ClientHttpRequestFactory;
 import org.springframework.web.client.RestClient;
 
 @Configuration
@@ -18,26 +13,15 @@ public class RestClientConfig {
     @Value("${student.service.url}")
     private String studentServiceUrl;
 
+    /**
+     * Uses the shared {@code studentServiceRequestFactory} from student-common-config, so streaming and
+     * buffered downloads draw on the same pool (or HTTP/2 connection); see {@code student.service.client.*}.
+     */
     @Bean
     @Qualifier("streamingRestClient")
-    public RestClient streamingRestClient() {
-        PoolingHttpClientConnectionManager connectionManager = new PoolingHttpClientConnectionManager();
-        connectionManager.setMaxTotal(50);
-        connectionManager.setDefaultMaxPerRoute(20);
-
-        RequestConfig requestConfig = RequestConfig.custom()
-                .setResponseTimeout(Timeout.ofMinutes(10))
-                .build();
-
-        CloseableHttpClient httpClient = HttpClients.custom()
-                .setConnectionManager(connectionManager)
-                .setDefaultRequestConfig(requestConfig)
-                .build();
-
-        HttpComponentsClientHttpRequestFactory requestFactory =
-                new HttpComponentsClientHttpRequestFactory(httpClient);
-
-        return RestClient.builder()
+    public RestClient streamingRestClient(RestClient.Builder builder,
+                                          @Qualifier("studentServiceRequestFactory") ClientHttpRequestFactory requestFactory) {
+        return builder
                 .baseUrl(studentServiceUrl)
                 .requestFactory(requestFactory)
                 .build();
@@ -0,0 +1,67 @@
+package com.student.webui.controller;
+
+import com.student.common.http.ConcurrencyLimitExceededException;
+import com.student.common.transfer.StreamRelay;
+import com.student.webui.service.FileGatewayService;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+import java.io.InputStream;
+import java.util.List;
+
+import static com.student.webui.controller.FileGatewayController.STREAMING_HEADERS;
+
+@Slf4j
+@RestController
+@RequestMapping("/api/files")
+@RequiredArgsConstructor
+public class BundleGatewayController {
+
+    private final FileGatewayService fileGatewayService;
+    private final StreamRelay streamRelay;
+
+    @GetMapping(value = "/bundle")
+    public ResponseEntity<StreamingResponseBody> downloadBundle(
+            @RequestParam(value = "key", required = false) List<String> keys,
+            @RequestParam(value = "prefix", required = false) String prefix) {
+        log.info("Gateway: Received bundle request from client, keys={}, prefix={}", keys, prefix);
+
+        try {
+            FileGatewayService.StreamingFile streamingFile = fileGatewayService.downloadBundle(keys, prefix);
+            InputStream inputStream = streamingFile.inputStream();
+            HttpHeaders upstreamHeaders = streamingFile.upstreamHeaders();
+
+            HttpHeaders headers = new HttpHeaders();
+            for (String name : STREAMING_HEADERS) {
+                String value = upstreamHeaders.getFirst(name);
+                if (value != null) {
+                    headers.set(name, value);
+                }
+            }
+
+            StreamingResponseBody responseBody = outputStream -> {
+                try (inputStream) {
+                    streamRelay.relay(inputStream, outputStream);
+                    log.info("Gateway: Bundle streaming completed");
+                }
+            };
+
+            return ResponseEntity.status(streamingFile.statusCode())
+                    .headers(headers)
+                    .body(responseBody);
+
+        } catch (ConcurrencyLimitExceededException e) {
+            throw e;
+        } catch (Exception e) {
+            log.error("Gateway: Error initiating bundle download", e);
+            throw new RuntimeException("Failed to download bundle", e);
+        }
+    }
+}
@@ -0,0 +1,193 @@
+package com.student.webui.controller;
+
+import com.student.common.http.ConcurrencyLimitExceededException;
+import com.student.common.transfer.MemoryBudget;
+import com.student.common.transfer.MemoryBudgetExceededException;
+import com.student.common.transfer.StreamRelay;
+import com.student.webui.service.FileGatewayService;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.core.io.InputStreamResource;
+import org.springframework.core.io.Resource;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+import static com.student.webui.controller.FileGatewayController.STREAMING_HEADERS;
+
+@Slf4j
+@RestController
+@RequestMapping("/api/files")
+@RequiredArgsConstructor
+public class BytesGatewayController {
+
+    private final FileGatewayService fileGatewayService;
+    private final MemoryBudget memoryBudget;
+    private final StreamRelay streamRelay;
+
+    /**
+     * Buffers the upstream body in a byte[] when the {@link MemoryBudget} admits its {@code Content-Length};
+     * larger bodies are relayed straight to the response, and an exhausted budget yields 503. The size is
+     * probed with a HEAD first, so bodies that would be streamed anyway are fetched from the streaming endpoint.
+     * Either way the body is written here, on the request thread, so the reservation is held until it is sent.
+     * A redirect to a presigned storage URL is passed on like the streaming download does.
+     */
+    @GetMapping(value = "/download-bytes")
+    public void downloadFileAsBytes(HttpServletRequest request, HttpServletResponse response) {
+        log.info("Gateway: Received byte[] download request from client");
+
+        try {
+            FileGatewayService.StreamingFile upstream = openBufferedDownload();
+            if (upstream.statusCode().is3xxRedirection()) {
+                relayRedirect(upstream, response);
+                return;
+            }
+            if (admit(request, upstream) == MemoryBudget.Admission.STREAM) {
+                relayUnbuffered(upstream, response);
+                return;
+            }
+
+            FileGatewayService.BytesFile bytesFile = fileGatewayService.readAllBytes(upstream);
+            byte[] fileData = bytesFile.data();
+            HttpHeaders upstreamHeaders = bytesFile.upstreamHeaders();
+
+            log.info("Gateway: Returning file as byte[], size={} bytes", fileData.length);
+
+            if (upstreamHeaders.getContentType() != null) {
+                response.setContentType(upstreamHeaders.getContentType().toString());
+            }
+            String contentDisposition = upstreamHeaders.getFirst(HttpHeaders.CONTENT_DISPOSITION);
+            if (contentDisposition != null) {
+                response.setHeader(HttpHeaders.CONTENT_DISPOSITION, contentDisposition);
+            }
+            response.setContentLength(fileData.length);
+            response.getOutputStream().write(fileData);
+
+        } catch (MemoryBudgetExceededException | ConcurrencyLimitExceededException e) {
+            throw e;
+        } catch (Exception e) {
+            log.error("Gateway: Error downloading file as byte[]", e);
+            throw new RuntimeException("Failed to download file as byte[]", e);
+        }
+    }
+
+    @GetMapping(value = "/download-resource")
+    public ResponseEntity<Resource> downloadFileAsResource() {
+        log.info("Gateway: Received Resource download request from client");
+
+        try {
+            FileGatewayService.FileResource fileResource = fileGatewayService.downloadFileAsResource();
+            Resource resource = fileResource.resource();
+            HttpHeaders upstreamHeaders = fileResource.upstreamHeaders();
+
+            HttpHeaders headers = new HttpHeaders();
+            headers.setContentType(upstreamHeaders.getContentType());
+            headers.set(HttpHeaders.CONTENT_DISPOSITION,
+                    upstreamHeaders.getFirst(HttpHeaders.CONTENT_DISPOSITION));
+
+            log.info("Gateway: Returning file as Resource");
+
+            return ResponseEntity.ok()
+                    .headers(headers)
+                    .body(resource);
+
+        } catch (MemoryBudgetExceededException | ConcurrencyLimitExceededException e) {
+            throw e;
+        } catch (Exception e) {
+            log.error("Gateway: Error downloading file as Resource", e);
+            throw new RuntimeException("Failed to download file as Resource", e);
+        }
+    }
+
+    @GetMapping(value = "/download-byte-array-resource")
+    public ResponseEntity<Resource> downloadFileAsByteArrayResource(HttpServletRequest request) {
+        log.info("Gateway: Received ByteArrayResource download request from client");
+
+        try {
+            FileGatewayService.StreamingFile upstream = openBufferedDownload();
+            if (upstream.statusCode().is3xxRedirection()) {
+                upstream.inputStream().close();
+                log.info("Gateway: student-service redirected the download to storage, passing it on");
+                return FileGatewayController.redirect(upstream.statusCode(), upstream.upstreamHeaders());
+            }
+            FileGatewayService.FileResource fileResource = admit(request, upstream) == MemoryBudget.Admission.STREAM
+                    ? new FileGatewayService.FileResource(new InputStreamResource(upstream.inputStream()), upstream.upstreamHeaders())
+                    : fileGatewayService.toByteArrayResource(fileGatewayService.readAllBytes(upstream));
+            Resource resource = fileResource.resource();
+            HttpHeaders upstreamHeaders = fileResource.upstreamHeaders();
+
+            HttpHeaders headers = new HttpHeaders();
+            headers.setContentType(upstreamHeaders.getContentType());
+            headers.set(HttpHeaders.CONTENT_DISPOSITION,
+                    upstreamHeaders.getFirst(HttpHeaders.CONTENT_DISPOSITION));
+
+            log.info("Gateway: Returning file as ByteArrayResource");
+
+            return ResponseEntity.ok()
+                    .headers(headers)
+                    .body(resource);
+
+        } catch (MemoryBudgetExceededException | ConcurrencyLimitExceededException e) {
+            throw e;
+        } catch (Exception e) {
+            log.error("Gateway: Error downloading file as ByteArrayResource", e);
+            throw new RuntimeException("Failed to download file as ByteArrayResource", e);
+        }
+    }
+
+    /**
+     * Opens the upstream for a byte[] endpoint: the byte[] download when the probed size may be buffered,
+     * otherwise the streaming download, whose size the memory budget will again send down the streaming path.
+     * A file student-service redirects to storage has no length on the HEAD, so it takes the streaming download,
+     * which answers with the redirect.
+     */
+    private FileGatewayService.StreamingFile openBufferedDownload() {
+        long contentLength = fileGatewayService.headFile(null).getContentLength();
+        if (memoryBudget.isStreamed(contentLength)) {
+            log.info("Gateway: {} bytes will not be buffered, fetching from the streaming endpoint", contentLength);
+            return fileGatewayService.downloadFile(null, null, FileGatewayService.Conditions.NONE, null, null);
+        }
+        return fileGatewayService.openBytesDownload();
+    }
+
+    private MemoryBudget.Admission admit(HttpServletRequest request, FileGatewayService.StreamingFile upstream) throws IOException {
+        try {
+            return memoryBudget.admit(request, upstream.upstreamHeaders().getContentLength());
+        } catch (MemoryBudgetExceededException e) {
+            upstream.inputStream().close();
+            throw e;
+        }
+    }
+
+    private void relayRedirect(FileGatewayService.StreamingFile upstream, HttpServletResponse response) throws IOException {
+        upstream.inputStream().close();
+        log.info("Gateway: student-service redirected the download to storage, passing it on");
+
+        HttpHeaders headers = FileGatewayController.redirect(upstream.statusCode(), upstream.upstreamHeaders()).getHeaders();
+        response.setStatus(upstream.statusCode().value());
+        headers.forEach((name, values) -> values.forEach(value -> response.addHeader(name, value)));
+    }
+
+    private void relayUnbuffered(FileGatewayService.StreamingFile upstream, HttpServletResponse response) throws IOException {
+        HttpHeaders upstreamHeaders = upstream.upstreamHeaders();
+        log.info("Gateway: Relaying byte[] request without buffering, size={} bytes", upstreamHeaders.getContentLength());
+
+        for (String name : STREAMING_HEADERS) {
+            String value = upstreamHeaders.getFirst(name);
+            if (value != null) {
+                response.setHeader(name, value);
+            }
+        }
+
+        try (InputStream inputStream = upstream.inputStream()) {
+            streamRelay.relay(inputStream, response.getOutputStream());
+        }
+    }
+}
@@ -1,20 +1,29 @@
 package com.student.webui.controller;
 
+import com.student.common.http.ConcurrencyLimitExceededException;
+import com.student.common.http.ConditionalRequests;
+import com.student.common.transfer.StreamRelay;
 import com.student.webui.service.FileGatewayService;
+import com.student.webui.service.UpstreamValidators;
+import jakarta.servlet.http.HttpServletRequest;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.HttpStatusCode;
 import org.springframework.http.ResponseEntity;
-import org.springframework.web.bind.annotation.ExceptionHandler;
 import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestHeader;
 import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestMethod;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
 import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
-import org.springframework.core.io.Resource;
-
 import java.io.InputStream;
+import java.time.Instant;
+import java.util.List;
+import java.util.Optional;
 
 @Slf4j
 @RestController
@@ -23,130 +32,178 @@ import java.io.InputStream;
 public class FileGatewayController {
 
     private final FileGatewayService fileGatewayService;
+    private final StreamRelay streamRelay;
+    private final UpstreamValidators upstreamValidators;
+
+    static final List<String> STREAMING_HEADERS = List.of(
+            HttpHeaders.CONTENT_TYPE,
+            HttpHeaders.CONTENT_DISPOSITION,
+            HttpHeaders.CONTENT_LENGTH,
+            HttpHeaders.CONTENT_RANGE,
+            HttpHeaders.CONTENT_ENCODING,
+            HttpHeaders.ACCEPT_RANGES,
+            HttpHeaders.ETAG,
+            HttpHeaders.LAST_MODIFIED);
+
+    private static final List<String> METADATA_HEADERS = List.of(
+            HttpHeaders.CONTENT_TYPE,
+            HttpHeaders.CONTENT_DISPOSITION,
+            HttpHeaders.CONTENT_LENGTH,
+            HttpHeaders.CONTENT_ENCODING,
+            HttpHeaders.ACCEPT_RANGES,
+            HttpHeaders.ETAG,
+            HttpHeaders.LAST_MODIFIED);
 
     @GetMapping(value = "/download")
-    public ResponseEntity<StreamingResponseBody> downloadFile() {
-        log.info("Gateway: Received download request from client");
+    public ResponseEntity<StreamingResponseBody> downloadFile(
+            @RequestHeader(value = HttpHeaders.RANGE, required = false) String range,
+            @RequestHeader(value = HttpHeaders.IF_RANGE, required = false) String ifRange,
+            @RequestParam(value = "mode", required = false) String mode,
+            HttpServletRequest request) {
+        log.info("Gateway: Received download request from client, range={}, mode={}", range, mode);
 
         try {
-            FileGatewayService.StreamingFile streamingFile = fileGatewayService.downloadFile();
+            ResponseEntity<StreamingResponseBody> notModified = answerNotModified(request);
+            if (notModified != null) {
+                return notModified;
+            }
+
+            FileGatewayService.Conditions conditions = new FileGatewayService.Conditions(
+                    request.getHeader(HttpHeaders.IF_NONE_MATCH), request.getHeader(HttpHeaders.IF_MODIFIED_SINCE));
+            FileGatewayService.StreamingFile streamingFile = fileGatewayService.downloadFile(
+                    range, ifRange, conditions, mode, request.getHeader(HttpHeaders.ACCEPT_ENCODING));
             InputStream inputStream = streamingFile.inputStream();
             HttpHeaders upstreamHeaders = streamingFile.upstreamHeaders();
 
+            // A body whose validators match the client's (the object changed back mid-flight) is not sent either
+            if (streamingFile.statusCode().value() == HttpStatus.NOT_MODIFIED.value()
+                    || ConditionalRequests.isNotModified(request, upstreamHeaders.getETag(), lastModified(upstreamHeaders))) {
+                inputStream.close();
+                upstreamValidators.recordNotModified(false);
+                log.info("Gateway: student-service answered 304, eTag={}", upstreamHeaders.getETag());
+                return ConditionalRequests.notModified(upstreamHeaders.getETag(), lastModified(upstreamHeaders));
+            }
+
+            if (streamingFile.statusCode().is3xxRedirection()) {
+                inputStream.close();
+                log.info("Gateway: student-service redirected the download to storage, passing it on");
+                return redirect(streamingFile.statusCode(), upstreamHeaders);
+            }
+
             HttpHeaders headers = new HttpHeaders();
-            headers.setContentType(upstreamHeaders.getContentType());
-            headers.set(HttpHeaders.CONTENT_DISPOSITION,
-                    upstreamHeaders.getFirst(HttpHeaders.CONTENT_DISPOSITION));
+            for (String name : STREAMING_HEADERS) {
+                String value = upstreamHeaders.getFirst(name);
+                if (value != null) {
+                    headers.set(name, value);
+                }
+            }
+            relayVary(upstreamHeaders, headers);
 
-            log.info("Gateway: Streaming file to client");
+            log.info("Gateway: Streaming file to client, status={}", streamingFile.statusCode());
 
             StreamingResponseBody responseBody = outputStream -> {
                 try (inputStream) {
-                    inputStream.transferTo(outputStream);
-                    outputStream.flush();
+                    streamRelay.relay(inputStream, outputStream);
                     log.info("Gateway: File streaming completed");
                 }
             };
 
-            return ResponseEntity.ok()
+            return ResponseEntity.status(streamingFile.statusCode())
                     .headers(headers)
                     .body(responseBody);
 
+        } catch (ConcurrencyLimitExceededException e) {
+            throw e;
         } catch (Exception e) {
             log.error("Gateway: Error initiating file download", e);
             throw new RuntimeException("Failed to download file", e);
         }
     }
 
-    @GetMapping(value = "/download-bytes")
-    public ResponseEntity<byte[]> downloadFileAsBytes() {
-        log.info("Gateway: Received byte[] download request from client");
+    @RequestMapping(value = "/download", method = RequestMethod.HEAD)
+    public ResponseEntity<Void> headFile(HttpServletRequest request) {
+        log.info("Gateway: Received HEAD request from client");
 
         try {
-            FileGatewayService.BytesFile bytesFile = fileGatewayService.downloadFileAsBytes();
-            byte[] fileData = bytesFile.data();
-            HttpHeaders upstreamHeaders = bytesFile.upstreamHeaders();
+            ResponseEntity<Void> notModified = answerNotModified(request);
+            if (notModified != null) {
+                return notModified;
+            }
 
-            HttpHeaders headers = new HttpHeaders();
-            headers.setContentType(upstreamHeaders.getContentType());
-            headers.set(HttpHeaders.CONTENT_DISPOSITION,
-                    upstreamHeaders.getFirst(HttpHeaders.CONTENT_DISPOSITION));
-
-            log.info("Gateway: Returning file as byte[], size={} bytes", fileData.length);
+            HttpHeaders upstreamHeaders = fileGatewayService.headFile(request.getHeader(HttpHeaders.ACCEPT_ENCODING));
+            if (ConditionalRequests.isNotModified(request, upstreamHeaders.getETag(), lastModified(upstreamHeaders))) {
+                upstreamValidators.recordNotModified(false);
+                return ConditionalRequests.notModified(upstreamHeaders.getETag(), lastModified(upstreamHeaders));
+            }
 
-            return ResponseEntity.ok()
-                    .headers(headers)
-                    .body(fileData);
-
-        } catch (Exception e) {
-            log.error("Gateway: Error downloading file as byte[]", e);
-            throw new RuntimeException("Failed to download file as byte[]", e);
-        }
-    }
-
-    @GetMapping(value = "/download-resource")
-    public ResponseEntity<Resource> downloadFileAsResource() {
-        log.info("Gateway: Received Resource download request from client");
-
-        try {
-            FileGatewayService.FileResource fileResource = fileGatewayService.downloadFileAsResource();
-            Resource resource = fileResource.resource();
-            HttpHeaders upstreamHeaders = fileResource.upstreamHeaders();
+            if (upstreamHeaders.getLocation() != null) {
+                return redirect(HttpStatus.FOUND, upstreamHeaders);
+            }
 
             HttpHeaders headers = new HttpHeaders();
-            headers.setContentType(upstreamHeaders.getContentType());
-            headers.set(HttpHeaders.CONTENT_DISPOSITION,
-                    upstreamHeaders.getFirst(HttpHeaders.CONTENT_DISPOSITION));
-
-            log.info("Gateway: Returning file as Resource");
+            for (String name : METADATA_HEADERS) {
+                String value = upstreamHeaders.getFirst(name);
+                if (value != null) {
+                    headers.set(name, value);
+                }
+            }
+            relayVary(upstreamHeaders, headers);
 
             return ResponseEntity.ok()
                     .headers(headers)
-                    .body(resource);
+                    .build();
 
+        } catch (ConcurrencyLimitExceededException e) {
+            throw e;
         } catch (Exception e) {
-            log.error("Gateway: Error downloading file as Resource", e);
-            throw new RuntimeException("Failed to download file as Resource", e);
+            log.error("Gateway: Error reading file metadata", e);
+            throw new RuntimeException("Failed to read file metadata", e);
         }
     }
 
-    @GetMapping(value = "/download-byte-array-resource")
-    public ResponseEntity<Resource> downloadFileAsByteArrayResource() {
-        log.info("Gateway: Received ByteArrayResource download request from client");
-
-        try {
-            FileGatewayService.FileResource fileResource = fileGatewayService.downloadFileAsByteArrayResource();
-            Resource resource = fileResource.resource();
-            HttpHeaders upstreamHeaders = fileResource.upstreamHeaders();
-
-            HttpHeaders headers = new HttpHeaders();
-            headers.setContentType(upstreamHeaders.getContentType());
-            headers.set(HttpHeaders.CONTENT_DISPOSITION,
-                    upstreamHeaders.getFirst(HttpHeaders.CONTENT_DISPOSITION));
-
-            log.info("Gateway: Returning file as ByteArrayResource");
-
-            return ResponseEntity.ok()
-                    .headers(headers)
-                    .body(resource);
+    /**
+     * Answers a conditional request with 304 from the validators student-service reported recently, without
+     * any upstream call. Returns {@code null} when the request has to go upstream.
+     */
+    private <T> ResponseEntity<T> answerNotModified(HttpServletRequest request) {
+        if (!ConditionalRequests.isConditional(request)) {
+            return null;
+        }
+        Optional<UpstreamValidators.Snapshot> validators = upstreamValidators.fresh();
+        if (validators.isEmpty()
+                || !ConditionalRequests.isNotModified(request, validators.get().eTag(), validators.get().lastModified())) {
+            return null;
+        }
+        upstreamValidators.recordNotModified(true);
+        log.info("Gateway: Client copy is current (eTag={}), answering 304", validators.get().eTag());
+        return ConditionalRequests.notModified(validators.get().eTag(), validators.get().lastModified());
+    }
 
-        } catch (Exception e) {
-            log.error("Gateway: Error downloading file as ByteArrayResource", e);
-            throw new RuntimeException("Failed to download file as ByteArrayResource", e);
+    /**
+     * Keeps {@code Vary: Accept-Encoding} from student-service, which only negotiates the encoding; its other
+     * {@code Vary} values concern its own CORS handling.
+     */
+    private static void relayVary(HttpHeaders upstreamHeaders, HttpHeaders headers) {
+        if (upstreamHeaders.getVary().contains(HttpHeaders.ACCEPT_ENCODING)) {
+            headers.setVary(List.of(HttpHeaders.ACCEPT_ENCODING));
         }
     }
 
-    @ExceptionHandler(RuntimeException.class)
-    public ResponseEntity<String> handleRuntimeException(RuntimeException ex) {
-        log.error("Gateway: Runtime exception: {}", ex.getMessage(), ex);
-        return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
-                .body("Error downloading file: " + ex.getMessage());
+    /**
+     * Relays student-service's redirect to a presigned storage URL, so the body bypasses both services.
+     */
+    static <T> ResponseEntity<T> redirect(HttpStatusCode status, HttpHeaders upstreamHeaders) {
+        HttpHeaders headers = new HttpHeaders();
+        headers.setLocation(upstreamHeaders.getLocation());
+        String cacheControl = upstreamHeaders.getCacheControl();
+        if (cacheControl != null) {
+            headers.setCacheControl(cacheControl);
+        }
+        return ResponseEntity.status(status).headers(headers).build();
     }
 
-    @ExceptionHandler(Exception.class)
-    public ResponseEntity<String> handleGeneralException(Exception ex) {
-        log.error("Gateway: Unexpected error: {}", ex.getMessage(), ex);
-        return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
-                .body("An unexpected error occurred");
+    private static Instant lastModified(HttpHeaders headers) {
+        long lastModified = headers.getLastModified();
+        return lastModified < 0 ? null : Instant.ofEpochMilli(lastModified);
     }
 }
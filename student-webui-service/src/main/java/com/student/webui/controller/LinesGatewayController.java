@@ -0,0 +1,73 @@
+package com.student.webui.controller;
+
+import com.student.common.http.ConcurrencyLimitExceededException;
+import com.student.common.transfer.StreamRelay;
+import com.student.webui.service.FileGatewayService;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+import java.io.InputStream;
+
+import static com.student.webui.controller.FileGatewayController.STREAMING_HEADERS;
+
+@Slf4j
+@RestController
+@RequestMapping("/api/files")
+@RequiredArgsConstructor
+public class LinesGatewayController {
+
+    private final FileGatewayService fileGatewayService;
+    private final StreamRelay streamRelay;
+
+    /**
+     * Relays a line query (head, tail or grep on the text file), streaming the lines as student-service finds them.
+     */
+    @GetMapping(value = "/lines")
+    public ResponseEntity<StreamingResponseBody> queryLines(
+            @RequestParam("op") String operation,
+            @RequestParam(value = "count", required = false) Integer count,
+            @RequestParam(value = "pattern", required = false) String pattern,
+            @RequestParam(value = "regex", required = false) Boolean regex,
+            @RequestParam(value = "ignore-case", required = false) Boolean ignoreCase) {
+        log.info("Gateway: Received line query from client, op={}, count={}, pattern={}", operation, count, pattern);
+
+        try {
+            FileGatewayService.StreamingFile streamingFile =
+                    fileGatewayService.queryLines(operation, count, pattern, regex, ignoreCase);
+            InputStream inputStream = streamingFile.inputStream();
+            HttpHeaders upstreamHeaders = streamingFile.upstreamHeaders();
+
+            HttpHeaders headers = new HttpHeaders();
+            for (String name : STREAMING_HEADERS) {
+                String value = upstreamHeaders.getFirst(name);
+                if (value != null) {
+                    headers.set(name, value);
+                }
+            }
+
+            StreamingResponseBody responseBody = outputStream -> {
+                try (inputStream) {
+                    streamRelay.relay(inputStream, outputStream);
+                    log.info("Gateway: Line query streaming completed");
+                }
+            };
+
+            return ResponseEntity.status(streamingFile.statusCode())
+                    .headers(headers)
+                    .body(responseBody);
+
+        } catch (ConcurrencyLimitExceededException e) {
+            throw e;
+        } catch (Exception e) {
+            log.error("Gateway: Error initiating line query", e);
+            throw new RuntimeException("Failed to query lines", e);
+        }
+    }
+}
@@ -0,0 +1,58 @@
+package com.student.webui.controller;
+
+import com.student.common.http.ConcurrencyLimitExceededException;
+import com.student.common.transfer.MemoryBudgetExceededException;
+import com.student.webui.service.FileGatewayService;
+import jakarta.servlet.http.HttpServletRequest;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.PutMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.util.List;
+
+@Slf4j
+@RestController
+@RequestMapping("/api/files")
+@RequiredArgsConstructor
+public class UploadGatewayController {
+
+    private final FileGatewayService fileGatewayService;
+
+    /**
+     * Relays an upload to student-service, streaming the body through as it arrives.
+     */
+    @PutMapping(value = "/upload")
+    public ResponseEntity<String> uploadFile(
+            @RequestParam("key") String key,
+            HttpServletRequest request) {
+        log.info("Gateway: Received upload request from client, key={}, contentLength={}", key, request.getContentLengthLong());
+
+        try {
+            FileGatewayService.UploadResponse upstream = fileGatewayService.uploadFile(
+                    key, request.getContentType(), request.getContentLengthLong(), request.getInputStream());
+
+            HttpHeaders headers = new HttpHeaders();
+            for (String name : List.of(HttpHeaders.CONTENT_TYPE, HttpHeaders.ETAG)) {
+                String value = upstream.upstreamHeaders().getFirst(name);
+                if (value != null) {
+                    headers.set(name, value);
+                }
+            }
+
+            return ResponseEntity.status(upstream.statusCode())
+                    .headers(headers)
+                    .body(upstream.body());
+
+        } catch (MemoryBudgetExceededException | ConcurrencyLimitExceededException e) {
+            throw e;
+        } catch (Exception e) {
+            log.error("Gateway: Error uploading file", e);
+            throw new RuntimeException("Failed to upload file", e);
+        }
+    }
+}
@@ -0,0 +1,327 @@
+package com.student.webui.service;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.util.unit.DataSize;
+
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Fixed-size blocks of upstream files, keyed by ETag and block index, held off-heap in direct buffers so that
+ * cached bytes add nothing to GC work. {@code block-cache.capacity} is divided into slots of
+ * {@code block-cache.block-size}, allocated once at startup (it counts against {@code -XX:MaxDirectMemorySize}).
+ * <p>
+ * Eviction follows W-TinyLFU: new blocks enter a small LRU window (1% of slots); when space is needed the
+ * window's oldest block is promoted into the main LRU only if a frequency sketch says it is accessed more often
+ * than the main region's oldest, otherwise it is dropped. A one-off scan therefore only churns the window.
+ * <p>
+ * Blocks are pinned while a reader copies from them and are never evicted while pinned.
+ */
+@Slf4j
+@Component
+public class BlockCache {
+
+    private static final int MAX_SEGMENT_BYTES = 1 << 30;
+
+    private final boolean enabled;
+    private final int blockSize;
+    private final int slotCount;
+    private final int slotsPerSegment;
+    private final ByteBuffer[] segments;
+    private final int windowCapacity;
+    private final int mainCapacity;
+
+    private final LinkedHashMap<BlockKey, Entry> window = new LinkedHashMap<>(16, 0.75f, true);
+    private final LinkedHashMap<BlockKey, Entry> main = new LinkedHashMap<>(16, 0.75f, true);
+    private final Map<BlockKey, Entry> filling = new HashMap<>();
+    private final int[] freeSlots;
+    private int freeCount;
+    private final FrequencySketch sketch;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+    private final AtomicLong rejections = new AtomicLong();
+
+    public BlockCache(
+            MeterRegistry meterRegistry,
+            @Value("${block-cache.enabled}") boolean enabled,
+            @Value("${block-cache.capacity}") DataSize capacity,
+            @Value("${block-cache.block-size}") DataSize blockSize) {
+        this.enabled = enabled;
+        this.blockSize = Math.toIntExact(blockSize.toBytes());
+        this.slotCount = enabled ? Math.toIntExact(capacity.toBytes() / this.blockSize) : 0;
+        this.slotsPerSegment = Math.max(1, MAX_SEGMENT_BYTES / this.blockSize);
+        this.windowCapacity = Math.max(1, slotCount / 100);
+        this.mainCapacity = Math.max(0, slotCount - windowCapacity);
+
+        int segmentCount = (slotCount + slotsPerSegment - 1) / slotsPerSegment;
+        this.segments = new ByteBuffer[segmentCount];
+        for (int i = 0; i < segmentCount; i++) {
+            int slots = Math.min(slotsPerSegment, slotCount - i * slotsPerSegment);
+            segments[i] = ByteBuffer.allocateDirect(slots * this.blockSize);
+        }
+        this.freeSlots = new int[slotCount];
+        for (int slot = slotCount - 1; slot >= 0; slot--) {
+            freeSlots[freeCount++] = slot;
+        }
+        this.sketch = new FrequencySketch(slotCount);
+
+        if (enabled) {
+            log.info("Gateway: Block cache ready: {} blocks of {} bytes off-heap", slotCount, this.blockSize);
+        }
+
+        FunctionCounter.builder("gateway.cache.blocks.hits", hits, AtomicLong::get).register(meterRegistry);
+        FunctionCounter.builder("gateway.cache.blocks.misses", misses, AtomicLong::get).register(meterRegistry);
+        FunctionCounter.builder("gateway.cache.blocks.evictions", evictions, AtomicLong::get).register(meterRegistry);
+        FunctionCounter.builder("gateway.cache.blocks.rejections", rejections, AtomicLong::get).register(meterRegistry);
+        Gauge.builder("gateway.cache.blocks.used", this, cache -> (double) cache.usedSlots() * cache.blockSize)
+                .baseUnit("bytes").register(meterRegistry);
+        Gauge.builder("gateway.cache.blocks.capacity", () -> (double) slotCount * this.blockSize)
+                .baseUnit("bytes").register(meterRegistry);
+    }
+
+    public boolean isEnabled() {
+        return enabled && slotCount > 0;
+    }
+
+    public int blockSize() {
+        return blockSize;
+    }
+
+    public record BlockKey(String eTag, long index) {}
+
+    /**
+     * A pinned block. {@link #release(Block)} must be called once the caller is done with it.
+     */
+    public final class Block {
+
+        private final Entry entry;
+
+        private Block(Entry entry) {
+            this.entry = entry;
+        }
+
+        public int length() {
+            return entry.length;
+        }
+
+        /**
+         * Copies {@code length} bytes starting at {@code offset} within the block into {@code target}.
+         */
+        public void copyTo(int offset, byte[] target, int targetOffset, int length) {
+            segment(entry.slot).get(position(entry.slot) + offset, target, targetOffset, length);
+        }
+
+        /**
+         * Fills a block obtained from {@link #reserve(BlockKey)}, before {@link #publish(Block, int)}.
+         */
+        public void copyFrom(int offset, byte[] source, int sourceOffset, int length) {
+            segment(entry.slot).put(position(entry.slot) + offset, source, sourceOffset, length);
+        }
+    }
+
+    /**
+     * Returns the cached block, pinned, or {@code null} on a miss. Either way the access counts towards the
+     * key's frequency.
+     */
+    public synchronized Block acquire(BlockKey key) {
+        sketch.increment(key);
+        Entry entry = window.get(key);
+        if (entry == null) {
+            entry = main.get(key);
+        }
+        if (entry == null) {
+            misses.incrementAndGet();
+            return null;
+        }
+        hits.incrementAndGet();
+        entry.pins++;
+        return new Block(entry);
+    }
+
+    public synchronized boolean contains(BlockKey key) {
+        return window.containsKey(key) || main.containsKey(key);
+    }
+
+    /**
+     * Claims a slot for a block about to be fetched, evicting if needed. Returns {@code null} when the block
+     * is already cached or being filled by another reader, or when every slot is pinned.
+     */
+    public synchronized Block reserve(BlockKey key) {
+        if (contains(key) || filling.containsKey(key)) {
+            return null;
+        }
+        int slot = takeSlot();
+        if (slot < 0) {
+            return null;
+        }
+        Entry entry = new Entry(key, slot);
+        entry.pins = 1;
+        filling.put(key, entry);
+        return new Block(entry);
+    }
+
+    /**
+     * Makes a filled block visible to other readers. It stays pinned for the caller.
+     */
+    public synchronized void publish(Block block, int length) {
+        Entry entry = block.entry;
+        entry.length = length;
+        filling.remove(entry.key);
+        window.put(entry.key, entry);
+        // Until the cache first fills up, the window's overflow moves straight into the main region
+        while (window.size() > windowCapacity && main.size() < mainCapacity) {
+            Entry eldest = window.values().iterator().next();
+            window.remove(eldest.key);
+            main.put(eldest.key, eldest);
+        }
+    }
+
+    public synchronized void release(Block block) {
+        Entry entry = block.entry;
+        entry.pins--;
+        // A reservation given up before publish returns its slot
+        if (entry.pins == 0 && filling.get(entry.key) == entry) {
+            filling.remove(entry.key);
+            freeSlots[freeCount++] = entry.slot;
+        }
+    }
+
+    /**
+     * Frees a slot if none is free: the window's oldest block (the candidate) duels the main region's oldest
+     * (the victim) on estimated frequency, and the loser is evicted.
+     */
+    private int takeSlot() {
+        if (freeCount == 0) {
+            Entry candidate = window.size() >= windowCapacity ? eldestUnpinned(window) : null;
+            Entry victim = eldestUnpinned(main);
+            if (candidate != null && victim != null) {
+                if (sketch.frequency(candidate.key) > sketch.frequency(victim.key)) {
+                    evict(victim, main);
+                    window.remove(candidate.key);
+                    main.put(candidate.key, candidate);
+                } else {
+                    rejections.incrementAndGet();
+                    evict(candidate, window);
+                }
+            } else if (victim != null) {
+                evict(victim, main);
+            } else {
+                Entry fallback = candidate != null ? candidate : eldestUnpinned(window);
+                if (fallback == null) {
+                    return -1;
+                }
+                evict(fallback, window);
+            }
+        }
+        return freeSlots[--freeCount];
+    }
+
+    private void evict(Entry entry, Map<BlockKey, Entry> region) {
+        region.remove(entry.key);
+        freeSlots[freeCount++] = entry.slot;
+        evictions.incrementAndGet();
+    }
+
+    private static Entry eldestUnpinned(LinkedHashMap<BlockKey, Entry> region) {
+        for (Entry entry : region.values()) {
+            if (entry.pins == 0) {
+                return entry;
+            }
+        }
+        return null;
+    }
+
+    private ByteBuffer segment(int slot) {
+        return segments[slot / slotsPerSegment];
+    }
+
+    private int position(int slot) {
+        return (slot % slotsPerSegment) * blockSize;
+    }
+
+    private synchronized int usedSlots() {
+        return slotCount - freeCount;
+    }
+
+    private static final class Entry {
+
+        private final BlockKey key;
+        private final int slot;
+        private int length;
+        private int pins;
+
+        private Entry(BlockKey key, int slot) {
+            this.key = key;
+            this.slot = slot;
+        }
+    }
+
+    /**
+     * Count-min sketch of access frequency with 4-bit saturating counters, halved every {@code 10 * capacity}
+     * accesses so that old popularity fades.
+     */
+    private static final class FrequencySketch {
+
+        private static final int[] SEEDS = {0x97cb3127, 0xab7e1a4d, 0x5c6cc6f5, 0x3f9e2a1b};
+        private static final int MAX_COUNT = 15;
+
+        private final byte[][] counters;
+        private final int mask;
+        private final int sampleSize;
+        private int additions;
+
+        FrequencySketch(int capacity) {
+            int width = Integer.highestOneBit(Math.max(16, capacity * 4 - 1)) << 1;
+            this.counters = new byte[SEEDS.length][width];
+            this.mask = width - 1;
+            this.sampleSize = Math.max(10, capacity * 10);
+        }
+
+        void increment(BlockKey key) {
+            int hash = spread(key.hashCode());
+            for (int row = 0; row < SEEDS.length; row++) {
+                int index = index(hash, row);
+                if (counters[row][index] < MAX_COUNT) {
+                    counters[row][index]++;
+                }
+            }
+            if (++additions >= sampleSize) {
+                for (byte[] row : counters) {
+                    for (int i = 0; i < row.length; i++) {
+                        row[i] >>= 1;
+                    }
+                }
+                additions /= 2;
+            }
+        }
+
+        int frequency(BlockKey key) {
+            int hash = spread(key.hashCode());
+            int frequency = MAX_COUNT;
+            for (int row = 0; row < SEEDS.length; row++) {
+                frequency = Math.min(frequency, counters[row][index(hash, row)]);
+            }
+            return frequency;
+        }
+
+        private int index(int hash, int row) {
+            int h = hash * SEEDS[row];
+            return (h ^ (h >>> 17)) & mask;
+        }
+
+        private static int spread(int hash) {
+            int h = hash * 0x9e3779b9;
+            return h ^ (h >>> 16);
+        }
+    }
+}
@@ -0,0 +1,190 @@
+package com.student.webui.service;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Reads bytes {@code start..end} of one version of a file, block by block: cached blocks are copied from the
+ * {@link BlockCache}, and each run of consecutive missing blocks is fetched with a single ranged request,
+ * storing the blocks as they arrive. A block the cache cannot take is passed through uncached.
+ */
+class BlockCacheInputStream extends InputStream {
+
+    /**
+     * Opens an upstream stream for bytes {@code from..to} (inclusive) of the same file version.
+     */
+    @FunctionalInterface
+    interface RangeFetcher {
+        InputStream open(long from, long to) throws IOException;
+    }
+
+    private static final int COPY_BUFFER_SIZE = 16 * 1024;
+
+    private final BlockCache blockCache;
+    private final String eTag;
+    private final long length;
+    private final long end;
+    private final int blockSize;
+    private final long lastBlock;
+    private final RangeFetcher fetcher;
+
+    private long position;
+    private long blockIndex = -1;
+    private BlockCache.Block block;
+
+    private InputStream upstream;
+    private long upstreamPosition;
+    private long upstreamEnd;
+    private byte[] copyBuffer;
+
+    BlockCacheInputStream(BlockCache blockCache, String eTag, long length, long start, long end, RangeFetcher fetcher) {
+        this.blockCache = blockCache;
+        this.eTag = eTag;
+        this.length = length;
+        this.position = start;
+        this.end = end;
+        this.blockSize = blockCache.blockSize();
+        this.lastBlock = end / blockSize;
+        this.fetcher = fetcher;
+    }
+
+    @Override
+    public int read() throws IOException {
+        byte[] single = new byte[1];
+        return read(single, 0, 1) == -1 ? -1 : single[0] & 0xff;
+    }
+
+    @Override
+    public int read(byte[] buffer, int offset, int len) throws IOException {
+        if (position > end) {
+            return -1;
+        }
+        if (len == 0) {
+            return 0;
+        }
+
+        long index = position / blockSize;
+        if (index != blockIndex) {
+            releaseBlock();
+            blockIndex = index;
+            block = blockCache.acquire(new BlockCache.BlockKey(eTag, index));
+            if (block == null) {
+                block = fetchBlock(index);
+            }
+        }
+
+        long remaining = end - position + 1;
+        if (block == null) {
+            // Not cacheable right now: pass the upstream bytes straight through
+            skipUpstreamTo(position);
+            int read = upstream.read(buffer, offset, (int) Math.min(len, remaining));
+            if (read == -1) {
+                throw new EOFException("Upstream ended at byte " + position + " of " + length);
+            }
+            upstreamPosition += read;
+            position += read;
+            return read;
+        }
+
+        int blockOffset = (int) (position - index * blockSize);
+        int count = (int) Math.min(Math.min(len, block.length() - blockOffset), remaining);
+        block.copyTo(blockOffset, buffer, offset, count);
+        position += count;
+        return count;
+    }
+
+    /**
+     * Reads block {@code index} from upstream into a reserved cache slot. Returns {@code null} when no slot
+     * was available, leaving the upstream positioned at the start of the block.
+     */
+    private BlockCache.Block fetchBlock(long index) throws IOException {
+        long start = index * blockSize;
+        int blockLength = (int) Math.min(blockSize, length - start);
+        ensureUpstream(index);
+
+        BlockCache.Block reserved = blockCache.reserve(new BlockCache.BlockKey(eTag, index));
+        if (reserved == null) {
+            return null;
+        }
+        try {
+            skipUpstreamTo(start);
+            if (copyBuffer == null) {
+                copyBuffer = new byte[COPY_BUFFER_SIZE];
+            }
+            int filled = 0;
+            while (filled < blockLength) {
+                int read = upstream.read(copyBuffer, 0, Math.min(copyBuffer.length, blockLength - filled));
+                if (read == -1) {
+                    throw new EOFException("Upstream ended at byte " + (start + filled) + " of " + length);
+                }
+                reserved.copyFrom(filled, copyBuffer, 0, read);
+                filled += read;
+            }
+            upstreamPosition += filled;
+            blockCache.publish(reserved, blockLength);
+            return reserved;
+        } catch (IOException | RuntimeException e) {
+            blockCache.release(reserved);
+            throw e;
+        }
+    }
+
+    /**
+     * Opens one ranged request covering block {@code index} and the missing blocks right after it, unless
+     * the current one already reaches that block.
+     */
+    private void ensureUpstream(long index) throws IOException {
+        long start = index * blockSize;
+        if (upstream != null && upstreamPosition <= start && start <= upstreamEnd) {
+            return;
+        }
+        closeUpstream();
+
+        long runEnd = index;
+        while (runEnd < lastBlock && !blockCache.contains(new BlockCache.BlockKey(eTag, runEnd + 1))) {
+            runEnd++;
+        }
+        upstreamEnd = Math.min((runEnd + 1) * blockSize, length) - 1;
+        upstream = fetcher.open(start, upstreamEnd);
+        upstreamPosition = start;
+    }
+
+    private void skipUpstreamTo(long target) throws IOException {
+        if (upstream == null || upstreamPosition > target || target > upstreamEnd) {
+            closeUpstream();
+            ensureUpstream(target / blockSize);
+        }
+        while (upstreamPosition < target) {
+            long skipped = upstream.skip(target - upstreamPosition);
+            if (skipped <= 0) {
+                if (upstream.read() == -1) {
+                    throw new EOFException("Upstream ended at byte " + upstreamPosition + " of " + length);
+                }
+                skipped = 1;
+            }
+            upstreamPosition += skipped;
+        }
+    }
+
+    private void releaseBlock() {
+        if (block != null) {
+            blockCache.release(block);
+            block = null;
+        }
+    }
+
+    private void closeUpstream() throws IOException {
+        if (upstream != null) {
+            InputStream current = upstream;
+            upstream = null;
+            current.close();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        releaseBlock();
+        closeUpstream();
+    }
+}
@@ -1,5 +1,8 @@
 package com.student.webui.service;
 
+import com.student.common.transfer.MemoryBudgetExceededException;
+import com.student.common.transfer.SingleFlight;
+import com.student.common.transfer.StreamRelay;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.beans.factory.annotation.Value;
@@ -10,9 +13,23 @@ import org.springframework.core.io.ByteArrayResource;
 import org.springframework.core.io.InputStreamResource;
 import org.springframework.core.io.Resource;
 import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpRange;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.HttpStatusCode;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
+import org.springframework.http.StreamingHttpOutputMessage;
+import org.springframework.http.client.ClientHttpResponse;
 
+import java.io.IOException;
 import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
 
 @Slf4j
 @Service
@@ -20,6 +37,10 @@ public class FileGatewayService {
 
     private final RestClient streamingRestClient;
     private final RestClient restClient;
+    private final SingleFlight singleFlight;
+    private final UpstreamValidators upstreamValidators;
+    private final BlockCache blockCache;
+    private final StreamRelay streamRelay;
 
     @Value("${student.service.download-endpoint}")
     private String downloadEndpoint;
@@ -30,44 +51,379 @@ public class FileGatewayService {
     @Value("${student.service.download-resource-endpoint}")
     private String downloadResourceEndpoint;
 
+    @Value("${student.service.bundle-endpoint}")
+    private String bundleEndpoint;
+
+    @Value("${student.service.lines-endpoint}")
+    private String linesEndpoint;
+
+    @Value("${student.service.upload-endpoint}")
+    private String uploadEndpoint;
+
     public FileGatewayService(
             @Qualifier("streamingRestClient") RestClient streamingRestClient,
-            RestClient restClient) {
+            RestClient restClient,
+            SingleFlight singleFlight,
+            UpstreamValidators upstreamValidators,
+            BlockCache blockCache,
+            StreamRelay streamRelay) {
         this.streamingRestClient = streamingRestClient;
         this.restClient = restClient;
+        this.singleFlight = singleFlight;
+        this.upstreamValidators = upstreamValidators;
+        this.blockCache = blockCache;
+        this.streamRelay = streamRelay;
+    }
+
+    public record StreamingFile(InputStream inputStream, HttpHeaders upstreamHeaders, HttpStatusCode statusCode) {}
+
+    /**
+     * Conditional request headers forwarded upstream; either may be {@code null}.
+     */
+    public record Conditions(String ifNoneMatch, String ifModifiedSince) {
+
+        public static final Conditions NONE = new Conditions(null, null);
+
+        boolean isPresent() {
+            return ifNoneMatch != null || ifModifiedSince != null;
+        }
     }
 
-    public record StreamingFile(InputStream inputStream, HttpHeaders upstreamHeaders) {}
+    /**
+     * Forwards the download, passing {@code Range} / {@code If-Range} through so student-service can
+     * answer with 206 Partial Content, and {@code If-None-Match} / {@code If-Modified-Since} so it can answer
+     * 304. Neither a 416 nor a 304 from upstream is treated as an error; both are relayed as-is.
+     * The optional {@code mode} selects student-service's single or parallel S3 fetch.
+     * <p>
+     * {@code Accept-Encoding} is forwarded too, and a gzip or zstd body is relayed still encoded.
+     * <p>
+     * Full downloads are coalesced through {@link SingleFlight}, so identical in-flight requests share one
+     * upstream connection; ranged and conditional requests always get their own.
+     * <p>
+     * With the {@link BlockCache} enabled, single-range reads without an explicit {@code mode} are assembled from
+     * cached blocks instead, fetching only the missing ones. Full downloads are not: student-service answers
+     * those from its disk cache, coalesced and in parallel mode where configured, none of which applies to the
+     * ranged GETs that fill blocks.
+     */
+    public StreamingFile downloadFile(String range, String ifRange, Conditions conditions, String mode, String acceptEncoding) {
+        if (blockCache.isEnabled() && range != null && mode == null && !conditions.isPresent()) {
+            StreamingFile cached = openFromBlockCache(range, ifRange);
+            if (cached != null) {
+                return cached;
+            }
+        }
+
+        if (range != null || ifRange != null || conditions.isPresent()) {
+            return fetchFile(range, ifRange, conditions, mode, acceptEncoding);
+        }
+
+        try {
+            String key = "download?mode=" + mode + "&accept-encoding=" + acceptEncoding;
+            SingleFlight.Shared<StreamingFile> shared = singleFlight.open(key, () -> {
+                StreamingFile streamingFile = fetchFile(null, null, Conditions.NONE, mode, acceptEncoding);
+                return new SingleFlight.Source<>(streamingFile, streamingFile.inputStream(),
+                        streamingFile.upstreamHeaders().getContentLength());
+            });
+            StreamingFile upstream = shared.metadata();
+            return new StreamingFile(shared.body(), upstream.upstreamHeaders(), upstream.statusCode());
+        } catch (RuntimeException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new RuntimeException("Failed to download file from student-service", e);
+        }
+    }
 
-    public StreamingFile downloadFile() {
-        log.info("Gateway: Forwarding download request to student-service (pooled connection)");
+    private StreamingFile fetchFile(String range, String ifRange, Conditions conditions, String mode, String acceptEncoding) {
+        log.info("Gateway: Forwarding download request to student-service (pooled connection), range={}, mode={}", range, mode);
 
         return streamingRestClient
                 .get()
+                .uri(uriBuilder -> uriBuilder
+                        .path(downloadEndpoint)
+                        .queryParamIfPresent("mode", Optional.ofNullable(mode))
+                        .build())
+                .headers(headers -> {
+                    if (range != null) {
+                        headers.set(HttpHeaders.RANGE, range);
+                    }
+                    if (ifRange != null) {
+                        headers.set(HttpHeaders.IF_RANGE, ifRange);
+                    }
+                    if (conditions.ifNoneMatch() != null) {
+                        headers.set(HttpHeaders.IF_NONE_MATCH, conditions.ifNoneMatch());
+                    }
+                    if (conditions.ifModifiedSince() != null) {
+                        headers.set(HttpHeaders.IF_MODIFIED_SINCE, conditions.ifModifiedSince());
+                    }
+                    if (acceptEncoding != null) {
+                        headers.set(HttpHeaders.ACCEPT_ENCODING, acceptEncoding);
+                    }
+                })
+                .exchange((request, response) -> {
+                    HttpStatusCode statusCode = response.getStatusCode();
+                    if (statusCode.isError() && statusCode.value() != HttpStatus.REQUESTED_RANGE_NOT_SATISFIABLE.value()) {
+                        log.error("Gateway: Error response from student-service: {}", statusCode);
+                        response.close();
+                        throw new RuntimeException("Failed to download file from student-service: " + statusCode);
+                    }
+                    log.info("Gateway: Received {} from student-service, streaming to client", statusCode);
+                    upstreamValidators.record(response.getHeaders());
+                    return new StreamingFile(response.getBody(), response.getHeaders(), statusCode);
+                }, false);
+    }
+
+    /**
+     * HEAD of the download, answered by student-service from its metadata index without fetching the body.
+     * With {@code acceptEncoding}, the headers describe the encoded body a GET would get.
+     */
+    public HttpHeaders headFile(String acceptEncoding) {
+        log.info("Gateway: Forwarding HEAD request to student-service");
+
+        return restClient
+                .head()
                 .uri(downloadEndpoint)
+                .headers(headers -> {
+                    if (acceptEncoding != null) {
+                        headers.set(HttpHeaders.ACCEPT_ENCODING, acceptEncoding);
+                    }
+                })
                 .exchange((request, response) -> {
                     if (response.getStatusCode().isError()) {
                         log.error("Gateway: Error response from student-service: {}", response.getStatusCode());
-                        throw new RuntimeException("Failed to download file from student-service: " + response.getStatusCode());
+                        throw new RuntimeException("Failed to read file metadata from student-service: " + response.getStatusCode());
+                    }
+                    upstreamValidators.record(response.getHeaders());
+                    return response.getHeaders();
+                });
+    }
+
+    /**
+     * Serves the requested range through the block cache. Returns {@code null} for what the cache does not handle
+     * and student-service should answer itself: multiple or unsatisfiable ranges, an {@code If-Range} other than
+     * the current ETag, or a file without ETag or length. Ranges are always served as stored.
+     */
+    private StreamingFile openFromBlockCache(String range, String ifRange) {
+        HttpHeaders metadata = headFile(null);
+        if (metadata.containsKey(HttpHeaders.CONTENT_ENCODING)) {
+            return null;
+        }
+        String eTag = metadata.getETag();
+        long length = metadata.getContentLength();
+        if (eTag == null || length <= 0) {
+            return null;
+        }
+
+        long start = 0;
+        long end = length - 1;
+        HttpStatus status = HttpStatus.OK;
+        if (range != null && (ifRange == null || ifRange.equals(eTag))) {
+            List<HttpRange> httpRanges;
+            try {
+                httpRanges = HttpRange.parseRanges(range);
+            } catch (IllegalArgumentException e) {
+                httpRanges = List.of();
+            }
+            if (httpRanges.size() > 1) {
+                return null;
+            }
+            if (httpRanges.size() == 1) {
+                start = httpRanges.get(0).getRangeStart(length);
+                if (start >= length) {
+                    return null;
+                }
+                end = httpRanges.get(0).getRangeEnd(length);
+                status = HttpStatus.PARTIAL_CONTENT;
+            }
+        } else if (range != null) {
+            return null;
+        }
+
+        HttpHeaders headers = new HttpHeaders();
+        for (String name : List.of(HttpHeaders.CONTENT_TYPE, HttpHeaders.CONTENT_DISPOSITION,
+                HttpHeaders.ETAG, HttpHeaders.LAST_MODIFIED)) {
+            String value = metadata.getFirst(name);
+            if (value != null) {
+                headers.set(name, value);
+            }
+        }
+        if (metadata.getVary().contains(HttpHeaders.ACCEPT_ENCODING)) {
+            headers.setVary(List.of(HttpHeaders.ACCEPT_ENCODING));
+        }
+        headers.set(HttpHeaders.ACCEPT_RANGES, "bytes");
+        headers.setContentLength(end - start + 1);
+        if (status == HttpStatus.PARTIAL_CONTENT) {
+            headers.set(HttpHeaders.CONTENT_RANGE, "bytes " + start + "-" + end + "/" + length);
+        }
+
+        log.info("Gateway: Serving bytes {}-{} of {} through the block cache, eTag={}", start, end, length, eTag);
+        InputStream body = new BlockCacheInputStream(blockCache, eTag, length, start, end,
+                (from, to) -> fetchBlocks(eTag, from, to));
+        return new StreamingFile(body, headers, status);
+    }
+
+    /**
+     * Ranged GET for missing blocks. {@code If-Range} makes student-service send the whole file instead if
+     * the ETag changed, which is rejected here rather than mixing versions in the cache.
+     */
+    private InputStream fetchBlocks(String eTag, long from, long to) {
+        log.debug("Gateway: Fetching bytes {}-{} for the block cache", from, to);
+
+        return streamingRestClient
+                .get()
+                .uri(downloadEndpoint)
+                .headers(headers -> {
+                    headers.set(HttpHeaders.RANGE, "bytes=" + from + "-" + to);
+                    headers.set(HttpHeaders.IF_RANGE, eTag);
+                })
+                .exchange((request, response) -> {
+                    if (response.getStatusCode().value() != HttpStatus.PARTIAL_CONTENT.value()
+                            || !eTag.equals(response.getHeaders().getETag())) {
+                        log.warn("Gateway: Expected 206 for eTag {}, got {} for eTag {}",
+                                eTag, response.getStatusCode(), response.getHeaders().getETag());
+                        response.close();
+                        throw new RuntimeException("File changed while reading it through the block cache");
+                    }
+                    return response.getBody();
+                }, false);
+    }
+
+    /**
+     * Forwards a ZIP bundle request and returns the archive as it streams. A 4xx from upstream (bad key list)
+     * is relayed with its body rather than treated as an error.
+     */
+    public StreamingFile downloadBundle(List<String> keys, String prefix) {
+        log.info("Gateway: Forwarding bundle request to student-service, keys={}, prefix={}", keys, prefix);
+
+        return streamingRestClient
+                .get()
+                .uri(uriBuilder -> uriBuilder
+                        .path(bundleEndpoint)
+                        .queryParamIfPresent("key", Optional.ofNullable(keys))
+                        .queryParamIfPresent("prefix", Optional.ofNullable(prefix))
+                        .build())
+                .exchange((request, response) -> {
+                    HttpStatusCode statusCode = response.getStatusCode();
+                    if (statusCode.is5xxServerError()) {
+                        log.error("Gateway: Error response from student-service: {}", statusCode);
+                        response.close();
+                        throw new RuntimeException("Failed to download bundle from student-service: " + statusCode);
+                    }
+                    log.info("Gateway: Received {} from student-service, streaming bundle to client", statusCode);
+                    return new StreamingFile(response.getBody(), response.getHeaders(), statusCode);
+                }, false);
+    }
+
+    /**
+     * Forwards a line query (head, tail or grep) and returns the lines as they stream. Parameters go through URI
+     * variables so regex characters such as {@code +} and braces reach student-service unchanged. A 4xx from
+     * upstream (bad operation or pattern) is relayed with its body.
+     */
+    public StreamingFile queryLines(String operation, Integer count, String pattern, Boolean regex, Boolean ignoreCase) {
+        log.info("Gateway: Forwarding line query to student-service, op={}, count={}, pattern={}", operation, count, pattern);
+
+        Map<String, Object> params = new LinkedHashMap<>();
+        params.put("op", operation);
+        params.put("count", count);
+        params.put("pattern", pattern);
+        params.put("regex", regex);
+        params.put("ignore-case", ignoreCase);
+        params.values().removeIf(Objects::isNull);
+
+        return streamingRestClient
+                .get()
+                .uri(uriBuilder -> {
+                    uriBuilder.path(linesEndpoint);
+                    params.keySet().forEach(name -> uriBuilder.queryParam(name, "{" + name + "}"));
+                    return uriBuilder.build(params);
+                })
+                .exchange((request, response) -> {
+                    HttpStatusCode statusCode = response.getStatusCode();
+                    if (statusCode.is5xxServerError()) {
+                        log.error("Gateway: Error response from student-service: {}", statusCode);
+                        response.close();
+                        throw new RuntimeException("Failed to query lines from student-service: " + statusCode);
                     }
-                    log.info("Gateway: Received response from student-service, streaming to client");
-                    return new StreamingFile(response.getBody(), response.getHeaders());
+                    log.info("Gateway: Received {} from student-service, streaming lines to client", statusCode);
+                    return new StreamingFile(response.getBody(), response.getHeaders(), statusCode);
                 }, false);
     }
 
+    public record UploadResponse(HttpStatusCode statusCode, HttpHeaders upstreamHeaders, String body) {}
+
+    /**
+     * Streams the client's request body to student-service's upload endpoint as it arrives, without buffering it.
+     * The upstream answer is returned as-is, 4xx included (bad key); a 5xx is an error, except a 503 with
+     * {@code Retry-After} from student-service's memory budget, which is rethrown as {@link MemoryBudgetExceededException}.
+     */
+    public UploadResponse uploadFile(String key, String contentType, long contentLength, InputStream body) {
+        log.info("Gateway: Forwarding upload request to student-service, key={}, contentLength={}", key, contentLength);
+
+        StreamingHttpOutputMessage.Body requestBody = outputStream -> streamRelay.relay(body, outputStream);
+        return streamingRestClient
+                .put()
+                .uri(uriBuilder -> uriBuilder
+                        .path(uploadEndpoint)
+                        .queryParam("key", key)
+                        .build())
+                .contentType(contentType != null ? MediaType.parseMediaType(contentType) : MediaType.APPLICATION_OCTET_STREAM)
+                .headers(headers -> {
+                    if (contentLength >= 0) {
+                        headers.setContentLength(contentLength);
+                    }
+                })
+                .body(requestBody)
+                .exchange((request, response) -> {
+                    rejectIfBusy(response);
+                    HttpStatusCode statusCode = response.getStatusCode();
+                    if (statusCode.is5xxServerError()) {
+                        log.error("Gateway: Error response from student-service: {}", statusCode);
+                        response.close();
+                        throw new RuntimeException("Failed to upload file to student-service: " + statusCode);
+                    }
+                    log.info("Gateway: Received {} from student-service for upload of {}", statusCode, key);
+                    try (InputStream responseBody = response.getBody()) {
+                        return new UploadResponse(statusCode, response.getHeaders(),
+                                new String(responseBody.readAllBytes(), StandardCharsets.UTF_8));
+                    }
+                });
+    }
+
     public record BytesFile(byte[] data, HttpHeaders upstreamHeaders) {}
 
-    public BytesFile downloadFileAsBytes() {
+    /**
+     * Opens the byte[] download without reading the body yet, so the caller can check the upstream
+     * {@code Content-Length} against the memory budget before deciding to buffer it. A 503 from student-service's
+     * own memory budget is rethrown as {@link MemoryBudgetExceededException} with its {@code Retry-After}.
+     */
+    public StreamingFile openBytesDownload() {
         log.info("Gateway: Forwarding byte[] download request to student-service (default connection)");
 
-        ResponseEntity<byte[]> response = restClient
+        return restClient
                 .get()
                 .uri(downloadBytesEndpoint)
-                .retrieve()
-                .toEntity(byte[].class);
+                .exchange((request, response) -> {
+                    rejectIfBusy(response);
+                    if (response.getStatusCode().isError()) {
+                        log.error("Gateway: Error response from student-service: {}", response.getStatusCode());
+                        response.close();
+                        throw new RuntimeException("Failed to download file from student-service: " + response.getStatusCode());
+                    }
+                    return new StreamingFile(response.getBody(), response.getHeaders(), response.getStatusCode());
+                }, false);
+    }
 
-        log.info("Gateway: Received byte[] from student-service, size={} bytes", response.getBody().length);
-        return new BytesFile(response.getBody(), response.getHeaders());
+    public BytesFile readAllBytes(StreamingFile streamingFile) {
+        try (InputStream inputStream = streamingFile.inputStream()) {
+            byte[] data = inputStream.readAllBytes();
+            log.info("Gateway: Received byte[] from student-service, size={} bytes", data.length);
+            return new BytesFile(data, streamingFile.upstreamHeaders());
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to read file from student-service", e);
+        }
+    }
+
+    public BytesFile downloadFileAsBytes() {
+        return readAllBytes(openBytesDownload());
     }
 
     public record FileResource(Resource resource, HttpHeaders upstreamHeaders) {}
@@ -79,8 +435,10 @@ public class FileGatewayService {
                 .get()
                 .uri(downloadResourceEndpoint)
                 .exchange((request, response) -> {
+                    rejectIfBusy(response);
                     if (response.getStatusCode().isError()) {
                         log.error("Gateway: Error response from student-service: {}", response.getStatusCode());
+                        response.close();
                         throw new RuntimeException("Failed to download file from student-service: " + response.getStatusCode());
                     }
 
@@ -88,22 +446,33 @@ public class FileGatewayService {
 
                     log.info("Gateway: Streaming as Resource");
                     return new FileResource(resource, response.getHeaders());
-                }, true);
+                }, false);
     }
 
     public FileResource downloadFileAsByteArrayResource() {
         log.info("Gateway: Forwarding ByteArrayResource download request to student-service (default connection)");
+        return toByteArrayResource(readAllBytes(openBytesDownload()));
+    }
 
-        ResponseEntity<byte[]> response = restClient
-                .get()
-                .uri(downloadBytesEndpoint)
-                .retrieve()
-                .toEntity(byte[].class);
-
-        byte[] fileData = response.getBody();
+    public FileResource toByteArrayResource(BytesFile bytesFile) {
+        log.info("Gateway: Wrapping byte[] as ByteArrayResource, size={} bytes", bytesFile.data().length);
+        return new FileResource(new ByteArrayResource(bytesFile.data()), bytesFile.upstreamHeaders());
+    }
 
-        log.info("Gateway: Wrapping byte[] as ByteArrayResource, size={} bytes", fileData.length);
-        return new FileResource(new ByteArrayResource(fileData), response.getHeaders());
+    /**
+     * Turns a 503 with {@code Retry-After} into {@link MemoryBudgetExceededException}, so the client is told to
+     * come back later rather than getting a 500. A 503 without a delay in seconds is left to the caller's error path.
+     */
+    private static void rejectIfBusy(ClientHttpResponse response) throws IOException {
+        String retryAfter = response.getHeaders().getFirst(HttpHeaders.RETRY_AFTER);
+        if (response.getStatusCode().value() != HttpStatus.SERVICE_UNAVAILABLE.value()
+                || retryAfter == null || !retryAfter.trim().matches("\\d+")) {
+            return;
+        }
+        Duration delay = Duration.ofSeconds(Long.parseLong(retryAfter.trim()));
+        log.warn("Gateway: student-service is busy, retry after {}s", delay.toSeconds());
+        response.close();
+        throw new MemoryBudgetExceededException("student-service is busy", delay);
     }
 
 }
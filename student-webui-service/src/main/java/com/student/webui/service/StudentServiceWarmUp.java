@@ -0,0 +1,34 @@
+package com.student.webui.service;
+
+import com.student.common.http.ConnectionWarmUp;
+import com.student.common.transfer.IoThreads;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+
+/**
+ * With {@code warm-up.enabled}, HEADs the download over {@code warm-up.connections} concurrent connections of the
+ * shared {@code studentServiceRequestFactory} pool before the gateway reports ready, so the first downloads
+ * don't each open a connection to student-service.
+ */
+@Component
+public class StudentServiceWarmUp extends ConnectionWarmUp {
+
+    private final FileGatewayService fileGatewayService;
+
+    public StudentServiceWarmUp(
+            FileGatewayService fileGatewayService,
+            IoThreads ioThreads,
+            @Value("${warm-up.enabled:false}") boolean enabled,
+            @Value("${warm-up.connections:4}") int connections,
+            @Value("${warm-up.timeout:30s}") Duration timeout) {
+        super("student-service", enabled, connections, timeout, ioThreads.threadFactory("warm-up-"));
+        this.fileGatewayService = fileGatewayService;
+    }
+
+    @Override
+    protected void call() {
+        fileGatewayService.headFile(null);
+    }
+}
@@ -0,0 +1,62 @@
+package com.student.webui.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpHeaders;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * The file's validators ({@code ETag}, {@code Last-Modified}) as student-service last reported them. For
+ * {@code student.service.validators-ttl} after that, the gateway answers conditional requests on its own;
+ * later ones are forwarded upstream. A zero TTL forwards every conditional request.
+ * <p>
+ * 304s are counted as {@code gateway.not.modified}, tagged {@code source=gateway|upstream}.
+ */
+@Component
+public class UpstreamValidators {
+
+    private final Duration ttl;
+    private final AtomicReference<Snapshot> latest = new AtomicReference<>();
+
+    private final Counter answeredLocally;
+    private final Counter answeredUpstream;
+
+    public UpstreamValidators(MeterRegistry meterRegistry, @Value("${student.service.validators-ttl}") Duration ttl) {
+        this.ttl = ttl;
+        this.answeredLocally = Counter.builder("gateway.not.modified").tag("source", "gateway").register(meterRegistry);
+        this.answeredUpstream = Counter.builder("gateway.not.modified").tag("source", "upstream").register(meterRegistry);
+    }
+
+    public record Snapshot(String eTag, Instant lastModified, Instant seenAt) {}
+
+    /**
+     * Remembers the validators of an upstream response, if it carries an ETag and the file as stored. Encoded
+     * responses carry a per-coding ETag that only applies to clients accepting that coding.
+     */
+    public void record(HttpHeaders upstreamHeaders) {
+        String eTag = upstreamHeaders.getETag();
+        if (eTag == null || upstreamHeaders.containsKey(HttpHeaders.CONTENT_ENCODING)) {
+            return;
+        }
+        long lastModified = upstreamHeaders.getLastModified();
+        latest.set(new Snapshot(eTag, lastModified < 0 ? null : Instant.ofEpochMilli(lastModified), Instant.now()));
+    }
+
+    public Optional<Snapshot> fresh() {
+        Snapshot snapshot = latest.get();
+        if (snapshot == null || Duration.between(snapshot.seenAt(), Instant.now()).compareTo(ttl) >= 0) {
+            return Optional.empty();
+        }
+        return Optional.of(snapshot);
+    }
+
+    public void recordNotModified(boolean local) {
+        (local ? answeredLocally : answeredUpstream).increment();
+    }
+}
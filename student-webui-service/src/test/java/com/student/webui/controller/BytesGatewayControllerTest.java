@@ -0,0 +1,118 @@
+package com.student.webui.controller;
+
+import com.student.common.transfer.MemoryBudget;
+import com.student.common.transfer.MemoryBudgetExceededException;
+import com.student.common.transfer.StreamRelay;
+import com.student.webui.service.FileGatewayService;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.setup.MockMvcBuilders;
+
+import java.io.ByteArrayInputStream;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.List;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.content;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.header;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+class BytesGatewayControllerTest {
+
+    private static final String CONTENT = "hello";
+    private static final URI PRESIGNED = URI.create("http://localhost:9000/bucket/test.txt?X-Amz-Signature=abc");
+
+    private final FileGatewayService fileGatewayService = mock(FileGatewayService.class);
+    private MockMvc mockMvc;
+
+    @BeforeEach
+    void setUp() {
+        SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+        MemoryBudget memoryBudget = new MemoryBudget(1024, 512, 1, Duration.ofMillis(100), Duration.ofSeconds(1), meterRegistry);
+        BytesGatewayController controller = new BytesGatewayController(fileGatewayService, memoryBudget,
+                new StreamRelay(8192, 4, 64 * 1024, 100, meterRegistry));
+        mockMvc = MockMvcBuilders.standaloneSetup(controller)
+                .setControllerAdvice(new GatewayExceptionHandler())
+                .build();
+
+        when(fileGatewayService.readAllBytes(any())).thenCallRealMethod();
+        when(fileGatewayService.toByteArrayResource(any())).thenCallRealMethod();
+    }
+
+    @Test
+    void smallBodyIsBuffered() throws Exception {
+        HttpHeaders headers = new HttpHeaders();
+        headers.setContentType(MediaType.TEXT_PLAIN);
+        headers.setContentLength(CONTENT.length());
+        when(fileGatewayService.headFile(null)).thenReturn(headers);
+        when(fileGatewayService.openBytesDownload()).thenReturn(new FileGatewayService.StreamingFile(
+                new ByteArrayInputStream(CONTENT.getBytes(StandardCharsets.UTF_8)), headers, HttpStatus.OK));
+
+        mockMvc.perform(get("/api/files/download-bytes"))
+                .andExpect(status().isOk())
+                .andExpect(header().longValue(HttpHeaders.CONTENT_LENGTH, CONTENT.length()))
+                .andExpect(content().string(CONTENT));
+    }
+
+    @Test
+    void busyUpstreamIsAnswered503WithRetryAfter() throws Exception {
+        HttpHeaders headers = new HttpHeaders();
+        headers.setContentLength(CONTENT.length());
+        when(fileGatewayService.headFile(null)).thenReturn(headers);
+        when(fileGatewayService.openBytesDownload())
+                .thenThrow(new MemoryBudgetExceededException("student-service is busy", Duration.ofSeconds(7)));
+        when(fileGatewayService.downloadFileAsResource())
+                .thenThrow(new MemoryBudgetExceededException("student-service is busy", Duration.ofSeconds(7)));
+
+        for (String path : List.of("/api/files/download-bytes", "/api/files/download-resource",
+                "/api/files/download-byte-array-resource")) {
+            mockMvc.perform(get(path))
+                    .andExpect(status().isServiceUnavailable())
+                    .andExpect(header().string(HttpHeaders.RETRY_AFTER, "7"));
+        }
+    }
+
+    @Test
+    void redirectToStorageIsPassedOnForBytes() throws Exception {
+        redirectingUpstream();
+
+        mockMvc.perform(get("/api/files/download-bytes"))
+                .andExpect(status().isFound())
+                .andExpect(header().string(HttpHeaders.LOCATION, PRESIGNED.toString()))
+                .andExpect(header().string(HttpHeaders.CACHE_CONTROL, "no-store"))
+                .andExpect(content().string(""));
+        verify(fileGatewayService, never()).openBytesDownload();
+    }
+
+    @Test
+    void redirectToStorageIsPassedOnForByteArrayResource() throws Exception {
+        redirectingUpstream();
+
+        mockMvc.perform(get("/api/files/download-byte-array-resource"))
+                .andExpect(status().isFound())
+                .andExpect(header().string(HttpHeaders.LOCATION, PRESIGNED.toString()))
+                .andExpect(header().string(HttpHeaders.CACHE_CONTROL, "no-store"));
+        verify(fileGatewayService, never()).openBytesDownload();
+    }
+
+    private void redirectingUpstream() {
+        HttpHeaders headers = new HttpHeaders();
+        headers.setLocation(PRESIGNED);
+        headers.setCacheControl("no-store");
+        when(fileGatewayService.headFile(null)).thenReturn(headers);
+        when(fileGatewayService.downloadFile(null, null, FileGatewayService.Conditions.NONE, null, null))
+                .thenReturn(new FileGatewayService.StreamingFile(new ByteArrayInputStream(new byte[0]), headers, HttpStatus.FOUND));
+    }
+}
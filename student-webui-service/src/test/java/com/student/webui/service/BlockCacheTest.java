@@ -0,0 +1,137 @@
+package com.student.webui.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.util.unit.DataSize;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class BlockCacheTest {
+
+    private static final int BLOCK_SIZE = 1024;
+    private static final int SLOTS = 100;
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private final BlockCache cache = new BlockCache(meterRegistry, true, DataSize.ofBytes((long) SLOTS * BLOCK_SIZE),
+            DataSize.ofBytes(BLOCK_SIZE));
+
+    @Test
+    void servesPublishedBlocks() {
+        BlockCache.BlockKey key = new BlockCache.BlockKey("\"v1\"", 0);
+        assertThat(cache.acquire(key)).isNull();
+
+        BlockCache.Block block = cache.reserve(key);
+        byte[] data = "hello block".getBytes(StandardCharsets.UTF_8);
+        block.copyFrom(0, data, 0, data.length);
+        cache.publish(block, data.length);
+        cache.release(block);
+
+        BlockCache.Block cached = cache.acquire(key);
+        assertThat(cached).isNotNull();
+        assertThat(cached.length()).isEqualTo(data.length);
+        byte[] copy = new byte[5];
+        cached.copyTo(6, copy, 0, 5);
+        assertThat(new String(copy, StandardCharsets.UTF_8)).isEqualTo("block");
+        cache.release(cached);
+
+        assertThat(meterRegistry.get("gateway.cache.blocks.hits").functionCounter().count()).isEqualTo(1);
+        assertThat(meterRegistry.get("gateway.cache.blocks.misses").functionCounter().count()).isEqualTo(1);
+    }
+
+    @Test
+    void blockBeingFilledIsReservedOnce() {
+        BlockCache.BlockKey key = new BlockCache.BlockKey("\"v1\"", 0);
+
+        BlockCache.Block block = cache.reserve(key);
+        assertThat(cache.reserve(key)).isNull();
+        // Given up before publish: the slot goes back and the block can be fetched again
+        cache.release(block);
+        assertThat(cache.contains(key)).isFalse();
+        assertThat(cache.reserve(key)).isNotNull();
+    }
+
+    @Test
+    void scanDoesNotFlushFrequentlyUsedBlocks() {
+        List<BlockCache.BlockKey> hot = new ArrayList<>();
+        for (int i = 0; i < SLOTS; i++) {
+            hot.add(new BlockCache.BlockKey("\"hot\"", i));
+            fetch(hot.get(i));
+        }
+        for (int round = 0; round < 3; round++) {
+            hot.forEach(this::fetch);
+        }
+
+        for (int i = 0; i < SLOTS * 3; i++) {
+            fetch(new BlockCache.BlockKey("\"scan\"", i));
+        }
+
+        // All but the one that lived in the window survive the scan
+        assertThat(hot.stream().filter(cache::contains).count()).isGreaterThanOrEqualTo(SLOTS - 1);
+        assertThat(meterRegistry.get("gateway.cache.blocks.rejections").functionCounter().count())
+                .isGreaterThanOrEqualTo(SLOTS * 3 - 1);
+    }
+
+    @Test
+    void frequentNewcomerDisplacesColdBlock() {
+        for (int i = 0; i < SLOTS; i++) {
+            fetch(new BlockCache.BlockKey("\"cold\"", i));
+        }
+        BlockCache.BlockKey newcomer = new BlockCache.BlockKey("\"new\"", 0);
+        // Missed often before getting a slot, e.g. by readers that found every slot pinned
+        for (int i = 0; i < 5; i++) {
+            assertThat(cache.acquire(newcomer)).isNull();
+        }
+        fetch(newcomer);
+        fetch(new BlockCache.BlockKey("\"next\"", 0));
+
+        assertThat(cache.contains(newcomer)).isTrue();
+        assertThat(cache.contains(new BlockCache.BlockKey("\"cold\"", 0))).isFalse();
+        assertThat(meterRegistry.get("gateway.cache.blocks.evictions").functionCounter().count()).isEqualTo(2);
+    }
+
+    @Test
+    void pinnedBlocksAreNeverEvicted() {
+        List<BlockCache.Block> pinned = new ArrayList<>();
+        for (int i = 0; i < SLOTS; i++) {
+            BlockCache.BlockKey key = new BlockCache.BlockKey("\"v1\"", i);
+            BlockCache.Block block = cache.reserve(key);
+            cache.publish(block, BLOCK_SIZE);
+            pinned.add(block);
+        }
+
+        assertThat(cache.reserve(new BlockCache.BlockKey("\"v1\"", SLOTS))).isNull();
+
+        cache.release(pinned.get(SLOTS / 2));
+        assertThat(cache.reserve(new BlockCache.BlockKey("\"v1\"", SLOTS))).isNotNull();
+        assertThat(cache.contains(new BlockCache.BlockKey("\"v1\"", SLOTS / 2))).isFalse();
+        assertThat(cache.contains(new BlockCache.BlockKey("\"v1\"", 0))).isTrue();
+    }
+
+    @Test
+    void disabledCacheHasNoSlots() {
+        BlockCache disabled = new BlockCache(new SimpleMeterRegistry(), false, DataSize.ofMegabytes(1),
+                DataSize.ofBytes(BLOCK_SIZE));
+
+        assertThat(disabled.isEnabled()).isFalse();
+        assertThat(disabled.reserve(new BlockCache.BlockKey("\"v1\"", 0))).isNull();
+    }
+
+    /**
+     * What a reader does: look the block up, and on a miss fetch it into a reserved slot.
+     */
+    private void fetch(BlockCache.BlockKey key) {
+        BlockCache.Block block = cache.acquire(key);
+        if (block == null) {
+            block = cache.reserve(key);
+            if (block == null) {
+                return;
+            }
+            cache.publish(block, BLOCK_SIZE);
+        }
+        cache.release(block);
+    }
+}
@@ -0,0 +1,63 @@
+package com.student.webui.service;
+
+import com.student.common.transfer.MemoryBudgetExceededException;
+import com.student.common.transfer.SingleFlight;
+import com.student.common.transfer.StreamRelay;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.mock.http.client.MockClientHttpRequest;
+import org.springframework.mock.http.client.MockClientHttpResponse;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.web.client.RestClient;
+
+import java.time.Duration;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.Mockito.mock;
+
+class FileGatewayServiceTest {
+
+    private MockClientHttpResponse upstreamResponse;
+    private FileGatewayService fileGatewayService;
+
+    @BeforeEach
+    void setUp() {
+        RestClient restClient = RestClient.builder()
+                .baseUrl("http://student-service")
+                .requestFactory((uri, method) -> {
+                    MockClientHttpRequest request = new MockClientHttpRequest(method, uri);
+                    request.setResponse(upstreamResponse);
+                    return request;
+                })
+                .build();
+        fileGatewayService = new FileGatewayService(restClient, restClient, mock(SingleFlight.class),
+                mock(UpstreamValidators.class), mock(BlockCache.class), mock(StreamRelay.class));
+        ReflectionTestUtils.setField(fileGatewayService, "downloadBytesEndpoint", "/api/files/download-bytes");
+        ReflectionTestUtils.setField(fileGatewayService, "downloadResourceEndpoint", "/api/files/download-resource");
+    }
+
+    @Test
+    void busyUpstreamIsRelayedWithItsRetryAfter() {
+        upstreamResponse = new MockClientHttpResponse(new byte[0], HttpStatus.SERVICE_UNAVAILABLE);
+        upstreamResponse.getHeaders().set(HttpHeaders.RETRY_AFTER, "7");
+
+        assertThatThrownBy(() -> fileGatewayService.openBytesDownload())
+                .isInstanceOfSatisfying(MemoryBudgetExceededException.class,
+                        e -> assertThat(e.getRetryAfter()).isEqualTo(Duration.ofSeconds(7)));
+        assertThatThrownBy(() -> fileGatewayService.downloadFileAsResource())
+                .isInstanceOfSatisfying(MemoryBudgetExceededException.class,
+                        e -> assertThat(e.getRetryAfter()).isEqualTo(Duration.ofSeconds(7)));
+    }
+
+    @Test
+    void unavailableWithoutRetryAfterIsAnError() {
+        upstreamResponse = new MockClientHttpResponse(new byte[0], HttpStatus.SERVICE_UNAVAILABLE);
+
+        assertThatThrownBy(() -> fileGatewayService.openBytesDownload())
+                .isNotInstanceOf(MemoryBudgetExceededException.class)
+                .hasMessageContaining("503");
+    }
+}